@@ -0,0 +1,166 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Row;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Buffers mutations and writes them in batches (e.g. Table#batch) on a pool of flush threads.
+ * Batches are cut by size in bytes or number of mutations; {@link #write(Collection)} blocks if all flush threads
+ * are busy and the same number of batches is waiting (backpressure).
+ * Created by mh719 on 06/04/2018.
+ */
+public class HBaseBatchWriter implements AutoCloseable {
+
+    /**
+     * Submits one batch to HBase.
+     */
+    @FunctionalInterface
+    public interface BatchSubmitter {
+        void submit(List<Row> batch) throws IOException, InterruptedException;
+    }
+
+    private final BatchSubmitter submitter;
+    private final long bufferSize;
+    private final int batchLimit;
+    private final ObjLongConsumer<String> counter;
+    private final ExecutorService pool;
+    private final Semaphore pending;
+    private final int maxPending;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private List<Row> buffer = new ArrayList<>();
+    private long bufferBytes = 0;
+
+    /**
+     * @param submitter writes one batch.
+     * @param threads number of flush threads.
+     * @param bufferSize flush when buffered mutations reach this size in bytes.
+     * @param batchLimit flush when this number of mutations is buffered.
+     * @param counter receives counter name and increment.
+     */
+    public HBaseBatchWriter(BatchSubmitter submitter, int threads, long bufferSize, int batchLimit,
+                            ObjLongConsumer<String> counter) {
+        this.submitter = submitter;
+        this.bufferSize = bufferSize;
+        this.batchLimit = Math.max(1, batchLimit);
+        this.counter = counter;
+        int nThreads = Math.max(1, threads);
+        this.maxPending = nThreads * 2;
+        this.pending = new Semaphore(this.maxPending);
+        this.pool = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            t.setName("HBaseBatchWriter-flush-thread");
+            return t;
+        });
+    }
+
+    /**
+     * Buffer mutations and submit full batches.
+     * @param mutations mutations to write - null entries are ignored.
+     * @throws IOException if a previous batch failed.
+     * @throws InterruptedException if interrupted while waiting for a free flush thread.
+     */
+    public synchronized void write(Collection<? extends Mutation> mutations) throws IOException, InterruptedException {
+        checkFailure();
+        for (Mutation mutation : mutations) {
+            if (null == mutation) {
+                continue;
+            }
+            this.buffer.add(mutation);
+            this.bufferBytes += mutation.heapSize();
+            if (this.bufferBytes >= this.bufferSize || this.buffer.size() >= this.batchLimit) {
+                dispatch();
+            }
+        }
+    }
+
+    private void dispatch() throws InterruptedException, IOException {
+        if (this.buffer.isEmpty()) {
+            return;
+        }
+        List<Row> batch = this.buffer;
+        long bytes = this.bufferBytes;
+        this.buffer = new ArrayList<>();
+        this.bufferBytes = 0;
+
+        long start = System.currentTimeMillis();
+        this.pending.acquire();
+        this.counter.accept("writer-backpressure-ms", System.currentTimeMillis() - start);
+        checkFailure();
+        try {
+            this.pool.submit(() -> {
+                try {
+                    long submitStart = System.currentTimeMillis();
+                    this.submitter.submit(batch);
+                    this.counter.accept("writer-batch-ms", System.currentTimeMillis() - submitStart);
+                    this.counter.accept("writer-batches", 1);
+                    this.counter.accept("writer-mutations", batch.size());
+                    this.counter.accept("writer-kb", bytes / 1024);
+                } catch (Throwable e) {
+                    this.failure.compareAndSet(null, e);
+                } finally {
+                    this.pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.pending.release();
+            throw new IOException("Writer closed", e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable e = this.failure.get();
+        if (null != e) {
+            throw new IOException("Problems writing batch", e);
+        }
+    }
+
+    /**
+     * Submit buffered mutations and wait until all batches are written.
+     * @throws IOException if a batch failed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized void flush() throws IOException, InterruptedException {
+        dispatch();
+        this.pending.acquire(this.maxPending); // wait for all batches
+        this.pending.release(this.maxPending);
+        checkFailure();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            this.pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.Objects;
+
+/**
+ * Row keys of the count, variant and region tables: chromosome, separator, unsigned int position and
+ * (variant keys only) reference, separator and alternate - the layout written by Phoenix.
+ * Region keys are encoded into a single array with cached chromosome bytes; {@link View} reads the fields of a row key
+ * in place without materialising a {@link Variant}.
+ * Created by mh719 on 16/04/2018.
+ */
+public class RowKeyCodec {
+    public static final byte SEPARATOR = 0;
+
+    private volatile Chromosome last = new Chromosome("");
+
+    /**
+     * Encode region row key - thread safe.
+     * @param chromosome Chromosome.
+     * @param position Position e.g. start of region.
+     * @return row key (chromosome, separator, position).
+     */
+    public byte[] regionKey(String chromosome, int position) {
+        Chromosome chr = this.last;
+        if (!chr.name.equals(chromosome)) {
+            chr = new Chromosome(chromosome);
+            this.last = chr;
+        }
+        return regionKey(chr.bytes, position);
+    }
+
+    public static byte[] buildRegionKey(String chromosome, int position) {
+        return regionKey(Bytes.toBytes(chromosome), position);
+    }
+
+    private static byte[] regionKey(byte[] chromosome, int position) {
+        if (position < 0) {
+            throw new IllegalStateException("Position is negative: " + position);
+        }
+        byte[] rk = new byte[chromosome.length + 1 + Bytes.SIZEOF_INT];
+        System.arraycopy(chromosome, 0, rk, 0, chromosome.length);
+        rk[chromosome.length] = SEPARATOR;
+        Bytes.putInt(rk, chromosome.length + 1, position);
+        return rk;
+    }
+
+    private static class Chromosome {
+        private final String name;
+        private final byte[] bytes;
+
+        private Chromosome(String name) {
+            this.name = name;
+            this.bytes = Bytes.toBytes(name);
+        }
+    }
+
+    /**
+     * Flyweight over the bytes of a row key - {@link #wrap(byte[])} the next row and read its fields.
+     * Only {@link #getReference()}, {@link #getAlternate()} and {@link #toVariant()} allocate; the chromosome name is
+     * cached while consecutive rows share it. Not thread safe.
+     */
+    public static class View {
+        private byte[] row;
+        private int chrLength;
+        private int refOffset;
+        private int refLength;
+        private int altOffset;
+        private int altLength;
+        private byte[] chromosomeBytes = new byte[0];
+        private String chromosome = "";
+
+        public View wrap(byte[] row) {
+            int sep = indexOf(row, 0, row.length);
+            if (sep < 0 || row.length < sep + 1 + Bytes.SIZEOF_INT) {
+                throw new IllegalStateException("Not a valid row key: " + Bytes.toStringBinary(row));
+            }
+            this.row = row;
+            this.chrLength = sep;
+            this.refOffset = sep + 1 + Bytes.SIZEOF_INT;
+            int refAltSep = indexOf(row, refOffset, row.length);
+            if (refAltSep < 0) {
+                this.refLength = row.length - refOffset;
+                this.altOffset = row.length;
+                this.altLength = 0;
+            } else {
+                this.refLength = refAltSep - refOffset;
+                this.altOffset = refAltSep + 1;
+                this.altLength = row.length - altOffset;
+            }
+            return this;
+        }
+
+        private static int indexOf(byte[] row, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                if (row[i] == SEPARATOR) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public byte[] getRow() {
+            return row;
+        }
+
+        public String getChromosome() {
+            if (!Bytes.equals(chromosomeBytes, 0, chromosomeBytes.length, row, 0, chrLength)) {
+                this.chromosomeBytes = Bytes.copy(row, 0, chrLength);
+                this.chromosome = Bytes.toString(chromosomeBytes);
+            }
+            return chromosome;
+        }
+
+        public int getPosition() {
+            return Bytes.toInt(row, chrLength + 1);
+        }
+
+        public int getReferenceLength() {
+            return refLength;
+        }
+
+        public int getAlternateLength() {
+            return altLength;
+        }
+
+        public String getReference() {
+            return Bytes.toString(row, refOffset, refLength);
+        }
+
+        public String getAlternate() {
+            return Bytes.toString(row, altOffset, altLength);
+        }
+
+        /**
+         * Same result as {@link VariantHbaseUtil#inferType(String, String)}, from the allele lengths where possible.
+         * @return VariantType one of NO_VARIATION, SNV, MNV, INSERTION, DELETION, MIXED.
+         */
+        public VariantType getType() {
+            if (isSpecial(refOffset, refLength) || isSpecial(altOffset, altLength)) {
+                return VariantHbaseUtil.inferType(getReference(), getAlternate());
+            }
+            int ref = alleleLength(refOffset, refLength);
+            int alt = alleleLength(altOffset, altLength);
+            if (ref == alt) {
+                return ref == 0 ? VariantType.NO_VARIATION : ref == 1 ? VariantType.SNV : VariantType.MNV;
+            }
+            if (ref == 0) {
+                return VariantType.INSERTION;
+            }
+            return alt == 0 ? VariantType.DELETION : VariantType.MIXED;
+        }
+
+        private int alleleLength(int offset, int length) {
+            if (length == 1 && row[offset] == '.') {
+                return 0; // no call
+            }
+            return length;
+        }
+
+        /**
+         * Symbolic or breakend alleles.
+         */
+        private boolean isSpecial(int offset, int length) {
+            if (length < 2) {
+                return false;
+            }
+            for (int i = offset; i < offset + length; ++i) {
+                switch (row[i]) {
+                    case '<':
+                    case '>':
+                    case '[':
+                    case ']':
+                    case '.':
+                        return true;
+                    default:
+                        break;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return new {@link Variant} with inferred type - equivalent to GenomeHelper#extractVariantFromVariantRowKey.
+         */
+        public Variant toVariant() {
+            Objects.requireNonNull(row, "No row key wrapped");
+            return VariantHbaseUtil.inferAndSetType(
+                    new Variant(getChromosome(), getPosition(), getReference(), getAlternate()));
+        }
+    }
+}
@@ -18,12 +18,22 @@
 package vilmaa.genome.storage.hbase.allele;
 
 import vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper;
+import vilmaa.genome.storage.hbase.allele.count.region.DirtyRegions;
+import vilmaa.genome.storage.hbase.allele.count.region.RegionSizes;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
 import org.apache.hadoop.hbase.mapreduce.TableMapper;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -31,19 +41,21 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.ToolRunner;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
 import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveDriver;
-import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveHelper;
 import org.opencb.opencga.storage.hadoop.variant.index.AbstractVariantTableDriver;
 import org.opencb.opencga.storage.hadoop.variant.index.VariantTableHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 import static vilmaa.genome.storage.hbase.allele.AbstractAlleleDriver.CONFIG_COUNT_TABLE;
+import static vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStoreToHBaseAppendConverter.DEFAULT_REGION_SIZE;
 
 /**
  * Created by mh719 on 30/01/2017.
@@ -106,15 +118,108 @@ public class AlleleCalculatorDriver extends AbstractVariantTableDriver {
             getLog().info("Scan set LOOKAHEAD to " + lookAhead);
             scan.setAttribute(Scan.HINT_LOOKAHEAD, Bytes.toBytes(lookAhead));
         }
-        // specify return columns (file IDs)
-        for (String fileIdStr : fileArr) {
-            int id = Integer.parseInt(fileIdStr);
-            byte[] column = Bytes.toBytes(ArchiveHelper.getColumnName(id));
-            scan.addColumn(gh.getColumnFamily(), column);
-        }
+        // specify return columns (file IDs) - pruned on the region server
+        List<Integer> fileIds = Arrays.stream(fileArr).map(Integer::valueOf).collect(Collectors.toList());
+        int maxExplicit = getConf().getInt(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_SCAN_COLUMNS, 100);
+        int maxRanges = getConf().getInt(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_SCAN_RANGES, 64);
+        ArchiveColumnFilters.restrict(scan, gh.getColumnFamily(), fileIds, maxExplicit, maxRanges);
+        getLog().info("Scan restricted to {} file columns in {} ranges", fileIds.size(),
+                ArchiveColumnFilters.ranges(fileIds).size());
         return scan;
     }
 
+    /**
+     * Record the row size per chromosome in the meta row of the count table, if not yet recorded by a previous
+     * batch. In <code>auto</code> mode the size is derived from the archive density of a sample of slices.
+     * A count table with rows but without recorded sizes is pinned to the default size.
+     * @param con HBase connection.
+     * @param archiveTable archive table.
+     * @param countTable count table.
+     * @param scan archive scan of the files of this batch.
+     * @throws IOException if the tables can't be read or written.
+     */
+    protected void recordRegionSizes(Connection con, String archiveTable, String countTable, Scan scan) throws IOException {
+        byte[] family = getHelper().getColumnFamily();
+        byte[] metaRow = getHelper().generateVariantRowKey(GenomeHelper.DEFAULT_METADATA_ROW_KEY, 0);
+        int chunkSize = getHelper().getChunkSize();
+        try (Table table = con.getTable(TableName.valueOf(countTable))) {
+            Result meta = table.get(new Get(metaRow));
+            if (RegionSizes.isRecorded(meta, family)) {
+                getLog().info("Use recorded {}", RegionSizes.fromResult(meta, family, DEFAULT_REGION_SIZE));
+                return;
+            }
+            RegionSizes regionSizes;
+            if (RegionSizes.hasRows(table, metaRow)) {
+                regionSizes = new RegionSizes(DEFAULT_REGION_SIZE);
+                getLog().warn("Count table {} has rows without recorded region sizes - pin {}", countTable, regionSizes);
+            } else {
+                String option = getConf().get(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_REGION_SIZE,
+                        StringUtils.EMPTY);
+                regionSizes = RegionSizes.parse(option, DEFAULT_REGION_SIZE);
+                if (RegionSizes.AUTO.equalsIgnoreCase(option.trim())) {
+                    long target = getConf().getLong(
+                            HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_REGION_SIZE_TARGET, 64 * 1024);
+                    RegionSizes sizes = regionSizes;
+                    estimateArchiveDensity(con, archiveTable, scan).forEach((chromosome, density) ->
+                            sizes.setRegionSize(chromosome,
+                                    RegionSizes.autoSize(density, target, chunkSize, DEFAULT_REGION_SIZE / 10)));
+                }
+            }
+            checkAligned(regionSizes.getDefaultSize(), chunkSize);
+            regionSizes.getRegionSizes().values().forEach(size -> checkAligned(size, chunkSize));
+            getLog().info("Record {}", regionSizes);
+            RegionSizes recorded = regionSizes.record(table, metaRow, family, DEFAULT_REGION_SIZE);
+            if (recorded != regionSizes) {
+                getLog().info("Use {} recorded concurrently", recorded);
+                checkAligned(recorded.getDefaultSize(), chunkSize);
+                recorded.getRegionSizes().values().forEach(size -> checkAligned(size, chunkSize));
+            }
+        }
+    }
+
+    private static void checkAligned(int regionSize, int chunkSize) {
+        if (chunkSize % regionSize != 0) {
+            throw new IllegalStateException("Region size " + regionSize + " has to divide archive chunk size " + chunkSize);
+        }
+    }
+
+    /**
+     * Archive bytes per base per chromosome from a random sample of archive slices.
+     * @param con HBase connection.
+     * @param archiveTable archive table.
+     * @param scan archive scan of the files of this batch.
+     * @return Archive bytes per base for each sampled chromosome.
+     * @throws IOException if the archive can't be read.
+     */
+    protected Map<String, Double> estimateArchiveDensity(Connection con, String archiveTable, Scan scan) throws IOException {
+        float chance = getConf().getFloat(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_REGION_SIZE_SAMPLE, 0.01f);
+        Scan sample = new Scan(scan);
+        if (null == scan.getFilter()) {
+            sample.setFilter(new RandomRowFilter(chance));
+        } else {
+            sample.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, new RandomRowFilter(chance),
+                    scan.getFilter()));
+        }
+        Map<String, long[]> bytesAndSlices = new HashMap<>();
+        try (Table table = con.getTable(TableName.valueOf(archiveTable));
+             ResultScanner scanner = table.getScanner(sample)) {
+            for (Result result : scanner) {
+                String chromosome = getHelper().splitBlockId(Bytes.toString(result.getRow()))[0];
+                long[] counts = bytesAndSlices.computeIfAbsent(chromosome, k -> new long[2]);
+                for (Cell cell : result.rawCells()) {
+                    counts[0] += cell.getValueLength();
+                }
+                counts[1] += 1;
+            }
+        }
+        Map<String, Double> density = new HashMap<>();
+        int chunkSize = getHelper().getChunkSize();
+        bytesAndSlices.forEach((chromosome, counts) ->
+                density.put(chromosome, counts[0] / (double) (counts[1] * chunkSize)));
+        getLog().info("Archive bytes per base: {}", density);
+        return density;
+    }
+
     @Override
     protected Class<? extends TableMapper> getMapperClass() {
         return HbaseTableMapper.class;
@@ -131,6 +236,10 @@ public class AlleleCalculatorDriver extends AbstractVariantTableDriver {
         getLog().info("Read from {} and write to {} ...", inTable, countTable);
         try (Connection con = ConnectionFactory.createConnection(getHelper().getConf())) {
             createHBaseTable(getHelper(), countTable, con); // NO PHOENIX needed!!!!
+            if (getConf().getBoolean(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY, false)) {
+                createHBaseTable(getHelper(), DirtyRegions.getTableName(countTable), con);
+            }
+            recordRegionSizes(con, inTable, countTable, scan);
         }
         TableMapReduceUtil.initTableMapperJob(
                 inTable,      // input table
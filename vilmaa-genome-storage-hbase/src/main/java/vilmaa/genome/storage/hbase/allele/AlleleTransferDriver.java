@@ -17,6 +17,8 @@
 
 package vilmaa.genome.storage.hbase.allele;
 
+import vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper;
+import vilmaa.genome.storage.hbase.allele.count.region.DirtyRegions;
 import vilmaa.genome.storage.hbase.allele.transfer.HbaseTransferAlleleMapper;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Scan;
@@ -47,6 +49,15 @@ public class AlleleTransferDriver extends AbstractAlleleDriver {
             getLog().info("Scan set Caching to " + caching);
             scan.setCaching(caching);        // 1 is the default in Scan, 200 caused timeout issues.
         }
+        try {
+            // deletions upstream of a dirty range overlap its variants
+            if (DirtyRegions.restrict(getConf(), getHelper().getColumnFamily(), scan, true)) {
+                getLog().info("Scan restricted to dirty regions of loads {}",
+                        getConf().get(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Problems reading dirty regions", e);
+        }
         return scan;
     }
 
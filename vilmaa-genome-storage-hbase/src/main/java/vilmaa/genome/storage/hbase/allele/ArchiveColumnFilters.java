@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveHelper;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Restrict an archive scan to the file columns of a batch on the region server.
+ * File columns are decimal file ids compared as bytes, so a qualifier range never matches only the ids of a numeric
+ * run: the range "10".."19" also returns the columns "100".."189", "1000" and so on. Any column range filter returns a
+ * superset of the batch columns, so whenever ranges are used every cell has to be filtered with
+ * {@link #isBatchColumn(Cell, BitSet)} before it is counted. Only explicit columns return the batch columns alone.
+ * Created by mh719 on 13/04/2018.
+ */
+public class ArchiveColumnFilters {
+
+    private ArchiveColumnFilters() {
+        // static methods only
+    }
+
+    /**
+     * Add the file columns to the scan: explicit columns for small batches, one {@link ColumnRangeFilter} per run of
+     * file ids, or for scattered ids at most <code>maxRanges</code> ranges covering the runs separated by the smallest
+     * gaps. Ranges return the columns of other files as well, see {@link #isBatchColumn(Cell, BitSet)}.
+     * @param scan archive scan.
+     * @param family archive column family.
+     * @param fileIds file ids of the batch.
+     * @param maxExplicit maximum number of explicit columns.
+     * @param maxRanges maximum number of column ranges.
+     */
+    public static void restrict(Scan scan, byte[] family, Collection<Integer> fileIds, int maxExplicit,
+                                int maxRanges) {
+        if (fileIds.size() <= maxExplicit) {
+            fileIds.forEach(id -> scan.addColumn(family, Bytes.toBytes(ArchiveHelper.getColumnName(id))));
+            return;
+        }
+        scan.addFamily(family);
+        List<int[]> ranges = ranges(fileIds);
+        Filter filter = buildRangeFilter(ranges.size() <= maxRanges ? ranges : cover(ranges, maxRanges));
+        FilterList filterList = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+        if (null != scan.getFilter()) {
+            filterList.addFilter(scan.getFilter());
+        }
+        filterList.addFilter(filter);
+        scan.setFilter(filterList);
+    }
+
+    /**
+     * @param fileIds file ids.
+     * @return inclusive [first, last] runs of consecutive file ids with the same number of digits in ascending order.
+     */
+    public static List<int[]> ranges(Collection<Integer> fileIds) {
+        int[] ids = fileIds.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        List<int[]> ranges = new ArrayList<>();
+        for (int i = 0; i < ids.length; ++i) {
+            int first = ids[i];
+            while (i + 1 < ids.length && ids[i + 1] == ids[i] + 1 && digits(ids[i + 1]) == digits(first)) {
+                ++i;
+            }
+            ranges.add(new int[]{first, ids[i]});
+        }
+        return ranges;
+    }
+
+    /**
+     * Merge the runs separated by the smallest gaps until at most <code>maxRanges</code> remain - runs with a different
+     * number of digits are never merged, as their byte range would cover all longer ids in between.
+     * @param ranges sorted runs as from {@link #ranges(Collection)}.
+     * @param maxRanges maximum number of ranges.
+     * @return sorted ranges covering all runs.
+     */
+    public static List<int[]> cover(List<int[]> ranges, int maxRanges) {
+        int merge = ranges.size() - Math.max(1, maxRanges);
+        boolean[] merged = new boolean[ranges.size()]; // merged with the next range
+        int[] gaps = IntStream.range(0, ranges.size() - 1)
+                .filter(i -> digits(ranges.get(i)[1]) == digits(ranges.get(i + 1)[0]))
+                .boxed()
+                .sorted(Comparator.comparingInt(i -> ranges.get(i + 1)[0] - ranges.get(i)[1]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        for (int i = 0; i < merge && i < gaps.length; ++i) {
+            merged[gaps[i]] = true;
+        }
+        List<int[]> cover = new ArrayList<>();
+        for (int i = 0; i < ranges.size(); ++i) {
+            int first = ranges.get(i)[0];
+            while (merged[i]) {
+                ++i;
+            }
+            cover.add(new int[]{first, ranges.get(i)[1]});
+        }
+        return cover;
+    }
+
+    /**
+     * @param fileIds file ids of the batch.
+     * @return file ids as set bits.
+     */
+    public static BitSet toBitSet(Collection<Integer> fileIds) {
+        BitSet bitSet = new BitSet();
+        fileIds.forEach(bitSet::set);
+        return bitSet;
+    }
+
+    /**
+     * @param cell archive cell.
+     * @param fileIds file ids of the batch, see {@link #toBitSet(Collection)}.
+     * @return TRUE if the cell is the column of a file of the batch - parsed in place without copying the qualifier.
+     */
+    public static boolean isBatchColumn(Cell cell, BitSet fileIds) {
+        int length = cell.getQualifierLength();
+        if (length == 0 || length > 9) {
+            return false; // not a file id
+        }
+        byte[] array = cell.getQualifierArray();
+        int offset = cell.getQualifierOffset();
+        if (length > 1 && array[offset] == '0') {
+            return false; // leading zero
+        }
+        int id = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            byte b = array[i];
+            if (b < '0' || b > '9') {
+                return false;
+            }
+            id = id * 10 + (b - '0');
+        }
+        return fileIds.get(id);
+    }
+
+    private static int digits(int id) {
+        return Integer.toString(id).length();
+    }
+
+    private static Filter buildRangeFilter(List<int[]> ranges) {
+        if (ranges.size() == 1) {
+            return buildRangeFilter(ranges.get(0));
+        }
+        FilterList filterList = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+        ranges.forEach(r -> filterList.addFilter(buildRangeFilter(r)));
+        return filterList;
+    }
+
+    private static Filter buildRangeFilter(int[] range) {
+        return new ColumnRangeFilter(
+                Bytes.toBytes(ArchiveHelper.getColumnName(range[0])), true,
+                Bytes.toBytes(ArchiveHelper.getColumnName(range[1])), true);
+    }
+}
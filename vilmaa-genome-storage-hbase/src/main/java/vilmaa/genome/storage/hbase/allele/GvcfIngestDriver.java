@@ -0,0 +1,356 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vilmaa.genome.storage.hbase.allele.count.GvcfIndex;
+import vilmaa.genome.storage.hbase.allele.count.GvcfIngestMapper;
+import vilmaa.genome.storage.hbase.allele.count.GvcfReader;
+import vilmaa.genome.storage.hbase.allele.count.region.DirtyRegions;
+import vilmaa.genome.storage.hbase.allele.count.region.RegionSizes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static vilmaa.genome.storage.hbase.allele.AbstractAlleleDriver.CONFIG_COUNT_TABLE;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.*;
+import static vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStoreToHBaseAppendConverter.DEFAULT_REGION_SIZE;
+import static org.opencb.opencga.storage.hadoop.variant.index.AbstractVariantTableDriver.createHBaseTable;
+
+/**
+ * Loads sorted gVCF files straight into the count table, without the archive table. <br>
+ * The manifest lists one file per line: path and the study sample ids in the order of the file header, tab separated.
+ * One map task counts a group of files for one chromosome if all files of the group are bgzipped with a tabix or CSI
+ * index, see {@link GvcfIndex}. Otherwise one task reads all chromosomes of the group in one pass over the files, see
+ * {@link GvcfIngestMapper}.
+ * Created by mh719 on 18/04/2018.
+ */
+public class GvcfIngestDriver extends Configured implements Tool {
+    protected static final Logger LOG = LoggerFactory.getLogger(GvcfIngestDriver.class);
+    public static final String TASK_FILE_SUFFIX = ".tasks";
+
+    public GvcfIngestDriver() { /* nothing */ }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        int fixedSizeArgs = 3;
+        String countTable = args[0];
+        int studyId = Integer.parseInt(args[1]);
+        Path manifest = new Path(args[2]);
+        getConf().set(CONFIG_COUNT_TABLE, countTable);
+        getConf().setInt(GenomeHelper.CONFIG_STUDY_ID, studyId);
+        for (int i = fixedSizeArgs; i < args.length; i = i + 2) {
+            getConf().set(args[i], args[i + 1]);
+        }
+        Map<String, List<Integer>> files = readManifest(getConf(), manifest);
+        if (files.isEmpty()) {
+            throw new IllegalStateException("No files listed in " + manifest);
+        }
+        Collection<String> chromosomes = getConf().getStringCollection(VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_CHROMOSOMES);
+        if (chromosomes.isEmpty()) {
+            chromosomes = readContigs(getConf(), new Path(files.keySet().iterator().next()));
+        }
+        List<Map<String, List<Integer>>> groups = buildGroups(files,
+                getConf().getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_GROUP_SIZE, 0));
+        LOG.info("Ingest {} files in {} groups for {} chromosomes into {}", files.size(), groups.size(),
+                chromosomes.size(), countTable);
+
+        GenomeHelper helper = new GenomeHelper(getConf());
+        int sliceSize = getConf().getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_SLICE_SIZE, helper.getChunkSize());
+        getConf().setInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_SLICE_SIZE, sliceSize);
+        try (Connection con = ConnectionFactory.createConnection(getConf())) {
+            createHBaseTable(helper, countTable, con); // NO PHOENIX needed!!!!
+            recordRegionSizes(con, countTable, sliceSize);
+            if (getConf().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY, false)) {
+                createHBaseTable(helper, DirtyRegions.getTableName(countTable), con);
+            }
+        }
+        Path tasks = manifest.suffix(TASK_FILE_SUFFIX);
+        writeTasks(getConf(), tasks, chromosomes, groups);
+
+        // create Job
+        Job job = Job.getInstance(getConf(), "Ingest gVCF files into " + countTable + " for study " + studyId);
+        job.getConfiguration().set("mapreduce.job.user.classpath.first", "true");
+        // a speculative attempt would append the counts again - batch Puts are safe to replay
+        job.getConfiguration().setBoolean("mapreduce.map.speculative",
+                getConf().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_IDEMPOTENT, false));
+        job.setJarByClass(GvcfIngestMapper.class);
+        job.setInputFormatClass(NLineInputFormat.class);
+        NLineInputFormat.addInputPath(job, tasks);
+        NLineInputFormat.setNumLinesPerSplit(job, 1);
+        job.setMapperClass(GvcfIngestMapper.class);
+        TableMapReduceUtil.initTableReducerJob(
+                countTable,      // output table
+                null,             // reducer class
+                job,
+                null, null, null, null,
+                true);
+        job.setNumReduceTasks(0);
+
+        Thread hook = new Thread(() -> {
+            try {
+                if (!job.isComplete()) {
+                    job.killJob();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Error");
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+        boolean succeed = job.waitForCompletion(true);
+        Runtime.getRuntime().removeShutdownHook(hook);
+        return succeed ? 0 : 1;
+    }
+
+    /**
+     * @param conf Configuration.
+     * @param manifest Manifest file.
+     * @return gVCF files with the study sample ids in the order of the file header.
+     * @throws IOException if the manifest can't be read.
+     */
+    public static Map<String, List<Integer>> readManifest(Configuration conf, Path manifest) throws IOException {
+        Map<String, List<Integer>> files = new LinkedHashMap<>();
+        FileSystem fs = manifest.getFileSystem(conf);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(manifest), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringUtils.isNotBlank(line) && !line.startsWith("#")) {
+                    GvcfIngestMapper.parseFile(line, files);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Check that the manifest lists exactly the files to merge, each with the samples of the study for that file in
+     * the same order. Files are matched by name.
+     * @param files gVCF files of the manifest with sample ids.
+     * @param fileIds files to merge.
+     * @param fileNames file ids of the study by file name.
+     * @param samplesInFiles sample ids of the study files, in the order of the file header.
+     */
+    public static void checkManifest(Map<String, List<Integer>> files, Collection<Integer> fileIds,
+                                     Map<String, Integer> fileNames,
+                                     Map<Integer, ? extends Collection<Integer>> samplesInFiles) {
+        Set<Integer> listed = new HashSet<>();
+        for (Map.Entry<String, List<Integer>> file : files.entrySet()) {
+            String name = new Path(file.getKey()).getName();
+            Integer fileId = fileNames.get(name);
+            if (null == fileId || !fileIds.contains(fileId)) {
+                throw new IllegalStateException("File " + file.getKey() + " of manifest not in files to merge "
+                        + fileIds);
+            }
+            if (!listed.add(fileId)) {
+                throw new IllegalStateException("File " + fileId + " listed more than once: " + name);
+            }
+            Collection<Integer> sampleIds = samplesInFiles.get(fileId);
+            List<Integer> expected = null == sampleIds ? Collections.emptyList() : new ArrayList<>(sampleIds);
+            if (!expected.equals(file.getValue())) {
+                throw new IllegalStateException("Samples " + file.getValue() + " of " + file.getKey()
+                        + " do not match samples " + expected + " of file " + fileId);
+            }
+        }
+        Set<Integer> missing = new HashSet<>(fileIds);
+        missing.removeAll(listed);
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Files to merge not listed in manifest: " + missing);
+        }
+    }
+
+    private static List<String> readContigs(Configuration conf, Path file) throws IOException {
+        try (GvcfReader reader = GvcfReader.open(conf, file, StringUtils.EMPTY, StringUtils.EMPTY)) {
+            List<String> contigs = reader.getContigs();
+            if (contigs.isEmpty()) {
+                throw new IllegalStateException("No contigs in header of " + file + " - chromosomes required: "
+                        + VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_CHROMOSOMES);
+            }
+            LOG.info("Use contigs of {}: {}", file, contigs);
+            return contigs;
+        }
+    }
+
+    /**
+     * Split the files in groups, each loaded by its own tasks.
+     * @param files gVCF files with sample ids.
+     * @param groupSize files per group - 0 or less for one group.
+     * @return Groups in manifest order.
+     */
+    public static List<Map<String, List<Integer>>> buildGroups(Map<String, List<Integer>> files, int groupSize) {
+        int size = groupSize > 0 ? groupSize : Math.max(1, files.size());
+        List<Map<String, List<Integer>>> groups = new ArrayList<>();
+        Map<String, List<Integer>> group = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Integer>> file : files.entrySet()) {
+            if (group.size() == size) {
+                groups.add(group);
+                group = new LinkedHashMap<>();
+            }
+            group.put(file.getKey(), file.getValue());
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Batch id of a group for idempotent writes - negative to keep them apart from the file batches of the archive
+     * load. Samples are loaded once, so the smallest sample id identifies the group.
+     * @param group Files of the group.
+     * @return Batch id.
+     */
+    public static int buildBatchId(Map<String, List<Integer>> group) {
+        return -group.values().stream().flatMap(List::stream).mapToInt(Integer::intValue).min()
+                .orElseThrow(() -> new IllegalStateException("Group without samples"));
+    }
+
+    private static void writeTasks(Configuration conf, Path tasks, Collection<String> chromosomes,
+                                   List<Map<String, List<Integer>>> groups) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map<String, List<Integer>> group : groups) {
+            if (isIndexed(conf, group.keySet())) {
+                for (String chromosome : chromosomes) {
+                    lines.add(GvcfIngestMapper.buildTask(Collections.singletonList(chromosome), buildBatchId(group),
+                            group));
+                }
+            } else {
+                LOG.warn("Files of group {} not all indexed - read all chromosomes in one task", buildBatchId(group));
+                lines.add(GvcfIngestMapper.buildTask(chromosomes, buildBatchId(group), group));
+            }
+        }
+        FileSystem fs = tasks.getFileSystem(conf);
+        try (FSDataOutputStream out = fs.create(tasks, true)) {
+            for (String line : lines) {
+                out.write(Bytes.toBytes(line + "\n"));
+            }
+        }
+        LOG.info("Wrote {} tasks to {}", lines.size(), tasks);
+    }
+
+    /**
+     * @param conf Configuration.
+     * @param files gVCF files.
+     * @return true if all files have a tabix or CSI index - each chromosome can be read without the others.
+     * @throws IOException if the file system can't be checked.
+     */
+    public static boolean isIndexed(Configuration conf, Collection<String> files) throws IOException {
+        for (String file : files) {
+            Path path = new Path(file);
+            if (null == GvcfIndex.find(path.getFileSystem(conf), path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record the row size per chromosome in the meta row of the count table, if not yet recorded.
+     * Without archive there is no density estimate - <code>auto</code> falls back to the default size.
+     * A count table with rows but without recorded sizes is pinned to the default size.
+     * @param con HBase connection.
+     * @param countTable count table.
+     * @param sliceSize slice size of the tasks.
+     * @throws IOException if the table can't be read or written.
+     */
+    protected void recordRegionSizes(Connection con, String countTable, int sliceSize) throws IOException {
+        byte[] family = Bytes.toBytes(GenomeHelper.DEFAULT_COLUMN_FAMILY);
+        byte[] metaRow = GenomeHelper.generateVariantRowKey(GenomeHelper.DEFAULT_METADATA_ROW_KEY, 0);
+        try (Table table = con.getTable(TableName.valueOf(countTable))) {
+            Result meta = table.get(new Get(metaRow));
+            RegionSizes regionSizes;
+            if (RegionSizes.isRecorded(meta, family)) {
+                regionSizes = RegionSizes.fromResult(meta, family, DEFAULT_REGION_SIZE);
+                LOG.info("Use recorded {}", regionSizes);
+            } else if (RegionSizes.hasRows(table, metaRow)) {
+                regionSizes = new RegionSizes(DEFAULT_REGION_SIZE);
+                LOG.warn("Count table {} has rows without recorded region sizes - pin {}", countTable, regionSizes);
+                regionSizes = regionSizes.record(table, metaRow, family, DEFAULT_REGION_SIZE);
+            } else {
+                String option = getConf().get(VILMAA_GENOME_STORAGE_ALLELE_COUNT_REGION_SIZE, StringUtils.EMPTY);
+                regionSizes = RegionSizes.parse(option, DEFAULT_REGION_SIZE);
+                checkAligned(regionSizes.getDefaultSize(), sliceSize);
+                regionSizes.getRegionSizes().values().forEach(size -> checkAligned(size, sliceSize));
+                LOG.info("Record {}", regionSizes);
+                regionSizes = regionSizes.record(table, metaRow, family, DEFAULT_REGION_SIZE);
+            }
+            checkAligned(regionSizes.getDefaultSize(), sliceSize);
+            regionSizes.getRegionSizes().values().forEach(size -> checkAligned(size, sliceSize));
+        }
+    }
+
+    private static void checkAligned(int regionSize, int sliceSize) {
+        if (sliceSize % regionSize != 0) {
+            throw new IllegalStateException("Region size " + regionSize + " has to divide slice size " + sliceSize);
+        }
+    }
+
+    public static String buildCommandLineArgs(String countTable, int studyId, String manifest, Map<String, Object> other) {
+        StringBuilder stringBuilder = new StringBuilder().append(countTable).append(' ').append(studyId).append(' ')
+                .append(manifest);
+        ArchiveDriver.addOtherParams(other, stringBuilder);
+        return stringBuilder.toString();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Expected arguments: <count_table> <study_id> <manifest> [<key> <value>]*");
+        }
+        try {
+            GvcfIngestDriver driver = new GvcfIngestDriver();
+            driver.setConf(HBaseConfiguration.create());
+            System.exit(ToolRunner.run(driver, args));
+        } catch (Exception e) {
+            LOG.error("Problems", e);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
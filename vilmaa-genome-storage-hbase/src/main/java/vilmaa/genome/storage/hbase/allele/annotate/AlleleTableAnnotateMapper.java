@@ -17,7 +17,7 @@
 
 package vilmaa.genome.storage.hbase.allele.annotate;
 
-import vilmaa.genome.storage.hbase.VariantHbaseUtil;
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.filter.ExportFilters;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.hbase.Cell;
@@ -54,6 +54,7 @@ public class AlleleTableAnnotateMapper extends AbstractHBaseMapReduce<ImmutableB
 
 
     private ExportFilters filters;
+    private final RowKeyCodec.View rowKey = new RowKeyCodec.View();
     private boolean forceAnnotation;
     private byte[] studiesRow;
     private HBaseToVariantAnnotationConverter hBaseToVariantAnnotationConverter;
@@ -156,9 +157,7 @@ public class AlleleTableAnnotateMapper extends AbstractHBaseMapReduce<ImmutableB
                 context.getCounter("vilmaa", "variant.read").increment(1);
                 getLog().info("Convert ... ");
                 long start = System.nanoTime();
-                Variant variant = VariantHbaseUtil.inferAndSetType(
-                        getHelper().extractVariantFromVariantRowKey(value.getRow()));
-                if (!validVariant(value, variant)) {
+                if (!validVariant(value, this.rowKey.wrap(value.getRow()))) {
                     context.getCounter("vilmaa", "filter.remove").increment(1);
                     return;
                 }
@@ -169,7 +168,7 @@ public class AlleleTableAnnotateMapper extends AbstractHBaseMapReduce<ImmutableB
                     return; // No annotation needed
                 }
                 context.getCounter("vilmaa", "variant.add-for-annot").increment(1);
-                variantsToAnnotate.add(variant);
+                variantsToAnnotate.add(this.rowKey.toVariant());
             }
         } catch (Exception e) {
             throw new IllegalStateException("Problems with row [hex:" + hexBytes + "] for cells " + cells.length, e);
@@ -193,8 +192,8 @@ public class AlleleTableAnnotateMapper extends AbstractHBaseMapReduce<ImmutableB
         return this.hBaseToVariantAnnotationConverter.convert(value);
     }
 
-    private boolean validVariant(Result value, Variant variant) {
-        return filters.pass(value, variant);
+    private boolean validVariant(Result value, RowKeyCodec.View rowKey) {
+        return filters.pass(value, rowKey);
     }
 
     private boolean isMetaRow(ImmutableBytesWritable key, Result value) {
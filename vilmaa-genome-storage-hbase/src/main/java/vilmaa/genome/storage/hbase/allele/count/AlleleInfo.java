@@ -17,13 +17,14 @@
 
 package vilmaa.genome.storage.hbase.allele.count;
 
+import vilmaa.genome.util.CompressedIntSet;
 import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.variant.avro.VariantType;
 
 import java.util.*;
 
 /**
- * Bean to hold sample specific allele information
+ * Bean to hold sample specific allele information. Sample ids are kept in a {@link CompressedIntSet}.
  * Created by mh719 on 17/03/2017.
  */
 public class AlleleInfo {
@@ -35,7 +36,8 @@ public class AlleleInfo {
     private volatile int depth;
     private volatile VariantType type;
     private volatile String[] id;
-    private volatile Set<Integer> sampleIds;
+    private volatile int alleleCode = -1;
+    private volatile CompressedIntSet sampleIds;
 
     public AlleleInfo(int count, int depth) {
         this(count, depth, Collections.emptyList(), NO_CALL_ALLELE, VariantType.NO_VARIATION, false);
@@ -47,10 +49,9 @@ public class AlleleInfo {
         this.type = type;
         this.id = id;
         this.pass = pass;
+        this.sampleIds = new CompressedIntSet();
         if (!Objects.isNull(sampleIds) && !sampleIds.isEmpty()) {
-            this.sampleIds = new HashSet<>(sampleIds);
-        } else {
-            this.sampleIds = new HashSet<>();
+            setSampleIds(sampleIds);
         }
     }
 
@@ -60,16 +61,30 @@ public class AlleleInfo {
 
     public AlleleInfo(AlleleInfo copy) {
         this(copy.getCount(), copy.getDepth(), copy.getSampleIds(), copy.getId(), copy.getType(), copy.isPass());
+        this.alleleCode = copy.getAlleleCode();
     }
 
+    /**
+     * Add sample id - unknown (null) sample ids are ignored.
+     * @param sampleId Sample id
+     */
     public void addSampleId(Integer sampleId) {
-        this.sampleIds.add(sampleId);
+        if (null != sampleId) {
+            this.sampleIds.add(sampleId.intValue());
+        }
     }
+
     public void setSampleIds(Collection<Integer> sampleIds) {
-        this.sampleIds = new HashSet<>(sampleIds);
+        CompressedIntSet set = new CompressedIntSet();
+        if (sampleIds instanceof CompressedIntSet) {
+            set.or((CompressedIntSet) sampleIds);
+        } else {
+            sampleIds.stream().filter(Objects::nonNull).forEach(sid -> set.add(sid.intValue()));
+        }
+        this.sampleIds = set;
     }
 
-    public Set<Integer> getSampleIds() {
+    public CompressedIntSet getSampleIds() {
         return sampleIds;
     }
 
@@ -113,6 +128,17 @@ public class AlleleInfo {
         return id;
     }
 
+    /**
+     * @return code of the id in an allele dictionary or -1 if not coded.
+     */
+    public int getAlleleCode() {
+        return alleleCode;
+    }
+
+    public void setAlleleCode(int alleleCode) {
+        this.alleleCode = alleleCode;
+    }
+
     public String getIdString() {
         return buildVariantId(this.getId());
     }
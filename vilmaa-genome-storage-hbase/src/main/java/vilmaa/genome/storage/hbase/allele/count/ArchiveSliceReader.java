@@ -0,0 +1,268 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import com.google.protobuf.CodedInputStream;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRecord;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.biodata.models.variant.avro.AlternateCoordinate;
+import org.opencb.biodata.models.variant.avro.VariantType;
+import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos;
+import org.opencb.biodata.tools.variant.merge.VariantMerger;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Reads the records of an archive {@link VcfSliceProtos.VcfSlice} cell as {@link AlleleRecord}s without building
+ * Variant objects. Slices with overlapping records are not read, since they need conflict resolution.
+ * Not thread safe - the record passed to the consumer is reused.
+ * Created by mh719 on 09/04/2018.
+ */
+public class ArchiveSliceReader {
+    private static final String GT_KEY = VariantMerger.GT_KEY;
+    private static final String DP_KEY = "DP";
+    private static final String AD_KEY = "AD";
+
+    private final Map<Integer, Integer[]> fileSampleIds;
+    private final SliceRecord record = new SliceRecord();
+    private final Map<Integer, int[]> formatPositions = new HashMap<>();
+
+    /**
+     * @param fileSampleIds sample ids in file order for each file id.
+     */
+    public ArchiveSliceReader(Map<Integer, Integer[]> fileSampleIds) {
+        this.fileSampleIds = fileSampleIds;
+    }
+
+    public static Map<Integer, Integer[]> buildFileSampleIds(Map<Integer, LinkedHashSet<Integer>> samplesInFiles) {
+        Map<Integer, Integer[]> map = new HashMap<>();
+        samplesInFiles.forEach((fid, sids) -> map.put(fid, sids.toArray(new Integer[sids.size()])));
+        return map;
+    }
+
+    /**
+     * Read all records of an archive cell.
+     * @param cell Archive cell with the file id as qualifier and a {@link VcfSliceProtos.VcfSlice} as value.
+     * @param consumer receives each record.
+     * @return false if the slice was not read (unknown file or overlapping records).
+     */
+    public boolean read(Cell cell, Consumer<AlleleRecord> consumer) {
+        Integer fileId = Integer.valueOf(Bytes.toString(cell.getQualifierArray(), cell.getQualifierOffset(),
+                cell.getQualifierLength()));
+        Integer[] sampleIds = this.fileSampleIds.get(fileId);
+        if (null == sampleIds) {
+            return false;
+        }
+        VcfSliceProtos.VcfSlice slice;
+        try {
+            slice = VcfSliceProtos.VcfSlice.parseFrom(CodedInputStream.newInstance(cell.getValueArray(),
+                    cell.getValueOffset(), cell.getValueLength()));
+        } catch (IOException e) {
+            throw new IllegalStateException("Problems reading archive slice for file " + fileId, e);
+        }
+        if (hasOverlap(slice)) {
+            return false;
+        }
+        this.formatPositions.clear();
+        this.record.slice = slice;
+        this.record.sampleIds = sampleIds;
+        for (VcfSliceProtos.VcfRecord vcfRecord : slice.getRecordsList()) {
+            this.record.set(vcfRecord, getFormatPositions(slice.getFields(), vcfRecord.getFormatIndex()));
+            consumer.accept(this.record);
+        }
+        return true;
+    }
+
+    private boolean hasOverlap(VcfSliceProtos.VcfSlice slice) {
+        int n = slice.getRecordsCount();
+        long[] ranges = new long[n];
+        for (int i = 0; i < n; ++i) {
+            VcfSliceProtos.VcfRecord vcfRecord = slice.getRecords(i);
+            int start = slice.getPosition() + vcfRecord.getRelativeStart();
+            int end = getEnd(slice.getPosition(), start, vcfRecord);
+            int min = Math.min(start, end);
+            int max = Math.max(start, end);
+            for (VcfSliceProtos.AlternateCoordinate alt : vcfRecord.getSecondaryAlternatesList()) {
+                if (alt.getStart() > 0) {
+                    min = Math.min(min, Math.min(alt.getStart(), alt.getEnd()));
+                    max = Math.max(max, Math.max(alt.getStart(), alt.getEnd()));
+                }
+            }
+            ranges[i] = ((long) min << 32) | (max & 0xffffffffL);
+        }
+        Arrays.sort(ranges);
+        long maxEnd = Long.MIN_VALUE;
+        for (long range : ranges) {
+            if ((range >> 32) <= maxEnd) {
+                return true;
+            }
+            maxEnd = Math.max(maxEnd, (int) range);
+        }
+        return false;
+    }
+
+    /**
+     * The relative end is not stored for records ending at their start (same as the Variant converter).
+     * @return end position of the record.
+     */
+    static int getEnd(int slicePosition, int start, VcfSliceProtos.VcfRecord vcfRecord) {
+        return vcfRecord.getRelativeEnd() == 0 ? start : slicePosition + vcfRecord.getRelativeEnd();
+    }
+
+    /**
+     * @return positions of GT, DP and AD in the format or -1 if not present.
+     */
+    private int[] getFormatPositions(VcfSliceProtos.Fields fields, int formatIndex) {
+        return this.formatPositions.computeIfAbsent(formatIndex, idx -> {
+            int[] pos = {-1, -1, -1};
+            if (idx < fields.getFormatsCount()) {
+                String[] format = fields.getFormats(idx).split(":");
+                for (int i = 0; i < format.length; ++i) {
+                    if (GT_KEY.equals(format[i])) {
+                        pos[0] = i;
+                    } else if (DP_KEY.equals(format[i])) {
+                        pos[1] = i;
+                    } else if (AD_KEY.equals(format[i])) {
+                        pos[2] = i;
+                    }
+                }
+            }
+            return pos;
+        });
+    }
+
+    /**
+     * Flyweight view of a record in a slice.
+     */
+    private static class SliceRecord implements AlleleRecord {
+        private VcfSliceProtos.VcfSlice slice;
+        private Integer[] sampleIds;
+        private VcfSliceProtos.VcfRecord vcfRecord;
+        private int[] formatPositions;
+        private int start;
+        private int end;
+        private VariantType type;
+        private List<AlternateCoordinate> secondaryAlternates;
+
+        private void set(VcfSliceProtos.VcfRecord vcfRecord, int[] formatPositions) {
+            this.vcfRecord = vcfRecord;
+            this.formatPositions = formatPositions;
+            this.start = slice.getPosition() + vcfRecord.getRelativeStart();
+            this.end = getEnd(slice.getPosition(), start, vcfRecord);
+            this.type = VariantType.valueOf(vcfRecord.getType().name());
+            this.secondaryAlternates = Collections.emptyList();
+            if (vcfRecord.getSecondaryAlternatesCount() > 0) {
+                this.secondaryAlternates = new ArrayList<>(vcfRecord.getSecondaryAlternatesCount());
+                for (VcfSliceProtos.AlternateCoordinate alt : vcfRecord.getSecondaryAlternatesList()) {
+                    // complete missing values with the values of the record
+                    this.secondaryAlternates.add(new AlternateCoordinate(
+                            alt.getChromosome().isEmpty() ? slice.getChromosome() : alt.getChromosome(),
+                            alt.getStart() > 0 ? alt.getStart() : start,
+                            alt.getStart() > 0 ? alt.getEnd() : end,
+                            alt.getReference(),
+                            alt.getAlternate(),
+                            VariantType.valueOf(alt.getType().name())));
+                }
+            }
+        }
+
+        @Override
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public int getEnd() {
+            return end;
+        }
+
+        @Override
+        public String getReference() {
+            return vcfRecord.getReference();
+        }
+
+        @Override
+        public String getAlternate() {
+            return vcfRecord.getAlternate();
+        }
+
+        @Override
+        public VariantType getType() {
+            return type;
+        }
+
+        @Override
+        public boolean isPass() {
+            VcfSliceProtos.Fields fields = slice.getFields();
+            int idx = vcfRecord.getFilterIndex();
+            String filter = idx < fields.getFiltersCount() ? fields.getFilters(idx) : VariantMerger.DEFAULT_FILTER_VALUE;
+            return VariantMerger.PASS_VALUE.equals(filter);
+        }
+
+        @Override
+        public List<AlternateCoordinate> getSecondaryAlternates() {
+            return secondaryAlternates;
+        }
+
+        @Override
+        public int getSampleCount() {
+            if (sampleIds.length != vcfRecord.getSamplesCount()) {
+                throw new IllegalStateException("Expected " + sampleIds.length + " samples, but found "
+                        + vcfRecord.getSamplesCount() + " for record at " + slice.getChromosome() + ":" + start);
+            }
+            return sampleIds.length;
+        }
+
+        @Override
+        public Integer getSampleId(int sample) {
+            return sampleIds[sample];
+        }
+
+        @Override
+        public String getGenotype(int sample) {
+            return getValue(sample, formatPositions[0]);
+        }
+
+        @Override
+        public String getDepth(int sample) {
+            return getValue(sample, formatPositions[1]);
+        }
+
+        @Override
+        public String getAlleleDepth(int sample) {
+            return getValue(sample, formatPositions[2]);
+        }
+
+        private String getValue(int sample, int pos) {
+            if (pos < 0) {
+                return null;
+            }
+            VcfSliceProtos.VcfSample vcfSample = vcfRecord.getSamples(sample);
+            if (formatPositions[0] == 0) { // GT is stored as index of the shared genotypes
+                if (pos == 0) {
+                    return slice.getFields().getGts(vcfSample.getGtIndex());
+                }
+                --pos;
+            }
+            return pos < vcfSample.getSampleValuesCount() ? vcfSample.getSampleValues(pos) : null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * First record of each contig of a bgzipped file as BGZF virtual offset, read from its tabix (.tbi) or CSI (.csi)
+ * index. Only the chunk offsets are used - the bins and linear index are skipped.
+ * Created by mh719 on 19/04/2018.
+ */
+public class GvcfIndex {
+    public static final String TABIX_SUFFIX = ".tbi";
+    public static final String CSI_SUFFIX = ".csi";
+    private static final byte[] TABIX_MAGIC = {'T', 'B', 'I', 1};
+    private static final byte[] CSI_MAGIC = {'C', 'S', 'I', 1};
+    private static final int TABIX_PSEUDO_BIN = 37450;
+
+    private final Map<String, Long> starts;
+
+    protected GvcfIndex(Map<String, Long> starts) {
+        this.starts = starts;
+    }
+
+    /**
+     * @param fs File system of the file.
+     * @param file bgzipped file.
+     * @return Index next to the file, tabix before CSI, or null if there is none.
+     * @throws IOException if the file system can't be checked.
+     */
+    public static Path find(FileSystem fs, Path file) throws IOException {
+        for (String suffix : new String[]{TABIX_SUFFIX, CSI_SUFFIX}) {
+            Path index = file.suffix(suffix);
+            if (fs.exists(index)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param fs File system of the index.
+     * @param index tabix or CSI index.
+     * @return Contig starts of the index.
+     * @throws IOException if the index can't be read.
+     */
+    public static GvcfIndex read(FileSystem fs, Path index) throws IOException {
+        try (InputStream in = fs.open(index)) {
+            return read(index.toString(), in);
+        }
+    }
+
+    static GvcfIndex read(String source, InputStream in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(decompress(in)).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        if (Arrays.equals(TABIX_MAGIC, magic)) {
+            int refs = buffer.getInt();
+            List<String> names = readNames(source, buffer);
+            if (names.size() != refs) {
+                throw new IllegalStateException("Expected " + refs + " sequence names, but found " + names.size()
+                        + " in " + source);
+            }
+            return new GvcfIndex(readStarts(buffer, names, TABIX_PSEUDO_BIN, false));
+        }
+        if (Arrays.equals(CSI_MAGIC, magic)) {
+            buffer.getInt(); // min_shift
+            int depth = buffer.getInt();
+            int auxLength = buffer.getInt();
+            if (auxLength == 0) {
+                throw new IllegalStateException("No sequence names in CSI index " + source);
+            }
+            int auxEnd = buffer.position() + auxLength;
+            List<String> names = readNames(source, buffer);
+            buffer.position(auxEnd);
+            int refs = buffer.getInt();
+            if (names.size() != refs) {
+                throw new IllegalStateException("Expected " + refs + " sequence names, but found " + names.size()
+                        + " in " + source);
+            }
+            int pseudoBin = ((1 << ((depth + 1) * 3)) - 1) / 7 + 1;
+            return new GvcfIndex(readStarts(buffer, names, pseudoBin, true));
+        }
+        throw new IllegalStateException("Not a tabix or CSI index: " + source);
+    }
+
+    private static byte[] decompress(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BlockCompressedInputStream bgzf = new BlockCompressedInputStream(in)) {
+            byte[] bytes = new byte[64 * 1024];
+            int read;
+            while ((read = bgzf.read(bytes)) > 0) {
+                out.write(bytes, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Read the tabix header fields: format, sequence, begin and end column, meta character, skipped lines and the
+     * NUL terminated sequence names.
+     */
+    private static List<String> readNames(String source, ByteBuffer buffer) {
+        for (int i = 0; i < 6; ++i) {
+            buffer.getInt();
+        }
+        int length = buffer.getInt();
+        List<String> names = new ArrayList<>();
+        int start = buffer.position();
+        int end = start + length;
+        for (int i = start; i < end; ++i) {
+            if (buffer.get(i) == 0) {
+                names.add(new String(buffer.array(), start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        if (start != end) {
+            throw new IllegalStateException("Sequence names not terminated in " + source);
+        }
+        buffer.position(end);
+        return names;
+    }
+
+    private static Map<String, Long> readStarts(ByteBuffer buffer, List<String> names, int pseudoBin, boolean csi) {
+        Map<String, Long> starts = new HashMap<>();
+        for (String name : names) {
+            long start = Long.MAX_VALUE;
+            int bins = buffer.getInt();
+            for (int b = 0; b < bins; ++b) {
+                int bin = buffer.getInt();
+                if (csi) {
+                    buffer.getLong(); // loffset
+                }
+                int chunks = buffer.getInt();
+                for (int c = 0; c < chunks; ++c) {
+                    long begin = buffer.getLong();
+                    buffer.getLong(); // end
+                    if (bin != pseudoBin) { // pseudo bin holds statistics
+                        start = Math.min(start, begin);
+                    }
+                }
+            }
+            if (!csi) {
+                int intervals = buffer.getInt();
+                buffer.position(buffer.position() + intervals * Long.BYTES);
+            }
+            if (start != Long.MAX_VALUE) {
+                starts.put(name, start);
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * @param contig Contig name.
+     * @return Virtual offset of the first record of the contig, or -1 if the contig has no records.
+     */
+    public long getStart(String contig) {
+        return this.starts.getOrDefault(contig, -1L);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionCalculator;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStore;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStoreToHBaseAppendConverter;
+import vilmaa.genome.storage.hbase.allele.count.region.DepthBands;
+import vilmaa.genome.storage.hbase.allele.count.region.DirtyRegions;
+import vilmaa.genome.storage.hbase.allele.count.region.RegionSizes;
+import vilmaa.genome.util.SortedMergeIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static vilmaa.genome.storage.hbase.allele.AbstractAlleleDriver.CONFIG_COUNT_TABLE;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.*;
+
+/**
+ * Calculates the allele counts of a group of gVCF files for one or more chromosomes without the archive table. <br>
+ * Each input line is a task (see {@link #buildTask(Collection, int, Map)}) - the files are read in parallel, merged by
+ * position, cut into archive sized slices and counted per slice like {@link HbaseTableMapper}. The chromosomes of a
+ * task are read one after the other in one pass over the files, see {@link GvcfReader#moveTo(String)}. With dirty
+ * region tracking the regions changed by a task are recorded under its batch id, see {@link DirtyRegions}.
+ * Created by mh719 on 18/04/2018.
+ */
+public class GvcfIngestMapper extends Mapper<LongWritable, Text, ImmutableBytesWritable, Mutation> {
+    public static final String COUNTER_GROUP_NAME = "VILMAA_INGEST";
+    public static final int DEFAULT_SLICE_SIZE = 1000;
+    private static final String TASK_SEPARATOR = "\t";
+    private static final String LIST_SEPARATOR = ",";
+
+    private final Logger log = LoggerFactory.getLogger(GvcfIngestMapper.class);
+    private String studyId;
+    private GvcfSlicer slicer;
+    private AlleleRegionStoreToHBaseAppendConverter converter;
+    private DepthBands referenceDepthBands;
+    private boolean coalesce = false;
+    private boolean idempotent = false;
+    private boolean trackDirty = false;
+    private volatile DirtyRegions dirtyRegions;
+    private Context context;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        this.context = context;
+        Configuration conf = context.getConfiguration();
+        int studyIdInt = conf.getInt(GenomeHelper.CONFIG_STUDY_ID, -1);
+        if (studyIdInt < 0) {
+            throw new IllegalStateException("Study id required: " + GenomeHelper.CONFIG_STUDY_ID);
+        }
+        this.studyId = Integer.toString(studyIdInt);
+        this.slicer = new GvcfSlicer(conf.getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_SLICE_SIZE, DEFAULT_SLICE_SIZE));
+        byte[] family = Bytes.toBytes(GenomeHelper.DEFAULT_COLUMN_FAMILY);
+        this.converter = new AlleleRegionStoreToHBaseAppendConverter(family, studyIdInt);
+        this.converter.setRegionSizes(loadRegionSizes(conf, family));
+        log.info("Count table region sizes: {} for slices of {}", converter.getRegionSizes(), slicer.getSliceSize());
+        this.converter.setEncoding(conf.getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_ENCODING,
+                AlleleRegionStoreToHBaseAppendConverter.ENCODING_V2));
+        log.info("Count cell encoding: v{}", converter.getEncoding());
+        this.referenceDepthBands = DepthBands.parse(conf.get(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DEPTH_BANDS));
+        log.info("Reference depth bands: {}", this.referenceDepthBands);
+        this.coalesce = conf.getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_COALESCE, false);
+        log.info("Coalesce adjacent reference / no-call regions: {}", this.coalesce);
+        this.idempotent = conf.getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_IDEMPOTENT, false);
+        log.info("Idempotent writes: {}", this.idempotent);
+        this.trackDirty = conf.getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY, false);
+        log.info("Track dirty regions: {}", this.trackDirty);
+    }
+
+    protected RegionSizes loadRegionSizes(Configuration conf, byte[] family) throws IOException {
+        String countTable = conf.get(CONFIG_COUNT_TABLE, StringUtils.EMPTY);
+        if (StringUtils.isBlank(countTable)) {
+            throw new IllegalStateException("Count table parameter required: " + CONFIG_COUNT_TABLE);
+        }
+        byte[] metaRow = GenomeHelper.generateVariantRowKey(GenomeHelper.DEFAULT_METADATA_ROW_KEY, 0);
+        try (Connection con = ConnectionFactory.createConnection(conf);
+             Table table = con.getTable(TableName.valueOf(countTable))) {
+            return RegionSizes.fromResult(table.get(new Get(metaRow)), family,
+                    AlleleRegionStoreToHBaseAppendConverter.DEFAULT_REGION_SIZE);
+        }
+    }
+
+    /**
+     * @param chromosomes Chromosomes of the task, in the order of the files.
+     * @param batchId Batch id for idempotent writes.
+     * @param files gVCF files with the study sample ids in the order of the file header.
+     * @return Task as one line of text.
+     */
+    public static String buildTask(Collection<String> chromosomes, int batchId, Map<String, List<Integer>> files) {
+        StringBuilder sb = new StringBuilder().append(String.join(LIST_SEPARATOR, chromosomes))
+                .append(TASK_SEPARATOR).append(batchId);
+        files.forEach((path, sampleIds) -> sb.append(TASK_SEPARATOR).append(path).append(TASK_SEPARATOR)
+                .append(sampleIds.stream().map(Object::toString).collect(Collectors.joining(LIST_SEPARATOR))));
+        return sb.toString();
+    }
+
+    /**
+     * @param line Manifest line: path of the gVCF file and the study sample ids in the order of the file header.
+     * @param files receives the file.
+     */
+    public static void parseFile(String line, Map<String, List<Integer>> files) {
+        String[] split = line.split(TASK_SEPARATOR);
+        if (split.length != 2 || StringUtils.isBlank(split[0]) || StringUtils.isBlank(split[1])) {
+            throw new IllegalStateException("Expected <path>\\t<sample_id>[,<sample_id>]* but found: " + line);
+        }
+        if (null != files.put(split[0], parseSampleIds(split[1]))) {
+            throw new IllegalStateException("File listed more than once: " + split[0]);
+        }
+    }
+
+    private static List<Integer> parseSampleIds(String ids) {
+        return Arrays.stream(ids.split(LIST_SEPARATOR)).map(Integer::valueOf).collect(Collectors.toList());
+    }
+
+    @Override
+    protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+        String[] split = value.toString().split(TASK_SEPARATOR);
+        if (split.length < 4 || split.length % 2 != 0) {
+            throw new IllegalStateException("Unexpected task: " + value);
+        }
+        List<String> chromosomes = Arrays.asList(split[0].split(LIST_SEPARATOR));
+        int batchId = Integer.parseInt(split[1]);
+        Map<String, List<Integer>> files = new LinkedHashMap<>();
+        for (int i = 2; i < split.length; i += 2) {
+            parseFile(split[i] + TASK_SEPARATOR + split[i + 1], files);
+        }
+        ingest(chromosomes, batchId, files);
+    }
+
+    /**
+     * Merge the files by position and count the alleles of each slice, one chromosome after the other.
+     * @param chromosomes Chromosomes to read, in the order of the files.
+     * @param batchId Batch id for idempotent writes.
+     * @param files gVCF files with the study sample ids in the order of the file header.
+     * @throws IOException if a file can't be read or the counts can't be written.
+     * @throws InterruptedException if interrupted.
+     */
+    protected void ingest(List<String> chromosomes, int batchId, Map<String, List<Integer>> files)
+            throws IOException, InterruptedException {
+        log.info("Ingest {} files for chromosomes {} as batch {}", files.size(), chromosomes, batchId);
+        List<GvcfReader> readers = new ArrayList<>(files.size());
+        this.dirtyRegions = this.trackDirty ? new DirtyRegions() : null;
+        try {
+            Map<String, Integer> sampleNameToSampleId = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> file : files.entrySet()) {
+                GvcfReader reader = GvcfReader.open(context.getConfiguration(), new Path(file.getKey()), studyId,
+                        chromosomes.get(0));
+                readers.add(reader);
+                addSamples(file.getKey(), reader.getSampleNames(), file.getValue(), sampleNameToSampleId);
+            }
+            List<String> samples = new ArrayList<>(sampleNameToSampleId.keySet());
+            for (int i = 0; i < chromosomes.size(); ++i) {
+                if (i > 0) {
+                    for (GvcfReader reader : readers) {
+                        reader.moveTo(chromosomes.get(i));
+                    }
+                }
+                SortedMergeIterator<Variant> merged =
+                        new SortedMergeIterator<>(readers, Comparator.comparingInt(GvcfSlicer::from));
+                long slices = this.slicer.slice(chromosomes.get(i), merged, (chr, startPos, nextStartPos, variants) -> {
+                    Collection<? extends Mutation> mutations =
+                            calculate(chr, startPos, nextStartPos, variants, sampleNameToSampleId, samples, batchId);
+                    for (Mutation mutation : mutations) {
+                        context.write(new ImmutableBytesWritable(mutation.getRow()), mutation);
+                    }
+                    incrementCounter("mutations-submitted", mutations.size());
+                });
+                incrementCounter("slices", slices);
+            }
+            incrementCounter("records", readers.stream().mapToLong(GvcfReader::getRecords).sum());
+            if (null != this.dirtyRegions) {
+                writeDirtyRegions(batchId, this.dirtyRegions);
+            }
+        } finally {
+            for (GvcfReader reader : readers) {
+                reader.close();
+            }
+        }
+        incrementCounter("files", files.size());
+    }
+
+    /**
+     * Record the dirty regions of a task once all its counts are submitted.
+     * @param loadId batch id of the task.
+     * @param dirtyRegions dirty regions of the task.
+     * @throws IOException if the dirty table can't be written.
+     */
+    protected void writeDirtyRegions(int loadId, DirtyRegions dirtyRegions) throws IOException {
+        Configuration conf = context.getConfiguration();
+        List<Put> puts = dirtyRegions.toPuts(loadId, Bytes.toBytes(GenomeHelper.DEFAULT_COLUMN_FAMILY));
+        try (Connection con = ConnectionFactory.createConnection(conf);
+             Table table = con.getTable(TableName.valueOf(DirtyRegions.getTableName(conf.get(CONFIG_COUNT_TABLE))))) {
+            table.put(puts);
+        }
+        incrementCounter("dirty-ranges", puts.size());
+    }
+
+    static void addSamples(String file, List<String> names, List<Integer> sampleIds,
+                           Map<String, Integer> sampleNameToSampleId) {
+        if (names.size() != sampleIds.size()) {
+            throw new IllegalStateException("File " + file + " has " + names.size() + " samples, but "
+                    + sampleIds.size() + " sample ids given");
+        }
+        for (int i = 0; i < names.size(); ++i) {
+            Integer previous = sampleNameToSampleId.put(names.get(i), sampleIds.get(i));
+            if (null != previous) {
+                throw new IllegalStateException("Sample " + names.get(i) + " of " + file + " already in task");
+            }
+        }
+    }
+
+    /**
+     * Calculate the allele counts of a slice and convert them to mutations.
+     * @param chromosome Chromosome.
+     * @param startPos Start position (inclusive).
+     * @param nextStartPos End position (exclusive).
+     * @param variants Variants overlapping the slice.
+     * @param sampleNameToSampleId Samples of the task.
+     * @param samples Sample names expected in each slice.
+     * @param batchId Batch id for idempotent writes.
+     * @return Mutations of the slice.
+     */
+    protected Collection<? extends Mutation> calculate(String chromosome, int startPos, int nextStartPos,
+                                                       List<Variant> variants, Map<String, Integer> sampleNameToSampleId,
+                                                       List<String> samples, int batchId) {
+        if ((nextStartPos - startPos) % this.converter.getRegionSize(chromosome) != 0) {
+            throw new IllegalStateException("Region size " + this.converter.getRegionSize(chromosome)
+                    + " not aligned with slice " + chromosome + ":" + startPos + "-" + nextStartPos);
+        }
+        AlleleRegionStore store = count(startPos, nextStartPos, variants, sampleNameToSampleId, samples);
+        if (null != this.dirtyRegions) {
+            incrementCounter("regions-dirty",
+                    this.dirtyRegions.add(chromosome, store, this.converter.getRegionSize(chromosome)));
+        }
+        if (this.idempotent) {
+            return this.converter.convertToPuts(chromosome, store, batchId);
+        }
+        return this.converter.convert(chromosome, store);
+    }
+
+    /**
+     * Count the alleles of a slice like {@link HbaseTableMapper}.
+     * @param startPos Start position (inclusive).
+     * @param nextStartPos End position (exclusive).
+     * @param variants Variants overlapping the slice.
+     * @param sampleNameToSampleId Samples of the task.
+     * @param samples Sample names expected in each slice.
+     * @return sparse store of the slice.
+     */
+    AlleleRegionStore count(int startPos, int nextStartPos, List<Variant> variants,
+                            Map<String, Integer> sampleNameToSampleId, List<String> samples) {
+        AlleleRegionCalculator calculator =
+                new AlleleRegionCalculator(studyId, sampleNameToSampleId, startPos, nextStartPos - 1);
+        calculator.setReferenceDepthBands(this.referenceDepthBands);
+        variants.forEach(calculator::addVariant);
+        incrementCounter("variants", variants.size());
+        calculator.fillNoCalls(samples, startPos, nextStartPos);
+        calculator.onlyLeaveSparseRepresentation(startPos, nextStartPos, false, false);
+        if (this.coalesce) {
+            incrementCounter("regions-coalesced", calculator.getStore().coalesce());
+        }
+        return calculator.getStore();
+    }
+
+    protected void incrementCounter(String name, long value) {
+        if (null != this.context) {
+            this.context.getCounter(COUNTER_GROUP_NAME, name).increment(value);
+        }
+    }
+}
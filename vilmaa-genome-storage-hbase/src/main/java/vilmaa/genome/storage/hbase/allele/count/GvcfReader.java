@@ -0,0 +1,305 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFContigHeaderLine;
+import htsjdk.variant.vcf.VCFHeader;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.tools.variant.VariantNormalizer;
+import org.opencb.biodata.tools.variant.converters.avro.VariantContextToVariantConverter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Streams the normalized variants of one chromosome of a sorted (b)gzipped or plain gVCF from HDFS or local disk. <br>
+ * Normalization can move the start of a variant right of its VCF position, e.g. trimmed deletions, so variants are
+ * held back until no later record can start before them - the variants are returned sorted by
+ * {@link GvcfSlicer#from(Variant)}. <br>
+ * A bgzipped file with a tabix or CSI index (see {@link GvcfIndex}) is read from the first record of the chromosome
+ * on. Without index the records of other chromosomes are skipped without decoding - read all chromosomes of such a file
+ * in one pass with {@link #moveTo(String)}.
+ * Created by mh719 on 18/04/2018.
+ */
+public class GvcfReader implements Iterator<Variant>, Closeable {
+    private final String source;
+    private final InputStream in;
+    private AsciiLineReaderIterator lines;
+    private BlockCompressedInputStream seekable;
+    private GvcfIndex index;
+    private String chromosome;
+    private String pending;
+    private String skipping;
+    private final Set<String> passed = new HashSet<>();
+    private final VCFCodec codec = new VCFCodec();
+    private final VCFHeader header;
+    private final VariantContextToVariantConverter converter;
+    private final VariantNormalizer normalizer = new VariantNormalizer();
+    private final PriorityQueue<Variant> buffer = new PriorityQueue<>(Comparator.comparingInt(GvcfSlicer::from));
+    private int lastPosition = Integer.MIN_VALUE;
+    private boolean seenChromosome = false;
+    private boolean done = false;
+    private long records = 0;
+
+    protected GvcfReader(String source, InputStream in, String studyId, String chromosome) {
+        this.source = source;
+        this.chromosome = chromosome;
+        this.in = in;
+        this.lines = new AsciiLineReaderIterator(new AsciiLineReader(in));
+        this.header = (VCFHeader) this.codec.readActualHeader(this.lines);
+        this.converter = new VariantContextToVariantConverter(studyId, source, getSampleNames());
+    }
+
+    /**
+     * @param conf Configuration to resolve the file system and compression codec.
+     * @param path gVCF file, compressed files are detected by extension.
+     * @param studyId Study id of the variants.
+     * @param chromosome Chromosome to read.
+     * @return Reader positioned at the first record of the chromosome if the file is indexed.
+     * @throws IOException if the file can't be opened.
+     */
+    public static GvcfReader open(Configuration conf, Path path, String studyId, String chromosome) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        Path indexPath = StringUtils.isEmpty(chromosome) ? null : GvcfIndex.find(fs, path);
+        if (null != indexPath) {
+            GvcfIndex index = GvcfIndex.read(fs, indexPath);
+            BlockCompressedInputStream in = new BlockCompressedInputStream(new FileSystemSeekableStream(fs, path));
+            try {
+                GvcfReader reader = new GvcfReader(path.toString(), in, studyId, chromosome);
+                reader.seekable = in;
+                reader.index = index;
+                reader.seek();
+                return reader;
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+        InputStream in = fs.open(path);
+        try {
+            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+            if (null != codec) {
+                in = codec.createInputStream(in);
+            }
+            return new GvcfReader(path.toString(), in, studyId, chromosome);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public List<String> getSampleNames() {
+        return this.header.getSampleNamesInOrder();
+    }
+
+    /**
+     * @return Contigs declared in the header, in order.
+     */
+    public List<String> getContigs() {
+        return this.header.getContigLines().stream().map(VCFContigHeaderLine::getID).collect(Collectors.toList());
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public boolean isIndexed() {
+        return null != this.index;
+    }
+
+    /**
+     * Continue with the next chromosome. Without index the file is read in one pass - chromosomes have to be read in
+     * the order of the file.
+     * @param chromosome Chromosome to read next.
+     * @throws IOException if the file can't be read.
+     */
+    public void moveTo(String chromosome) throws IOException {
+        if (hasNext()) {
+            throw new IllegalStateException("Chromosome " + this.chromosome + " of " + this.source + " not finished");
+        }
+        if (this.seenChromosome) {
+            this.passed.add(this.chromosome);
+        }
+        this.chromosome = chromosome;
+        this.lastPosition = Integer.MIN_VALUE;
+        this.seenChromosome = false;
+        this.done = false;
+        if (isIndexed()) {
+            seek();
+        } else if (this.passed.contains(chromosome)) {
+            throw new IllegalStateException("Chromosome " + chromosome + " of " + this.source
+                    + " already passed - read chromosomes in file order");
+        }
+    }
+
+    private void seek() throws IOException {
+        long offset = this.index.getStart(this.chromosome);
+        this.pending = null;
+        if (offset < 0) {
+            this.done = true; // no records
+            return;
+        }
+        this.seekable.seek(offset);
+        this.lines = new AsciiLineReaderIterator(new AsciiLineReader(this.seekable));
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !this.buffer.isEmpty();
+    }
+
+    @Override
+    public Variant next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.buffer.poll();
+    }
+
+    private void fill() {
+        while (!this.done && (this.buffer.isEmpty() || GvcfSlicer.from(this.buffer.peek()) > this.lastPosition)) {
+            String line = this.pending;
+            this.pending = null;
+            if (null == line) {
+                if (!this.lines.hasNext()) {
+                    this.done = true;
+                    return;
+                }
+                line = this.lines.next();
+            }
+            int tab = line.indexOf('\t');
+            if (tab != this.chromosome.length() || !line.startsWith(this.chromosome)) {
+                if (this.seenChromosome) {
+                    this.pending = line; // file is sorted - chromosome finished
+                    this.done = true;
+                } else {
+                    skip(line, tab);
+                }
+                continue;
+            }
+            this.seenChromosome = true;
+            VariantContext context = this.codec.decode(line);
+            if (context.getStart() < this.lastPosition) {
+                throw new IllegalStateException("File " + this.source + " not sorted: " + context.getContig() + ":"
+                        + context.getStart() + " after " + this.lastPosition);
+            }
+            this.lastPosition = context.getStart();
+            ++this.records;
+            this.buffer.addAll(normalize(this.converter.convert(context)));
+        }
+    }
+
+    private void skip(String line, int tab) {
+        if (null == this.skipping || tab != this.skipping.length() || !line.startsWith(this.skipping)) {
+            this.skipping = tab < 0 ? line : line.substring(0, tab);
+            this.passed.add(this.skipping);
+        }
+    }
+
+    private List<Variant> normalize(Variant variant) {
+        try {
+            return this.normalizer.normalize(Collections.singletonList(variant), false);
+        } catch (Exception e) {
+            throw new IllegalStateException("Problems normalizing " + variant + " of " + this.source, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    /**
+     * Seekable stream of a file on a Hadoop file system for BGZF virtual offsets.
+     */
+    private static class FileSystemSeekableStream extends SeekableStream {
+        private final String source;
+        private final long length;
+        private final FSDataInputStream in;
+
+        FileSystemSeekableStream(FileSystem fs, Path path) throws IOException {
+            this.source = path.toString();
+            this.length = fs.getFileStatus(path).getLen();
+            this.in = fs.open(path);
+        }
+
+        @Override
+        public long length() {
+            return this.length;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.in.getPos();
+        }
+
+        @Override
+        public void seek(long position) throws IOException {
+            this.in.seek(position);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return this.in.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+
+        @Override
+        public boolean eof() throws IOException {
+            return position() >= this.length;
+        }
+
+        @Override
+        public String getSource() {
+            return this.source;
+        }
+    }
+}
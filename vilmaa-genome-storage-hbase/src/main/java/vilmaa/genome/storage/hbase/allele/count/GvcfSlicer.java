@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.AlternateCoordinate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Cuts a stream of variants sorted by start into slices aligned like the archive slices of the same size.
+ * Variants spanning a slice boundary, e.g. reference blocks, are handed to each slice they overlap.
+ * Slices without any variant are skipped.
+ * Created by mh719 on 18/04/2018.
+ */
+public class GvcfSlicer {
+
+    /**
+     * Receives the variants of a slice.
+     */
+    @FunctionalInterface
+    public interface SliceConsumer {
+        void accept(String chromosome, int startPos, int nextStartPos, List<Variant> variants)
+                throws IOException, InterruptedException;
+    }
+
+    private final int sliceSize;
+
+    public GvcfSlicer(int sliceSize) {
+        if (sliceSize < 1) {
+            throw new IllegalStateException("Slice size has to be positive: " + sliceSize);
+        }
+        this.sliceSize = sliceSize;
+    }
+
+    public int getSliceSize() {
+        return sliceSize;
+    }
+
+    /**
+     * @param chromosome Chromosome of all variants.
+     * @param variants Variants sorted by {@link #from(Variant)}.
+     * @param consumer receives each slice with at least one variant, in order.
+     * @return number of slices.
+     * @throws IOException if the consumer fails.
+     * @throws InterruptedException if the consumer is interrupted.
+     */
+    public long slice(String chromosome, Iterator<Variant> variants, SliceConsumer consumer)
+            throws IOException, InterruptedException {
+        PeekingIterator<Variant> iterator = Iterators.peekingIterator(variants);
+        List<Variant> active = new ArrayList<>();
+        long slices = 0;
+        int startPos = Integer.MIN_VALUE;
+        while (iterator.hasNext() || !active.isEmpty()) {
+            if (active.isEmpty()) { // skip empty slices
+                startPos = Math.max(startPos, sliceStart(from(iterator.peek())));
+            }
+            int sliceStart = startPos;
+            int nextStartPos = startPos + this.sliceSize;
+            while (iterator.hasNext() && from(iterator.peek()) <= nextStartPos) {
+                active.add(iterator.next());
+            }
+            List<Variant> inSlice = active.stream().filter(v -> to(v) >= sliceStart).collect(Collectors.toList());
+            if (!inSlice.isEmpty()) {
+                consumer.accept(chromosome, startPos, nextStartPos, inSlice);
+                ++slices;
+            }
+            active.removeIf(v -> to(v) < nextStartPos);
+            startPos = nextStartPos;
+        }
+        return slices;
+    }
+
+    int sliceStart(int position) {
+        return Math.floorDiv(position, this.sliceSize) * this.sliceSize;
+    }
+
+    /**
+     * @param variant Variant.
+     * @return smallest position of the variant and its secondary alternates - insertions start after their end.
+     */
+    public static int from(Variant variant) {
+        int from = Math.min(variant.getStart(), variant.getEnd());
+        for (StudyEntry study : variant.getStudies()) {
+            for (AlternateCoordinate alt : study.getSecondaryAlternates()) {
+                from = Math.min(from, Math.min(alt.getStart(), alt.getEnd()));
+            }
+        }
+        return from;
+    }
+
+    /**
+     * @param variant Variant.
+     * @return largest position of the variant and its secondary alternates.
+     */
+    public static int to(Variant variant) {
+        int to = Math.max(variant.getStart(), variant.getEnd());
+        for (StudyEntry study : variant.getStudies()) {
+            for (AlternateCoordinate alt : study.getSecondaryAlternates()) {
+                to = Math.max(to, Math.max(alt.getStart(), alt.getEnd()));
+            }
+        }
+        return to;
+    }
+}
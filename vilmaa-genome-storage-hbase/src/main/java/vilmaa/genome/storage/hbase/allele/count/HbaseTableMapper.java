@@ -17,15 +17,34 @@
 
 package vilmaa.genome.storage.hbase.allele.count;
 
+import vilmaa.genome.storage.hbase.HBaseBatchWriter;
+import vilmaa.genome.storage.hbase.allele.ArchiveColumnFilters;
 import vilmaa.genome.storage.hbase.allele.count.position.HBaseAlleleCalculator;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleDictionary;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRecord;
 import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionCalculator;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStore;
 import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStoreToHBaseAppendConverter;
+import vilmaa.genome.storage.hbase.allele.count.region.ColumnarAlleleRegionStore;
+import vilmaa.genome.storage.hbase.allele.count.region.ObjectAlleleRegionStore;
+import vilmaa.genome.storage.hbase.allele.count.region.DepthBands;
+import vilmaa.genome.storage.hbase.allele.count.region.DirtyRegions;
+import vilmaa.genome.storage.hbase.allele.count.region.ReferenceCarryOver;
+import vilmaa.genome.storage.hbase.allele.count.region.RegionSizes;
+import vilmaa.genome.util.PipelineStage;
+import vilmaa.genome.util.Region;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.AlternateCoordinate;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveResultToVariantConverter;
 import org.opencb.opencga.storage.hadoop.variant.index.AbstractVariantTableMapReduce;
 
 import java.io.IOException;
@@ -34,8 +53,10 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
+import static org.opencb.opencga.storage.hadoop.variant.index.AbstractVariantTableDriver.CONFIG_VARIANT_FILE_IDS;
 import static org.opencb.opencga.storage.hadoop.variant.index.VariantTableMapper.*;
 
 /**
@@ -44,22 +65,86 @@ import static org.opencb.opencga.storage.hadoop.variant.index.VariantTableMapper
 public class HbaseTableMapper extends AbstractVariantTableMapReduce {
     public static final String END = "END";
     public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_FIXEND = "vilmaa.genome.storage.allele.count.fixend";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_COLUMNAR = "vilmaa.genome.storage.allele.count.columnar";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRECT = "vilmaa.genome.storage.allele.count.direct";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_REGION_SIZE = "vilmaa.genome.storage.allele.count.region.size";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_REGION_SIZE_TARGET = "vilmaa.genome.storage.allele.count.region.size.target";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_REGION_SIZE_SAMPLE = "vilmaa.genome.storage.allele.count.region.size.sample";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_SCAN_COLUMNS = "vilmaa.genome.storage.allele.count.scan.columns";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_SCAN_RANGES = "vilmaa.genome.storage.allele.count.scan.ranges";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_DEPTH_BANDS = "vilmaa.genome.storage.allele.count.depth.bands";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_CARRY_OVER = "vilmaa.genome.storage.allele.count.carryover";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_COALESCE = "vilmaa.genome.storage.allele.count.coalesce";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_IDEMPOTENT = "vilmaa.genome.storage.allele.count.idempotent";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_MEMORY_BUDGET = "vilmaa.genome.storage.allele.count.memory.budget";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_PARTITIONS = "vilmaa.genome.storage.allele.count.partitions";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_PIPELINE = "vilmaa.genome.storage.allele.count.pipeline";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_PIPELINE_QUEUE = "vilmaa.genome.storage.allele.count.pipeline.queue";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_WRITER_THREADS = "vilmaa.genome.storage.allele.count.writer.threads";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_WRITER_BUFFER = "vilmaa.genome.storage.allele.count.writer.buffer";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_WRITER_BATCH = "vilmaa.genome.storage.allele.count.writer.batch";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_MANIFEST = "vilmaa.genome.storage.allele.count.ingest.manifest";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_CHROMOSOMES = "vilmaa.genome.storage.allele.count.ingest.chromosomes";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_GROUP_SIZE = "vilmaa.genome.storage.allele.count.ingest.group.size";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_SLICE_SIZE = "vilmaa.genome.storage.allele.count.ingest.slice.size";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_MEMORY = "vilmaa.genome.storage.allele.count.batch.memory";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_FILES = "vilmaa.genome.storage.allele.count.batch.files";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_SAMPLE = "vilmaa.genome.storage.allele.count.batch.sample";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_PIPELINE = "vilmaa.genome.storage.allele.count.batch.pipeline";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY = "vilmaa.genome.storage.allele.count.dirty";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS = "vilmaa.genome.storage.allele.count.dirty.loads";
+    public static final String VILMAA_GENOME_STORAGE_ALLELE_COUNT_ENCODING = "vilmaa.genome.storage.allele.count.encoding";
+    // Rough sizing of a slice calculation, from the object layout on a 64 bit JVM with compressed oops:
+    // - archive: a sample call in a VcfRecord takes about 8 bytes (GT index varint, DP and AD strings) and becomes
+    //   about one stored region.
+    // - object store: RegionImpl (~24) + AlleleInfo (~48) + CompressedIntSet with a small array (~48) + references
+    //   in the region list and position index (~16), plus ~1/3 slack of the growing lists -> ~160 bytes.
+    // - columnar store: start, end, count, depth, flags, allele code and sample offset in primitive arrays (~28)
+    //   plus the sample id (~4), with the same slack -> ~40 bytes.
+    // The estimate only decides whether to split a slice - it is not a bound.
+    private static final int ARCHIVE_BYTES_PER_REGION = 8;
+    private static final int HEAP_BYTES_PER_REGION = 160;
+    private static final int HEAP_BYTES_PER_COLUMNAR_REGION = 40;
+    private static final int MAX_DICTIONARY_SIZE = 1 << 20; // alleles interned per task before starting over
     private Map<String, Integer> sampleNameToSampleId;
     private volatile ExecutorService submitterPool;
-    private final BlockingDeque<Collection<Append>> submitQueue = new LinkedBlockingDeque<>(2); // 1.5 x slice length
+    private final BlockingDeque<Collection<? extends Mutation>> submitQueue = new LinkedBlockingDeque<>(2); // 1.5 x slice length
     private final AtomicBoolean asyncPut = new AtomicBoolean(false);
     private final AtomicBoolean asyncFinished = new AtomicBoolean(false);
     private volatile Future<String> submitFuture;
     private volatile AlleleRegionStoreToHBaseAppendConverter converter;
     private boolean fixEndPosition = false;
+    private boolean columnarStore = false;
+    private boolean directRead = false;
+    private boolean coalesce = false;
+    private volatile DepthBands referenceDepthBands;
+    private volatile ReferenceCarryOver carryOver;
+    private volatile AlleleDictionary alleleDictionary = new AlleleDictionary();
+    private long memoryBudget = 0;
+    private boolean idempotent = false;
+    private int batchId;
+    private volatile Map<Integer, Integer[]> fileSampleIds;
+    private int partitions = 1;
+    private volatile ExecutorService partitionPool;
+    private volatile ThreadLocal<ArchiveResultToVariantConverter> partitionConverter;
+    private volatile Context context;
+    private volatile PipelineStage<Slice> decodeStage;
+    private volatile PipelineStage<Slice> calculateStage;
+    private volatile PipelineStage<Collection<? extends Mutation>> writeStage;
+    private volatile HBaseBatchWriter batchWriter;
+    private volatile DirtyRegions dirtyRegions;
+    private volatile BitSet batchFileIds;
+    private int loadId;
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException {
         super.setup(context);
+        this.context = context;
         setSampleNameToSampleId(getStudyConfiguration().getSampleIds());
         getLog().info("FORCE Parallel to FALSE.");
         this.getResultConverter().setParallel(false); // Parallel not tested!!!
-        this.asyncPut.set(context.getConfiguration().getBoolean(ARCHIVE_GET_BATCH_ASYNC, false));
+        boolean pipeline = context.getConfiguration().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_PIPELINE, false);
+        this.asyncPut.set(!pipeline && context.getConfiguration().getBoolean(ARCHIVE_GET_BATCH_ASYNC, false));
         getLog().info("Async retrieval of archive batches: {}", this.asyncPut.get());
         if (this.asyncPut.get()) {
             setupAsyncQueue(
@@ -67,7 +152,194 @@ public class HbaseTableMapper extends AbstractVariantTableMapReduce {
                     f -> context.getCounter(COUNTER_GROUP_NAME, "async-submitted").increment(f.size()));
         }
         converter = new AlleleRegionStoreToHBaseAppendConverter(getHelper().getColumnFamily(), getHelper().getStudyId());
+        converter.setRegionSizes(loadRegionSizes());
+        getLog().info("Count table region sizes: {}", converter.getRegionSizes());
+        converter.setEncoding(context.getConfiguration().getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_ENCODING,
+                AlleleRegionStoreToHBaseAppendConverter.ENCODING_V2));
+        getLog().info("Count cell encoding: v{}", converter.getEncoding());
         this.fixEndPosition = context.getConfiguration().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_FIXEND, false);
+        this.columnarStore = context.getConfiguration().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_COLUMNAR, false);
+        getLog().info("Use columnar allele region store: {}", this.columnarStore);
+        setDirectRead(context.getConfiguration().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRECT, false)
+                && !this.fixEndPosition);
+        getLog().info("Read archive slices directly: {}", this.directRead);
+        setReferenceDepthBands(DepthBands.parse(context.getConfiguration().get(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DEPTH_BANDS)));
+        getLog().info("Reference depth bands: {}", this.referenceDepthBands);
+        this.coalesce = context.getConfiguration().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_COALESCE, false);
+        getLog().info("Coalesce adjacent reference / no-call regions: {}", this.coalesce);
+        setCarryOver(context.getConfiguration().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_CARRY_OVER, false));
+        getLog().info("Carry over reference blocks between slices: {}", null != this.carryOver);
+        if (context.getConfiguration().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_IDEMPOTENT, false)) {
+            setBatchId(buildBatchId(context.getConfiguration().getStrings(CONFIG_VARIANT_FILE_IDS)));
+        }
+        getLog().info("Idempotent writes: {} with batch id {}", this.idempotent, this.batchId);
+        String[] fileIds = context.getConfiguration().getStrings(CONFIG_VARIANT_FILE_IDS);
+        if (null != fileIds && fileIds.length > 0) {
+            setBatchFileIds(Arrays.stream(fileIds).map(Integer::valueOf).collect(Collectors.toList()));
+        }
+        if (context.getConfiguration().getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY, false)) {
+            setLoadId(buildBatchId(context.getConfiguration().getStrings(CONFIG_VARIANT_FILE_IDS)));
+        }
+        getLog().info("Track dirty regions: {} for load {}", null != this.dirtyRegions, this.loadId);
+        setMemoryBudget(context.getConfiguration().getLong(VILMAA_GENOME_STORAGE_ALLELE_COUNT_MEMORY_BUDGET, 0));
+        getLog().info("Memory budget per slice calculation: {}", this.memoryBudget);
+        setPartitions(context.getConfiguration().getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_PARTITIONS, 1));
+        getLog().info("Sample partitions per slice: {}", this.partitions);
+        int writerThreads = context.getConfiguration().getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_WRITER_THREADS, 0);
+        getLog().info("Batch writer threads: {}", writerThreads);
+        if (writerThreads > 0) {
+            setupBatchWriter(writerThreads,
+                    context.getConfiguration().getLong(VILMAA_GENOME_STORAGE_ALLELE_COUNT_WRITER_BUFFER, 4 * 1024 * 1024),
+                    context.getConfiguration().getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_WRITER_BATCH, 1000));
+        }
+        getLog().info("Pipeline decode / calculate / write: {}", pipeline);
+        if (pipeline) {
+            setupPipeline(context.getConfiguration().getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_PIPELINE_QUEUE, 2));
+        }
+    }
+
+    /**
+     * Split the archive cells (files) of a slice into partitions, each calculated on its own thread.
+     * @param partitions number of partitions - 1 or less to process all cells on the mapper thread.
+     */
+    public void setPartitions(int partitions) {
+        this.partitions = Math.max(1, partitions);
+        if (this.partitions > 1 && null == this.partitionPool) {
+            this.partitionConverter = ThreadLocal.withInitial(() -> {
+                ArchiveResultToVariantConverter resultConverter = new ArchiveResultToVariantConverter(
+                        getHelper().getStudyId(), getHelper().getColumnFamily(), getStudyConfiguration());
+                resultConverter.setParallel(false);
+                return resultConverter;
+            });
+            this.partitionPool = Executors.newFixedThreadPool(this.partitions, (r) -> {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                t.setName("HbaseTableMapper-partition-thread");
+                return t;
+            });
+        }
+    }
+
+    protected void setupBatchWriter(int threads, long bufferSize, int batchLimit) {
+        this.batchWriter = new HBaseBatchWriter(batch ->
+                getHelper().getHBaseManager().act(getHelper().getOutputTableAsString(), table -> {
+                    try {
+                        table.batch(batch, new Object[batch.size()]);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                }), threads, bufferSize, batchLimit, this::incrementCounter);
+    }
+
+    /**
+     * Read the archive slices directly into the calculator without building Variant objects.
+     * Slices with overlapping records still use the Variant path to resolve conflicts.
+     * @param directRead enable direct read.
+     */
+    public void setDirectRead(boolean directRead) {
+        this.directRead = directRead;
+        if (directRead) {
+            this.fileSampleIds = ArchiveSliceReader.buildFileSampleIds(getStudyConfiguration().getSamplesInFiles());
+        }
+    }
+
+    /**
+     * Write each row of a slice as Put to a column of the batch, so that a retried or speculative task overwrites
+     * its previous contribution instead of appending it again.
+     * @param batchId id of the file batch.
+     */
+    public void setBatchId(int batchId) {
+        this.idempotent = true;
+        this.batchId = batchId;
+    }
+
+    /**
+     * Only count the archive columns of these files - the scan may return the columns of other files as well,
+     * see {@link ArchiveColumnFilters}.
+     * @param fileIds file ids of the batch.
+     */
+    public void setBatchFileIds(Collection<Integer> fileIds) {
+        this.batchFileIds = ArchiveColumnFilters.toBitSet(fileIds);
+    }
+
+    /**
+     * Record the regions changed by this load in the dirty table, see {@link DirtyRegions}.
+     * @param loadId id of the load.
+     */
+    public void setLoadId(int loadId) {
+        this.loadId = loadId;
+        this.dirtyRegions = new DirtyRegions();
+    }
+
+    /**
+     * @param fileIds file ids of the batch.
+     * @return smallest file id - a file is only loaded in one batch.
+     */
+    static int buildBatchId(String[] fileIds) {
+        if (null == fileIds || fileIds.length == 0) {
+            throw new IllegalStateException("File ids required for idempotent writes: " + CONFIG_VARIANT_FILE_IDS);
+        }
+        return Arrays.stream(fileIds).mapToInt(Integer::parseInt).min().getAsInt();
+    }
+
+    /**
+     * Calculate slices in sub-slices if the estimated memory of the calculation exceeds the budget.
+     * @param memoryBudget budget in bytes - 0 or less to calculate each slice in one go.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * Reuse the regions of reference blocks continuing from the previous slice - requires slices in order.
+     * @param carryOver enable carry over.
+     */
+    public void setCarryOver(boolean carryOver) {
+        this.carryOver = carryOver ? new ReferenceCarryOver() : null;
+    }
+
+    public void setColumnarStore(boolean columnarStore) {
+        this.columnarStore = columnarStore;
+    }
+
+    /**
+     * Read the region sizes recorded in the meta row of the count table by the driver.
+     * @return Region sizes, default size if none are recorded.
+     * @throws IOException if the meta row can't be read.
+     */
+    protected RegionSizes loadRegionSizes() throws IOException {
+        byte[] metaRow = getHelper().generateVariantRowKey(GenomeHelper.DEFAULT_METADATA_ROW_KEY, 0);
+        Result[] result = new Result[1];
+        getHelper().getHBaseManager().act(getHelper().getOutputTableAsString(), table -> {
+            result[0] = table.get(new Get(metaRow));
+        });
+        return RegionSizes.fromResult(result[0], getHelper().getColumnFamily(),
+                AlleleRegionStoreToHBaseAppendConverter.DEFAULT_REGION_SIZE);
+    }
+
+    public void setReferenceDepthBands(DepthBands referenceDepthBands) {
+        this.referenceDepthBands = referenceDepthBands;
+    }
+
+    protected AlleleRegionCalculator buildCalculator(String studyId, int start, int endInclusive) {
+        AlleleRegionCalculator calculator = new AlleleRegionCalculator(studyId, this.sampleNameToSampleId,
+                buildStore(start, endInclusive));
+        calculator.setReferenceDepthBands(this.referenceDepthBands);
+        calculator.setCarryOver(this.carryOver);
+        calculator.setDictionary(this.alleleDictionary);
+        return calculator;
+    }
+
+    protected AlleleRegionStore buildStore(int start, int endInclusive) {
+        if (this.columnarStore) {
+            return new ColumnarAlleleRegionStore(start, endInclusive);
+        }
+        return new ObjectAlleleRegionStore(start, endInclusive);
     }
 
     public void setAsyncPut(boolean asyncPut) {
@@ -80,10 +352,30 @@ public class HbaseTableMapper extends AbstractVariantTableMapReduce {
 
     @Override
     protected void cleanup(Context context) throws IOException, InterruptedException {
+        finishPipeline();
+        writeDirtyRegions();
         cleanupAsyncQueue();
+        if (null != this.batchWriter) {
+            this.batchWriter.close();
+        }
+        if (null != this.partitionPool) {
+            this.partitionPool.shutdownNow();
+        }
         super.cleanup(context);
     }
 
+    protected void writeDirtyRegions() throws IOException {
+        if (null == this.dirtyRegions) {
+            return;
+        }
+        List<Put> puts = this.dirtyRegions.toPuts(this.loadId, getHelper().getColumnFamily());
+        getHelper().getHBaseManager().act(DirtyRegions.getTableName(getHelper().getOutputTableAsString()),
+                table -> {
+                    table.put(puts);
+                });
+        incrementCounter("dirty-ranges", puts.size());
+    }
+
     protected void cleanupAsyncQueue() {
         if (null != this.submitterPool) {
             try {
@@ -105,24 +397,24 @@ public class HbaseTableMapper extends AbstractVariantTableMapReduce {
         }
     }
 
-    void setupAsyncQueue(Consumer<Collection<Append>> preSubmit, Consumer<Collection<Append>> postSubmit) {
+    void setupAsyncQueue(Consumer<Collection<? extends Mutation>> preSubmit, Consumer<Collection<? extends Mutation>> postSubmit) {
 
         Callable<String> callable = () -> {
             try {
                 while (!Thread.interrupted() && (!asyncFinished.get() || !this.submitQueue.isEmpty())) { // until interrupted
                     // Avoid deadlock if something unexpected happend with long wait.
-                    Collection<Append> appends = this.submitQueue.poll(1, TimeUnit.HOURS);
-                    if (null == appends) {
+                    Collection<? extends Mutation> mutations = this.submitQueue.poll(1, TimeUnit.HOURS);
+                    if (null == mutations) {
                         continue; // retry and finish, if flag is set.
                     }
                     if (Thread.interrupted()) {
                         break; //exit when interrupted
                     }
-                    getLog().info("Received {} appends ", appends.size());
-                    preSubmit.accept(appends);
-                    doSubmit(appends);
-                    getLog().info("Finished submitting {} appends ", appends.size());
-                    postSubmit.accept(appends);
+                    getLog().info("Received {} mutations ", mutations.size());
+                    preSubmit.accept(mutations);
+                    doSubmit(mutations);
+                    getLog().info("Finished submitting {} mutations ", mutations.size());
+                    postSubmit.accept(mutations);
                 }
                 return "Done";
             } catch (Exception e) {
@@ -148,24 +440,39 @@ public class HbaseTableMapper extends AbstractVariantTableMapReduce {
         return sampleNameToSampleId;
     }
 
-    public void doSubmit(Collection<Append> appends) throws IOException {
-        if (appends.isEmpty()) {
+    public void doSubmit(Collection<? extends Mutation> mutations) throws IOException {
+        if (mutations.isEmpty()) {
             return; // don't bother.
         }
+        if (null != this.batchWriter) {
+            try {
+                this.batchWriter.write(mutations);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            return;
+        }
         getHelper().getHBaseManager().act(getHelper().getOutputTableAsString(), table -> {
-            for (Append append : appends) {
-                if (null != append) {
-                    table.append(append);
+            List<Put> puts = new ArrayList<>();
+            for (Mutation mutation : mutations) {
+                if (mutation instanceof Append) {
+                    table.append((Append) mutation);
+                } else if (mutation instanceof Put) {
+                    puts.add((Put) mutation);
                 }
             }
+            if (!puts.isEmpty()) {
+                table.put(puts);
+            }
         });
     }
 
-    public void submit(Collection<Append> appends) throws IOException {
+    public void submit(Collection<? extends Mutation> mutations) throws IOException {
         if (this.asyncPut.get()) {
             try {
                 // blocking operation -> wait for 5 minutes, otherwise throw exception (avoid livelock)
-                boolean isSubmitted = this.submitQueue.offer(appends, 10, TimeUnit.MINUTES);
+                boolean isSubmitted = this.submitQueue.offer(mutations, 10, TimeUnit.MINUTES);
                 if (!isSubmitted) {
                     throw new IllegalStateException(
                             "Unable to add APPEND to queue - current size: " + this.submitQueue.size()
@@ -176,7 +483,7 @@ public class HbaseTableMapper extends AbstractVariantTableMapReduce {
                 throw new IOException(e);
             }
         } else {
-            doSubmit(appends);
+            doSubmit(mutations);
         }
     }
 
@@ -213,26 +520,15 @@ public class HbaseTableMapper extends AbstractVariantTableMapReduce {
     }
 
     void processCells(Collection<Cell> cells, Consumer<Variant> variantConsumer) {
+        processCells(getResultConverter(), cells, variantConsumer);
+    }
+
+    void processCells(ArchiveResultToVariantConverter resultConverter, Collection<Cell> cells,
+                      Consumer<Variant> variantConsumer) {
         String studyId = getStudyConfiguration().getStudyId() + "";
         int i = 0;
         for (Cell cell : cells) {
-            List<Variant> notResolved = getResultConverter().convert(cell, false);
-            for (Variant variant : notResolved) { // fix that the read length is not set properly
-                if (fixEndPosition) {
-                    if (variant.getStudy(studyId).getFiles().get(0).getAttributes().containsKey(END)) {
-                        variant.setEnd(Math.max(variant.getEnd() - 1, variant.getStart())); // ensure start <= end
-                        variant.getStudy(studyId).getFiles().get(0).getAttributes().put(END, variant.getEnd().toString());
-                    }
-                }
-                if (variant.getEnd() > variant.getStart() && variant.getLength() == 1) {
-                    variant.setLength((variant.getEnd() - variant.getStart()) + 1);
-                }
-            }
-            List<Variant> converted = getResultConverter().resolveConflicts(notResolved);
-            for (Variant variant : converted) {
-                completeAlternateCoordinates(variant);
-                variantConsumer.accept(variant);
-            }
+            convertCell(resultConverter, cell, studyId).forEach(variantConsumer);
             if (++i % 1000 == 0) {
                 long usedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
                 usedMemory /= 1024 * 1024;
@@ -241,57 +537,453 @@ public class HbaseTableMapper extends AbstractVariantTableMapReduce {
         }
     }
 
+    /**
+     * Convert an archive cell into Variants with resolved conflicts and complete alternate coordinates.
+     * @param resultConverter archive converter.
+     * @param cell archive cell.
+     * @param studyId study id.
+     * @return Variants of the cell.
+     */
+    List<Variant> convertCell(ArchiveResultToVariantConverter resultConverter, Cell cell, String studyId) {
+        List<Variant> notResolved = resultConverter.convert(cell, false);
+        for (Variant variant : notResolved) { // fix that the read length is not set properly
+            if (fixEndPosition) {
+                if (variant.getStudy(studyId).getFiles().get(0).getAttributes().containsKey(END)) {
+                    variant.setEnd(Math.max(variant.getEnd() - 1, variant.getStart())); // ensure start <= end
+                    variant.getStudy(studyId).getFiles().get(0).getAttributes().put(END, variant.getEnd().toString());
+                }
+            }
+            if (variant.getEnd() > variant.getStart() && variant.getLength() == 1) {
+                variant.setLength((variant.getEnd() - variant.getStart()) + 1);
+            }
+        }
+        List<Variant> converted = resultConverter.resolveConflicts(notResolved);
+        converted.forEach(variant -> completeAlternateCoordinates(variant));
+        return converted;
+    }
+
+    private static boolean isVariantColumn(Cell cell) {
+        byte[] prefix = GenomeHelper.VARIANT_COLUMN_B_PREFIX;
+        return cell.getQualifierLength() >= prefix.length
+                && Bytes.equals(cell.getQualifierArray(), cell.getQualifierOffset(), prefix.length,
+                prefix, 0, prefix.length);
+    }
+
+    /**
+     * @param rawCells cells of an archive row.
+     * @param family archive column family.
+     * @return file cells of the batch, if set.
+     */
+    List<Cell> filterCells(Cell[] rawCells, byte[] family) {
+        BitSet fileIds = this.batchFileIds;
+        List<Cell> cells = new ArrayList<>(rawCells.length);
+        int other = 0;
+        for (Cell cell : rawCells) {
+            if (!CellUtil.matchingFamily(cell, family) || isVariantColumn(cell)) {
+                continue;
+            }
+            if (null != fileIds && !ArchiveColumnFilters.isBatchColumn(cell, fileIds)) {
+                ++other;
+                continue;
+            }
+            cells.add(cell);
+        }
+        if (other > 0) {
+            incrementCounter("cells-other-files", other);
+        }
+        return cells;
+    }
+
     @Override
     protected void doMap(VariantMapReduceContext ctx) throws IOException, InterruptedException {
         try {
-            int startPos = (int) ctx.getStartPos();
-            int nextStartPos = (int) ctx.getNextStartPos();
-
-            String studyId = Integer.valueOf(getStudyConfiguration().getStudyId()).toString();
-            AlleleRegionCalculator alleleCalculator = new AlleleRegionCalculator(studyId, this.sampleNameToSampleId, startPos, nextStartPos - 1);
-//                    new HBaseAlleleCalculator(studyId, this.sampleNameToSampleId, startPos, nextStartPos - 1);
-
             getLog().info("Read Archive ...");
-            AtomicLong countVariants = new AtomicLong(0);
-            List<Cell> cells = Arrays.stream(ctx.getValue().rawCells())
-                    .filter(c -> Bytes.equals(CellUtil.cloneFamily(c), getHelper().getColumnFamily()))
-                    .filter(c -> !Bytes.startsWith(CellUtil.cloneQualifier(c), GenomeHelper.VARIANT_COLUMN_B_PREFIX))
-                    .collect(Collectors.toList());
-
-            processCells(cells, variant -> {
-                int from = toPosition(variant, true);
-                int to = toPosition(variant, false);
-                if (from <= nextStartPos && to >= startPos) {
-                    alleleCalculator.addVariant(variant);
-                    countVariants.incrementAndGet();
-                }
+            byte[] family = getHelper().getColumnFamily();
+            List<Cell> cells = filterCells(ctx.getValue().rawCells(), family);
+            Slice slice = new Slice(ctx.getChromosome(), (int) ctx.getStartPos(), (int) ctx.getNextStartPos(), cells);
+            if (null != this.decodeStage) {
+                this.decodeStage.put(slice);
+                return;
+            }
+            calculate(slice, mutations -> {
+                /* Submit */
+                incrementCounter("append-created", mutations.size());
+                getLog().info("Submit {} mutations ... ", mutations.size());
+                submit(mutations);
+                incrementCounter("append-submitted", mutations.size());
             });
-            getLog().info("Fill no-calls ... ");
-            alleleCalculator.fillNoCalls(this.currentIndexingSamples, ctx.getStartPos(), ctx.getNextStartPos());
-            getLog().info("Calculate sparse ... ");
-            alleleCalculator.onlyLeaveSparseRepresentation(startPos, nextStartPos, false, false);
-//            printStats(alleleCalculator);
-
-            ctx.getContext().getCounter(COUNTER_GROUP_NAME, "VARIANTS_FROM_ARCHIVE").increment(countVariants.get());
-
-            Collection<Append> appends = packageAlleleCounts(ctx.getChromosome(), studyId, alleleCalculator);
-
-            /* Submit */
-            ctx.getContext().getCounter(COUNTER_GROUP_NAME, "append-created").increment(appends.size());
-            getLog().info("Submit {} appends ... ", appends.size());
-            submit(appends);
-            ctx.getContext().getCounter(COUNTER_GROUP_NAME, "append-submitted").increment(appends.size());
-            ctx.getContext().getCounter(COUNTER_GROUP_NAME, "VCF_BLOCK_DONE").increment(1);
+            incrementCounter("VCF_BLOCK_DONE", 1);
         } catch (Exception e) {
             // in case of Exception -> force shutdown!!!
             if (this.asyncPut.get()) {
                 this.submitFuture.cancel(true);
             }
+            cancelPipeline();
             throw e;
         }
     }
 
-    protected Collection<Append> packageAlleleCounts(String chromosome, String studyId, AlleleRegionCalculator alleleCalculator) {
+    /**
+     * Convert the archive cells of a slice to variants - skipped if the cells are processed in partitions.
+     * @param slice Slice to decode.
+     */
+    protected void decode(Slice slice) {
+        if (this.partitions > 1 && slice.cells.size() > 1) {
+            return; // decoded by each partition
+        }
+        if (this.directRead) {
+            return; // read directly into the calculator
+        }
+        List<Variant> variants = new ArrayList<>();
+        processCells(slice.cells, variant -> {
+            if (slice.inSlice(variant)) {
+                variants.add(variant);
+            }
+        });
+        slice.variants = variants;
+        slice.cells = null;
+    }
+
+    /**
+     * Calculate the allele counts of a slice, split into sub-slices if the estimated memory exceeds the budget.
+     * The mutations of each sub-slice are passed on before the next sub-slice is calculated.
+     * @param slice Slice, optionally decoded.
+     * @param consumer receives the mutations of each (sub-)slice.
+     * @throws IOException if the mutations can't be submitted.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    protected void calculate(Slice slice, MutationConsumer consumer) throws IOException, InterruptedException {
+        List<Slice> subSlices = splitSlice(slice);
+        if (subSlices.size() > 1) {
+            incrementCounter("slice-split", 1);
+            incrementCounter("sub-slices", subSlices.size());
+        }
+        for (Slice subSlice : subSlices) {
+            consumer.accept(calculate(subSlice));
+        }
+        incrementCounter("VARIANTS_FROM_ARCHIVE", slice.countVariants.get());
+    }
+
+    /**
+     * Split a slice into sub-slices aligned to the region size of the converter, so that each sub-slice stays
+     * within the memory budget - the mutations are the same as for the whole slice. <br>
+     * Decoded variants are shared, but with direct read or partitions each sub-slice parses all archive cells
+     * again: holding the decoded records of the whole slice would cost the memory the split is meant to save, so
+     * the split trades parsing time (once per sub-slice) for heap.
+     * @param slice Slice to split.
+     * @return List of sub-slices in position order, or the slice itself if within budget.
+     */
+    protected List<Slice> splitSlice(Slice slice) {
+        long estimate = estimateMemory(slice);
+        int regionSize = this.converter.getRegionSize(slice.chromosome);
+        List<int[]> ranges = splitRange(slice.startPos, slice.nextStartPos, regionSize, estimate, this.memoryBudget);
+        if (ranges.size() < 2) {
+            return Collections.singletonList(slice);
+        }
+        getLog().info("Split slice {}:{} with estimated {} bytes into {} sub-slices ... ",
+                slice.chromosome, slice.startPos, estimate, ranges.size());
+        List<Slice> subSlices = new ArrayList<>(ranges.size());
+        ranges.forEach(range -> subSlices.add(slice.subSlice(range[0], range[1])));
+        return subSlices;
+    }
+
+    /**
+     * @param startPos start of the slice (inclusive), aligned to the region size.
+     * @param nextStartPos end of the slice (exclusive).
+     * @param regionSize region size.
+     * @param estimate estimated memory of the slice.
+     * @param memoryBudget memory budget - no split if 0 or less.
+     * @return contiguous ranges (start inclusive, end exclusive) starting at region boundaries.
+     */
+    static List<int[]> splitRange(int startPos, int nextStartPos, int regionSize, long estimate, long memoryBudget) {
+        int regions = (nextStartPos - startPos + regionSize - 1) / regionSize;
+        if (memoryBudget <= 0 || estimate <= memoryBudget || regions < 2) {
+            return Collections.singletonList(new int[]{startPos, nextStartPos});
+        }
+        int parts = (int) Math.min(regions, (estimate + memoryBudget - 1) / memoryBudget);
+        int step = ((regions + parts - 1) / parts) * regionSize;
+        List<int[]> ranges = new ArrayList<>(parts);
+        for (int start = startPos; start < nextStartPos; start += step) {
+            ranges.add(new int[]{start, Math.min(start + step, nextStartPos)});
+        }
+        return ranges;
+    }
+
+    /**
+     * Estimate the heap used to calculate a slice from the size of its archive cells and the number of samples.
+     * @param slice Slice.
+     * @return Estimated bytes.
+     */
+    protected long estimateMemory(Slice slice) {
+        return estimateMemory(slice.archiveBytes, this.currentIndexingSamples.size(), this.columnarStore);
+    }
+
+    /**
+     * @param archiveBytes size of the archive cells of a slice.
+     * @param samples number of samples loaded.
+     * @param columnarStore columnar allele region store used.
+     * @return Estimated heap bytes to calculate the slice.
+     */
+    public static long estimateMemory(long archiveBytes, int samples, boolean columnarStore) {
+        long regions = archiveBytes / ARCHIVE_BYTES_PER_REGION + samples;
+        return regions * (columnarStore ? HEAP_BYTES_PER_COLUMNAR_REGION : HEAP_BYTES_PER_REGION);
+    }
+
+    /**
+     * Calculate the allele counts of a slice and convert them to mutations.
+     * @param slice Slice, optionally decoded.
+     * @return Mutations of the slice.
+     * @throws InterruptedException if interrupted while waiting for a partition.
+     */
+    protected Collection<? extends Mutation> calculate(Slice slice) throws InterruptedException {
+        if ((slice.nextStartPos - slice.startPos) % this.converter.getRegionSize(slice.chromosome) != 0) {
+            throw new IllegalStateException("Region size " + this.converter.getRegionSize(slice.chromosome)
+                    + " not aligned with slice " + slice.chromosome + ":" + slice.startPos + "-" + slice.nextStartPos);
+        }
+        if (null != this.carryOver) {
+            incrementCounter("reference-carried-over", this.carryOver.advance(slice.chromosome, slice.startPos));
+        }
+        if (this.alleleDictionary.size() > MAX_DICTIONARY_SIZE) {
+            this.alleleDictionary = new AlleleDictionary(); // codes of the old dictionary are not reused
+        }
+        String studyId = Integer.valueOf(getStudyConfiguration().getStudyId()).toString();
+        AlleleRegionCalculator alleleCalculator = buildCalculator(studyId, slice.startPos, slice.nextStartPos - 1);
+//                    new HBaseAlleleCalculator(studyId, this.sampleNameToSampleId, startPos, nextStartPos - 1);
+
+        if (null != slice.variants) {
+            slice.variants.forEach(alleleCalculator::addVariant);
+        } else if (this.partitions > 1 && slice.cells.size() > 1) {
+            processPartitions(slice.cells, studyId, alleleCalculator.getStore(), slice);
+        } else {
+            addCells(getResultConverter(), slice.cells, slice, alleleCalculator);
+        }
+        getLog().info("Fill no-calls ... ");
+        alleleCalculator.fillNoCalls(this.currentIndexingSamples, slice.startPos, slice.nextStartPos);
+        getLog().info("Calculate sparse ... ");
+        alleleCalculator.onlyLeaveSparseRepresentation(slice.startPos, slice.nextStartPos, false, false);
+//            printStats(alleleCalculator);
+        if (this.coalesce) {
+            incrementCounter("regions-coalesced", alleleCalculator.getStore().coalesce());
+        }
+
+        if (null != this.dirtyRegions) {
+            incrementCounter("regions-dirty", this.dirtyRegions.add(slice.chromosome, alleleCalculator.getStore(),
+                    this.converter.getRegionSize(slice.chromosome)));
+        }
+        return packageAlleleCounts(slice.chromosome, studyId, alleleCalculator);
+    }
+
+    /**
+     * Add all calls of the slice from the cells, either via Variant objects or directly from the archive slice.
+     * @param resultConverter converter for the Variant path.
+     * @param cells archive cells.
+     * @param slice Slice to filter calls.
+     * @param calculator calculator to add the calls to.
+     */
+    protected void addCells(ArchiveResultToVariantConverter resultConverter, Collection<Cell> cells, Slice slice,
+                            AlleleRegionCalculator calculator) {
+        Consumer<Variant> variantConsumer = variant -> {
+            if (slice.inSlice(variant)) {
+                calculator.addVariant(variant);
+            }
+        };
+        if (!this.directRead) {
+            processCells(resultConverter, cells, variantConsumer);
+            return;
+        }
+        ArchiveSliceReader reader = new ArchiveSliceReader(this.fileSampleIds);
+        Consumer<AlleleRecord> recordConsumer = record -> {
+            if (slice.inSlice(record)) {
+                calculator.addRecord(record);
+            }
+        };
+        int fallback = 0;
+        for (Cell cell : cells) {
+            if (!reader.read(cell, recordConsumer)) {
+                ++fallback; // e.g. overlapping records -> resolve conflicts
+                processCells(resultConverter, Collections.singletonList(cell), variantConsumer);
+            }
+        }
+        incrementCounter("archive-direct-read", cells.size() - fallback);
+        incrementCounter("archive-variant-read", fallback);
+    }
+
+    /**
+     * Split cells into contiguous partitions, calculate each partition into its own store on the partition pool and
+     * merge the stores back in partition order. The merged store has the same content and order as the serial path.
+     * @param cells archive cells of the slice, in file order.
+     * @param studyId study id.
+     * @param store store to merge the partitions into.
+     * @param slice Slice of the cells - filter is called concurrently.
+     * @throws InterruptedException if interrupted while waiting for a partition.
+     */
+    protected void processPartitions(List<Cell> cells, String studyId, AlleleRegionStore store,
+                                     Slice slice) throws InterruptedException {
+        Region target = store.getTargetRegion();
+        int parts = Math.min(this.partitions, cells.size());
+        List<Future<AlleleRegionStore>> futures = new ArrayList<>(parts);
+        for (int p = 0; p < parts; ++p) {
+            List<Cell> partition = cells.subList(cells.size() * p / parts, cells.size() * (p + 1) / parts);
+            futures.add(this.partitionPool.submit(() -> {
+                AlleleRegionCalculator calculator = buildCalculator(studyId, target.getStart(), target.getEnd());
+                addCells(this.partitionConverter.get(), partition, slice, calculator);
+                return calculator.getStore();
+            }));
+        }
+        try {
+            for (Future<AlleleRegionStore> future : futures) {
+                store.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Problems calculating partition", e.getCause());
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+    }
+
+    protected void setupPipeline(int capacity) {
+        this.writeStage = new PipelineStage<>("write", capacity, mutations -> {
+            doSubmit(mutations);
+            incrementCounter("append-submitted", mutations.size());
+        }, pipelineCounter("write-queue-depth"), pipelineCounter("write-put-stall-ms"),
+                pipelineCounter("write-take-stall-ms"));
+        this.calculateStage = new PipelineStage<>("calculate", capacity, slice -> {
+            calculate(slice, mutations -> {
+                incrementCounter("append-created", mutations.size());
+                this.writeStage.put(mutations);
+            });
+            incrementCounter("VCF_BLOCK_DONE", 1);
+        }, pipelineCounter("calculate-queue-depth"), pipelineCounter("calculate-put-stall-ms"),
+                pipelineCounter("calculate-take-stall-ms"));
+        this.decodeStage = new PipelineStage<>("decode", capacity, slice -> {
+            decode(slice);
+            this.calculateStage.put(slice);
+        }, pipelineCounter("decode-queue-depth"), pipelineCounter("decode-put-stall-ms"),
+                pipelineCounter("decode-take-stall-ms"));
+    }
+
+    /**
+     * Wait for all slices to pass all pipeline stages.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws IllegalStateException if a stage failed.
+     */
+    protected void finishPipeline() throws InterruptedException {
+        if (null == this.decodeStage) {
+            return;
+        }
+        try {
+            this.decodeStage.finish();
+            this.calculateStage.finish();
+            this.writeStage.finish();
+        } finally {
+            cancelPipeline();
+        }
+    }
+
+    protected void cancelPipeline() {
+        for (PipelineStage stage : Arrays.asList(this.decodeStage, this.calculateStage, this.writeStage)) {
+            if (null != stage) {
+                stage.cancel();
+            }
+        }
+        this.decodeStage = null;
+        this.calculateStage = null;
+        this.writeStage = null;
+    }
+
+    private LongConsumer pipelineCounter(String name) {
+        return value -> incrementCounter("pipeline-" + name, value);
+    }
+
+    protected void incrementCounter(String name, long value) {
+        synchronized (this.context) { // counters are also updated by pipeline / submit threads
+            this.context.getCounter(COUNTER_GROUP_NAME, name).increment(value);
+        }
+    }
+
+    /**
+     * Archive cells of one slice, passed between pipeline stages.
+     */
+    protected static class Slice {
+        private final String chromosome;
+        private final int startPos;
+        private final int nextStartPos;
+        private final AtomicLong countVariants;
+        private final long archiveBytes;
+        private volatile List<Cell> cells;
+        private volatile List<Variant> variants;
+
+        public Slice(String chromosome, int startPos, int nextStartPos, List<Cell> cells) {
+            this(chromosome, startPos, nextStartPos, cells, cells.stream().mapToLong(Cell::getValueLength).sum(),
+                    new AtomicLong(0));
+        }
+
+        private Slice(String chromosome, int startPos, int nextStartPos, List<Cell> cells, long archiveBytes,
+                      AtomicLong countVariants) {
+            this.chromosome = chromosome;
+            this.startPos = startPos;
+            this.nextStartPos = nextStartPos;
+            this.cells = cells;
+            this.archiveBytes = archiveBytes;
+            this.countVariants = countVariants;
+        }
+
+        /**
+         * Sub-slice sharing the cells, decoded variants and variant count of this slice.
+         * Calls read from cells and spanning a sub-slice boundary are counted once per sub-slice.
+         * @param start Start position (inclusive).
+         * @param nextStart End position (exclusive).
+         * @return Slice for the sub range.
+         */
+        Slice subSlice(int start, int nextStart) {
+            Slice sub = new Slice(chromosome, start, nextStart, cells, archiveBytes, countVariants);
+            if (null != variants) {
+                sub.variants = variants.stream()
+                        .filter(v -> sub.overlap(toPosition(v, true), toPosition(v, false)))
+                        .collect(Collectors.toList());
+            }
+            return sub;
+        }
+
+        boolean inSlice(Variant variant) {
+            return inSlice(toPosition(variant, true), toPosition(variant, false));
+        }
+
+        boolean inSlice(AlleleRecord record) {
+            int from = Math.min(record.getStart(), record.getEnd());
+            int to = Math.max(record.getStart(), record.getEnd());
+            for (AlternateCoordinate alt : record.getSecondaryAlternates()) {
+                from = Math.min(from, Math.min(alt.getStart(), alt.getEnd()));
+                to = Math.max(to, Math.max(alt.getStart(), alt.getEnd()));
+            }
+            return inSlice(from, to);
+        }
+
+        private boolean overlap(int from, int to) {
+            return from <= nextStartPos && to >= startPos;
+        }
+
+        private boolean inSlice(int from, int to) {
+            if (overlap(from, to)) {
+                countVariants.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Receives the mutations of a (sub-)slice.
+     */
+    @FunctionalInterface
+    protected interface MutationConsumer {
+        void accept(Collection<? extends Mutation> mutations) throws IOException, InterruptedException;
+    }
+
+    protected Collection<? extends Mutation> packageAlleleCounts(String chromosome, String studyId, AlleleRegionCalculator alleleCalculator) {
+        if (this.idempotent) {
+            return converter.convertToPuts(chromosome, alleleCalculator.getStore(), this.batchId);
+        }
         return converter.convert(chromosome, alleleCalculator.getStore());
     }
 }
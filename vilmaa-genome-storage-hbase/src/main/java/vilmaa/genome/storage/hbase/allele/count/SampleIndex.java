@@ -0,0 +1,187 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import org.apache.commons.lang3.StringUtils;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Dense sample index - maps the sparse study sample ids to 0..N-1 with the members of each cohort next to each other.
+ * Persisted in the {@link StudyConfiguration} attributes. New samples are appended, existing indexes never change.
+ * Created by mh719 on 14/04/2018.
+ */
+public class SampleIndex {
+    public static final String ATTRIBUTE = "vilmaa.genome.storage.sample.index";
+    private static final int MISSING = -1;
+
+    private final int[] sampleIds;
+    private final int[] indexes;
+
+    private SampleIndex(int[] sampleIds) {
+        this.sampleIds = sampleIds;
+        int max = Arrays.stream(sampleIds).max().orElse(-1);
+        this.indexes = new int[max + 1];
+        Arrays.fill(this.indexes, MISSING);
+        for (int i = 0; i < sampleIds.length; ++i) {
+            if (sampleIds[i] < 0 || this.indexes[sampleIds[i]] != MISSING) {
+                throw new IllegalStateException("Sample id not valid or duplicated: " + sampleIds[i]);
+            }
+            this.indexes[sampleIds[i]] = i;
+        }
+    }
+
+    /**
+     * @param sampleIds sample ids in index order.
+     * @return Index of the sample ids.
+     */
+    public static SampleIndex of(Collection<Integer> sampleIds) {
+        return new SampleIndex(new LinkedHashSet<>(sampleIds).stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * @param sc study configuration.
+     * @return Persisted index extended by samples not yet indexed.
+     */
+    public static SampleIndex build(StudyConfiguration sc) {
+        return load(sc).extend(cohortOrder(sc));
+    }
+
+    /**
+     * @param sc study configuration.
+     * @return Persisted index - empty if not yet persisted.
+     */
+    public static SampleIndex load(StudyConfiguration sc) {
+        String value = null == sc.getAttributes() ? null : sc.getAttributes().getString(ATTRIBUTE);
+        if (StringUtils.isBlank(value)) {
+            return of(Collections.emptyList());
+        }
+        return of(Arrays.stream(value.split(",")).map(s -> Integer.valueOf(s.trim())).collect(Collectors.toList()));
+    }
+
+    /**
+     * Append samples not yet indexed and persist the index in the study attributes.
+     * @param sc study configuration.
+     * @return true if the index changed.
+     */
+    public static boolean update(StudyConfiguration sc) {
+        SampleIndex persisted = load(sc);
+        SampleIndex index = persisted.extend(cohortOrder(sc));
+        if (index.size() == persisted.size()) {
+            return false;
+        }
+        sc.getAttributes().put(ATTRIBUTE, index.toString());
+        return true;
+    }
+
+    /**
+     * @param sc study configuration.
+     * @return Sample ids of each cohort in cohort id order, followed by samples without cohort (default cohort aside).
+     */
+    public static List<Integer> cohortOrder(StudyConfiguration sc) {
+        Integer defaultCohort = sc.getCohortIds().get(StudyEntry.DEFAULT_COHORT);
+        Set<Integer> ordered = new LinkedHashSet<>();
+        new TreeSet<>(sc.getCohorts().keySet()).stream()
+                .filter(cid -> !cid.equals(defaultCohort))
+                .forEach(cid -> ordered.addAll(new TreeSet<>(sc.getCohorts().get(cid))));
+        ordered.addAll(new TreeSet<>(sc.getSampleIds().values()));
+        return new ArrayList<>(ordered);
+    }
+
+    /**
+     * @param sampleIds sample ids.
+     * @return new index with the sample ids not yet indexed appended in order.
+     */
+    public SampleIndex extend(Collection<Integer> sampleIds) {
+        List<Integer> added = sampleIds.stream().filter(sid -> !contains(sid)).distinct().collect(Collectors.toList());
+        if (added.isEmpty()) {
+            return this;
+        }
+        int[] extended = Arrays.copyOf(this.sampleIds, this.sampleIds.length + added.size());
+        for (int i = 0; i < added.size(); ++i) {
+            extended[this.sampleIds.length + i] = added.get(i);
+        }
+        return new SampleIndex(extended);
+    }
+
+    public int size() {
+        return this.sampleIds.length;
+    }
+
+    public boolean contains(int sampleId) {
+        return index(sampleId) != MISSING;
+    }
+
+    /**
+     * @param sampleId study sample id.
+     * @return dense index or -1 if not indexed.
+     */
+    public int index(int sampleId) {
+        return sampleId >= 0 && sampleId < this.indexes.length ? this.indexes[sampleId] : MISSING;
+    }
+
+    public int sampleId(int index) {
+        return this.sampleIds[index];
+    }
+
+    /**
+     * @param sampleIds study sample ids.
+     * @return dense indexes of the sample ids.
+     */
+    public BitSet toBitSet(Collection<Integer> sampleIds) {
+        BitSet bits = new BitSet(size());
+        for (Integer sid : sampleIds) {
+            int idx = index(sid);
+            if (idx == MISSING) {
+                throw new IllegalStateException("Sample not in index: " + sid);
+            }
+            bits.set(idx);
+        }
+        return bits;
+    }
+
+    /**
+     * @param sampleIds study sample ids e.g. of a cohort.
+     * @return [first, last + 1) if the sample ids have contiguous indexes, otherwise <code>null</code>.
+     */
+    public int[] range(Collection<Integer> sampleIds) {
+        BitSet bits = toBitSet(sampleIds);
+        if (bits.isEmpty()) {
+            return null;
+        }
+        int from = bits.nextSetBit(0);
+        int to = bits.nextClearBit(from);
+        return bits.nextSetBit(to) < 0 ? new int[]{from, to} : null;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.stream(this.sampleIds).mapToObj(Integer::toString).collect(Collectors.joining(","));
+    }
+}
@@ -17,14 +17,12 @@
 
 package vilmaa.genome.storage.hbase.allele.count.converter;
 
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.allele.count.AlleleCalculator;
 import vilmaa.genome.storage.hbase.allele.count.AlleleCountPosition;
 import org.apache.commons.math.exception.OutOfRangeException;
 import org.apache.hadoop.hbase.client.Append;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.phoenix.query.QueryConstants;
-import org.apache.phoenix.schema.types.PUnsignedInt;
-import org.apache.phoenix.schema.types.PVarchar;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,6 +39,7 @@ public class AlleleCountToHBaseAppendGroupedConverter implements GroupedAlleleCo
     private final byte[] columnFamily;
     AlleleCountPositionToAlleleCountHBaseProto protoConverter = new AlleleCountPositionToAlleleCountHBaseProto();
     private int factor;
+    private final RowKeyCodec rowKeyCodec = new RowKeyCodec();
 
     public AlleleCountToHBaseAppendGroupedConverter(byte[] columnFamily) {
         this.columnFamily = columnFamily;
@@ -123,14 +122,7 @@ public class AlleleCountToHBaseAppendGroupedConverter implements GroupedAlleleCo
     }
 
     private byte[] buildRowKey(String chromosome, Integer position) {
-        int size = PVarchar.INSTANCE.estimateByteSizeFromLength(Integer.valueOf(chromosome.length())).intValue() +
-                QueryConstants.SEPARATOR_BYTE_ARRAY.length + PUnsignedInt.INSTANCE.estimateByteSize(Integer.valueOf(position));
-        byte[] rk = new byte[size];
-        byte offset = 0;
-        int var7 = offset + PVarchar.INSTANCE.toBytes(chromosome, rk, offset);
-        rk[var7++] = 0;
-        PUnsignedInt.INSTANCE.toBytes(Integer.valueOf(position), rk, var7);
-        return rk;
+        return this.rowKeyCodec.regionKey(chromosome, position);
     }
 
 
@@ -17,15 +17,13 @@
 
 package vilmaa.genome.storage.hbase.allele.count.converter;
 
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.allele.count.AlleleCalculator;
 import vilmaa.genome.storage.hbase.allele.count.AlleleCountPosition;
 import vilmaa.genome.storage.hbase.allele.models.protobuf.PositionCountHBaseProto;
 import vilmaa.genome.storage.hbase.allele.models.protobuf.ReferenceCountHBaseProto;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.hbase.client.Append;
-import org.apache.phoenix.query.QueryConstants;
-import org.apache.phoenix.schema.types.PUnsignedInt;
-import org.apache.phoenix.schema.types.PVarchar;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -120,14 +118,7 @@ public class AlleleCountToHBaseCompactConverter implements GroupedAlleleCountToH
     }
 
     public static byte[] buildRowKey(String chromosome, Integer groupPosition) {
-        int size = PVarchar.INSTANCE.estimateByteSizeFromLength(Integer.valueOf(chromosome.length())).intValue() +
-                QueryConstants.SEPARATOR_BYTE_ARRAY.length + PUnsignedInt.INSTANCE.estimateByteSize(Integer.valueOf(groupPosition));
-        byte[] rk = new byte[size];
-        byte offset = 0;
-        int var7 = offset + PVarchar.INSTANCE.toBytes(chromosome, rk, offset);
-        rk[var7++] = 0;
-        PUnsignedInt.INSTANCE.toBytes(Integer.valueOf(groupPosition), rk, var7);
-        return rk;
+        return RowKeyCodec.buildRegionKey(chromosome, groupPosition);
     }
 
     private Map<Integer, List<PositionCountHBaseProto>> convertToAltProto(Map<Integer, Map<String, AlleleCountPosition>> variantMap) {
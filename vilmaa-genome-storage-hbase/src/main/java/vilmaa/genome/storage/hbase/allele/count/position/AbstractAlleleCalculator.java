@@ -23,7 +23,6 @@ import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
 import vilmaa.genome.util.Region;
 import vilmaa.genome.util.RegionImpl;
 import org.apache.commons.lang3.StringUtils;
-import org.opencb.biodata.models.feature.Genotype;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.AlternateCoordinate;
@@ -49,6 +48,7 @@ public abstract class AbstractAlleleCalculator implements AlleleCalculator {
     protected final String studyId;
     protected final Map<String, Integer> sampleNameToSampleId;
     protected final Region region;
+    protected final GenotypeParser genotypeParser = new GenotypeParser();
 
     public AbstractAlleleCalculator(int start, int end, String studyId, Map<String, Integer> sampleNameToSampleId) {
         this(start, end, studyId, sampleNameToSampleId, false);
@@ -60,10 +60,14 @@ public abstract class AbstractAlleleCalculator implements AlleleCalculator {
     }
 
     public static VariantType getAlleleType(Variant var, List<AlternateCoordinate> secondaryAlternates, Integer allele) {
+        return getAlleleType(var.getType(), secondaryAlternates, allele);
+    }
+
+    public static VariantType getAlleleType(VariantType type, List<AlternateCoordinate> secondaryAlternates, Integer allele) {
         switch (allele) {
             case -1: return VariantType.NO_VARIATION;
             case 0:
-            case 1: return saveVariantType(var.getType());
+            case 1: return saveVariantType(type);
             default:
                 AlternateCoordinate alt = secondaryAlternates.get(allele - 2);
                 return saveVariantType(alt.getType());
@@ -86,10 +90,14 @@ public abstract class AbstractAlleleCalculator implements AlleleCalculator {
     }
 
     public static Integer getAlleleStart(Variant var, List<AlternateCoordinate> secondaryAlternates, Integer allele) {
+        return getAlleleStart(var.getStart(), secondaryAlternates, allele);
+    }
+
+    public static Integer getAlleleStart(Integer start, List<AlternateCoordinate> secondaryAlternates, Integer allele) {
         switch (allele) {
             case -1:
             case 0:
-            case 1: return var.getStart();
+            case 1: return start;
             default:
                 AlternateCoordinate alt = secondaryAlternates.get(allele - 2);
                 return alt.getStart();
@@ -97,10 +105,14 @@ public abstract class AbstractAlleleCalculator implements AlleleCalculator {
     }
 
     public static Integer getAlleleEnd(Variant var, List<AlternateCoordinate> secondaryAlternates, Integer allele) {
+        return getAlleleEnd(var.getEnd(), secondaryAlternates, allele);
+    }
+
+    public static Integer getAlleleEnd(Integer end, List<AlternateCoordinate> secondaryAlternates, Integer allele) {
         switch (allele) {
             case -1:
             case 0:
-            case 1: return var.getEnd();
+            case 1: return end;
             default:
                 AlternateCoordinate alt = secondaryAlternates.get(allele - 2);
                 return alt.getEnd();
@@ -108,10 +120,15 @@ public abstract class AbstractAlleleCalculator implements AlleleCalculator {
     }
 
     public static String[] buildRefAlt(Variant var, List<AlternateCoordinate> secondaryAlternates, Integer allele) {
+        return buildRefAlt(var.getReference(), var.getAlternate(), secondaryAlternates, allele);
+    }
+
+    public static String[] buildRefAlt(String reference, String alternate, List<AlternateCoordinate> secondaryAlternates,
+                                       Integer allele) {
         switch (allele) {
             case -1: return NO_CALL_ALLELE;
             case 0: return REFERENCE_ALLELE;
-            case 1: return new String[] { var.getReference(), var.getAlternate()};
+            case 1: return new String[] {reference, alternate};
             default:
                 AlternateCoordinate alt = secondaryAlternates.get(allele - 2);
                 return new String[] { alt.getReference(), alt.getAlternate()};
@@ -120,52 +137,17 @@ public abstract class AbstractAlleleCalculator implements AlleleCalculator {
 
     public static Map<Integer, Integer> getAlleleCount(String gt) {
         Map<Integer, Integer> retMap = new HashMap<>();
-        int[] allelesIdx = new Genotype(gt).getAllelesIdx();
-        for (Integer idx : allelesIdx) {
-            Integer cnt = retMap.getOrDefault(idx, 0);
-            retMap.put(idx, cnt + 1);
-        }
-        if (retMap.containsKey(NO_CALL) && retMap.get(NO_CALL) > 0) {
-            if (retMap.size() > 1) { // other than no-call
-                retMap.remove(NO_CALL);
-            } else {
-                retMap.put(NO_CALL, 1); // Reset to 1 Allele -> no difference between ./. and .
-            }
+        int[] counts = GenotypeParser.getAlleleCounts(gt);
+        for (int i = 0; i < counts.length; i += 2) {
+            retMap.put(counts[i], counts[i + 1]);
         }
         return retMap;
     }
 
     protected static Map<Integer, AlleleInfo> getAlleleCount(List<String> data, Integer gtPos, Integer dpPos, Integer adPos) {
-        Map<Integer, AlleleInfo> retMap = new HashMap<>();
-        String gt = data.get(gtPos);
-        Integer depthCount = -1;
-        if (null != dpPos) {
-            depthCount = Integer.valueOf(data.get(dpPos)); // not always there
-        }
-        List<Integer> depth = new ArrayList<>();
-        if (null != adPos) {
-            Arrays.stream(data.get(adPos).split(",")).forEach(s -> depth.add(Integer.valueOf(s)));
-        }
-        int[] allelesIdx = new Genotype(gt).getAllelesIdx();
-        for (Integer idx : allelesIdx) {
-            Integer ad = idx < 0 || depth.isEmpty() || idx >= depth.size() ? depthCount : depth.get(idx);
-            AlleleInfo info = retMap.get(idx);
-            if (null == info) {
-                info = new AlleleInfo(1, ad);
-            } else {
-                info = new AlleleInfo(info.getCount() + 1, ad);
-            }
-            retMap.put(idx, info);
-        }
-        if (retMap.containsKey(NO_CALL) && retMap.get(NO_CALL).getCount() > 0) {
-            if (retMap.size() > 1) { // other than no-call
-                retMap.remove(NO_CALL);
-            } else {
-                AlleleInfo info = retMap.get(NO_CALL);
-                retMap.put(NO_CALL, new AlleleInfo(1, info.getDepth())); // Reset to 1 Allele -> no difference between ./. and .
-            }
-        }
-        return retMap;
+        GenotypeParser parser = new GenotypeParser();
+        parser.parse(data, gtPos, dpPos, adPos);
+        return parser.toAlleleInfoMap();
     }
 
     protected Integer getSampleId(String sampleName) {
@@ -0,0 +1,257 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.position;
+
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import org.opencb.biodata.models.feature.Genotype;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parses GT, DP and AD of one sample into reusable primitive buffers without splitting Strings.
+ * Alleles are reported in ascending order with the same no-call handling as {@link Genotype} based counting.
+ * Decoded GT strings are cached (shared). Not thread safe.
+ * Created by mh719 on 07/04/2018.
+ */
+public class GenotypeParser {
+    public static final int NO_CALL = -1;
+    private static final int MAX_CACHE_SIZE = 1024;
+    private static final Map<String, int[]> GT_CACHE = new ConcurrentHashMap<>();
+
+    static {
+        for (String gt : Arrays.asList(".", "./.", ".|.", "0", "1", "0/0", "0/1", "1/1", "0|0", "0|1", "1|0", "1|1",
+                "1/2", "1|2", "./0", "./1")) {
+            GT_CACHE.put(gt, decode(gt));
+        }
+    }
+
+    private int size = 0;
+    private int[] alleles = new int[4];
+    private int[] counts = new int[4];
+    private int[] depths = new int[4];
+    private int[] ad = new int[8];
+    private int adSize = 0;
+
+    /**
+     * Parse sample data.
+     * @param data sample data.
+     * @param gtPos position of GT.
+     * @param dpPos position of DP or null.
+     * @param adPos position of AD or null.
+     * @return number of alleles found.
+     */
+    public int parse(List<String> data, Integer gtPos, Integer dpPos, Integer adPos) {
+        return parse(data.get(gtPos), null == dpPos ? null : data.get(dpPos), null == adPos ? null : data.get(adPos));
+    }
+
+    /**
+     * Parse sample values.
+     * @param gtValue GT value.
+     * @param dpValue DP value or null if not available.
+     * @param adValue AD value or null if not available.
+     * @return number of alleles found.
+     */
+    public int parse(String gtValue, String dpValue, String adValue) {
+        int[] gt = getAlleleCounts(gtValue);
+        int depth = -1;
+        if (null != dpValue) {
+            depth = parseInt(dpValue); // not always there
+        }
+        this.adSize = 0;
+        if (null != adValue) {
+            parseAd(adValue);
+        }
+        this.size = gt.length >> 1;
+        if (this.alleles.length < this.size) {
+            this.alleles = new int[this.size];
+            this.counts = new int[this.size];
+            this.depths = new int[this.size];
+        }
+        for (int i = 0; i < this.size; ++i) {
+            int idx = gt[i << 1];
+            this.alleles[i] = idx;
+            this.counts[i] = gt[(i << 1) + 1];
+            this.depths[i] = idx < 0 || idx >= this.adSize ? depth : this.ad[idx];
+        }
+        return this.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getAllele(int i) {
+        return alleles[i];
+    }
+
+    public int getCount(int i) {
+        return counts[i];
+    }
+
+    public int getDepth(int i) {
+        return depths[i];
+    }
+
+    /**
+     * @param allele allele index.
+     * @return position of allele or -1 if not found.
+     */
+    public int indexOf(int allele) {
+        for (int i = 0; i < size; ++i) {
+            if (alleles[i] == allele) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return alleles of the last parsed sample as new {@link AlleleInfo} objects.
+     */
+    public Map<Integer, AlleleInfo> toAlleleInfoMap() {
+        Map<Integer, AlleleInfo> map = new HashMap<>();
+        for (int i = 0; i < size; ++i) {
+            map.put(alleles[i], new AlleleInfo(counts[i], depths[i]));
+        }
+        return map;
+    }
+
+    /**
+     * Count alleles of a genotype - multiple no-calls count as one, no-calls are ignored if other alleles are called.
+     * @param gt Genotype e.g. 0/1.
+     * @return alleles in ascending order with their counts as pairs {allele, count, allele, count, ...} - do not modify.
+     */
+    public static int[] getAlleleCounts(String gt) {
+        int[] counts = GT_CACHE.get(gt);
+        if (null == counts) {
+            counts = decode(gt);
+            if (GT_CACHE.size() < MAX_CACHE_SIZE) {
+                GT_CACHE.put(gt, counts);
+            }
+        }
+        return counts;
+    }
+
+    private static int[] decode(String gt) {
+        int[] idx = parseAlleles(gt);
+        Arrays.sort(idx);
+        if (idx.length > 0 && idx[idx.length - 1] == NO_CALL) {
+            return new int[]{NO_CALL, 1}; // Reset to 1 Allele -> no difference between ./. and .
+        }
+        int from = 0;
+        while (from < idx.length && idx[from] == NO_CALL) {
+            ++from; // other than no-call
+        }
+        int distinct = 0;
+        for (int i = from; i < idx.length; ++i) {
+            if (i == from || idx[i] != idx[i - 1]) {
+                ++distinct;
+            }
+        }
+        int[] counts = new int[distinct << 1];
+        int pos = -2;
+        for (int i = from; i < idx.length; ++i) {
+            if (i == from || idx[i] != idx[i - 1]) {
+                pos += 2;
+                counts[pos] = idx[i];
+            }
+            counts[pos + 1]++;
+        }
+        return counts;
+    }
+
+    private static int[] parseAlleles(String gt) {
+        int n = 1;
+        for (int i = 0; i < gt.length(); ++i) {
+            char c = gt.charAt(i);
+            if (c == '/' || c == '|') {
+                ++n;
+            }
+        }
+        int[] idx = new int[n];
+        int from = 0;
+        int k = 0;
+        for (int i = 0; i <= gt.length(); ++i) {
+            if (i == gt.length() || gt.charAt(i) == '/' || gt.charAt(i) == '|') {
+                if (i - from == 1 && gt.charAt(from) == '.') {
+                    idx[k++] = NO_CALL;
+                } else if (isNumber(gt, from, i)) {
+                    idx[k++] = parseInt(gt, from, i);
+                } else {
+                    return new Genotype(gt).getAllelesIdx(); // not a simple genotype
+                }
+                from = i + 1;
+            }
+        }
+        return idx;
+    }
+
+    private void parseAd(String str) {
+        int end = str.length();
+        while (end > 0 && str.charAt(end - 1) == ',') {
+            --end; // ignore trailing empty values (as String#split)
+        }
+        if (end == 0 && str.length() > 0) {
+            return;
+        }
+        int from = 0;
+        for (int i = 0; i <= end; ++i) {
+            if (i == end || str.charAt(i) == ',') {
+                if (this.adSize == this.ad.length) {
+                    this.ad = Arrays.copyOf(this.ad, this.adSize << 1);
+                }
+                this.ad[this.adSize++] = parseInt(str, from, i);
+                from = i + 1;
+            }
+        }
+    }
+
+    private static boolean isNumber(String str, int from, int to) {
+        if (to - from < 1 || to - from > 9) {
+            return false;
+        }
+        for (int i = from; i < to; ++i) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseInt(String str) {
+        return parseInt(str, 0, str.length());
+    }
+
+    private static int parseInt(String str, int from, int to) {
+        boolean negative = to - from > 1 && str.charAt(from) == '-';
+        int start = negative ? from + 1 : from;
+        if (!isNumber(str, start, to)) {
+            return Integer.valueOf(str.substring(from, to)); // same behaviour (and exception) as before
+        }
+        int value = 0;
+        for (int i = start; i < to; ++i) {
+            value = value * 10 + (str.charAt(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+}
@@ -76,7 +76,8 @@ public class HBaseAlleleCalculator extends AbstractAlleleCalculator {
         List<List<String>> samplesData = se.getSamplesData();
         se.getSamplesPosition().forEach((sampleName, sampPos) -> {
             Integer sampleId = this.getSampleId(sampleName);
-            Map<Integer, AlleleInfo> alleleCount = getAlleleCount(samplesData.get(sampPos), gtPos, dpPos, adPos);
+            genotypeParser.parse(samplesData.get(sampPos), gtPos, dpPos, adPos);
+            Map<Integer, AlleleInfo> alleleCount = genotypeParser.toAlleleInfoMap();
             AlleleInfo refAllele = alleleCount.getOrDefault(REF_IDX, new AlleleInfo(0, 0));
             Region<Map<Integer, AlleleInfo>> region = new RegionImpl<>(alleleCount, variant.getStart(), variant.getEnd());
             updateReferenceCount(sampleId, region);
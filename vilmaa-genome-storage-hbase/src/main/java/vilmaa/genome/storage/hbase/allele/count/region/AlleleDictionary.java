@@ -0,0 +1,160 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns (ref, alt) pairs of {@link AlleleInfo} ids to small integer codes with a shared id array and id string.
+ * Codes are only valid for the dictionary that created them - {@link #getIdString(AlleleInfo)} checks the id instance
+ * and falls back to building the string for ids of other dictionaries.
+ * Created by mh719 on 15/04/2018.
+ */
+public class AlleleDictionary {
+    public static final int UNKNOWN = -1;
+    public static final int REFERENCE = 0;
+    public static final int NO_CALL = 1;
+
+    private final Map<String, Map<String, Integer>> codes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> idStringCodes = new ConcurrentHashMap<>();
+    private volatile String[][] ids = new String[16][];
+    private volatile String[] idStrings = new String[16];
+    private volatile int size = 0;
+
+    public AlleleDictionary() {
+        append(AlleleInfo.getReferenceAllele());
+        append(AlleleInfo.getNoCallAllele());
+    }
+
+    /**
+     * @param reference reference allele.
+     * @param alternate alternate allele.
+     * @return code of the pair.
+     */
+    public int code(String reference, String alternate) {
+        Integer code = codes.computeIfAbsent(reference, k -> new ConcurrentHashMap<>()).get(alternate);
+        if (null != code) {
+            return code;
+        }
+        return add(reference, alternate);
+    }
+
+    /**
+     * @param id reference, no-call or (ref, alt) id.
+     * @return code of the id.
+     */
+    public int code(String[] id) {
+        switch (id.length) {
+            case 0: return REFERENCE;
+            case 1: return NO_CALL;
+            case 2: return code(id[0], id[1]);
+            default:
+                throw new IllegalStateException("RefAlt array expected to be of length 2: " + Arrays.toString(id));
+        }
+    }
+
+    /**
+     * @param info {@link AlleleInfo}.
+     * @return code of the id - taken from the info without a lookup, if coded by this dictionary.
+     */
+    public int code(AlleleInfo info) {
+        return isCoded(info) ? info.getAlleleCode() : code(info.getId());
+    }
+
+    /**
+     * @param idString id string e.g. <code>A_T</code> as written to the count table.
+     * @return code of the id.
+     */
+    public int parse(String idString) {
+        Integer code = idStringCodes.get(idString);
+        if (null == code) {
+            code = code(AlleleInfo.parseVariantId(idString));
+            idStringCodes.put(idString, code);
+        }
+        return code;
+    }
+
+    private synchronized int add(String reference, String alternate) {
+        Map<String, Integer> alternates = codes.get(reference);
+        Integer code = alternates.get(alternate);
+        if (null == code) {
+            code = append(new String[]{reference, alternate});
+            alternates.put(alternate, code);
+        }
+        return code;
+    }
+
+    private synchronized int append(String[] id) {
+        int code = this.size;
+        if (code == this.ids.length) {
+            this.idStrings = Arrays.copyOf(this.idStrings, code * 2);
+            this.ids = Arrays.copyOf(this.ids, code * 2);
+        }
+        this.idStrings[code] = AlleleInfo.buildVariantId(id);
+        this.ids[code] = id;
+        this.size = code + 1;
+        return code;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param code allele code.
+     * @return shared id array of the code.
+     */
+    public String[] getId(int code) {
+        return ids[code];
+    }
+
+    public String getIdString(int code) {
+        return idStrings[code];
+    }
+
+    /**
+     * Set the shared id and code.
+     * @param info {@link AlleleInfo} to update.
+     * @param code allele code.
+     */
+    public void setId(AlleleInfo info, int code) {
+        info.setId(getId(code));
+        info.setAlleleCode(code);
+    }
+
+    /**
+     * @param info {@link AlleleInfo}.
+     * @return id string without building it, if coded by this dictionary.
+     */
+    public String getIdString(AlleleInfo info) {
+        return isCoded(info) ? this.idStrings[info.getAlleleCode()] : info.getIdString();
+    }
+
+    private boolean isCoded(AlleleInfo info) {
+        int code = info.getAlleleCode();
+        if (code < 0 || code >= size) {
+            return false;
+        }
+        String[][] arr = this.ids;
+        return code < arr.length && arr[code] == info.getId();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.opencb.biodata.models.variant.avro.AlternateCoordinate;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.List;
+
+/**
+ * One record of a file (e.g. a gVCF line) with the values needed by the {@link AlleleRegionCalculator}.
+ * Created by mh719 on 09/04/2018.
+ */
+public interface AlleleRecord {
+
+    int getStart();
+
+    int getEnd();
+
+    String getReference();
+
+    String getAlternate();
+
+    VariantType getType();
+
+    boolean isPass();
+
+    List<AlternateCoordinate> getSecondaryAlternates();
+
+    int getSampleCount();
+
+    Integer getSampleId(int sample);
+
+    String getGenotype(int sample);
+
+    /**
+     * @param sample sample index.
+     * @return DP value or null if not available.
+     */
+    String getDepth(int sample);
+
+    /**
+     * @param sample sample index.
+     * @return AD value or null if not available.
+     */
+    String getAlleleDepth(int sample);
+}
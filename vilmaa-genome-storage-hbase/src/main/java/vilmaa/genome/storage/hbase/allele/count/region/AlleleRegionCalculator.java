@@ -21,6 +21,7 @@ import vilmaa.genome.storage.hbase.allele.count.AlleleCountPosition;
 import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
 import vilmaa.genome.storage.hbase.allele.count.position.AbstractAlleleCalculator;
 import vilmaa.genome.storage.hbase.allele.count.position.HBaseAlleleCalculator;
+import vilmaa.genome.util.CompressedIntSet;
 import vilmaa.genome.util.PointRegion;
 import vilmaa.genome.util.Region;
 import vilmaa.genome.util.RegionImpl;
@@ -28,12 +29,9 @@ import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.AlternateCoordinate;
 import org.opencb.biodata.models.variant.avro.VariantType;
-import org.opencb.biodata.tools.variant.merge.VariantMerger;
 
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * Calculates sample specific allele count, depth and pass for regions from a {@link Variant}.
@@ -42,9 +40,11 @@ import java.util.stream.IntStream;
 public class AlleleRegionCalculator extends AbstractAlleleCalculator {
 
     private AlleleRegionStore store;
+    private volatile DepthBands referenceDepthBands;
+    private volatile ReferenceCarryOver carryOver;
 
     public AlleleRegionCalculator(String studyId, Map<String, Integer> sampleNameToSampleId, int start, int endInclusive) {
-        this(studyId, sampleNameToSampleId, new AlleleRegionStore(start, endInclusive));
+        this(studyId, sampleNameToSampleId, new ObjectAlleleRegionStore(start, endInclusive));
     }
 
     public AlleleRegionCalculator(String studyId, Map<String, Integer> sampleNameToSampleId, AlleleRegionStore store) {
@@ -56,29 +56,52 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
         return store;
     }
 
-    private PositionInfo buildPositionInfo(Variant variant) {
-        StudyEntry se = variant.getStudy(studyId);
-        boolean isPass = isPassFilter(se);
+    /**
+     * Store the depth of reference calls as the lower boundary of their band.
+     * @param referenceDepthBands {@link DepthBands} or <code>null</code> for the exact depth.
+     */
+    public void setReferenceDepthBands(DepthBands referenceDepthBands) {
+        this.referenceDepthBands = referenceDepthBands;
+    }
+
+    /**
+     * @param dictionary {@link AlleleDictionary} shared between calculators e.g. of the same task.
+     */
+    public void setDictionary(AlleleDictionary dictionary) {
+        this.store.setDictionary(dictionary);
+    }
+
+    /**
+     * Reuse the regions of reference blocks continuing from the previous slice.
+     * @param carryOver {@link ReferenceCarryOver} shared between consecutive slices or <code>null</code>.
+     */
+    public void setCarryOver(ReferenceCarryOver carryOver) {
+        this.carryOver = carryOver;
+    }
+
+    private PositionInfo buildPositionInfo(AlleleRecord record) {
+        boolean isPass = record.isPass();
+        AlleleDictionary dictionary = this.store.getDictionary();
         PositionInfo positionInfo = new PositionInfo();
-        List<AlternateCoordinate> secondaryAlternates = se.getSecondaryAlternates();
-        Integer gtPos = se.getFormatPositions().get(VariantMerger.GT_KEY);
-        Integer dpPos = se.getFormatPositions().get(DP_KEY);
-        Integer adPos = se.getFormatPositions().get(AD_KEY);
-        List<List<String>> samplesData = se.getSamplesData();
-        se.getSamplesPosition().forEach((sampleName, sampPos) -> {
-            Integer sampleId = this.getSampleId(sampleName);
-            Map<Integer, AlleleInfo> alleleCount = getAlleleCount(samplesData.get(sampPos), gtPos, dpPos, adPos);
-            AlleleInfo refAllele = alleleCount.getOrDefault(REF_IDX, new AlleleInfo(0, 0));
-            for (Map.Entry<Integer, AlleleInfo> entry : alleleCount.entrySet()) {
-                AlleleInfo currInfo = entry.getValue();
+        List<AlternateCoordinate> secondaryAlternates = record.getSecondaryAlternates();
+        int sampleCount = record.getSampleCount();
+        for (int sample = 0; sample < sampleCount; ++sample) {
+            Integer sampleId = record.getSampleId(sample);
+            int alleleCount = genotypeParser.parse(record.getGenotype(sample), record.getDepth(sample),
+                    record.getAlleleDepth(sample));
+            int refIdx = genotypeParser.indexOf(REF_IDX);
+            int refCount = refIdx < 0 ? 0 : genotypeParser.getCount(refIdx);
+            AlleleInfo firstInfo = null;
+            for (int i = 0; i < alleleCount; ++i) { // ascending allele order
+                AlleleInfo currInfo = new AlleleInfo(genotypeParser.getCount(i), genotypeParser.getDepth(i));
                 currInfo.addSampleId(sampleId);
                 currInfo.setPass(isPass);
-                Integer alleleId = entry.getKey();
-                currInfo.setId(buildRefAlt(variant, secondaryAlternates, alleleId));
-                currInfo.setType(getAlleleType(variant, secondaryAlternates, alleleId));
+                Integer alleleId = genotypeParser.getAllele(i);
+                dictionary.setId(currInfo, alleleCode(dictionary, record, secondaryAlternates, alleleId));
+                currInfo.setType(getAlleleType(record.getType(), secondaryAlternates, alleleId));
                 Region<AlleleInfo> altReg = new RegionImpl<>(currInfo,
-                        getAlleleStart(variant, secondaryAlternates, alleleId),
-                        getAlleleEnd(variant, secondaryAlternates, alleleId));
+                        getAlleleStart(record.getStart(), secondaryAlternates, alleleId),
+                        getAlleleEnd(record.getEnd(), secondaryAlternates, alleleId));
                 if (currInfo.getType().equals(VariantType.INDEL)) {
                     if (altReg.getStart() > altReg.getEnd()) {
                         currInfo.setType(VariantType.INSERTION);
@@ -87,27 +110,29 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
                     }
                 }
                 positionInfo.addInfo(sampleId, altReg);
+                if (alleleId == 1) {
+                    firstInfo = currInfo;
+                }
                 if (alleleId < 2) {
                     continue;
                 }
                 // only for Sec Alts - fill reference calls
-                int fillRefCount = refAllele.getCount() + (2 - currInfo.getCount());
+                int fillRefCount = refCount + (2 - currInfo.getCount());
 
 
                 AlleleInfo fillInfo = new AlleleInfo(fillRefCount, currInfo.getDepth());
                 fillInfo.setPass(isPass);
                 fillInfo.addSampleId(sampleId);
-                fillInfo.setId(REFERENCE_ALLELE);
+                dictionary.setId(fillInfo, AlleleDictionary.REFERENCE);
                 fillInfo.setType(VariantType.DELETION); // most of the time correct (TODO improve)
 
                 // no direct overlap between ALTs
-                if (!altReg.overlap(new RegionImpl(null, variant.getStart(), variant.getEnd()), true)) {
+                if (!altReg.overlap(new RegionImpl(null, record.getStart(), record.getEnd()), true)) {
 
-                    if (alleleCount.containsKey(1)) {
+                    if (null != firstInfo) {
                         // create REF region for First Alt
-                        RegionImpl<AlleleInfo> firstAlt = new RegionImpl<>(new AlleleInfo(fillInfo), variant.getStart(),
-                                variant.getEnd());
-                        AlleleInfo firstInfo = alleleCount.get(1);
+                        RegionImpl<AlleleInfo> firstAlt = new RegionImpl<>(new AlleleInfo(fillInfo), record.getStart(),
+                                record.getEnd());
                         firstAlt.getData().setType(firstInfo.getType());
                         positionInfo.addInfo(sampleId, firstAlt);
 
@@ -119,8 +144,8 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
                     positionInfo.addInfo(sampleId, secAlt);
                 } else {
 
-                    int vMin = variant.getStart();
-                    int vMax = Math.max(variant.getStart(), variant.getEnd());
+                    int vMin = record.getStart();
+                    int vMax = Math.max(record.getStart(), record.getEnd());
                     int min = altReg.getStart();
                     int max = altReg.getMaxPosition();
 
@@ -133,14 +158,58 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
                     }
                 }
             }
-        });
+        }
         return positionInfo;
     }
 
+    private static int alleleCode(AlleleDictionary dictionary, AlleleRecord record,
+                                  List<AlternateCoordinate> secondaryAlternates, int allele) {
+        switch (allele) {
+            case -1: return AlleleDictionary.NO_CALL;
+            case 0: return AlleleDictionary.REFERENCE;
+            case 1: return dictionary.code(record.getReference(), record.getAlternate());
+            default:
+                AlternateCoordinate alt = secondaryAlternates.get(allele - 2);
+                return dictionary.code(alt.getReference(), alt.getAlternate());
+        }
+    }
+
     @Override
     public void addVariant(Variant variant) {
-        PositionInfo positionInfo = buildPositionInfo(variant);
-        positionInfo.getSampleAlleleRegionInfos().forEach((k, v) -> this.store.addAll(v));
+        StudyEntry se = variant.getStudy(studyId);
+        addRecord(new VariantAlleleRecord(variant, se, isPassFilter(se), this.sampleNameToSampleId));
+    }
+
+    /**
+     * Add the calls of all samples of a record.
+     * @param record {@link AlleleRecord} e.g. read directly from the archive.
+     */
+    public void addRecord(AlleleRecord record) {
+        ReferenceCarryOver carry = this.carryOver;
+        boolean candidate = null != carry && ReferenceCarryOver.isCandidate(record);
+        if (candidate) {
+            List<Region<AlleleInfo>> regions = carry.get(record);
+            if (null != regions) {
+                this.store.addAll(regions);
+                return;
+            }
+        }
+        PositionInfo positionInfo = buildPositionInfo(record);
+        DepthBands bands = this.referenceDepthBands;
+        positionInfo.getSampleAlleleRegionInfos().forEach((k, v) -> {
+            if (null != bands) {
+                v.forEach(r -> {
+                    AlleleInfo info = r.getData();
+                    if (info.getId().length == 0) { // band is idempotent for shared infos
+                        info.setDepth(bands.band(info.getDepth()));
+                    }
+                });
+            }
+            this.store.addAll(v);
+            if (candidate) { // single sample
+                carry.put(record, v, this.store.getTargetRegion().getEnd());
+            }
+        });
     }
 
 
@@ -154,6 +223,7 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
             throw new IllegalStateException("Start has to be lower than end. Expected " + target.getStart() + " <= " + target.getEnd());
         }
         Map<Integer, Map<String, AlleleCountPosition>> map = new HashMap<>();
+        AlleleDictionary dictionary = this.store.getDictionary();
         this.store.getVariation(target, r -> {
             if (r.getMaxPosition() < target.getStart()) {
                 return;
@@ -162,7 +232,7 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
                 return;
             }
             map.computeIfAbsent(r.getStart(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getIdString(), k -> new AlleleCountPosition())
+                    .computeIfAbsent(dictionary.getIdString(r.getData()), k -> new AlleleCountPosition())
                     .getAlternate().computeIfAbsent(r.getData().getCount(), k -> new ArrayList<>())
                     .addAll(r.getData().getSampleIds());
         });
@@ -202,10 +272,11 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
                         .addAll(r.getData().getSampleIds());
             }
         });
+        Map<Integer, Map<String, Map<Integer, SampleCounter>>> altCounts = new HashMap<>();
         this.store.getVariation(target, r -> {
             int start = Math.max(target.getStart(), r.getStart());
             int end = Math.min(target.getEnd(), r.getMaxPosition());
-            String id = r.getData().getIdString();
+            String id;
             if (r.getData().getType().equals(VariantType.SNV) || r.getData().getType().equals(VariantType.SNP)) {
                 id = r.getData().getId()[1]; // ALT as id
             } else if (r.getData().getType().equals(VariantType.DELETION)) {
@@ -218,17 +289,15 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
                 throw new IllegalStateException("Unexpected type: " + r.getData().getType());
             }
             for (int i = start; i <= end; i++) {
-                map.computeIfAbsent(i, k -> new AlleleCountPosition())
-                        .getAltMap().computeIfAbsent(id, k -> new HashMap<>())
-                        .computeIfAbsent(r.getData().getCount(), k -> new ArrayList<>())
-                        .addAll(r.getData().getSampleIds());
+                map.computeIfAbsent(i, k -> new AlleleCountPosition());
+                altCounts.computeIfAbsent(i, k -> new HashMap<>())
+                        .computeIfAbsent(id, k -> new HashMap<>())
+                        .computeIfAbsent(r.getData().getCount(), k -> new SampleCounter())
+                        .add(r.getData().getSampleIds());
             }
         });
-        map.forEach((k, acp) -> {
-            acp.getAltMap().forEach((id, amap) -> {
-                updateAlleleCount(amap);
-            });
-        });
+        altCounts.forEach((pos, idMap) -> idMap.forEach((id, counters) ->
+                map.get(pos).getAltMap().put(id, updateAlleleCount(counters))));
 
         map.forEach((pos, count) -> {
             count.getNotPass().addAll(getNotPass(pos));
@@ -244,50 +313,80 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
 
 
     /**
-     * Find duplicated entries an add allele count for these
-     * @param alleleCountMap
+     * Find duplicated entries an add allele count for these: samples seen n times for allele count ac
+     * are moved to allele count ac * n (repeated until no duplicates are left).
+     * @param counters Allele count to samples seen.
+     * @return Allele count to unique sample ids.
      */
-    private void updateAlleleCount(Map<Integer, List<Integer>> alleleCountMap) {
-        List<Integer> acs = new ArrayList<>(alleleCountMap.keySet());
-        Collections.sort(acs); // start with lowest ACs
-        for (int i = 0; i < acs.size(); i++) {
-            Integer ac = acs.get(i);
-            List<Integer> idList = alleleCountMap.get(ac);
-            HashSet<Integer> uids = new HashSet<>(idList.size());
-            // find repeated entries and get count (count -1) for it
-            Map<Integer, Long> cntMap = idList.stream().filter(id -> !uids.add(id))
-                    .collect(Collectors.groupingBy(x -> x, Collectors.counting()));
-            if (cntMap.isEmpty()) {
+    private Map<Integer, List<Integer>> updateAlleleCount(Map<Integer, SampleCounter> counters) {
+        Map<Integer, List<Integer>> alleleCountMap = new HashMap<>();
+        TreeMap<Integer, SampleCounter> pending = new TreeMap<>(counters); // start with lowest ACs
+        while (!pending.isEmpty()) {
+            Map.Entry<Integer, SampleCounter> entry = pending.pollFirstEntry();
+            int ac = entry.getKey();
+            SampleCounter counter = entry.getValue();
+            List<Integer> ids = new ArrayList<>();
+            alleleCountMap.put(ac, ids);
+            if (counter.maxMultiplicity() == 0) {
                 continue;
             }
-            // remove repeated entries
-            uids.removeAll(cntMap.keySet());
-            // fill current list with new values
-            idList.clear();
-            idList.addAll(uids);
-            Collections.sort(idList);
-
+            if (ac == 0) {
+                ids.addAll(counter.atLeastOnce());
+                continue;
+            }
+            ids.addAll(counter.exactly(1));
             // move repeated values to new key
-            cntMap.forEach((id, cnt) -> {
-                Integer newkey = (int) (ac * (cnt + 1)); // + 1 for first appearance in set.
-                alleleCountMap.computeIfAbsent(newkey, k -> {
-                    // key does not yet exist
-                    acs.add(newkey); //add to current list ot iterate over
-                    Collections.sort(acs);
-                    return new ArrayList<>();
-                }).add(id);
-            });
+            for (int n = 2; n <= counter.maxMultiplicity(); ++n) {
+                CompressedIntSet repeated = counter.exactly(n);
+                if (!repeated.isEmpty()) {
+                    pending.computeIfAbsent(ac * n, k -> new SampleCounter()).add(repeated);
+                }
+            }
+        }
+        return alleleCountMap;
+    }
+
+    /**
+     * Counts how often each sample was added: level k holds all samples seen more than k times.
+     */
+    private static class SampleCounter {
+        private final List<CompressedIntSet> levels = new ArrayList<>();
+
+        void add(CompressedIntSet samples) {
+            CompressedIntSet carry = samples;
+            for (int k = 0; !carry.isEmpty(); ++k) {
+                if (k == levels.size()) {
+                    levels.add(new CompressedIntSet(carry));
+                    return;
+                }
+                CompressedIntSet level = levels.get(k);
+                CompressedIntSet seen = CompressedIntSet.and(level, carry);
+                level.or(carry);
+                carry = seen;
+            }
+        }
+
+        int maxMultiplicity() {
+            return levels.size();
+        }
+
+        CompressedIntSet atLeastOnce() {
+            return levels.get(0);
+        }
+
+        CompressedIntSet exactly(int n) {
+            CompressedIntSet set = levels.get(n - 1);
+            return n < levels.size() ? CompressedIntSet.andNot(set, levels.get(n)) : set;
         }
     }
 
     @Override
     public Set<Integer> getPass(Integer position) {
         // not efficient, but will do for compatibility
-        Set<Integer> pass = new HashSet<>();
+        CompressedIntSet pass = new CompressedIntSet();
         Consumer<Region<AlleleInfo>> passFunction = r -> {
-            Set<Integer> sampleId = r.getData().getSampleIds();
             if (r.getData().isPass()) {
-                pass.addAll(sampleId);
+                pass.or(r.getData().getSampleIds());
             }
         };
         this.store.getVariation(position, passFunction);
@@ -298,13 +397,13 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
 
     @Override
     public Set<Integer> getNotPass(Integer position) {
-        Set<Integer> notPass = new HashSet<>();
+        CompressedIntSet notPass = new CompressedIntSet();
         Consumer<Region<AlleleInfo>> notPassFunction = r -> {
             if (r.getStart() > position.intValue()) {
                 return; // INDEL issue
             }
             if (!r.getData().isPass()) {
-                notPass.addAll(r.getData().getSampleIds());
+                notPass.or(r.getData().getSampleIds());
             }
         };
         this.store.getVariation(position, notPassFunction);
@@ -319,53 +418,62 @@ public class AlleleRegionCalculator extends AbstractAlleleCalculator {
         // ignore
     }
 
+    /**
+     * Sweep over the covered ranges of each expected sample and add a NO_CALL region for each gap.
+     * A region covers the positions it would be reported for by {@link AlleleRegionStore#getInfos(int, Consumer)}.
+     * @param expectedSamples Sample names expected to have a call for each position.
+     * @param startPos Start position (inclusive).
+     * @param nextStartPos End position (exclusive).
+     */
     @Override
     public void fillNoCalls(Collection<String> expectedSamples, long startPos, long nextStartPos) {
-        Set<Integer> sidsOrig = expectedSamples.stream().map(s -> getSampleId(s)).collect(Collectors.toSet());
-        Map<Integer, List<Integer>> sidToMissing = new HashMap<>();
-        // build up missing regions
-        IntStream.range((int) startPos, (int) nextStartPos).forEach(pos -> {
-            HashSet<Integer> sids = new HashSet<>(sidsOrig);
-            this.store.getInfos(pos, r -> sids.removeAll(r.getData().getSampleIds()));
-            sids.forEach(s -> sidToMissing.computeIfAbsent(s, (k) -> new ArrayList<>()).add(pos));
-        });
-        // add missing regions.
-        sidToMissing.forEach((sid, lst) -> {
-            if (lst.isEmpty()) {
-                return;
-            }
-            int idx = 0;
-            int start = -1;
-            int tmp = start;
-            while(idx < lst.size()) {
-                if (start < 0) {
-                    start = lst.get(idx++);
-                    tmp = start;
-                    continue;
-                }
-                if ((tmp + 1) == lst.get(idx)) {
-                    tmp = lst.get(idx++);
-                    continue;
-                } else {
-                    // submit
-                    RegionImpl<AlleleInfo> missing = new RegionImpl<>(
-                            new AlleleInfo(1, 0, sid, NO_CALL_ALLELE, VariantType.NO_VARIATION, false),
-                            start, tmp);
-                    this.store.add(missing);
-                    start = -1;
-                    tmp = start;
+        int first = (int) startPos;
+        int last = (int) nextStartPos - 1;
+        if (first > last) {
+            return;
+        }
+        Map<Integer, List<int[]>> covered = new HashMap<>();
+        expectedSamples.forEach(s -> covered.putIfAbsent(getSampleId(s), new ArrayList<>()));
+        Region target = new RegionImpl<>(null, first, last);
+        this.store.forEachReference(target, (start, end, pass, type, count, depth, id, sampleId) ->
+                cover(covered, first, last, Math.min(start, end), Math.max(start, end), sampleId));
+        this.store.forEachNocall(target, (start, end, pass, type, count, depth, id, sampleId) ->
+                cover(covered, first, last, Math.min(start, end), Math.max(start, end), sampleId));
+        this.store.forEachVariation(target, (start, end, pass, type, count, depth, id, sampleId) ->
+                cover(covered, first, last, type.equals(VariantType.INSERTION) ? start : Math.min(start, end),
+                        Math.max(start, end), sampleId));
+        covered.forEach((sid, ranges) -> {
+            ranges.sort(Comparator.comparingInt(range -> range[0]));
+            int pos = first; // first position not yet covered
+            for (int[] range : ranges) {
+                if (range[0] > pos) {
+                    addNoCall(sid, pos, range[0] - 1);
                 }
+                pos = Math.max(pos, range[1] + 1);
             }
-            if (start > 0) {
-                // submit
-                RegionImpl<AlleleInfo> missing = new RegionImpl<>(
-                        new AlleleInfo(1, 0, sid, NO_CALL_ALLELE, VariantType.NO_VARIATION, false),
-                        start, tmp);
-                this.store.add(missing);
+            if (pos <= last) {
+                addNoCall(sid, pos, last);
             }
         });
     }
 
+    private static void cover(Map<Integer, List<int[]>> covered, int first, int last, int min, int max,
+                              int sampleId) {
+        int from = Math.max(first, min);
+        int to = Math.min(last, max);
+        if (from > to || sampleId == AlleleRegionStore.NO_SAMPLE) {
+            return;
+        }
+        List<int[]> ranges = covered.get(sampleId);
+        if (null != ranges) {
+            ranges.add(new int[]{from, to});
+        }
+    }
+
+    private void addNoCall(int sid, int start, int end) {
+        this.store.add(start, end, 1, 0, sid, NO_CALL_ALLELE, VariantType.NO_VARIATION, false);
+    }
+
     @Override
     public AlleleCountPosition buildVariantCount(Integer position, String variant) {
         return buildVariantMap(new PointRegion(null, position)).get(position).get(variant);
@@ -0,0 +1,338 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.CompressedIntSet;
+import vilmaa.genome.util.Region;
+import vilmaa.genome.util.RegionImpl;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flat column block (v2) of the allele regions of one count table row, stored in
+ * {@link vilmaa.genome.storage.hbase.allele.models.protobuf.AlleleRegion#getColumns()}. <br>
+ * Entries with identical position, filter, type, count, depth and allele share one entry with the union of their
+ * sample ids. All values are varints, in this order:
+ * <ul>
+ *     <li>version, number of entries</li>
+ *     <li>allele dictionary: number of alleles and the allele ids of the variation entries</li>
+ *     <li>sample lists: number of lists, the size of each list and the delta-encoded sample ids of each list -
+ *     list offsets are the running sum of the sizes, entries with identical samples share a list</li>
+ *     <li>flags column: category (2 bits), pass (1 bit), type (3 bits) and count (remaining bits)</li>
+ *     <li>start column: delta to the (row relative) start of the previous entry, zig-zag encoded</li>
+ *     <li>length column: end - start of reference and no-call entries</li>
+ *     <li>depth column</li>
+ *     <li>allele column: dictionary index of variation entries</li>
+ *     <li>sample column: sample list index of each entry</li>
+ * </ul>
+ * Created by mh719 on 19/04/2018.
+ */
+public class AlleleRegionColumnBlock {
+    public static final int VERSION = 2;
+    private static final int REFERENCE = 0;
+    private static final int NO_CALL = 1;
+    private static final int VARIATION = 2;
+
+    private final int regionStart;
+    private final int regionEnd;
+    private final Map<Entry, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, Integer> alleles = new LinkedHashMap<>();
+    private final Entry probe = new Entry();
+
+    private AlleleRegionColumnBlock(Region targetRegion) {
+        this.regionStart = targetRegion.getStart();
+        this.regionEnd = targetRegion.getEnd();
+    }
+
+    /**
+     * @param targetRegion region of one row.
+     * @param store {@link AlleleRegionStore} with the regions of the row.
+     * @return column block of the regions overlapping the row - reference and no-call regions cut to the row.
+     */
+    public static byte[] encode(Region targetRegion, AlleleRegionStore store) {
+        AlleleRegionColumnBlock block = new AlleleRegionColumnBlock(targetRegion);
+        store.forEachReference(targetRegion, (start, end, pass, type, count, depth, id, sampleId) ->
+                block.add(REFERENCE, start, end, pass, type, count, depth, id, sampleId));
+        store.forEachNocall(targetRegion, (start, end, pass, type, count, depth, id, sampleId) ->
+                block.add(NO_CALL, start, end, pass, type, count, depth, id, sampleId));
+        store.forEachVariation(targetRegion, (start, end, pass, type, count, depth, id, sampleId) ->
+                block.add(VARIATION, start, end, pass, type, count, depth, id, sampleId));
+        return block.toBytes();
+    }
+
+    private void add(int category, int start, int end, boolean pass, VariantType type, int count, int depth,
+                     String id, int sampleId) {
+        int flags = count << 6
+                | AlleleRegionStoreToHBaseAppendConverter.encodeType(type) << 3
+                | (pass ? 1 << 2 : 0)
+                | category;
+        if (category == VARIATION) {
+            Integer allele = this.alleles.get(id);
+            if (null == allele) {
+                allele = this.alleles.size();
+                this.alleles.put(id, allele);
+            }
+            this.probe.set(flags, start - this.regionStart, 0, depth, allele);
+        } else {
+            int from = Math.max(start, this.regionStart);
+            int to = Math.min(end, this.regionEnd);
+            this.probe.set(flags, from - this.regionStart, to - from, depth, 0);
+        }
+        Entry entry = this.entries.get(this.probe); // probe avoids a key per row
+        if (null == entry) {
+            entry = new Entry().set(this.probe.flags, this.probe.start, this.probe.length, this.probe.depth,
+                    this.probe.allele);
+            entry.samples = new CompressedIntSet();
+            this.entries.put(entry, entry);
+        }
+        if (sampleId != AlleleRegionStore.NO_SAMPLE) {
+            entry.samples.add(sampleId);
+        }
+    }
+
+    private byte[] toBytes() {
+        List<Entry> list = new ArrayList<>(this.entries.values());
+        Map<SampleList, Integer> lists = new LinkedHashMap<>();
+        int[] sampleList = new int[list.size()];
+        for (int i = 0; i < list.size(); ++i) {
+            sampleList[i] = lists.computeIfAbsent(new SampleList(list.get(i).samples.toIntArray()), k -> lists.size());
+        }
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bout);
+        try {
+            out.writeUInt32NoTag(VERSION);
+            out.writeUInt32NoTag(list.size());
+            out.writeUInt32NoTag(this.alleles.size());
+            for (String id : this.alleles.keySet()) {
+                out.writeStringNoTag(id);
+            }
+            out.writeUInt32NoTag(lists.size());
+            for (SampleList samples : lists.keySet()) {
+                out.writeUInt32NoTag(samples.ids.length);
+            }
+            for (SampleList samples : lists.keySet()) {
+                int prev = 0;
+                for (int id : samples.ids) {
+                    out.writeUInt32NoTag(id - prev);
+                    prev = id;
+                }
+            }
+            for (Entry entry : list) {
+                out.writeUInt32NoTag(entry.flags);
+            }
+            int prev = 0;
+            for (Entry entry : list) {
+                out.writeSInt32NoTag(entry.start - prev);
+                prev = entry.start;
+            }
+            for (Entry entry : list) {
+                if (category(entry.flags) != VARIATION) {
+                    out.writeUInt32NoTag(entry.length);
+                }
+            }
+            for (Entry entry : list) {
+                out.writeUInt32NoTag(entry.depth);
+            }
+            for (Entry entry : list) {
+                if (category(entry.flags) == VARIATION) {
+                    out.writeUInt32NoTag(entry.allele);
+                }
+            }
+            for (int idx : sampleList) {
+                out.writeUInt32NoTag(idx);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Problems writing column block", e);
+        }
+        return bout.toByteArray();
+    }
+
+    public static void decode(AlleleRegionStore store, int regStart, byte[] block) throws IOException {
+        decode(store, regStart, CodedInputStream.newInstance(block));
+    }
+
+    /**
+     * Adds the regions of a column block to the store. Variation starting before the row is skipped if the store
+     * starts before the row as well - it was loaded with the previous row.
+     * @param store {@link AlleleRegionStore} to add to.
+     * @param regStart start of the row.
+     * @param in column block.
+     * @throws IOException if the block can't be read.
+     */
+    public static void decode(AlleleRegionStore store, int regStart, CodedInputStream in) throws IOException {
+        int version = in.readUInt32();
+        if (version != VERSION) {
+            throw new IllegalStateException("Column block version not supported: " + version);
+        }
+        int size = in.readUInt32();
+        AlleleDictionary dictionary = store.getDictionary();
+        int[] codes = new int[in.readUInt32()];
+        for (int i = 0; i < codes.length; ++i) {
+            codes[i] = dictionary.parse(in.readString());
+        }
+        int[] offsets = new int[in.readUInt32() + 1];
+        for (int i = 1; i < offsets.length; ++i) {
+            offsets[i] = offsets[i - 1] + in.readUInt32();
+        }
+        CompressedIntSet[] lists = new CompressedIntSet[offsets.length - 1];
+        for (int i = 0; i < lists.length; ++i) {
+            lists[i] = new CompressedIntSet();
+            int prev = 0;
+            for (int j = offsets[i]; j < offsets[i + 1]; ++j) {
+                prev += in.readUInt32();
+                lists[i].add(prev);
+            }
+        }
+        int[] flags = readColumn(in, size);
+        int[] start = new int[size];
+        int prev = 0;
+        for (int i = 0; i < size; ++i) {
+            prev += in.readSInt32();
+            start[i] = prev;
+        }
+        int[] length = new int[size];
+        for (int i = 0; i < size; ++i) {
+            if (category(flags[i]) != VARIATION) {
+                length[i] = in.readUInt32();
+            }
+        }
+        int[] depth = readColumn(in, size);
+        int[] allele = new int[size];
+        for (int i = 0; i < size; ++i) {
+            if (category(flags[i]) == VARIATION) {
+                allele[i] = in.readUInt32();
+            }
+        }
+        int[] samples = readColumn(in, size);
+        boolean skipLeading = store.getTargetRegion().getStart() < regStart;
+        for (int i = 0; i < size; ++i) {
+            int category = category(flags[i]);
+            int count = flags[i] >> 6;
+            boolean pass = (flags[i] & 1 << 2) != 0;
+            int genomeStart = regStart + start[i];
+            AlleleInfo info;
+            int genomeEnd;
+            switch (category) {
+                case REFERENCE:
+                case NO_CALL:
+                    info = new AlleleInfo(count, depth[i], lists[samples[i]],
+                            category == REFERENCE ? AlleleInfo.getReferenceAllele() : AlleleInfo.getNoCallAllele(),
+                            HBaseToAlleleRegionStoreConverter.parseType(flags[i] >> 3 & 7), pass);
+                    genomeEnd = genomeStart + length[i];
+                    break;
+                case VARIATION:
+                    if (genomeStart < regStart && skipLeading) {
+                        continue; // already loaded by previous region for this store.
+                    }
+                    int code = codes[allele[i]];
+                    String[] id = dictionary.getId(code);
+                    info = new AlleleInfo(count, depth[i], lists[samples[i]], id,
+                            HBaseToAlleleRegionStoreConverter.parseType(flags[i] >> 3 & 7), pass);
+                    info.setAlleleCode(code);
+                    genomeEnd = genomeStart + id[0].length() - 1;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown category: " + category);
+            }
+            store.add(new RegionImpl<>(info, genomeStart, genomeEnd));
+        }
+    }
+
+    private static int[] readColumn(CodedInputStream in, int size) throws IOException {
+        int[] column = new int[size];
+        for (int i = 0; i < size; ++i) {
+            column[i] = in.readUInt32();
+        }
+        return column;
+    }
+
+    private static int category(int flags) {
+        return flags & 3;
+    }
+
+    private static final class Entry {
+        private int flags;
+        private int start;
+        private int length;
+        private int depth;
+        private int allele;
+        private CompressedIntSet samples;
+
+        private Entry set(int flags, int start, int length, int depth, int allele) {
+            this.flags = flags;
+            this.start = start;
+            this.length = length;
+            this.depth = depth;
+            this.allele = allele;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return flags == entry.flags && start == entry.start && length == entry.length && depth == entry.depth
+                    && allele == entry.allele;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = flags;
+            result = 31 * result + start;
+            result = 31 * result + length;
+            result = 31 * result + depth;
+            return 31 * result + allele;
+        }
+    }
+
+    private static final class SampleList {
+        private final int[] ids;
+        private final int hash;
+
+        private SampleList(int[] ids) {
+            this.ids = ids;
+            this.hash = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof SampleList && Arrays.equals(ids, ((SampleList) o).ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import com.google.protobuf.CodedInputStream;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.Region;
+import vilmaa.genome.util.RegionImpl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the accumulated {@link vilmaa.genome.storage.hbase.allele.models.protobuf.AlleleRegion} messages of a count
+ * table row - the appended column and the batch columns of the study - into one message.
+ * Sample ids of entries with identical position, filter, type, count, depth and allele are unioned.
+ * Created by mh719 on 16/04/2018.
+ */
+public class AlleleRegionCompactor {
+    private final HBaseToAlleleRegionStoreConverter reader;
+    private final AlleleRegionStoreToHBaseAppendConverter writer;
+
+    public AlleleRegionCompactor(HBaseToAlleleRegionStoreConverter reader,
+                                 AlleleRegionStoreToHBaseAppendConverter writer) {
+        this.reader = reader;
+        this.writer = writer;
+    }
+
+    /**
+     * @param bytes value of a count column.
+     * @return number of length-delimited messages.
+     */
+    public static int countMessages(byte[] bytes) {
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        int cnt = 0;
+        try {
+            while (!in.isAtEnd()) {
+                in.skipRawBytes(in.readRawVarint32());
+                ++cnt;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Problems reading delimited messages", e);
+        }
+        return cnt;
+    }
+
+    /**
+     * @param result row of the count table.
+     * @return number of messages in all count columns of the study.
+     */
+    public int countMessages(Result result) {
+        int cnt = 0;
+        for (Cell cell : result.rawCells()) {
+            if (reader.isCountColumn(CellUtil.cloneQualifier(cell))) {
+                cnt += countMessages(CellUtil.cloneValue(cell));
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * @param result row of the count table.
+     * @return TRUE if the row holds at most one message, in the appended column.
+     */
+    public boolean isCanonical(Result result) {
+        int columns = 0;
+        for (Cell cell : result.rawCells()) {
+            byte[] qualifier = CellUtil.cloneQualifier(cell);
+            if (!reader.isCountColumn(qualifier)) {
+                continue;
+            }
+            if (!Bytes.equals(reader.getColumnName(), qualifier) || countMessages(CellUtil.cloneValue(cell)) > 1) {
+                return false;
+            }
+            ++columns;
+        }
+        return columns <= 1;
+    }
+
+    /**
+     * @param result row of the count table - only count columns to merge.
+     * @return one length-delimited message with the merged content of all count columns.
+     */
+    public byte[] compact(Result result) {
+        AlleleRegionStore store = merge(reader.convert(result));
+        return writer.toBytes(store.getTargetRegion(), store);
+    }
+
+    /**
+     * @param store {@link AlleleRegionStore} with possibly repeated entries e.g. one per load.
+     * @return new store with one region per distinct entry and the union of its sample ids.
+     */
+    public static AlleleRegionStore merge(AlleleRegionStore store) {
+        AlleleDictionary dictionary = store.getDictionary();
+        Map<List<Object>, Region<AlleleInfo>> merged = new LinkedHashMap<>();
+        store.getAll(r -> {
+            AlleleInfo info = r.getData();
+            List<Object> key = Arrays.asList(r.getStart(), r.getEnd(), info.isPass(), info.getType(),
+                    info.getCount(), info.getDepth(), dictionary.getIdString(info));
+            Region<AlleleInfo> first = merged.get(key);
+            if (null == first) {
+                merged.put(key, new RegionImpl<>(new AlleleInfo(info), r.getStart(), r.getEnd()));
+            } else {
+                first.getData().getSampleIds().or(info.getSampleIds());
+            }
+        });
+        AlleleRegionStore canonical = new ObjectAlleleRegionStore(store.getTargetRegion());
+        canonical.setDictionary(dictionary);
+        canonical.addAll(merged.values());
+        return canonical;
+    }
+}
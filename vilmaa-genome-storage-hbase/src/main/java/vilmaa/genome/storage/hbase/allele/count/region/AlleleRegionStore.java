@@ -30,20 +30,22 @@ import java.util.List;
 import java.util.function.Consumer;
 
 /**
- * Store and collates {@link AlleleInfo} for a region in memory and allows specific queries.
+ * Store and collates {@link AlleleInfo} for a region in memory and allows specific queries. <br>
+ * Implementations keep either the {@link Region} objects ({@link ObjectAlleleRegionStore}) or primitive columns
+ * ({@link ColumnarAlleleRegionStore}); hot paths add and read rows with primitives to avoid object allocation.
  * Created by mh719 on 18/03/2017.
  */
-public class AlleleRegionStore {
+public abstract class AlleleRegionStore {
+    public static final int NO_SAMPLE = Integer.MIN_VALUE;
+
     private final Region targetRegion;
-    private final List<Region<AlleleInfo>> reference = new ArrayList<>();
-    private final List<Region<AlleleInfo>> noCall = new ArrayList<>();
-    private final List<Region<AlleleInfo>> variation = new ArrayList<>();
+    private volatile AlleleDictionary dictionary = new AlleleDictionary();
 
-    public AlleleRegionStore(Integer start, Integer endInclusive) {
+    protected AlleleRegionStore(Integer start, Integer endInclusive) {
         this(new RegionImpl(StringUtils.EMPTY, start, endInclusive));
     }
 
-    public AlleleRegionStore(Region targetRegion) {
+    protected AlleleRegionStore(Region targetRegion) {
         this.targetRegion = targetRegion;
     }
 
@@ -51,26 +53,54 @@ public class AlleleRegionStore {
         return targetRegion;
     }
 
+    public AlleleDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @param dictionary {@link AlleleDictionary} shared e.g. by all stores of a task.
+     */
+    public void setDictionary(AlleleDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
     public void addAll(Collection<Region<AlleleInfo>> regions) {
         regions.forEach(r -> add(r));
     }
 
-    public void add(Region<AlleleInfo> region) {
-        if (!region.overlap(this.targetRegion)) {
-            return; // no overlap with target region
-        }
-        switch (region.getData().getId().length) {
-            case 0:
-                this.reference.add(region);
-                break;
-            case 1:
-                this.noCall.add(region);
-                break;
-            default:
-                this.variation.add(region);
-                break;
-        }
-    }
+    /**
+     * Merge all regions of another store, keeping the insertion order of the other store per category.
+     * @param other {@link AlleleRegionStore} to merge in.
+     */
+    public void addAll(AlleleRegionStore other) {
+        other.getAll(r -> add(r));
+    }
+
+    public abstract void add(Region<AlleleInfo> region);
+
+    /**
+     * Add a region of one sample without building the {@link Region} first.
+     * @param start Start position.
+     * @param end End position.
+     * @param count Allele count.
+     * @param depth Allele depth.
+     * @param sampleId Sample id or {@link #NO_SAMPLE} if unknown.
+     * @param id Allele id - the category is chosen by its length like for {@link #add(Region)}.
+     * @param type {@link VariantType} of the allele.
+     * @param pass Filter pass.
+     */
+    public void add(int start, int end, int count, int depth, int sampleId, String[] id, VariantType type,
+                    boolean pass) {
+        add(new RegionImpl<>(new AlleleInfo(count, depth, sampleId == NO_SAMPLE ? null : sampleId, id, type, pass),
+                start, end));
+    }
+
+    /**
+     * Merge adjacent reference and no-call regions of the same samples with identical attributes into one region,
+     * e.g. gVCF reference blocks split by neighbouring records. Overlapping regions are kept as they are.
+     * @return number of regions removed.
+     */
+    public abstract int coalesce();
 
     public void getAll(int position, Consumer<Region<AlleleInfo>> consumer) {
         getAll(new PointRegion(null, position), consumer);
@@ -94,26 +124,17 @@ public class AlleleRegionStore {
         return lst;
     }
 
-    public void getReference(Consumer<Region<AlleleInfo>> consumer) {
-        reference.stream().forEach(consumer);
-    }
-
-    public void getNocall(Consumer<Region<AlleleInfo>> consumer) {
-        noCall.stream().forEach(consumer);
-    }
+    public abstract void getReference(Consumer<Region<AlleleInfo>> consumer);
 
+    public abstract void getNocall(Consumer<Region<AlleleInfo>> consumer);
 
-    public void getVariation(Consumer<Region<AlleleInfo>> consumer) {
-        variation.stream().forEach(consumer);
-    }
+    public abstract void getVariation(Consumer<Region<AlleleInfo>> consumer);
 
     public void getReference(int position, Consumer<Region<AlleleInfo>> consumer) {
         getReference(new PointRegion(null, position), consumer);
     }
 
-    public void getReference(Region target, Consumer<Region<AlleleInfo>> consumer) {
-        reference.stream().filter(r -> r.overlap(target)).forEach(consumer);
-    }
+    public abstract void getReference(Region target, Consumer<Region<AlleleInfo>> consumer);
 
     public List<Region<AlleleInfo>> getReference(Region target) {
         List<Region<AlleleInfo>> lst = new ArrayList<>();
@@ -125,9 +146,7 @@ public class AlleleRegionStore {
         getNocall(new PointRegion(null, position), consumer);
     }
 
-    public void getNocall(Region target, Consumer<Region<AlleleInfo>> consumer) {
-        noCall.stream().filter(r -> r.overlap(target)).forEach(consumer);
-    }
+    public abstract void getNocall(Region target, Consumer<Region<AlleleInfo>> consumer);
 
     public List<Region<AlleleInfo>> getNocall(Region target) {
         List<Region<AlleleInfo>> lst = new ArrayList<>();
@@ -139,10 +158,10 @@ public class AlleleRegionStore {
         getVariation(new PointRegion(null, position), consumer);
     }
 
-    public void getVariation(Region target, Consumer<Region<AlleleInfo>> consumer) {
-        variation.stream().filter(r -> r.overlap(target, r.getData().getType().equals(VariantType.INSERTION)))
-                .forEach(consumer);
-    }
+    /**
+     * Variation of type {@link VariantType#INSERTION} is matched insertion aware.
+     */
+    public abstract void getVariation(Region target, Consumer<Region<AlleleInfo>> consumer);
 
     public List<Region<AlleleInfo>> getVariation(Region target) {
         List<Region<AlleleInfo>> lst = new ArrayList<>();
@@ -150,6 +169,31 @@ public class AlleleRegionStore {
         return lst;
     }
 
+    public void forEachReference(Region target, AlleleRowConsumer consumer) {
+        getReference(target, r -> accept(r, consumer));
+    }
+
+    public void forEachNocall(Region target, AlleleRowConsumer consumer) {
+        getNocall(target, r -> accept(r, consumer));
+    }
+
+    public void forEachVariation(Region target, AlleleRowConsumer consumer) {
+        getVariation(target, r -> accept(r, consumer));
+    }
+
+    private void accept(Region<AlleleInfo> region, AlleleRowConsumer consumer) {
+        AlleleInfo info = region.getData();
+        int start = region.getStart();
+        int end = region.getEnd();
+        String id = this.dictionary.getIdString(info);
+        if (info.getSampleIds().isEmpty()) {
+            consumer.accept(start, end, info.isPass(), info.getType(), info.getCount(), info.getDepth(), id, NO_SAMPLE);
+            return;
+        }
+        info.getSampleIds().forEachInt(sampleId -> consumer.accept(start, end, info.isPass(), info.getType(),
+                info.getCount(), info.getDepth(), id, sampleId));
+    }
+
     public void getInfos(int position, Consumer<Region<AlleleInfo>> consumer) {
         getVariation(position, consumer);
         getNocall(position, consumer);
@@ -17,17 +17,17 @@
 
 package vilmaa.genome.storage.hbase.allele.count.region;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.MessageLite;
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.allele.models.protobuf.*;
 import vilmaa.genome.storage.hbase.allele.models.protobuf.ARSEntry;
 import vilmaa.genome.storage.hbase.allele.models.protobuf.AlleleRegion.Builder;
 import vilmaa.genome.util.Region;
 import vilmaa.genome.util.RegionImpl;
 import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.phoenix.query.QueryConstants;
-import org.apache.phoenix.schema.types.PUnsignedInt;
-import org.apache.phoenix.schema.types.PVarchar;
 import org.opencb.biodata.models.variant.avro.VariantType;
 import vilmaa.genome.storage.hbase.allele.models.protobuf.AlleleRegion;
 
@@ -46,21 +46,51 @@ public class AlleleRegionStoreToHBaseAppendConverter {
     protected static final int ARS_INS = 3;
     protected static final int ARS_DEL = 4;
     protected static final int ARS_MIX = 5;
-    protected static final int DEFAULT_REGION_SIZE = 100;
+    public static final int DEFAULT_REGION_SIZE = 100;
+    public static final int ENCODING_V1 = 1;
+    public static final int ENCODING_V2 = 2;
     private volatile ByteArrayOutputStream bout;
     private final byte[] columnFamily;
     private final byte[] columnName;
-    private volatile int regionSize;
+    private volatile RegionSizes regionSizes;
+    private final RowKeyCodec rowKeyCodec = new RowKeyCodec();
+    private volatile int encoding = ENCODING_V2;
 
     public AlleleRegionStoreToHBaseAppendConverter(byte[] columnFamily, int studyId) {
         this.columnFamily = columnFamily;
         this.bout = new ByteArrayOutputStream();
         this.columnName = Bytes.toBytes(studyId);
-        regionSize = DEFAULT_REGION_SIZE;
+        regionSizes = new RegionSizes(DEFAULT_REGION_SIZE);
     }
 
     public void setRegionSize(int regionSize) {
-        this.regionSize = regionSize;
+        this.regionSizes = new RegionSizes(regionSize);
+    }
+
+    /**
+     * @param regionSizes row size per chromosome e.g. from the meta row of the count table.
+     */
+    public void setRegionSizes(RegionSizes regionSizes) {
+        this.regionSizes = regionSizes;
+    }
+
+    public RegionSizes getRegionSizes() {
+        return regionSizes;
+    }
+
+    /**
+     * @param encoding {@link #ENCODING_V2} (default) for the flat {@link AlleleRegionColumnBlock} or
+     *                 {@link #ENCODING_V1} for the nested maps e.g. if read by older versions.
+     */
+    public void setEncoding(int encoding) {
+        if (encoding != ENCODING_V1 && encoding != ENCODING_V2) {
+            throw new IllegalStateException("Encoding not supported: " + encoding);
+        }
+        this.encoding = encoding;
+    }
+
+    public int getEncoding() {
+        return encoding;
     }
 
     public byte[] toBytes(MessageLite msg) {
@@ -80,67 +110,124 @@ public class AlleleRegionStoreToHBaseAppendConverter {
     public Collection<Append> convert(String chromosome, AlleleRegionStore store) {
         List<Append> appendList = new ArrayList<>();
         Region targetRegion = store.getTargetRegion();
-        for (int i = targetRegion.getStart(); i < targetRegion.getEnd(); i += getRegionSize()) {
-            appendList.addAll(convert(new RegionImpl(targetRegion.getData(), i, i+getRegionSize() - 1), chromosome, store));
+        int regionSize = getRegionSize(chromosome);
+        for (int i = targetRegion.getStart(); i < targetRegion.getEnd(); i += regionSize) {
+            appendList.addAll(convert(new RegionImpl(targetRegion.getData(), i, i + regionSize - 1), chromosome, store));
         }
         return appendList;
     }
 
     public int getRegionSize() {
-        return regionSize;
+        return regionSizes.getDefaultSize();
+    }
+
+    public int getRegionSize(String chromosome) {
+        return regionSizes.getRegionSize(chromosome);
     }
 
     public Collection<Append> convert(Region targetRegion, String chromosome, AlleleRegionStore store) {
+        byte[] bytes = toBytes(targetRegion, store);
+        Append append = new Append(buildRowKey(chromosome, targetRegion.getMinPosition()));
+        append.add(getColumnFamily(), columnName, bytes);
+        return Collections.singleton(append);
+    }
+
+    /**
+     * Converts the store to one Put per region, written to the column of the batch. A replayed batch overwrites
+     * its previous contribution, which is merged with the other batches on read.
+     * @param chromosome Chromosome.
+     * @param store {@link AlleleRegionStore} of a slice.
+     * @param batchId id of the file batch.
+     * @return Puts of all regions.
+     */
+    public Collection<Put> convertToPuts(String chromosome, AlleleRegionStore store, int batchId) {
+        byte[] column = buildBatchColumn(this.columnName, batchId);
+        List<Put> putList = new ArrayList<>();
+        Region targetRegion = store.getTargetRegion();
+        int regionSize = getRegionSize(chromosome);
+        for (int i = targetRegion.getStart(); i < targetRegion.getEnd(); i += regionSize) {
+            Region region = new RegionImpl(targetRegion.getData(), i, i + regionSize - 1);
+            Put put = new Put(buildRowKey(chromosome, region.getMinPosition()));
+            put.addColumn(getColumnFamily(), column, toBytes(region, store));
+            putList.add(put);
+        }
+        return putList;
+    }
+
+    /**
+     * @param columnName appended column of the study.
+     * @param batchId id of the file batch.
+     * @return column of the batch - prefixed by the column of the study.
+     */
+    public static byte[] buildBatchColumn(byte[] columnName, int batchId) {
+        return Bytes.add(columnName, Bytes.toBytes(batchId));
+    }
+
+    /**
+     * @param targetRegion region of one row.
+     * @param store {@link AlleleRegionStore} with the regions of the row.
+     * @return one length-delimited {@link AlleleRegion} message.
+     */
+    public byte[] toBytes(Region targetRegion, AlleleRegionStore store) {
+        return toBytes(buildAlleleRegion(targetRegion, store));
+    }
+
+    private AlleleRegion buildAlleleRegion(Region targetRegion, AlleleRegionStore store) {
         Builder builder = AlleleRegion.newBuilder();
+        if (this.encoding == ENCODING_V2) {
+            builder.setColumns(ByteString.copyFrom(AlleleRegionColumnBlock.encode(targetRegion, store)));
+            return builder.build();
+        }
         builder.putAllNoCall(buildNoCall(targetRegion, store));
         builder.putAllReference(buildRefCall(targetRegion, store));
         builder.putAllVariation(buildVarCall(targetRegion, store));
-
-        byte[] bytes = toBytes(builder.build());
-        Append append = new Append(buildRowKey(chromosome, targetRegion.getMinPosition()));
-        append.add(getColumnFamily(), columnName, bytes);
-        return Collections.singleton(append);
+        return builder.build();
     }
 
     private Map<Boolean,ARSEntry> buildVarCall(Region targetRegion, AlleleRegionStore store) {
         Map<Boolean,Map<VariantType, Map<Integer, Map<Integer, Map<Integer, Map<String, List<Integer>>>>>>> map = new HashMap<>();
-        store.getVariation( targetRegion, r -> {
-            map.computeIfAbsent(r.getData().isPass(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getType(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getCount(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getDepth(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getStart() - targetRegion.getStart(), k -> new HashMap<>())
-//                    .computeIfAbsent( r.getStart() == r.getEnd() ? 0 : r.getEnd() - targetRegion.getStart(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getIdString(), k -> new ArrayList<>())
-                    .addAll(r.getData().getSampleIds());
+        store.forEachVariation(targetRegion, (start, end, pass, type, count, depth, id, sampleId) -> {
+            List<Integer> samples = map.computeIfAbsent(pass, k -> new HashMap<>())
+                    .computeIfAbsent(type, k -> new HashMap<>())
+                    .computeIfAbsent(count, k -> new HashMap<>())
+                    .computeIfAbsent(depth, k -> new HashMap<>())
+                    .computeIfAbsent(start - targetRegion.getStart(), k -> new HashMap<>())
+                    .computeIfAbsent(id, k -> new ArrayList<>());
+            if (sampleId != AlleleRegionStore.NO_SAMPLE) {
+                samples.add(sampleId);
+            }
         });
         return buildArsVar(map);
     }
 
     private Map<Boolean,ARSEntry> buildNoCall(Region targetRegion, AlleleRegionStore store) {
         Map<Boolean,Map<VariantType, Map<Integer, Map<Integer, Map<Integer, Map<Integer, List<Integer>>>>>>> map = new HashMap<>();
-        store.getNocall(targetRegion, r -> {
-            map.computeIfAbsent(r.getData().isPass(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getType(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getCount(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getDepth(), k -> new HashMap<>())
-                    .computeIfAbsent(buildStart(r.getStart(), targetRegion.getStart()), k -> new HashMap<>())
-                    .computeIfAbsent(buildEnd(r.getEnd(), targetRegion.getStart(), targetRegion.getEnd()), k -> new ArrayList<>())
-                    .addAll(r.getData().getSampleIds());
+        store.forEachNocall(targetRegion, (start, end, pass, type, count, depth, id, sampleId) -> {
+            List<Integer> samples = map.computeIfAbsent(pass, k -> new HashMap<>())
+                    .computeIfAbsent(type, k -> new HashMap<>())
+                    .computeIfAbsent(count, k -> new HashMap<>())
+                    .computeIfAbsent(depth, k -> new HashMap<>())
+                    .computeIfAbsent(buildStart(start, targetRegion.getStart()), k -> new HashMap<>())
+                    .computeIfAbsent(buildEnd(end, targetRegion.getStart(), targetRegion.getEnd()), k -> new ArrayList<>());
+            if (sampleId != AlleleRegionStore.NO_SAMPLE) {
+                samples.add(sampleId);
+            }
         });
         return buildArs(map);
     }
 
     private Map<Boolean,ARSEntry> buildRefCall(Region targetRegion, AlleleRegionStore store) {
         Map<Boolean,Map<VariantType, Map<Integer, Map<Integer, Map<Integer, Map<Integer, List<Integer>>>>>>> map = new HashMap<>();
-        store.getReference(targetRegion, r -> {
-            map.computeIfAbsent(r.getData().isPass(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getType(), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getCount(), k -> new HashMap<>())
-                    .computeIfAbsent(buildStart(r.getStart(), targetRegion.getStart()), k -> new HashMap<>())
-                    .computeIfAbsent(buildEnd(r.getEnd(), targetRegion.getStart(), targetRegion.getEnd()), k -> new HashMap<>())
-                    .computeIfAbsent(r.getData().getDepth(), k -> new ArrayList<>())
-                    .addAll(r.getData().getSampleIds());
+        store.forEachReference(targetRegion, (start, end, pass, type, count, depth, id, sampleId) -> {
+            List<Integer> samples = map.computeIfAbsent(pass, k -> new HashMap<>())
+                    .computeIfAbsent(type, k -> new HashMap<>())
+                    .computeIfAbsent(count, k -> new HashMap<>())
+                    .computeIfAbsent(buildStart(start, targetRegion.getStart()), k -> new HashMap<>())
+                    .computeIfAbsent(buildEnd(end, targetRegion.getStart(), targetRegion.getEnd()), k -> new HashMap<>())
+                    .computeIfAbsent(depth, k -> new ArrayList<>());
+            if (sampleId != AlleleRegionStore.NO_SAMPLE) {
+                samples.add(sampleId);
+            }
         });
         return buildArs(map);
     }
@@ -207,14 +294,7 @@ public class AlleleRegionStoreToHBaseAppendConverter {
     }
 
     private byte[] buildRowKey(String chromosome, Integer position) {
-        int size = PVarchar.INSTANCE.estimateByteSizeFromLength(Integer.valueOf(chromosome.length())).intValue() +
-                QueryConstants.SEPARATOR_BYTE_ARRAY.length + PUnsignedInt.INSTANCE.estimateByteSize(Integer.valueOf(position));
-        byte[] rk = new byte[size];
-        byte offset = 0;
-        int var7 = offset + PVarchar.INSTANCE.toBytes(chromosome, rk, offset);
-        rk[var7++] = 0;
-        PUnsignedInt.INSTANCE.toBytes(Integer.valueOf(position), rk, var7);
-        return rk;
+        return this.rowKeyCodec.regionKey(chromosome, position);
     }
 
     private int buildEnd(int regionEnd, int start, int end) {
@@ -233,7 +313,7 @@ public class AlleleRegionStoreToHBaseAppendConverter {
         return rstart;
     }
 
-    private int encodeType(VariantType type) {
+    static int encodeType(VariantType type) {
         switch (type) {
             case NO_VARIATION: return ARS_NO_VARIANT;
             case SNV:
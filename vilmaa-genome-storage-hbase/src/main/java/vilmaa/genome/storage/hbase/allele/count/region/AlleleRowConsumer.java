@@ -0,0 +1,31 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+/**
+ * Receives the content of a stored allele region without requiring a {@link vilmaa.genome.util.Region} object -
+ * one row per region and sample, or one row with {@link AlleleRegionStore#NO_SAMPLE} for a region without samples.
+ * Created by mh719 on 03/04/2018.
+ */
+@FunctionalInterface
+public interface AlleleRowConsumer {
+
+    void accept(int start, int end, boolean pass, VariantType type, int count, int depth, String id, int sampleId);
+}
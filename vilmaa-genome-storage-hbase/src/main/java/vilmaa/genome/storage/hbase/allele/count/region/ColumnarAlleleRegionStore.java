@@ -0,0 +1,273 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.IntervalIndex;
+import vilmaa.genome.util.Region;
+import vilmaa.genome.util.RegionImpl;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Column oriented {@link AlleleRegionStore} keeping one row per region and sample in growable primitive arrays
+ * (start, end, count, depth, pass / type flags, sample id and {@link AlleleDictionary} code) instead of an object
+ * graph. <br>
+ * Primitive adds write the columns directly and {@link AlleleRowConsumer} queries read them directly;
+ * only {@link Region} queries materialise short lived objects. The dictionary has to be set before the first add.
+ * Created by mh719 on 03/04/2018.
+ */
+public class ColumnarAlleleRegionStore extends AlleleRegionStore {
+    private static final VariantType[] TYPES = VariantType.values();
+
+    private final Columns reference = new Columns(false);
+    private final Columns noCall = new Columns(false);
+    private final Columns variation = new Columns(true);
+
+    public ColumnarAlleleRegionStore(Integer start, Integer endInclusive) {
+        super(start, endInclusive);
+    }
+
+    public ColumnarAlleleRegionStore(Region targetRegion) {
+        super(targetRegion);
+    }
+
+    /**
+     * @return number of rows (region and sample combinations) stored.
+     */
+    public int size() {
+        return reference.size + noCall.size + variation.size;
+    }
+
+    /**
+     * @param dictionary {@link AlleleDictionary} of the allele codes stored.
+     * @throws IllegalStateException if rows were added with another dictionary.
+     */
+    @Override
+    public void setDictionary(AlleleDictionary dictionary) {
+        if (size() > 0 && dictionary != getDictionary()) {
+            throw new IllegalStateException("Dictionary can't be changed after rows were added");
+        }
+        super.setDictionary(dictionary);
+    }
+
+    @Override
+    public void add(Region<AlleleInfo> region) {
+        if (!region.overlap(getTargetRegion())) {
+            return; // no overlap with target region
+        }
+        AlleleInfo info = region.getData();
+        Columns columns = columns(info.getId());
+        int allele = getDictionary().code(info);
+        byte flags = flags(info.getType(), info.isPass());
+        if (info.getSampleIds().isEmpty()) {
+            columns.add(region.getStart(), region.getEnd(), info.getCount(), info.getDepth(), flags, allele, NO_SAMPLE);
+            return;
+        }
+        info.getSampleIds().forEachInt(sampleId -> columns.add(region.getStart(), region.getEnd(), info.getCount(),
+                info.getDepth(), flags, allele, sampleId));
+    }
+
+    @Override
+    public void add(int start, int end, int count, int depth, int sampleId, String[] id, VariantType type,
+                    boolean pass) {
+        if (!Region.overlap(start, end, getTargetRegion(), false)) {
+            return; // no overlap with target region
+        }
+        columns(id).add(start, end, count, depth, flags(type, pass), getDictionary().code(id), sampleId);
+    }
+
+    private Columns columns(String[] id) {
+        switch (id.length) {
+            case 0:
+                return this.reference;
+            case 1:
+                return this.noCall;
+            default:
+                return this.variation;
+        }
+    }
+
+    private static byte flags(VariantType type, boolean pass) {
+        return (byte) (type.ordinal() << 1 | (pass ? 1 : 0));
+    }
+
+    @Override
+    public int coalesce() {
+        return reference.coalesce() + noCall.coalesce();
+    }
+
+    @Override
+    public void getReference(Consumer<Region<AlleleInfo>> consumer) {
+        reference.forEach(consumer);
+    }
+
+    @Override
+    public void getNocall(Consumer<Region<AlleleInfo>> consumer) {
+        noCall.forEach(consumer);
+    }
+
+    @Override
+    public void getVariation(Consumer<Region<AlleleInfo>> consumer) {
+        variation.forEach(consumer);
+    }
+
+    @Override
+    public void getReference(Region target, Consumer<Region<AlleleInfo>> consumer) {
+        reference.query(target, i -> consumer.accept(reference.toRegion(i)));
+    }
+
+    @Override
+    public void getNocall(Region target, Consumer<Region<AlleleInfo>> consumer) {
+        noCall.query(target, i -> consumer.accept(noCall.toRegion(i)));
+    }
+
+    @Override
+    public void getVariation(Region target, Consumer<Region<AlleleInfo>> consumer) {
+        variation.query(target, i -> consumer.accept(variation.toRegion(i)));
+    }
+
+    @Override
+    public void forEachReference(Region target, AlleleRowConsumer consumer) {
+        reference.query(target, i -> reference.accept(i, consumer));
+    }
+
+    @Override
+    public void forEachNocall(Region target, AlleleRowConsumer consumer) {
+        noCall.query(target, i -> noCall.accept(i, consumer));
+    }
+
+    @Override
+    public void forEachVariation(Region target, AlleleRowConsumer consumer) {
+        variation.query(target, i -> variation.accept(i, consumer));
+    }
+
+    private class Columns {
+        private final boolean variation;
+        private final IntervalIndex index = new IntervalIndex();
+        private int size = 0;
+        private int[] start = new int[16];
+        private int[] end = new int[16];
+        private int[] count = new int[16];
+        private int[] depth = new int[16];
+        private int[] sample = new int[16];
+        private int[] allele = new int[16];
+        private byte[] flags = new byte[16]; // type ordinal << 1 | pass
+
+        private Columns(boolean variation) {
+            this.variation = variation;
+        }
+
+        private void add(int start, int end, int count, int depth, byte flags, int allele, int sample) {
+            if (size == this.start.length) {
+                int len = size << 1;
+                this.start = Arrays.copyOf(this.start, len);
+                this.end = Arrays.copyOf(this.end, len);
+                this.count = Arrays.copyOf(this.count, len);
+                this.depth = Arrays.copyOf(this.depth, len);
+                this.sample = Arrays.copyOf(this.sample, len);
+                this.allele = Arrays.copyOf(this.allele, len);
+                this.flags = Arrays.copyOf(this.flags, len);
+            }
+            this.start[size] = start;
+            this.end[size] = end;
+            this.count[size] = count;
+            this.depth[size] = depth;
+            this.sample[size] = sample;
+            this.allele[size] = allele;
+            this.flags[size] = flags;
+            this.index.add(Math.min(start, end), Math.max(start, end));
+            ++size;
+        }
+
+        private int coalesce() {
+            int[] newEnd = RegionCoalescer.plan(size, start, end, (a, b) -> {
+                int cmp = Integer.compare(sample[a], sample[b]);
+                if (cmp == 0) {
+                    cmp = Byte.compare(flags[a], flags[b]);
+                }
+                if (cmp == 0) {
+                    cmp = Integer.compare(count[a], count[b]);
+                }
+                if (cmp == 0) {
+                    cmp = Integer.compare(depth[a], depth[b]);
+                }
+                if (cmp == 0) {
+                    cmp = Integer.compare(allele[a], allele[b]);
+                }
+                return cmp;
+            });
+            int rows = size;
+            size = 0;
+            index.clear();
+            for (int i = 0; i < rows; ++i) {
+                if (newEnd[i] == RegionCoalescer.DROPPED) {
+                    continue;
+                }
+                start[size] = start[i];
+                end[size] = newEnd[i];
+                count[size] = count[i];
+                depth[size] = depth[i];
+                sample[size] = sample[i];
+                allele[size] = allele[i];
+                flags[size] = flags[i];
+                index.add(Math.min(start[size], end[size]), Math.max(start[size], end[size]));
+                ++size;
+            }
+            return rows - size;
+        }
+
+        private VariantType type(int i) {
+            return TYPES[flags[i] >> 1];
+        }
+
+        private boolean pass(int i) {
+            return (flags[i] & 1) == 1;
+        }
+
+        private void query(Region target, IntConsumer consumer) {
+            index.query(target.getMinPosition(), target.getMaxPosition(), i -> {
+                boolean insertionAware = variation && type(i).equals(VariantType.INSERTION);
+                if (Region.overlap(start[i], end[i], target, insertionAware)) {
+                    consumer.accept(i);
+                }
+            });
+        }
+
+        private void forEach(Consumer<Region<AlleleInfo>> consumer) {
+            for (int i = 0; i < size; ++i) {
+                consumer.accept(toRegion(i));
+            }
+        }
+
+        private Region<AlleleInfo> toRegion(int i) {
+            AlleleInfo info = new AlleleInfo(count[i], depth[i], sample[i] == NO_SAMPLE ? null : sample[i],
+                    null, type(i), pass(i));
+            getDictionary().setId(info, allele[i]);
+            return new RegionImpl<>(info, start[i], end[i]);
+        }
+
+        private void accept(int i, AlleleRowConsumer consumer) {
+            consumer.accept(start[i], end[i], pass(i), type(i), count[i], depth[i],
+                    getDictionary().getIdString(allele[i]), sample[i]);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Maps a depth to the lower boundary of its band, like the GQ bands of gVCF callers (e.g. bands 5,10,20 map DP 7
+ * to 5, DP 25 to 20 and DP 3 to 0). Depth filters on a band boundary select the same calls as on the exact depth.
+ * Created by mh719 on 11/04/2018.
+ */
+public class DepthBands {
+    private final int[] boundaries;
+
+    public DepthBands(int... boundaries) {
+        this.boundaries = Arrays.stream(boundaries).filter(b -> b > 0).sorted().distinct().toArray();
+        if (this.boundaries.length == 0) {
+            throw new IllegalStateException("Positive band boundaries required: " + Arrays.toString(boundaries));
+        }
+    }
+
+    /**
+     * @param bands comma separated band boundaries e.g. <code>1,2,3,5,8,10,15,20,30,50</code>.
+     * @return Depth bands or <code>null</code> if blank.
+     */
+    public static DepthBands parse(String bands) {
+        if (StringUtils.isBlank(bands)) {
+            return null;
+        }
+        return new DepthBands(Arrays.stream(bands.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray());
+    }
+
+    /**
+     * @param depth exact depth.
+     * @return lower boundary of the band - negative depths are kept.
+     */
+    public int band(int depth) {
+        if (depth < this.boundaries[0]) {
+            return depth < 0 ? depth : 0;
+        }
+        int idx = Arrays.binarySearch(this.boundaries, depth);
+        return idx >= 0 ? this.boundaries[idx] : this.boundaries[-idx - 2];
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.stream(this.boundaries).mapToObj(Integer::toString).collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import vilmaa.genome.storage.hbase.RowKeyCodec;
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.Region;
+import vilmaa.genome.util.RegionImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import static vilmaa.genome.storage.hbase.allele.AbstractAlleleDriver.CONFIG_COUNT_TABLE;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS;
+
+/**
+ * Count table regions changed by a load, kept in the side table <code>&lt;count table&gt;_dirty</code>. <br>
+ * A region is dirty if the load added anything the transfer keeps: variation, no-call, not passed or non
+ * HOM_REF reference calls - HOM_REF PASS calls are implicit in the analysis table. Each row holds one range of
+ * consecutive dirty regions: load id and region row key of the first region, the end position as value. <br>
+ * Scans of the count or analysis table can be restricted to the dirty ranges of a set of loads. <br>
+ * The largest span of a deletion (or other allele spanning positions) of each load is kept in the span row, so
+ * that ranges can be widened for scans depending on deletions upstream of a range.
+ * Created by mh719 on 19/04/2018.
+ */
+public class DirtyRegions {
+    public static final String TABLE_SUFFIX = "_dirty";
+    private static final byte[] END_COLUMN = Bytes.toBytes("E");
+    private static final byte[] SPAN_ROW = Bytes.toBytes(-1); // no load id - span as column, load id as value
+
+    private final Map<String, List<int[]>> ranges = new LinkedHashMap<>();
+    private int deletionSpan = 0;
+
+    public static String getTableName(String countTable) {
+        return countTable + TABLE_SUFFIX;
+    }
+
+    /**
+     * @param store store of a slice.
+     * @param region region of one count table row.
+     * @return true if the store has calls other than HOM_REF PASS in the region.
+     */
+    public static boolean isDirty(AlleleRegionStore store, Region region) {
+        if (!store.getVariation(region).isEmpty() || !store.getNocall(region).isEmpty()) {
+            return true;
+        }
+        for (Region<AlleleInfo> reference : store.getReference(region)) {
+            if (reference.getData().getCount() != 2 || !reference.getData().isPass()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark the dirty regions of a slice.
+     * @param chromosome Chromosome.
+     * @param store store of the slice.
+     * @param regionSize region size of the chromosome.
+     * @return number of dirty regions.
+     */
+    public synchronized int add(String chromosome, AlleleRegionStore store, int regionSize) {
+        Region target = store.getTargetRegion();
+        store.getVariation(region -> this.deletionSpan = Math.max(this.deletionSpan, getSpan(region)));
+        int dirty = 0;
+        for (int i = target.getStart(); i < target.getEnd(); i += regionSize) {
+            if (isDirty(store, new RegionImpl<>(null, i, i + regionSize - 1))) {
+                add(chromosome, i, i + regionSize);
+                ++dirty;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * @param chromosome Chromosome.
+     * @param start Start position (inclusive).
+     * @param end End position (exclusive) - extends the last range if adjacent.
+     */
+    public synchronized void add(String chromosome, int start, int end) {
+        List<int[]> list = this.ranges.computeIfAbsent(chromosome, k -> new ArrayList<>());
+        int[] last = list.isEmpty() ? null : list.get(list.size() - 1);
+        if (null != last && last[1] == start) {
+            last[1] = end;
+        } else {
+            list.add(new int[]{start, end});
+        }
+    }
+
+    public synchronized Map<String, List<int[]>> getRanges() {
+        return ranges;
+    }
+
+    public synchronized int getDeletionSpan() {
+        return deletionSpan;
+    }
+
+    /**
+     * @param region variation region.
+     * @return positions covered after the start, for alleles the transfer tracks as overlapping e.g. deletions.
+     */
+    static int getSpan(Region<AlleleInfo> region) {
+        switch (region.getData().getType()) {
+            case SNV:
+            case SNP:
+            case INSERTION:
+                return 0;
+            default:
+                return Math.max(0, region.getEnd() - region.getStart());
+        }
+    }
+
+    /**
+     * @param loadId load id, e.g. batch id of the files.
+     * @param family column family.
+     * @return one Put per range.
+     */
+    public synchronized List<Put> toPuts(int loadId, byte[] family) {
+        List<Put> puts = new ArrayList<>();
+        this.ranges.forEach((chromosome, list) -> list.forEach(range -> {
+            Put put = new Put(Bytes.add(Bytes.toBytes(loadId), RowKeyCodec.buildRegionKey(chromosome, range[0])));
+            put.addColumn(family, END_COLUMN, Bytes.toBytes(range[1]));
+            puts.add(put);
+        }));
+        if (this.deletionSpan > 0) {
+            Put put = new Put(SPAN_ROW);
+            put.addColumn(family, Bytes.toBytes(this.deletionSpan), Bytes.toBytes(loadId));
+            puts.add(put);
+        }
+        return puts;
+    }
+
+    /**
+     * @param table dirty table.
+     * @param family column family.
+     * @return largest span recorded by any load - 0 if none.
+     * @throws IOException if the table can't be read.
+     */
+    public static int readDeletionSpan(Table table, byte[] family) throws IOException {
+        Result result = table.get(new Get(SPAN_ROW));
+        NavigableMap<byte[], byte[]> familyMap = null == result ? null : result.getFamilyMap(family);
+        if (null == familyMap || familyMap.isEmpty()) {
+            return 0;
+        }
+        int span = 0;
+        for (byte[] column : familyMap.keySet()) {
+            span = Math.max(span, Bytes.toInt(column));
+        }
+        return span;
+    }
+
+    /**
+     * @param table dirty table.
+     * @param family column family.
+     * @param loadIds loads to read - ids without rows are ignored.
+     * @param margin positions to widen each range by to the left.
+     * @return row ranges of the dirty regions, unsorted.
+     * @throws IOException if the table can't be read.
+     */
+    public static List<MultiRowRangeFilter.RowRange> read(Table table, byte[] family, Collection<Integer> loadIds,
+                                                          int margin) throws IOException {
+        List<MultiRowRangeFilter.RowRange> rowRanges = new ArrayList<>();
+        for (Integer loadId : loadIds) {
+            Scan scan = new Scan();
+            scan.setRowPrefixFilter(Bytes.toBytes(loadId));
+            scan.addColumn(family, END_COLUMN);
+            try (ResultScanner scanner = table.getScanner(scan)) {
+                for (Result result : scanner) {
+                    byte[] start = Bytes.copy(result.getRow(), Bytes.SIZEOF_INT,
+                            result.getRow().length - Bytes.SIZEOF_INT);
+                    byte[] stop = Bytes.copy(start);
+                    int position = Bytes.toInt(start, start.length - Bytes.SIZEOF_INT);
+                    Bytes.putInt(start, start.length - Bytes.SIZEOF_INT, Math.max(0, position - margin));
+                    Bytes.putInt(stop, stop.length - Bytes.SIZEOF_INT, Bytes.toInt(result.getValue(family, END_COLUMN)));
+                    rowRanges.add(new MultiRowRangeFilter.RowRange(start, true, stop, false));
+                }
+            }
+        }
+        return rowRanges;
+    }
+
+    /**
+     * Restrict a scan to the dirty ranges of the loads set in
+     * {@link vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper#VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS}.
+     * @param conf Configuration with the count table name.
+     * @param family column family of the dirty table.
+     * @param scan Scan to restrict.
+     * @return false if no loads are set.
+     * @throws IOException if the dirty table can't be read.
+     */
+    public static boolean restrict(Configuration conf, byte[] family, Scan scan) throws IOException {
+        return restrict(conf, family, scan, false);
+    }
+
+    /**
+     * Restrict a scan to the dirty ranges of the loads set in
+     * {@link vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper#VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS}.
+     * @param conf Configuration with the count table name.
+     * @param family column family of the dirty table.
+     * @param scan Scan to restrict.
+     * @param withDeletions widen each range by the largest recorded deletion span, so that deletions starting
+     *                      upstream of a range are read as well.
+     * @return false if no loads are set.
+     * @throws IOException if the dirty table can't be read.
+     */
+    public static boolean restrict(Configuration conf, byte[] family, Scan scan, boolean withDeletions)
+            throws IOException {
+        Collection<String> loads = conf.getStringCollection(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS);
+        if (loads.isEmpty()) {
+            return false;
+        }
+        String countTable = conf.get(CONFIG_COUNT_TABLE, StringUtils.EMPTY);
+        if (StringUtils.isBlank(countTable)) {
+            throw new IllegalStateException("Count table required to read dirty regions: " + CONFIG_COUNT_TABLE);
+        }
+        List<Integer> loadIds = new ArrayList<>();
+        loads.forEach(l -> loadIds.add(Integer.valueOf(l.trim())));
+        List<MultiRowRangeFilter.RowRange> rowRanges;
+        try (Connection con = ConnectionFactory.createConnection(conf);
+             Table table = con.getTable(TableName.valueOf(getTableName(countTable)))) {
+            int margin = withDeletions ? readDeletionSpan(table, family) : 0;
+            rowRanges = read(table, family, loadIds, margin);
+        }
+        restrict(scan, rowRanges);
+        return true;
+    }
+
+    /**
+     * @param scan Scan to restrict - an existing filter is kept.
+     * @param rowRanges row ranges to read - no rows are read if empty.
+     * @throws IOException if the ranges are invalid.
+     */
+    public static void restrict(Scan scan, List<MultiRowRangeFilter.RowRange> rowRanges) throws IOException {
+        if (rowRanges.isEmpty()) { // nothing changed - range of the (unused) row key {0} only
+            scan.setStartRow(new byte[]{0});
+            scan.setStopRow(new byte[]{0, 0});
+            return;
+        }
+        MultiRowRangeFilter filter = new MultiRowRangeFilter(rowRanges); // sorts and merges the ranges
+        List<MultiRowRangeFilter.RowRange> merged = filter.getRowRanges();
+        scan.setStartRow(merged.get(0).getStartRow());
+        scan.setStopRow(merged.get(merged.size() - 1).getStopRow());
+        if (null == scan.getFilter()) {
+            scan.setFilter(filter);
+        } else {
+            scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, filter, scan.getFilter()));
+        }
+    }
+}
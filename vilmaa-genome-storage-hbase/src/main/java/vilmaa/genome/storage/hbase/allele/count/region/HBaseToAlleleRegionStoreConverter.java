@@ -31,10 +31,12 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.function.Function;
 
 /**
  * Reads from HBase Result and adds to an existing or creates a new {@link AlleleRegionStore} with the stored allele counts.
+ * Each message is read as v2 {@link AlleleRegionColumnBlock} if set or as v1 nested maps otherwise.
  * Created by mh719 on 19/03/2017.
  */
 public class HBaseToAlleleRegionStoreConverter {
@@ -42,7 +44,7 @@ public class HBaseToAlleleRegionStoreConverter {
     private final byte[] columnFamily;
     private final byte[] columnName;
     private final Function<byte[], Variant> keyConverter;
-    private volatile int regionSize;
+    private volatile RegionSizes regionSizes;
 
     public HBaseToAlleleRegionStoreConverter(GenomeHelper helper, int regionSize) {
         this(helper.getColumnFamily(), helper.getStudyId(), regionSize, (rowkey) -> helper.extractVariantFromVariantRowKey(rowkey));
@@ -50,36 +52,73 @@ public class HBaseToAlleleRegionStoreConverter {
     public HBaseToAlleleRegionStoreConverter(byte[] columnFamily, int studyId, int regionSize, Function<byte[], Variant> convert) {
         this.columnFamily = columnFamily;
         this.columnName = Bytes.toBytes(studyId);
-        this.regionSize = regionSize;
+        this.regionSizes = new RegionSizes(regionSize);
         this.keyConverter = convert;
     }
 
     public void setRegionSize(int regionSize) {
-        this.regionSize = regionSize;
+        this.regionSizes = new RegionSizes(regionSize);
+    }
+
+    /**
+     * @param regionSizes row size per chromosome from the meta row of the count table.
+     */
+    public void setRegionSizes(RegionSizes regionSizes) {
+        this.regionSizes = regionSizes;
     }
 
     public int getRegionSize() {
-        return regionSize;
+        return regionSizes.getDefaultSize();
+    }
+
+    public byte[] getColumnName() {
+        return columnName;
     }
 
     public AlleleRegionStore convert(Result result) {
-        Integer start = this.keyConverter.apply(result.getRow()).getStart();
-        int endInclusive = start + regionSize - 1;
-        AlleleRegionStore store = new AlleleRegionStore(start, endInclusive);
+        Variant key = this.keyConverter.apply(result.getRow());
+        int endInclusive = key.getStart() + regionSizes.getRegionSize(key.getChromosome()) - 1;
+        AlleleRegionStore store = new ObjectAlleleRegionStore(key.getStart(), endInclusive);
         convert(store, result);
         return store;
     }
 
+    /**
+     * Adds the appended column and the columns of each batch written as Put. Replayed batches overwrite their
+     * column, so each batch is only added once.
+     * @param store {@link AlleleRegionStore} to add to.
+     * @param result Result of one row.
+     */
     public void convert(AlleleRegionStore store, Result result) {
-        Integer start = this.keyConverter.apply(result.getRow()).getStart();
-        int endInclusive = start + regionSize - 1;
+        Variant key = this.keyConverter.apply(result.getRow());
+        int start = key.getStart();
+        int endInclusive = start + regionSizes.getRegionSize(key.getChromosome()) - 1;
+        NavigableMap<byte[], byte[]> familyMap = result.getFamilyMap(this.columnFamily);
+        if (null == familyMap) {
+            return;
+        }
         try {
-            fillFromBytes(store, start, endInclusive, result.getValue(this.columnFamily, this.columnName));
+            for (Map.Entry<byte[], byte[]> entry : familyMap.entrySet()) {
+                if (isCountColumn(entry.getKey())) {
+                    fillFromBytes(store, start, endInclusive, entry.getValue());
+                }
+            }
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
+    /**
+     * @param qualifier column of the count table.
+     * @return TRUE for the appended column and the batch columns of the study.
+     */
+    public boolean isCountColumn(byte[] qualifier) {
+        if (Bytes.equals(this.columnName, qualifier)) {
+            return true; // appended
+        }
+        return qualifier.length == this.columnName.length + Bytes.SIZEOF_INT && Bytes.startsWith(qualifier, this.columnName);
+    }
+
     public void fillFromBytes(AlleleRegionStore store, int regStart, int regEnd, byte[] bytes) throws IOException {
         ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
         AlleleRegion region = AlleleRegion.parseDelimitedFrom(inputStream);
@@ -89,7 +128,11 @@ public class HBaseToAlleleRegionStoreConverter {
         }
     }
 
-    private void update(AlleleRegionStore store, int regStart, int regEnd, AlleleRegion region) {
+    private void update(AlleleRegionStore store, int regStart, int regEnd, AlleleRegion region) throws IOException {
+        if (!region.getColumns().isEmpty()) { // v2
+            AlleleRegionColumnBlock.decode(store, regStart, region.getColumns().newCodedInput());
+            return;
+        }
         updateVarCalls(store, regStart, region.getVariationMap());
         updateNoCalls(store, regStart, regEnd, region.getNoCallMap());
         updateRefCall(store, regStart, regEnd, region.getReferenceMap());
@@ -140,6 +183,7 @@ public class HBaseToAlleleRegionStoreConverter {
     }
 
     private void updateVarCalls(AlleleRegionStore store, int regStart, Map<Boolean, ARSEntry> variationMap) {
+        AlleleDictionary dictionary = store.getDictionary();
         variationMap.forEach((pass, e1) -> {
             e1.getEntryMap().forEach((type, e2) -> {
                 e2.getEntryMap().forEach((count, e3) -> {
@@ -153,8 +197,10 @@ public class HBaseToAlleleRegionStoreConverter {
 //                                int genomeend = end == 0 ? start : end + regStart;
                                 e5.getVarsMap().forEach((vid, e7) -> {
                                     List<Integer> sampleIdsList = e7.getSampleIdsList();
-                                    String[] id = parseId(vid);
+                                    int code = dictionary.parse(vid);
+                                    String[] id = dictionary.getId(code);
                                     AlleleInfo alleleInfo = new AlleleInfo(count, depth, sampleIdsList, id, parseType(type), pass);
+                                    alleleInfo.setAlleleCode(code);
                                     store.add(new RegionImpl<>(alleleInfo, genomestart, genomestart + id[0].length() + - 1));
                                 });
 //                            });
@@ -165,7 +211,7 @@ public class HBaseToAlleleRegionStoreConverter {
         });
     }
 
-    private VariantType parseType(Integer type) {
+    static VariantType parseType(int type) {
         switch (type) {
             case AlleleRegionStoreToHBaseAppendConverter.ARS_NO_VARIANT: return VariantType.NO_VARIATION;
             case AlleleRegionStoreToHBaseAppendConverter.ARS_SNV: return VariantType.SNV;
@@ -178,9 +224,5 @@ public class HBaseToAlleleRegionStoreConverter {
         }
     }
 
-    private String[] parseId(String vid) {
-        return AlleleInfo.parseVariantId(vid);
-    }
-
 
 }
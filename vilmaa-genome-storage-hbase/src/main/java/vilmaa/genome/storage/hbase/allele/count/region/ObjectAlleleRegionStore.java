@@ -0,0 +1,186 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.IntervalIndex;
+import vilmaa.genome.util.Region;
+import vilmaa.genome.util.RegionImpl;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link AlleleRegionStore} keeping the added {@link Region} objects per category.
+ * Overlap queries are answered by an {@link IntervalIndex} per category and report regions in insertion order.
+ * Created by mh719 on 19/04/2018.
+ */
+public class ObjectAlleleRegionStore extends AlleleRegionStore {
+    private final List<Region<AlleleInfo>> reference = new ArrayList<>();
+    private final List<Region<AlleleInfo>> noCall = new ArrayList<>();
+    private final List<Region<AlleleInfo>> variation = new ArrayList<>();
+    private final IntervalIndex referenceIndex = new IntervalIndex();
+    private final IntervalIndex noCallIndex = new IntervalIndex();
+    private final IntervalIndex variationIndex = new IntervalIndex();
+
+    public ObjectAlleleRegionStore(Integer start, Integer endInclusive) {
+        super(start, endInclusive);
+    }
+
+    public ObjectAlleleRegionStore(Region targetRegion) {
+        super(targetRegion);
+    }
+
+    @Override
+    public void add(Region<AlleleInfo> region) {
+        if (!region.overlap(getTargetRegion())) {
+            return; // no overlap with target region
+        }
+        switch (region.getData().getId().length) {
+            case 0:
+                add(this.reference, this.referenceIndex, region);
+                break;
+            case 1:
+                add(this.noCall, this.noCallIndex, region);
+                break;
+            default:
+                add(this.variation, this.variationIndex, region);
+                break;
+        }
+    }
+
+    private static void add(List<Region<AlleleInfo>> regions, IntervalIndex index, Region<AlleleInfo> region) {
+        regions.add(region);
+        index.add(region.getMinPosition(), region.getMaxPosition());
+    }
+
+    /**
+     * Merge adjacent reference and no-call regions of the same samples with identical attributes into one region,
+     * e.g. gVCF reference blocks split by neighbouring records. Overlapping regions are kept as they are.
+     * The first region of each merged run keeps its position in the insertion order.
+     * @return number of regions removed.
+     */
+    @Override
+    public int coalesce() {
+        return coalesce(this.reference, this.referenceIndex) + coalesce(this.noCall, this.noCallIndex);
+    }
+
+    private static int coalesce(List<Region<AlleleInfo>> regions, IntervalIndex index) {
+        int size = regions.size();
+        int[] start = new int[size];
+        int[] end = new int[size];
+        int[][] samples = new int[size][];
+        for (int i = 0; i < size; ++i) {
+            Region<AlleleInfo> region = regions.get(i);
+            start[i] = region.getStart();
+            end[i] = region.getEnd();
+            samples[i] = region.getData().getSampleIds().toIntArray();
+        }
+        Comparator<Integer> attributes = (a, b) -> {
+            AlleleInfo x = regions.get(a).getData();
+            AlleleInfo y = regions.get(b).getData();
+            int cmp = compare(samples[a], samples[b]);
+            if (cmp == 0) {
+                cmp = Boolean.compare(x.isPass(), y.isPass());
+            }
+            if (cmp == 0) {
+                cmp = x.getType().compareTo(y.getType());
+            }
+            if (cmp == 0) {
+                cmp = Integer.compare(x.getCount(), y.getCount());
+            }
+            if (cmp == 0) {
+                cmp = Integer.compare(x.getDepth(), y.getDepth());
+            }
+            if (cmp == 0) {
+                cmp = x.getIdString().compareTo(y.getIdString());
+            }
+            return cmp;
+        };
+        int[] newEnd = RegionCoalescer.plan(size, start, end, attributes);
+        List<Region<AlleleInfo>> coalesced = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            if (newEnd[i] == RegionCoalescer.DROPPED) {
+                continue;
+            }
+            Region<AlleleInfo> region = regions.get(i);
+            coalesced.add(newEnd[i] == end[i] ? region : new RegionImpl<>(region.getData(), start[i], newEnd[i]));
+        }
+        regions.clear();
+        index.clear();
+        coalesced.forEach(r -> add(regions, index, r));
+        return size - regions.size();
+    }
+
+    private static int compare(int[] a, int[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; ++i) {
+            if (a[i] != b[i]) {
+                return Integer.compare(a[i], b[i]);
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    /**
+     * Index returns candidates overlapping [min, max] of the target - a superset of the (insertion aware) overlap.
+     */
+    private static void query(List<Region<AlleleInfo>> regions, IntervalIndex index, Region target,
+                              Consumer<Region<AlleleInfo>> consumer, boolean variation) {
+        index.query(target.getMinPosition(), target.getMaxPosition(), i -> {
+            Region<AlleleInfo> r = regions.get(i);
+            boolean insertionAware = variation && r.getData().getType().equals(VariantType.INSERTION);
+            if (r.overlap(target, insertionAware)) {
+                consumer.accept(r);
+            }
+        });
+    }
+
+    @Override
+    public void getReference(Consumer<Region<AlleleInfo>> consumer) {
+        reference.forEach(consumer);
+    }
+
+    @Override
+    public void getNocall(Consumer<Region<AlleleInfo>> consumer) {
+        noCall.forEach(consumer);
+    }
+
+    @Override
+    public void getVariation(Consumer<Region<AlleleInfo>> consumer) {
+        variation.forEach(consumer);
+    }
+
+    @Override
+    public void getReference(Region target, Consumer<Region<AlleleInfo>> consumer) {
+        query(reference, referenceIndex, target, consumer, false);
+    }
+
+    @Override
+    public void getNocall(Region target, Consumer<Region<AlleleInfo>> consumer) {
+        query(noCall, noCallIndex, target, consumer, false);
+    }
+
+    @Override
+    public void getVariation(Region target, Consumer<Region<AlleleInfo>> consumer) {
+        query(variation, variationIndex, target, consumer, true);
+    }
+}
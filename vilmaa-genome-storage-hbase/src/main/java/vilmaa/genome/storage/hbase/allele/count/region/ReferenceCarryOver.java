@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.Region;
+import org.apache.commons.lang3.StringUtils;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open reference blocks per sample that continue past the end of the current slice.
+ * The same block read from the next slice reuses the regions of the previous slice instead of being converted again.
+ * Only valid if slices are processed in order - blocks are dropped once a slice starts after their end.
+ * Created by mh719 on 14/04/2018.
+ */
+public class ReferenceCarryOver {
+    private final Map<Integer, Block> blocks = new ConcurrentHashMap<>();
+    private final AtomicLong reused = new AtomicLong(0);
+    private volatile String chromosome;
+
+    /**
+     * Move on to the next slice - drop blocks ending before the slice or on a different chromosome.
+     * @param chromosome chromosome of the slice.
+     * @param start start of the slice.
+     * @return number of blocks reused since the last call.
+     */
+    public long advance(String chromosome, int start) {
+        if (!StringUtils.equals(this.chromosome, chromosome)) {
+            this.blocks.clear();
+            this.chromosome = chromosome;
+        } else {
+            this.blocks.values().removeIf(b -> b.end < start);
+        }
+        return this.reused.getAndSet(0);
+    }
+
+    /**
+     * @param record record.
+     * @return true if the record is a single sample reference (or no-call) block.
+     */
+    public static boolean isCandidate(AlleleRecord record) {
+        return VariantType.NO_VARIATION.equals(record.getType())
+                && record.getSampleCount() == 1
+                && null != record.getSampleId(0)
+                && record.getSecondaryAlternates().isEmpty();
+    }
+
+    /**
+     * @param record candidate record.
+     * @return regions built for the same block in the previous slice, or null.
+     */
+    public List<Region<AlleleInfo>> get(AlleleRecord record) {
+        Block block = this.blocks.get(record.getSampleId(0));
+        if (null == block || !block.matches(record)) {
+            return null;
+        }
+        this.reused.incrementAndGet();
+        return block.regions;
+    }
+
+    /**
+     * Keep the regions of a block if it continues past the end of the slice.
+     * @param record candidate record.
+     * @param regions regions built for the record.
+     * @param endInclusive end of the current slice.
+     */
+    public void put(AlleleRecord record, List<Region<AlleleInfo>> regions, int endInclusive) {
+        if (record.getEnd() > endInclusive) {
+            this.blocks.put(record.getSampleId(0), new Block(record, regions));
+        }
+    }
+
+    private static class Block {
+        private final int start;
+        private final int end;
+        private final boolean pass;
+        private final String reference;
+        private final String alternate;
+        private final String genotype;
+        private final String depth;
+        private final String alleleDepth;
+        private final List<Region<AlleleInfo>> regions;
+
+        Block(AlleleRecord record, List<Region<AlleleInfo>> regions) {
+            this.start = record.getStart();
+            this.end = record.getEnd();
+            this.pass = record.isPass();
+            this.reference = record.getReference();
+            this.alternate = record.getAlternate();
+            this.genotype = record.getGenotype(0);
+            this.depth = record.getDepth(0);
+            this.alleleDepth = record.getAlleleDepth(0);
+            this.regions = regions;
+        }
+
+        boolean matches(AlleleRecord record) {
+            return this.start == record.getStart()
+                    && this.end == record.getEnd()
+                    && this.pass == record.isPass()
+                    && StringUtils.equals(this.genotype, record.getGenotype(0))
+                    && StringUtils.equals(this.depth, record.getDepth(0))
+                    && StringUtils.equals(this.alleleDepth, record.getAlleleDepth(0))
+                    && StringUtils.equals(this.reference, record.getReference())
+                    && StringUtils.equals(this.alternate, record.getAlternate());
+        }
+    }
+}
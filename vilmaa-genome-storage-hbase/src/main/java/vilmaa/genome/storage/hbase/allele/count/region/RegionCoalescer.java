@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Plans the coalescing of adjacent rows with identical attributes (same samples, pass, type, count, depth and id).
+ * Only rows touching end to start are merged - overlapping rows are counted per position and stay separate.
+ * Created by mh719 on 10/04/2018.
+ */
+final class RegionCoalescer {
+    static final int DROPPED = Integer.MIN_VALUE;
+
+    private RegionCoalescer() {
+        // utility
+    }
+
+    /**
+     * @param size number of rows.
+     * @param start start per row (inclusive).
+     * @param end end per row (inclusive).
+     * @param attributes compares the attributes of two rows, excluding start and end.
+     * @return new end per row, or {@link #DROPPED} if the row was merged into a previous row.
+     */
+    static int[] plan(int size, int[] start, int[] end, Comparator<Integer> attributes) {
+        int[] newEnd = Arrays.copyOf(end, size);
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, attributes.thenComparingInt(i -> start[i]).thenComparingInt(i -> end[i]));
+        int head = -1;
+        for (Integer i : order) {
+            if (start[i] > end[i]) {
+                head = -1; // insertion
+                continue;
+            }
+            if (head < 0 || attributes.compare(head, i) != 0 || start[i] > newEnd[head] + 1) {
+                head = i; // start new run
+            } else if (start[i] == newEnd[head] + 1) {
+                newEnd[head] = end[i];
+                newEnd[i] = DROPPED;
+            }
+            // overlapping rows stay as they are
+        }
+        return newEnd;
+    }
+}
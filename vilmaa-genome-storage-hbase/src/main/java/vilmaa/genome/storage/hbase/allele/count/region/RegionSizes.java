@@ -0,0 +1,215 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Row size of the count table per chromosome, recorded as <code>_RS_{chromosome}</code> columns in the meta row
+ * (<code>_RS_*</code> for the default).
+ * Sizes are fixed once rows are written - later loads and readers use the recorded size. Tables with rows but no
+ * recorded sizes are pinned to the default size.
+ * Created by mh719 on 12/04/2018.
+ */
+public class RegionSizes {
+    public static final String COLUMN_PREFIX = "_RS_";
+    public static final String AUTO = "auto";
+    public static final String DEFAULT_CHROMOSOME = "*";
+
+    private final int defaultSize;
+    private final Map<String, Integer> sizes = new HashMap<>();
+
+    public RegionSizes(int defaultSize) {
+        this.defaultSize = check(defaultSize);
+    }
+
+    /**
+     * @param option region size e.g. <code>100</code>, per chromosome with default <code>200,1:100,2:150</code>.
+     * @param defaultSize default if the option is blank or has no default.
+     * @return Region sizes.
+     */
+    public static RegionSizes parse(String option, int defaultSize) {
+        if (StringUtils.isBlank(option) || option.trim().equalsIgnoreCase(AUTO)) {
+            return new RegionSizes(defaultSize);
+        }
+        Map<String, Integer> chromosomes = new HashMap<>();
+        for (String entry : option.split(",")) {
+            String[] split = entry.trim().split(":");
+            if (split.length == 1) {
+                defaultSize = Integer.parseInt(split[0]);
+            } else if (split.length == 2) {
+                chromosomes.put(split[0], Integer.valueOf(split[1]));
+            } else {
+                throw new IllegalStateException("Region size not valid: " + entry);
+            }
+        }
+        RegionSizes regionSizes = new RegionSizes(defaultSize);
+        chromosomes.forEach(regionSizes::setRegionSize);
+        return regionSizes;
+    }
+
+    /**
+     * @param result meta row of the count table.
+     * @param family column family.
+     * @param defaultSize default for chromosomes without a recorded size.
+     * @return Region sizes recorded in the meta row.
+     */
+    public static RegionSizes fromResult(Result result, byte[] family, int defaultSize) {
+        NavigableMap<byte[], byte[]> familyMap = null == result ? null : result.getFamilyMap(family);
+        if (null == familyMap) {
+            return new RegionSizes(defaultSize);
+        }
+        Map<String, Integer> recorded = new HashMap<>();
+        familyMap.forEach((column, value) -> {
+            String name = Bytes.toString(column);
+            if (name.startsWith(COLUMN_PREFIX)) {
+                recorded.put(name.substring(COLUMN_PREFIX.length()), Bytes.toInt(value));
+            }
+        });
+        RegionSizes regionSizes = new RegionSizes(recorded.getOrDefault(DEFAULT_CHROMOSOME, defaultSize));
+        recorded.remove(DEFAULT_CHROMOSOME);
+        recorded.forEach(regionSizes::setRegionSize);
+        return regionSizes;
+    }
+
+    /**
+     * @param result meta row of the count table.
+     * @param family column family.
+     * @return <code>true</code> if region sizes are recorded in the meta row.
+     */
+    public static boolean isRecorded(Result result, byte[] family) {
+        return null != result
+                && null != result.getValue(family, Bytes.toBytes(COLUMN_PREFIX + DEFAULT_CHROMOSOME));
+    }
+
+    /**
+     * @param metaRow row key of the meta row.
+     * @param family column family.
+     * @return Put recording the default and all chromosome sizes.
+     */
+    public Put toPut(byte[] metaRow, byte[] family) {
+        Put put = new Put(metaRow);
+        put.addColumn(family, Bytes.toBytes(COLUMN_PREFIX + DEFAULT_CHROMOSOME), Bytes.toBytes(this.defaultSize));
+        this.sizes.forEach((chromosome, size) ->
+                put.addColumn(family, Bytes.toBytes(COLUMN_PREFIX + chromosome), Bytes.toBytes(size)));
+        return put;
+    }
+
+    /**
+     * Record the sizes in the meta row unless a concurrent writer recorded sizes first.
+     * @param table count table.
+     * @param metaRow row key of the meta row.
+     * @param family column family.
+     * @param defaultSize default for chromosomes without a recorded size.
+     * @return Region sizes recorded in the meta row - this or the ones of the concurrent writer.
+     * @throws IOException if the table can't be read or written.
+     */
+    public RegionSizes record(Table table, byte[] metaRow, byte[] family, int defaultSize) throws IOException {
+        byte[] column = Bytes.toBytes(COLUMN_PREFIX + DEFAULT_CHROMOSOME);
+        if (table.checkAndPut(metaRow, family, column, null, toPut(metaRow, family))) {
+            return this;
+        }
+        return fromResult(table.get(new Get(metaRow)), family, defaultSize);
+    }
+
+    /**
+     * Rows written before sizes were recorded are on the default grid - a table with rows has to keep it.
+     * @param table count table.
+     * @param metaRow row key of the meta row (ignored).
+     * @return <code>true</code> if the table has any row other than the meta row.
+     * @throws IOException if the table can't be read.
+     */
+    public static boolean hasRows(Table table, byte[] metaRow) throws IOException {
+        Scan scan = new Scan();
+        scan.setFilter(new FirstKeyOnlyFilter());
+        scan.setCaching(2);
+        try (ResultScanner scanner = table.getScanner(scan)) {
+            for (Result result = scanner.next(); null != result; result = scanner.next()) {
+                if (!Bytes.equals(metaRow, result.getRow())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Choose the largest divisor of the slice size holding at most the target archive bytes per row.
+     * @param archiveBytesPerBase observed archive bytes per base of a chromosome.
+     * @param targetBytes target archive bytes per row.
+     * @param sliceSize archive slice size - each row has to be within one slice.
+     * @param minSize minimum row size.
+     * @return Region size.
+     */
+    public static int autoSize(double archiveBytesPerBase, long targetBytes, int sliceSize, int minSize) {
+        double best = archiveBytesPerBase <= 0 ? sliceSize : targetBytes / archiveBytesPerBase;
+        int size = minSize;
+        for (int candidate = minSize; candidate <= sliceSize; ++candidate) {
+            if (sliceSize % candidate == 0 && candidate <= best) {
+                size = candidate;
+            }
+        }
+        return size;
+    }
+
+    public int getRegionSize(String chromosome) {
+        return this.sizes.getOrDefault(chromosome, this.defaultSize);
+    }
+
+    public boolean hasRegionSize(String chromosome) {
+        return this.sizes.containsKey(chromosome);
+    }
+
+    public void setRegionSize(String chromosome, int size) {
+        this.sizes.put(chromosome, check(size));
+    }
+
+    public int getDefaultSize() {
+        return defaultSize;
+    }
+
+    public Map<String, Integer> getRegionSizes() {
+        return Collections.unmodifiableMap(sizes);
+    }
+
+    private static int check(int size) {
+        if (size < 1) {
+            throw new IllegalStateException("Region size has to be positive: " + size);
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "RegionSizes{default=" + defaultSize + ", " + sizes + "}";
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.AlternateCoordinate;
+import org.opencb.biodata.models.variant.avro.VariantType;
+import org.opencb.biodata.tools.variant.merge.VariantMerger;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link AlleleRecord} backed by a {@link Variant}.
+ * Created by mh719 on 09/04/2018.
+ */
+public class VariantAlleleRecord implements AlleleRecord {
+    private final Variant variant;
+    private final StudyEntry studyEntry;
+    private final boolean pass;
+    private final Integer[] sampleIds;
+    private final int[] samplePositions;
+    private final Integer gtPos;
+    private final Integer dpPos;
+    private final Integer adPos;
+
+    public VariantAlleleRecord(Variant variant, StudyEntry studyEntry, boolean pass,
+                               Map<String, Integer> sampleNameToSampleId) {
+        this.variant = variant;
+        this.studyEntry = studyEntry;
+        this.pass = pass;
+        Map<String, Integer> samplesPosition = this.studyEntry.getSamplesPosition();
+        this.sampleIds = new Integer[samplesPosition.size()];
+        this.samplePositions = new int[samplesPosition.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : samplesPosition.entrySet()) {
+            this.sampleIds[i] = sampleNameToSampleId.get(entry.getKey());
+            this.samplePositions[i] = entry.getValue();
+            ++i;
+        }
+        this.gtPos = this.studyEntry.getFormatPositions().get(VariantMerger.GT_KEY);
+        this.dpPos = this.studyEntry.getFormatPositions().get(AlleleRegionCalculator.DP_KEY);
+        this.adPos = this.studyEntry.getFormatPositions().get(AlleleRegionCalculator.AD_KEY);
+    }
+
+    @Override
+    public int getStart() {
+        return variant.getStart();
+    }
+
+    @Override
+    public int getEnd() {
+        return variant.getEnd();
+    }
+
+    @Override
+    public String getReference() {
+        return variant.getReference();
+    }
+
+    @Override
+    public String getAlternate() {
+        return variant.getAlternate();
+    }
+
+    @Override
+    public VariantType getType() {
+        return variant.getType();
+    }
+
+    @Override
+    public boolean isPass() {
+        return pass;
+    }
+
+    @Override
+    public List<AlternateCoordinate> getSecondaryAlternates() {
+        return studyEntry.getSecondaryAlternates();
+    }
+
+    @Override
+    public int getSampleCount() {
+        return sampleIds.length;
+    }
+
+    @Override
+    public Integer getSampleId(int sample) {
+        return sampleIds[sample];
+    }
+
+    @Override
+    public String getGenotype(int sample) {
+        return getValue(sample, gtPos);
+    }
+
+    @Override
+    public String getDepth(int sample) {
+        return getValue(sample, dpPos);
+    }
+
+    @Override
+    public String getAlleleDepth(int sample) {
+        return getValue(sample, adPos);
+    }
+
+    private String getValue(int sample, Integer pos) {
+        if (null == pos) {
+            return null;
+        }
+        return studyEntry.getSamplesData().get(samplePositions[sample]).get(pos);
+    }
+}
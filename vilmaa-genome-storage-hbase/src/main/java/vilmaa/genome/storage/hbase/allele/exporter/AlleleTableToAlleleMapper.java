@@ -17,7 +17,7 @@
 
 package vilmaa.genome.storage.hbase.allele.exporter;
 
-import vilmaa.genome.storage.hbase.VariantHbaseUtil;
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.allele.count.converter.HBaseAlleleCountsToAllelesConverter;
 import vilmaa.genome.storage.hbase.filter.ExportFilters;
 import vilmaa.genome.storage.models.alleles.avro.AlleleVariant;
@@ -27,7 +27,6 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.opencb.biodata.models.variant.Variant;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.hadoop.variant.AbstractHBaseMapReduce;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
@@ -58,6 +57,7 @@ public class AlleleTableToAlleleMapper extends AbstractHBaseMapReduce<Object, Ob
     protected volatile Set<String> exportCohort;
     protected volatile Set<Integer> returnedSampleIds;
     private ExportFilters filters;
+    private final RowKeyCodec.View rowKey = new RowKeyCodec.View();
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException {
@@ -121,8 +121,7 @@ public class AlleleTableToAlleleMapper extends AbstractHBaseMapReduce<Object, Ob
     }
 
     protected boolean isValid(Result value) {
-        Variant variant = VariantHbaseUtil.inferAndSetType(getHelper().extractVariantFromVariantRowKey(value.getRow()));
-        return filters.pass(value, variant);
+        return filters.pass(value, this.rowKey.wrap(value.getRow()));
     }
 
     public HBaseAlleleCountsToAllelesConverter getHBaseAlleleCountsToAllelesConverter() {
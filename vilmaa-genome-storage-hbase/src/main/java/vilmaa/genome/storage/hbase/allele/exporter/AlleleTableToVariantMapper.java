@@ -17,7 +17,7 @@
 
 package vilmaa.genome.storage.hbase.allele.exporter;
 
-import vilmaa.genome.storage.hbase.VariantHbaseUtil;
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.allele.count.converter.HBaseAlleleCountsToVariantConverter;
 import vilmaa.genome.storage.hbase.filter.ExportFilters;
 import org.apache.hadoop.hbase.client.Result;
@@ -40,6 +40,7 @@ public class AlleleTableToVariantMapper extends AnalysisToFileMapper {
 
     private volatile HBaseAlleleCountsToVariantConverter countsToVariantConverter;
     private ExportFilters filters;
+    private final RowKeyCodec.View rowKey = new RowKeyCodec.View();
     private Set<String> validCohorts;
     private String studyName;
 
@@ -66,9 +67,8 @@ public class AlleleTableToVariantMapper extends AnalysisToFileMapper {
         if (super.isMetaRow(value)) {
             return true;
         }
-        Variant variant = VariantHbaseUtil.inferAndSetType(getHelper().extractVariantFromVariantRowKey(value.getRow()));
         // FALSE to keep the entry!!!
-        return !this.filters.pass(value, variant);
+        return !this.filters.pass(value, this.rowKey.wrap(value.getRow()));
     }
 
     @Override
@@ -0,0 +1,250 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.fix;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vilmaa.genome.storage.hbase.RowKeyCodec;
+import vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionCompactor;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStoreToHBaseAppendConverter;
+import vilmaa.genome.storage.hbase.allele.count.region.HBaseToAlleleRegionStoreConverter;
+import vilmaa.genome.storage.hbase.allele.count.region.RegionSizes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewrites the accumulated allele region messages of each count table row into one merged message.
+ * Each row is replaced atomically, guarded by the value read from the appended column - rows changed by a concurrent
+ * load are skipped and compacted by the next run. Compacted rows are skipped, so a failed run can be repeated. <br>
+ * Only the batch columns of the batches passed explicitly are folded in - pass only batches of loads marked as
+ * indexed (DONE). The compaction must not overlap an in-flight load or retry of a passed batch: a replayed batch
+ * column written after it was folded in would be counted twice.
+ * Created by mh719 on 16/04/2018.
+ */
+public class AlleleCountCompactionDriver extends Configured implements Tool {
+
+    public static final String COMPACT_TABLE = "vilmaa.fix.compact.table";
+    public static final String COMPACT_STUDY = "vilmaa.fix.compact.study";
+    public static final String COMPACT_BATCHES = "vilmaa.fix.compact.batches";
+    public static final String DO_WRITE = "DO_WRITE";
+
+    public static class Compactor extends TableMapper<ImmutableBytesWritable, Mutation> {
+        private static final String COUNTER_GROUP = "VILMAA_COMPACT";
+        private final Logger log = LoggerFactory.getLogger(Compactor.class);
+        private final RowKeyCodec.View rowKey = new RowKeyCodec.View();
+        private byte[] studiesRow;
+        private byte[] family;
+        private byte[] columnName;
+        private Set<Integer> batches;
+        private boolean doWrite = false;
+        private HBaseToAlleleRegionStoreConverter reader;
+        private AlleleRegionCompactor compactor;
+        private Connection connection;
+        private Table table;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            super.setup(context);
+            doWrite = context.getConfiguration().getBoolean(DO_WRITE, false);
+            batches = new HashSet<>();
+            context.getConfiguration().getStringCollection(COMPACT_BATCHES)
+                    .forEach(batch -> batches.add(Integer.valueOf(batch.trim())));
+            log.info("Set write to: {} for batch columns of batches {}", doWrite, batches);
+            int studyId = context.getConfiguration().getInt(COMPACT_STUDY, -1);
+            if (studyId < 0) {
+                throw new IllegalStateException("Study id required: " + COMPACT_STUDY);
+            }
+            family = Bytes.toBytes(GenomeHelper.DEFAULT_COLUMN_FAMILY);
+            studiesRow = GenomeHelper.generateVariantRowKey(GenomeHelper.DEFAULT_METADATA_ROW_KEY, 0);
+            connection = ConnectionFactory.createConnection(context.getConfiguration());
+            table = connection.getTable(TableName.valueOf(context.getConfiguration().get(COMPACT_TABLE)));
+            RegionSizes regionSizes = RegionSizes.fromResult(table.get(new Get(studiesRow)), family,
+                    AlleleRegionStoreToHBaseAppendConverter.DEFAULT_REGION_SIZE);
+            log.info("Use {}", regionSizes);
+
+            reader = new HBaseToAlleleRegionStoreConverter(family, studyId, regionSizes.getDefaultSize(),
+                    key -> rowKey.wrap(key).toVariant());
+            reader.setRegionSizes(regionSizes);
+            AlleleRegionStoreToHBaseAppendConverter writer = new AlleleRegionStoreToHBaseAppendConverter(family, studyId);
+            writer.setRegionSizes(regionSizes);
+            writer.setEncoding(context.getConfiguration().getInt(
+                    HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_ENCODING,
+                    AlleleRegionStoreToHBaseAppendConverter.ENCODING_V2));
+            log.info("Write count cell encoding v{}", writer.getEncoding());
+            columnName = reader.getColumnName();
+            compactor = new AlleleRegionCompactor(reader, writer);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            try {
+                if (null != table) {
+                    table.close();
+                }
+            } finally {
+                if (null != connection) {
+                    connection.close();
+                }
+            }
+            super.cleanup(context);
+        }
+
+        @Override
+        protected void map(ImmutableBytesWritable key, Result value, Context context) throws IOException,
+                InterruptedException {
+            if (Bytes.startsWith(value.getRow(), studiesRow)) {
+                context.getCounter(COUNTER_GROUP, "META_ROW").increment(1);
+                return;
+            }
+            List<Cell> cells = new ArrayList<>();
+            List<Cell> batchCells = new ArrayList<>();
+            byte[] appended = null;
+            for (Cell cell : value.rawCells()) {
+                byte[] qualifier = CellUtil.cloneQualifier(cell);
+                if (!reader.isCountColumn(qualifier)) {
+                    continue;
+                }
+                if (Bytes.equals(columnName, qualifier)) {
+                    appended = CellUtil.cloneValue(cell);
+                } else if (batches.contains(Bytes.toInt(qualifier, columnName.length))) {
+                    batchCells.add(cell);
+                } else {
+                    context.getCounter(COUNTER_GROUP, "BATCH_NOT_DONE").increment(1);
+                    continue;
+                }
+                cells.add(cell);
+            }
+            Result counts = Result.create(cells);
+            if (compactor.isCanonical(counts)) {
+                context.getCounter(COUNTER_GROUP, "ROW_CANONICAL").increment(1);
+                return;
+            }
+            context.getCounter(COUNTER_GROUP, "MESSAGES_READ").increment(compactor.countMessages(counts));
+            byte[] merged = compactor.compact(counts);
+            context.getCounter(COUNTER_GROUP, "BYTES_READ").increment(
+                    cells.stream().mapToLong(Cell::getValueLength).sum());
+            context.getCounter(COUNTER_GROUP, "BYTES_WRITTEN").increment(merged.length);
+            if (!doWrite) {
+                context.getCounter(COUNTER_GROUP, "ROW_DRY_RUN").increment(1);
+                return;
+            }
+            RowMutations mutations = new RowMutations(value.getRow());
+            mutations.add(new Put(value.getRow()).addColumn(family, columnName, merged));
+            if (!batchCells.isEmpty()) {
+                Delete delete = new Delete(value.getRow());
+                batchCells.forEach(c -> delete.addColumn(family, CellUtil.cloneQualifier(c), c.getTimestamp()));
+                mutations.add(delete);
+            }
+            // replace only if no load appended in the meantime - NULL checks the column does not exist.
+            boolean done = table.checkAndMutate(value.getRow(), family, columnName, CompareFilter.CompareOp.EQUAL,
+                    appended, mutations);
+            context.getCounter(COUNTER_GROUP, done ? "ROW_COMPACTED" : "ROW_CONFLICT").increment(1);
+        }
+    }
+
+    @Override
+    public int run(String[] strings) throws Exception {
+        String tableName = strings[0];
+        int studyId = Integer.parseInt(strings[1]);
+        boolean doWrite = false;
+        if (strings.length > 2) {
+            doWrite = Boolean.valueOf(strings[2]);
+        }
+        if (strings.length > 3) {
+            // batch ids (smallest file id) of finished loads - other batch columns are left as they are
+            getConf().set(COMPACT_BATCHES, strings[3]);
+        }
+        // set config
+        getConf().set(COMPACT_TABLE, tableName);
+        getConf().setInt(COMPACT_STUDY, studyId);
+        getConf().setBoolean(DO_WRITE, doWrite);
+        // create Job
+        Job job = Job.getInstance(getConf(), "Compact allele counts of study " + studyId);
+        job.getConfiguration().set("mapreduce.job.user.classpath.first", "true");
+        job.getConfiguration().setBoolean("mapreduce.map.speculative", false);
+        job.setJarByClass(Compactor.class);
+        // create Scan
+        Scan scan = new Scan();
+        scan.setCacheBlocks(false);
+        scan.setCaching(getConf().getInt("hbase.client.scanner.caching", 50));
+        scan.addFamily(Bytes.toBytes(GenomeHelper.DEFAULT_COLUMN_FAMILY));
+        // init job - one map task per table region
+        TableMapReduceUtil.initTableMapperJob(
+                Bytes.toBytes(tableName), //input Table
+                scan,
+                Compactor.class,
+                null,
+                null,
+                job,
+                true
+        );
+        job.setOutputFormatClass(NullOutputFormat.class);
+        job.setNumReduceTasks(0);
+
+        Thread hook = new Thread(() -> {
+            try {
+                if (!job.isComplete()) {
+                    job.killJob();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Error");
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+        boolean succeed = job.waitForCompletion(true);
+        Runtime.getRuntime().removeShutdownHook(hook);
+        return succeed ? 0 : 1;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Expected arguments: <table_name> <study_id> [<write true/false>] "
+                    + "[<batch ids of DONE loads, comma separated>]");
+        }
+        try {
+            AlleleCountCompactionDriver driver = new AlleleCountCompactionDriver();
+            driver.setConf(HBaseConfiguration.create());
+            System.exit(ToolRunner.run(driver, args));
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -20,10 +20,21 @@ package vilmaa.genome.storage.hbase.allele.opencga;
 import vilmaa.genome.storage.hbase.allele.AlleleCalculatorDriver;
 import vilmaa.genome.storage.hbase.allele.AlleleTransferDriver;
 import vilmaa.genome.storage.hbase.allele.AbstractAlleleDriver;
+import vilmaa.genome.storage.hbase.allele.ArchiveColumnFilters;
+import vilmaa.genome.storage.hbase.allele.GvcfIngestDriver;
+import vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStoreToHBaseAppendConverter;
+import vilmaa.genome.storage.hbase.allele.count.region.HBaseToAlleleRegionStoreConverter;
+import vilmaa.genome.storage.hbase.allele.fix.AlleleCountCompactionDriver;
 import vilmaa.genome.storage.hbase.allele.transfer.AlleleTablePhoenixHelper;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
@@ -43,10 +54,31 @@ import java.io.IOException;
 import java.net.URI;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine.*;
 import static org.opencb.opencga.storage.hadoop.variant.index.AbstractVariantTableDriver.createHBaseTable;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_FILES;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_MEMORY;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_PIPELINE;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_SAMPLE;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_COLUMNAR;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_IDEMPOTENT;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_GROUP_SIZE;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_MANIFEST;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_SCAN_COLUMNS;
+import static vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_SCAN_RANGES;
 
 /**
  * Created by mh719 on 15/02/2017.
@@ -124,8 +156,12 @@ public class HbaseVariantStoragePipeline extends HadoopDirectVariantStoragePipel
         Thread hook = newShutdownHook(jobOperationName, pendingFiles);
         Runtime.getRuntime().addShutdownHook(hook);
         try {
-            mergeCalculateAlleles(studyId, pendingFiles, hadoopRoute, jar);
-            mergeTransfer(studyId, pendingFiles, hadoopRoute, jar);
+            String manifest = options.getString(VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_MANIFEST, "");
+            if (StringUtils.isNotBlank(manifest)) {
+                mergeIngestGvcf(studyId, pendingFiles, manifest, hadoopRoute, jar);
+            } else {
+                mergeBatches(studyId, planBatches(studyId, pendingFiles), hadoopRoute, jar);
+            }
 
             setStatus(BatchFileOperation.Status.DONE, jobOperationName, pendingFiles);
         } catch (Exception e) {
@@ -136,7 +172,131 @@ public class HbaseVariantStoragePipeline extends HadoopDirectVariantStoragePipel
         }
     }
 
+    /**
+     * Split the pending files into batches by the estimated heap per archive slice, see {@link MergeBatchScheduler}.
+     * @param studyId Study id.
+     * @param pendingFiles Files to merge.
+     * @return Batches of files - all files in one batch if neither memory nor file limit is set.
+     * @throws StorageEngineException if the archive can't be sampled.
+     */
+    protected List<List<Integer>> planBatches(int studyId, List<Integer> pendingFiles) throws StorageEngineException {
+        long memory = options.getLong(VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_MEMORY, 0);
+        int maxFiles = options.getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_FILES, 0);
+        if ((memory <= 0 && maxFiles <= 0) || pendingFiles.size() < 2) {
+            return Collections.singletonList(pendingFiles);
+        }
+        MergeBatchScheduler scheduler = new MergeBatchScheduler(memory, maxFiles,
+                options.getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_COLUMNAR, false));
+        StudyConfiguration studyConfiguration =
+                dbAdaptor.getStudyConfigurationManager().getStudyConfiguration(studyId, null).first();
+        Map<Integer, Integer> samples = new HashMap<>();
+        for (Integer fileId : pendingFiles) {
+            Set<Integer> sampleIds = studyConfiguration.getSamplesInFiles().get(fileId);
+            samples.put(fileId, null == sampleIds ? 0 : sampleIds.size());
+        }
+        Map<Integer, Long> archiveBytes = Collections.emptyMap();
+        if (memory > 0) {
+            int rowsPerRegion = options.getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_SAMPLE, 10);
+            TableName archiveTable = TableName.valueOf(getArchiveTableName());
+            try (org.apache.hadoop.hbase.client.Connection con = ConnectionFactory.createConnection(dbAdaptor.getConfiguration());
+                 Table table = con.getTable(archiveTable);
+                 RegionLocator locator = con.getRegionLocator(archiveTable)) {
+                Scan scan = new Scan();
+                ArchiveColumnFilters.restrict(scan, dbAdaptor.getGenomeHelper().getColumnFamily(), pendingFiles,
+                        options.getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_SCAN_COLUMNS, 100),
+                        options.getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_SCAN_RANGES, 64));
+                archiveBytes = MergeBatchScheduler.estimateArchiveBytes(table, locator.getStartKeys(), scan,
+                        pendingFiles, rowsPerRegion);
+            } catch (IOException e) {
+                throw new StorageEngineException("Unable to sample archive table " + getArchiveTableName(), e);
+            }
+        }
+        List<List<Integer>> batches = scheduler.plan(pendingFiles, archiveBytes, samples);
+        for (List<Integer> batch : batches) {
+            logger.info("Merge batch of {} files with estimated {} bytes per slice: {}", batch.size(),
+                    scheduler.estimateMemory(batch, archiveBytes, samples), batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Count and transfer each batch in turn. With dirty region tracking the transfer of a batch runs while the next
+     * batch is counted: a transfer only takes the samples of its own and earlier batches, only reads the count table
+     * regions changed by its batch and the last transfer runs after all batches are counted. Without dirty region
+     * tracking every transfer is a full pass over the count table, so only one transfer of all files runs after the
+     * last batch is counted.
+     * @param studyId Study id.
+     * @param batches Batches of files.
+     * @param hadoopRoute Hadoop executable.
+     * @param jar Jar with dependencies.
+     * @throws StorageEngineException if a job failed.
+     */
+    protected void mergeBatches(int studyId, List<List<Integer>> batches, String hadoopRoute, String jar)
+            throws StorageEngineException {
+        boolean dirty = options.getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY, false);
+        boolean pipeline = dirty && options.getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_BATCH_PIPELINE, true);
+        ExecutorService transferPool = Executors.newSingleThreadExecutor();
+        Future<?> transfer = null;
+        List<Integer> merged = new ArrayList<>();
+        try {
+            for (int i = 0; i < batches.size(); ++i) {
+                List<Integer> batch = batches.get(i);
+                logger.info("Merge batch {} of {}: {}", i + 1, batches.size(), batch);
+                mergeCalculateAlleles(studyId, batch, hadoopRoute, jar);
+                waitForTransfer(transfer);
+                merged.addAll(batch);
+                if (!dirty && i < batches.size() - 1) {
+                    continue;
+                }
+                List<Integer> transferFiles = new ArrayList<>(merged);
+                ObjectMap transferOptions = new ObjectMap(options);
+                if (dirty) {
+                    transferOptions.put(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS, Collections.min(batch));
+                }
+                if (pipeline && i < batches.size() - 1) {
+                    transfer = transferPool.submit(() -> {
+                        mergeTransfer(studyId, transferFiles, transferOptions, hadoopRoute, jar);
+                        return null;
+                    });
+                } else {
+                    transfer = null;
+                    mergeTransfer(studyId, transferFiles, transferOptions, hadoopRoute, jar);
+                }
+            }
+        } finally {
+            transferPool.shutdownNow();
+        }
+    }
+
+    private static void waitForTransfer(Future<?> transfer) throws StorageEngineException {
+        if (null == transfer) {
+            return;
+        }
+        try {
+            transfer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageEngineException("Interrupted while waiting for transfer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StorageEngineException) {
+                throw (StorageEngineException) e.getCause();
+            }
+            throw new StorageEngineException("Transfer failed", e.getCause());
+        }
+    }
+
+    /**
+     * Count a batch of files into the count table. By default the counts are appended to the study column, which makes
+     * the region server read and rewrite the growing cell of each row. With
+     * {@link HbaseTableMapper#VILMAA_GENOME_STORAGE_ALLELE_COUNT_IDEMPOTENT} each batch writes plain Puts to its own
+     * batch column instead ({@link AlleleRegionStoreToHBaseAppendConverter#convertToPuts}), which readers merge
+     * ({@link HBaseToAlleleRegionStoreConverter#isCountColumn}). This is the throughput path for large cohorts: the
+     * write cost of a batch doesn't grow with the files already loaded, and retried or speculative tasks overwrite
+     * their own column. Batch columns can be folded into the study column by {@link AlleleCountCompactionDriver}.
+     */
     private void mergeCalculateAlleles(int studyId, List<Integer> pendingFiles, String hadoopRoute, String jar) throws StorageEngineException {
+        logger.info("Count table writes: {}", options.getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_IDEMPOTENT, false)
+                ? "batch Puts, merged on read" : "Appends");
         Class execClass = AlleleCalculatorDriver.class;
         String args = AlleleCalculatorDriver.buildCommandLineArgs(variantsTableCredentials.toString(),
                 getArchiveTableName(),
@@ -158,12 +318,70 @@ public class HbaseVariantStoragePipeline extends HadoopDirectVariantStoragePipel
         }
     }
 
-    private void mergeTransfer(int studyId, List<Integer> pendingFiles, String hadoopRoute, String jar) throws StorageEngineException {
+    /**
+     * Count the gVCF files of the manifest straight into the count table and transfer them. The manifest has to list
+     * exactly the pending files with their samples. With dirty region tracking the transfer only reads the regions
+     * changed by the ingest tasks.
+     * @param studyId Study id.
+     * @param pendingFiles Files to merge.
+     * @param manifest Manifest of the gVCF files, see {@link GvcfIngestDriver}.
+     * @param hadoopRoute Hadoop executable.
+     * @param jar Jar with dependencies.
+     * @throws StorageEngineException if the manifest doesn't match or a job failed.
+     */
+    private void mergeIngestGvcf(int studyId, List<Integer> pendingFiles, String manifest, String hadoopRoute,
+                                 String jar) throws StorageEngineException {
+        Map<String, List<Integer>> files;
+        try {
+            files = GvcfIngestDriver.readManifest(dbAdaptor.getConfiguration(), new Path(manifest));
+        } catch (IOException e) {
+            throw new StorageEngineException("Unable to read manifest " + manifest, e);
+        }
+        StudyConfiguration studyConfiguration =
+                dbAdaptor.getStudyConfigurationManager().getStudyConfiguration(studyId, null).first();
+        GvcfIngestDriver.checkManifest(files, pendingFiles, studyConfiguration.getFileIds(),
+                studyConfiguration.getSamplesInFiles());
+        mergeIngestGvcf(studyId, manifest, hadoopRoute, jar);
+        ObjectMap transferOptions = new ObjectMap(options);
+        if (options.getBoolean(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY, false)) {
+            // one load per ingest group, see GvcfIngestMapper
+            List<Integer> loadIds = new ArrayList<>();
+            GvcfIngestDriver.buildGroups(files, options.getInt(VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_GROUP_SIZE, 0))
+                    .forEach(group -> loadIds.add(GvcfIngestDriver.buildBatchId(group)));
+            transferOptions.put(VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS, StringUtils.join(loadIds, ','));
+        }
+        mergeTransfer(studyId, pendingFiles, transferOptions, hadoopRoute, jar);
+    }
+
+    /**
+     * Count the gVCF files listed in the manifest straight from disk instead of scanning the archive table.
+     */
+    private void mergeIngestGvcf(int studyId, String manifest, String hadoopRoute, String jar) throws StorageEngineException {
+        Class execClass = GvcfIngestDriver.class;
+        String args = GvcfIngestDriver.buildCommandLineArgs(getCountTableName(), studyId, manifest, options);
+        String executable = hadoopRoute + " jar " + jar + ' ' + execClass.getName();
+        long startTime = System.currentTimeMillis();
+        logger.info("------------------------------------------------------");
+        logger.info("Ingest files of {} into count table '{}'", manifest, getCountTableName());
+        logger.info(executable + " " + args);
+        logger.info("------------------------------------------------------");
+        int exitValue = mrExecutor.run(executable, args);
+        logger.info("------------------------------------------------------");
+        logger.info("Exit value: {}", exitValue);
+        logger.info("Total time: {}s", (System.currentTimeMillis() - startTime) / 1000.0);
+        if (exitValue != 0) {
+            throw new StorageEngineException("Error ingesting files of " + manifest + " into count table \""
+                    + getCountTableName() + "\"");
+        }
+    }
+
+    private void mergeTransfer(int studyId, List<Integer> pendingFiles, ObjectMap transferOptions, String hadoopRoute,
+                               String jar) throws StorageEngineException {
         Class execClass = AlleleTransferDriver.class;
         String args = AlleleTransferDriver.buildCommandLineArgs(variantsTableCredentials.toString(),
                 getArchiveTableName(),
                 getCountTableName(),
-                getVariantTableName(), studyId, pendingFiles, options);
+                getVariantTableName(), studyId, pendingFiles, transferOptions);
         String executable = hadoopRoute + " jar " + jar + ' ' + execClass.getName();
 
         long startTime = System.currentTimeMillis();
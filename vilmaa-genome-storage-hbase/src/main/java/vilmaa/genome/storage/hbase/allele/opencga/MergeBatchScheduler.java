@@ -0,0 +1,181 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.opencga;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveHelper;
+import vilmaa.genome.storage.hbase.allele.ArchiveColumnFilters;
+import vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the files of a merge into batches - each batch as large as the estimated heap of one archive slice allows.
+ * The estimate per file is the average size of its archive cells per slice plus its number of samples, see
+ * {@link HbaseTableMapper#estimateMemory(long, int, boolean)}. Files keep their order.
+ * Created by mh719 on 19/04/2018.
+ */
+public class MergeBatchScheduler {
+    public static final long DEFAULT_MEMORY = 1024L * 1024 * 1024;
+    private static final int MAX_SAMPLED_REGIONS = 256;
+    private static final byte[] META_ROW = Bytes.toBytes(GenomeHelper.DEFAULT_METADATA_ROW_KEY);
+
+    private final long memoryBudget;
+    private final int maxFiles;
+    private final boolean columnarStore;
+
+    /**
+     * @param memoryBudget estimated heap per slice of a batch - 0 or less for no limit.
+     * @param maxFiles files per batch - 0 or less for no limit.
+     * @param columnarStore columnar allele region store used by the calculation.
+     */
+    public MergeBatchScheduler(long memoryBudget, int maxFiles, boolean columnarStore) {
+        this.memoryBudget = memoryBudget;
+        this.maxFiles = maxFiles;
+        this.columnarStore = columnarStore;
+    }
+
+    /**
+     * @param fileIds files to merge, in order.
+     * @param archiveBytes average archive bytes per slice of each file.
+     * @param samples number of samples of each file.
+     * @return batches of files - a file exceeding the budget on its own forms its own batch.
+     */
+    public List<List<Integer>> plan(List<Integer> fileIds, Map<Integer, Long> archiveBytes, Map<Integer, Integer> samples) {
+        List<List<Integer>> batches = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>();
+        long batchBytes = 0;
+        int batchSamples = 0;
+        for (Integer fileId : fileIds) {
+            long bytes = archiveBytes.getOrDefault(fileId, 0L);
+            int sampleCount = samples.getOrDefault(fileId, 0);
+            boolean full = this.maxFiles > 0 && batch.size() >= this.maxFiles;
+            boolean tooLarge = this.memoryBudget > 0 && HbaseTableMapper.estimateMemory(
+                    batchBytes + bytes, batchSamples + sampleCount, this.columnarStore) > this.memoryBudget;
+            if (!batch.isEmpty() && (full || tooLarge)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+                batchSamples = 0;
+            }
+            batch.add(fileId);
+            batchBytes += bytes;
+            batchSamples += sampleCount;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * @param batch files of a batch.
+     * @param archiveBytes average archive bytes per slice of each file.
+     * @param samples number of samples of each file.
+     * @return Estimated heap per slice of the batch.
+     */
+    public long estimateMemory(Collection<Integer> batch, Map<Integer, Long> archiveBytes, Map<Integer, Integer> samples) {
+        long bytes = batch.stream().mapToLong(f -> archiveBytes.getOrDefault(f, 0L)).sum();
+        int sampleCount = batch.stream().mapToInt(f -> samples.getOrDefault(f, 0)).sum();
+        return HbaseTableMapper.estimateMemory(bytes, sampleCount, this.columnarStore);
+    }
+
+    /**
+     * Average archive bytes per slice of each file from the first rows of a bounded number of table regions, so that
+     * the sample does not need a pass over the archive.
+     * @param archive archive table.
+     * @param startKeys start keys of the regions of the archive table.
+     * @param scan Scan restricted to the file columns, e.g. by {@link ArchiveColumnFilters#restrict}.
+     * @param fileIds files to estimate.
+     * @param rowsPerRegion slices read from the start of each sampled region.
+     * @return Average bytes per slice with data of any of the files.
+     * @throws IOException if the archive can't be read.
+     */
+    public static Map<Integer, Long> estimateArchiveBytes(Table archive, byte[][] startKeys, Scan scan,
+                                                          Collection<Integer> fileIds, int rowsPerRegion)
+            throws IOException {
+        Map<String, Integer> columns = new HashMap<>();
+        fileIds.forEach(fileId -> columns.put(ArchiveHelper.getColumnName(fileId), fileId));
+        Map<Integer, Long> bytes = new HashMap<>();
+        long slices = 0;
+        byte[][] regions = null == startKeys || startKeys.length == 0
+                ? new byte[][]{HConstants.EMPTY_START_ROW} : startKeys;
+        for (int region : sampleRegions(regions.length, MAX_SAMPLED_REGIONS)) {
+            Scan regionScan = new Scan(scan);
+            regionScan.setCacheBlocks(false);
+            regionScan.setCaching(Math.max(1, rowsPerRegion));
+            regionScan.setStartRow(regions[region]);
+            // stay within the region - files without data in it must not extend the scan
+            regionScan.setStopRow(region + 1 < regions.length ? regions[region + 1] : HConstants.EMPTY_END_ROW);
+            slices += sampleArchive(archive, regionScan, columns, bytes, rowsPerRegion);
+        }
+        long sampled = Math.max(1, slices);
+        Map<Integer, Long> average = new HashMap<>();
+        bytes.forEach((fileId, sum) -> average.put(fileId, sum / sampled));
+        return average;
+    }
+
+    /**
+     * @param regions number of table regions.
+     * @param maxRegions maximum number of regions to sample.
+     * @return indexes of at most <code>maxRegions</code> regions spread over the table.
+     */
+    static int[] sampleRegions(int regions, int maxRegions) {
+        int n = Math.min(regions, maxRegions);
+        int[] sampled = new int[n];
+        for (int i = 0; i < n; ++i) {
+            sampled[i] = (int) ((long) i * regions / n);
+        }
+        return sampled;
+    }
+
+    private static long sampleArchive(Table archive, Scan scan, Map<String, Integer> columns, Map<Integer, Long> bytes,
+                                      int maxRows) throws IOException {
+        long slices = 0;
+        try (ResultScanner scanner = archive.getScanner(scan)) {
+            Result result;
+            while (slices < maxRows && null != (result = scanner.next())) {
+                if (Bytes.startsWith(result.getRow(), META_ROW)) {
+                    continue;
+                }
+                for (Cell cell : result.rawCells()) {
+                    // column ranges also return files in the gaps
+                    Integer fileId = columns.get(Bytes.toString(CellUtil.cloneQualifier(cell)));
+                    if (null != fileId) {
+                        bytes.merge(fileId, (long) cell.getValueLength(), Long::sum);
+                    }
+                }
+                ++slices;
+            }
+        }
+        return slices;
+    }
+}
@@ -20,6 +20,7 @@ package vilmaa.genome.storage.hbase.allele.stats;
 import vilmaa.genome.analysis.models.variant.stats.VariantStatistics;
 import vilmaa.genome.storage.hbase.VariantHbaseUtil;
 import vilmaa.genome.storage.hbase.allele.count.AlleleCountPosition;
+import vilmaa.genome.storage.hbase.allele.count.SampleIndex;
 import vilmaa.genome.storage.hbase.allele.count.converter.HBaseAlleleCountsToVariantConverter;
 import htsjdk.tribble.util.popgen.HardyWeinbergCalculation;
 import org.opencb.biodata.models.feature.Genotype;
@@ -42,12 +43,22 @@ import static java.util.stream.Collectors.toMap;
  * Created by mh719 on 10/02/2017.
  */
 public class AlleleStatsCalculator {
-    private final Set<Integer> indexed;
+    private final SampleIndex sampleIndex;
+    private final BitSet indexed;
     private HBaseAlleleCountsToVariantConverter variantConverter;
     private boolean calculateHardyWeinberg = false;
 
     public AlleleStatsCalculator(Collection<Integer> indxedSamples) {
-        this.indexed = new HashSet<>(indxedSamples);
+        this(SampleIndex.of(new TreeSet<>(indxedSamples)), indxedSamples);
+    }
+
+    /**
+     * @param sampleIndex dense index of all samples - sample sets are kept as {@link BitSet} of the index.
+     * @param indxedSamples indexed samples.
+     */
+    public AlleleStatsCalculator(SampleIndex sampleIndex, Collection<Integer> indxedSamples) {
+        this.sampleIndex = sampleIndex.extend(new TreeSet<>(indxedSamples));
+        this.indexed = this.sampleIndex.toBitSet(indxedSamples);
         this.variantConverter = new HBaseAlleleCountsToVariantConverter(null, null);
     }
 
@@ -61,7 +72,8 @@ public class AlleleStatsCalculator {
 
     protected void allExist(Set<Integer> samples) {
         for (Integer sid : samples) {
-            if (!indexed.contains(sid)) {
+            int idx = sampleIndex.index(sid);
+            if (idx < 0 || !indexed.get(idx)) {
                 throw new IllegalStateException("Sample not Indexed!!! " + sid);
             }
         }
@@ -83,7 +95,7 @@ public class AlleleStatsCalculator {
     public VariantStatistics calculateStats(AlleleCountPosition position, Set<Integer> samples, Variant variant, Consumer<AlleleCountPosition> checkFilteredObject) {
         allExist(samples);
         AlleleCountPosition currAllele = new AlleleCountPosition(position, samples);
-        Set<Integer> remaining = new HashSet<>(samples);
+        BitSet remaining = sampleIndex.toBitSet(samples);
         validRefAlleles(currAllele);
         if (null != checkFilteredObject) {
             checkFilteredObject.accept(currAllele);
@@ -97,13 +109,18 @@ public class AlleleStatsCalculator {
         Set<Integer> noCallIds = new HashSet<>();
 
         Function<Integer, Boolean> validSampleId = (sid) -> {
-            remaining.remove(sid);
+            int idx = sampleIndex.index(sid);
+            if (idx >= 0) {
+                remaining.clear(idx);
+            }
             return true;
         };
 
         Function<Integer, Boolean> validNoCallSampleId = (sid) -> {
-            boolean isNoCall = remaining.remove(sid);
+            int idx = sampleIndex.index(sid);
+            boolean isNoCall = idx >= 0 && remaining.get(idx);
             if (isNoCall) {
+                remaining.clear(idx);
                 noCallIds.add(sid);
             }
             return isNoCall;
@@ -118,7 +135,7 @@ public class AlleleStatsCalculator {
         count(currAllele.getReference().get(AbstractAlleleCalculator.NO_CALL), validNoCallSampleId); // needed to remove IDS!!!
 
         int refCount = count(refMap, validSampleId);
-        int homRef = remaining.size() * 2;
+        int homRef = remaining.cardinality() * 2;
 
         int total = homRef + refCount + alternateCount + insCnt + delCnt + aCnt + tCnt + gCnt + cCnt; // no-call is not an Allele
 
@@ -22,6 +22,7 @@ import vilmaa.genome.analysis.models.variant.stats.VariantStatistics;
 import vilmaa.genome.storage.hbase.VariantHbaseUtil;
 import vilmaa.genome.storage.hbase.allele.count.AlleleCountPosition;
 import vilmaa.genome.storage.hbase.allele.count.HBaseToAlleleCountConverter;
+import vilmaa.genome.storage.hbase.allele.count.SampleIndex;
 import vilmaa.genome.storage.hbase.allele.transfer.AlleleTablePhoenixHelper;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
@@ -54,13 +55,16 @@ public class AlleleStatsMapper extends AnalysisStatsMapper {
     private volatile boolean calcStats = false;
     private final AtomicInteger studyId = new AtomicInteger();
     private final Map<String, Integer> cohortNameToId = new HashMap<>();
+    private volatile SampleIndex sampleIndex;
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException {
         super.setup(context);
         this.studyId.set(getHelper().getStudyId());
         this.alleleCountConverter = new HBaseToAlleleCountConverter();
-        alleleStatsCalculator = new AlleleStatsCalculator(StudyConfiguration.getIndexedSamples(this.getStudyConfiguration()).values());
+        this.sampleIndex = SampleIndex.build(this.getStudyConfiguration());
+        alleleStatsCalculator = new AlleleStatsCalculator(this.sampleIndex,
+                StudyConfiguration.getIndexedSamples(this.getStudyConfiguration()).values());
         
         String[] configCohortsArr = context.getConfiguration().getStrings(AlleleTableStatsDriver.CONFIG_STORAGE_STATS_COHORTS);
         Set<String> confCohorts = new HashSet<>();
@@ -81,6 +85,7 @@ public class AlleleStatsMapper extends AnalysisStatsMapper {
                 Set<Integer> ids = this.getStudyConfiguration().getCohorts().get(cid);
                 if (null != ids && !ids.isEmpty()) {
                     this.cohortSets.put(cohort, ids);
+                    getLog().info("Cohort {} dense sample range {}", cohort, Arrays.toString(this.sampleIndex.range(ids)));
                     this.cohortNameToId.put(cohort, cid);
                     cohortIds.add(cid);
                 }
@@ -18,6 +18,9 @@
 package vilmaa.genome.storage.hbase.allele.stats;
 
 import com.google.common.collect.BiMap;
+import vilmaa.genome.storage.hbase.allele.count.HbaseTableMapper;
+import vilmaa.genome.storage.hbase.allele.count.SampleIndex;
+import vilmaa.genome.storage.hbase.allele.count.region.DirtyRegions;
 import vilmaa.genome.storage.hbase.allele.transfer.AlleleTablePhoenixHelper;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Scan;
@@ -34,7 +37,11 @@ import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixHel
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Execute MapReduce job to (re-)calculate statistics for different cohorts.
@@ -58,6 +65,58 @@ public class AlleleTableStatsDriver extends AbstractAnalysisTableDriver {
         // nothing to do
     }
 
+    /**
+     * Restricted to the dirty regions of the loads in
+     * {@link HbaseTableMapper#VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS}, if set. Only valid if the cohorts
+     * did not change - rows outside of the dirty regions keep their previous stats. The restriction is ignored if
+     * any computed cohort changed.
+     */
+    @Override
+    protected Scan createScan() {
+        Scan scan = super.createScan();
+        if (getConf().getStringCollection(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS).isEmpty()) {
+            return scan;
+        }
+        try {
+            Collection<String> cohorts = getConf().getStringCollection(CONFIG_STORAGE_STATS_COHORTS);
+            if (cohortsChanged(loadStudyConfiguration(), cohorts)) {
+                getLog().warn("Cohorts changed - ignore dirty regions of loads {}",
+                        getConf().get(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS));
+                return scan;
+            }
+            if (DirtyRegions.restrict(getConf(), getHelper().getColumnFamily(), scan)) {
+                getLog().info("Scan restricted to dirty regions of loads {}",
+                        getConf().get(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY_LOADS));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Problems reading dirty regions", e);
+        }
+        return scan;
+    }
+
+    /**
+     * @param sc Study configuration.
+     * @param cohorts names of the computed cohorts - all if empty.
+     * @return true if a computed cohort has no valid stats or the default cohort is not all indexed samples.
+     */
+    static boolean cohortsChanged(StudyConfiguration sc, Collection<String> cohorts) {
+        Set<Integer> indexedSamples = new HashSet<>(StudyConfiguration.getIndexedSamples(sc).values());
+        for (Map.Entry<String, Integer> entry : sc.getCohortIds().entrySet()) {
+            if (!cohorts.isEmpty() && !cohorts.contains(entry.getKey())) {
+                continue;
+            }
+            Integer cohortId = entry.getValue();
+            if (!sc.getCalculatedStats().contains(cohortId) || sc.getInvalidStats().contains(cohortId)) {
+                return true;
+            }
+            if (StudyEntry.DEFAULT_COHORT.equals(entry.getKey())
+                    && !indexedSamples.equals(sc.getCohorts().get(cohortId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     protected Class<? extends TableMapper> getMapperClass() {
         return AlleleStatsMapper.class;
@@ -102,6 +161,9 @@ public class AlleleTableStatsDriver extends AbstractAnalysisTableDriver {
                 throw new IllegalStateException("No default cohort found!!!");
             }
             sc.getCohorts().put(defaultCohortId, indexedSamples.values());
+            if (SampleIndex.update(sc)) {
+                getLog().info("Dense sample index updated to {} samples", SampleIndex.load(sc).size());
+            }
             getStudyConfigurationManager().updateStudyConfiguration(sc, new QueryOptions());
         } finally {
             getStudyConfigurationManager().unLockStudy(studyId, lock);
@@ -29,6 +29,7 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
 import org.opencb.opencga.storage.hadoop.variant.index.AbstractVariantTableMapReduce;
 
 import java.io.IOException;
@@ -54,6 +55,9 @@ public class HbaseGroupedAlleleTransferMapper  extends AbstractVariantTableMapRe
         converter = new AlleleCountToHBaseConverter(getHelper().getColumnFamily(), study);
         groupedConverter = new HBaseAppendGroupedToAlleleCountConverter(getHelper().getColumnFamily());
         hBaseAlleleTransfer = new HBaseAlleleTransfer(sampleIds);
+        if (null == studiesRow) { // skip meta row e.g. with the region sizes of the count table
+            studiesRow = getHelper().generateVariantRowKey(GenomeHelper.DEFAULT_METADATA_ROW_KEY, 0);
+        }
     }
 
     public void setStudiesRow(byte[] studiesRow) {
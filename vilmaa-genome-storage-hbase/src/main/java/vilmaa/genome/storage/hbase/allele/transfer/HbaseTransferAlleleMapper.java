@@ -17,6 +17,7 @@
 
 package vilmaa.genome.storage.hbase.allele.transfer;
 
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.VariantHbaseUtil;
 import vilmaa.genome.storage.hbase.allele.count.AlleleCountPosition;
 import vilmaa.genome.storage.hbase.allele.count.AlleleCountToHBaseConverter;
@@ -56,6 +57,7 @@ public class HbaseTransferAlleleMapper extends AbstractVariantTableMapReduce {
     protected volatile AlleleCombiner alleleCombiner;
     protected AlleleCountToHBaseConverter converter;
     protected HBaseToAlleleCountConverter alleleCountConverter;
+    private final RowKeyCodec.View rowKey = new RowKeyCodec.View();
 
     public void setAlleleCountConverter(HBaseToAlleleCountConverter alleleCountConverter) {
         this.alleleCountConverter = alleleCountConverter;
@@ -113,27 +115,29 @@ public class HbaseTransferAlleleMapper extends AbstractVariantTableMapReduce {
                     context.getCounter("OPENCGA", "META_ROW").increment(1);
                     continue;
                 }
-                Variant variant = inferAndSetType(getHelper().extractVariantFromVariantRowKey(result.getRow()));
-                if (variant.getStart() > referencePosition && !positionBuffer.isEmpty()) {
+                rowKey.wrap(result.getRow());
+                int start = rowKey.getPosition();
+                if (start > referencePosition && !positionBuffer.isEmpty()) {
                     getLog().info("Process buffer of {} for position ... ", positionBuffer.size(), referencePosition);
                     context.getCounter("OPENCGA", "BUFFER-process").increment(1);
                     processBuffer(refBean, submitFunction);
                     positionBuffer.clear();
                 }
-                if (!StringUtils.equals(chromosome, variant.getChromosome())) {
+                if (!StringUtils.equals(chromosome, rowKey.getChromosome())) {
                     referencePosition = -1;
                     clearRegionOverlap();
-                    chromosome = variant.getChromosome();
+                    chromosome = rowKey.getChromosome();
                 }
-                checkDeletionOverlapMap(variant.getStart());
-                if (variant.getType().equals(VariantType.NO_VARIATION)) {
+                checkDeletionOverlapMap(start);
+                if (rowKey.getType().equals(VariantType.NO_VARIATION)) {
                     context.getCounter("OPENCGA", "NO_VARIATION").increment(1);
-                    referencePosition = variant.getStart();
+                    referencePosition = start;
                     referenceResult = result;
                     refBean = null;
                     continue;
                 }
                 // if actual variant
+                Variant variant = rowKey.toVariant();
                 if (null == referencePosition || !referencePosition.equals(variant.getStart())) {
                     context.getCounter("OPENCGA", "START-BLOCK_SCAN").increment(1);
                     // should only happen at the start of a split block.
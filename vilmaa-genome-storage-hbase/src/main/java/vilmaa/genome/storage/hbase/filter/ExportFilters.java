@@ -17,6 +17,7 @@
 
 package vilmaa.genome.storage.hbase.filter;
 
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Result;
 import org.opencb.biodata.models.variant.Variant;
@@ -60,6 +61,16 @@ public class ExportFilters implements IHbaseVariantFilter {
         return true;
     }
 
+    @Override
+    public boolean pass(Result value, RowKeyCodec.View rowKey) {
+        for (IHbaseVariantFilter filter : filters) {
+            if (!filter.pass(value, rowKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean hasFilters() {
         return !filters.isEmpty();
@@ -18,6 +18,7 @@
 package vilmaa.genome.storage.hbase.filter;
 
 import com.google.common.collect.BiMap;
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
@@ -90,6 +91,15 @@ public class ExportMafFilter implements IHbaseVariantFilter {
 
     @Override
     public boolean pass(Result value, Variant variant) {
+        return pass(value);
+    }
+
+    @Override
+    public boolean pass(Result value, RowKeyCodec.View rowKey) {
+        return pass(value);
+    }
+
+    private boolean pass(Result value) {
         if (chromMafFilters.isEmpty()) {
             return true;
         }
@@ -18,6 +18,7 @@
 package vilmaa.genome.storage.hbase.filter;
 
 import com.google.common.collect.BiMap;
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.allele.transfer.AlleleTablePhoenixHelper;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
@@ -98,6 +99,11 @@ public class ExportOprFilter implements IHbaseVariantFilter {
         return pass(value, variant.getChromosome());
     }
 
+    @Override
+    public boolean pass(Result value, RowKeyCodec.View rowKey) {
+        return pass(value, rowKey.getChromosome());
+    }
+
     @Override
     public boolean hasFilters() {
         return chromOprFilters.values().stream().mapToInt(v -> v.size()).sum() > 0;
@@ -17,6 +17,7 @@
 
 package vilmaa.genome.storage.hbase.filter;
 
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import vilmaa.genome.storage.hbase.VariantHbaseUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -102,11 +103,7 @@ public class ExportPosRefAltFilter implements IHbaseVariantFilter {
 
     @Override
     public boolean pass(Result value, Variant variant) {
-        Map<Integer, Map<String, Set<String>>> posMap = positions.get(variant.getChromosome());
-        if (Objects.isNull(posMap)) {
-            return false;
-        }
-        Map<String, Set<String>> vars = posMap.get(variant.getStart());
+        Map<String, Set<String>> vars = getVariants(variant.getChromosome(), variant.getStart());
         if (Objects.isNull(vars)) {
             return false;
         }
@@ -118,6 +115,28 @@ public class ExportPosRefAltFilter implements IHbaseVariantFilter {
         return alts.contains(variant.getAlternate());
     }
 
+    @Override
+    public boolean pass(Result value, RowKeyCodec.View rowKey) {
+        Map<String, Set<String>> vars = getVariants(rowKey.getChromosome(), rowKey.getPosition());
+        if (Objects.isNull(vars)) {
+            return false; // most rows - decided without decoding the alleles
+        }
+
+        Set<String> alts = vars.get(rowKey.getReference());
+        if (Objects.isNull(alts)) {
+            return false;
+        }
+        return alts.contains(rowKey.getAlternate());
+    }
+
+    private Map<String, Set<String>> getVariants(String chromosome, Integer position) {
+        Map<Integer, Map<String, Set<String>>> posMap = positions.get(chromosome);
+        if (Objects.isNull(posMap)) {
+            return null;
+        }
+        return posMap.get(position);
+    }
+
     @Override
     public boolean hasFilters() {
         return !positions.isEmpty();
@@ -17,6 +17,7 @@
 
 package vilmaa.genome.storage.hbase.filter;
 
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Result;
 import org.opencb.biodata.models.variant.Variant;
@@ -78,7 +79,15 @@ public class ExportVariantType implements IHbaseVariantFilter {
 
     @Override
     public boolean pass(Result value, Variant variant) {
-        VariantType type = variant.getType();
+        return pass(variant.getType());
+    }
+
+    @Override
+    public boolean pass(Result value, RowKeyCodec.View rowKey) {
+        return pass(rowKey.getType());
+    }
+
+    private boolean pass(VariantType type) {
         if (!includes.isEmpty()) {
             if (includes.contains(type)) return true; // if in INCLUDE list - OK
             return false;
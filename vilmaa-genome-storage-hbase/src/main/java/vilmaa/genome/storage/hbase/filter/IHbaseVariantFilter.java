@@ -17,6 +17,7 @@
 
 package vilmaa.genome.storage.hbase.filter;
 
+import vilmaa.genome.storage.hbase.RowKeyCodec;
 import org.apache.hadoop.hbase.client.Result;
 import org.opencb.biodata.models.variant.Variant;
 
@@ -30,5 +31,15 @@ public interface IHbaseVariantFilter {
 
     boolean pass(Result value, Variant variant);
 
+    /**
+     * Filter on the row key fields - override to avoid materialising a {@link Variant} per row.
+     * @param value Row.
+     * @param rowKey {@link RowKeyCodec.View} of the row key of value.
+     * @return TRUE if the row passes the filter.
+     */
+    default boolean pass(Result value, RowKeyCodec.View rowKey) {
+        return pass(value, rowKey.toVariant());
+    }
+
     boolean hasFilters();
 }
@@ -0,0 +1,719 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of int values (e.g. sample ids) in the style of a roaring bitmap. <br>
+ * Values are partitioned by their high 16 bits into containers; a container holds a sorted array of the low 16 bits
+ * while sparse and switches to a 2^16 bit bitmap once dense, so union, intersection and difference
+ * work word by word. Values are iterated in ascending (unsigned) order. Null values are not supported.
+ * Created by mh719 on 05/04/2018.
+ */
+public class CompressedIntSet extends AbstractSet<Integer> {
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size = 0;
+
+    public CompressedIntSet() {
+        this.keys = new char[2];
+        this.containers = new Container[2];
+    }
+
+    public CompressedIntSet(Collection<Integer> values) {
+        this();
+        addAll(values);
+    }
+
+    public CompressedIntSet(CompressedIntSet copy) {
+        this.keys = Arrays.copyOf(copy.keys, Math.max(2, copy.size));
+        this.containers = new Container[this.keys.length];
+        for (int i = 0; i < copy.size; ++i) {
+            this.containers[i] = copy.containers[i].copy();
+        }
+        this.size = copy.size;
+    }
+
+    private static char high(int value) {
+        return (char) (value >>> 16);
+    }
+
+    private static char low(int value) {
+        return (char) value;
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int idx, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            containers = Arrays.copyOf(containers, size << 1);
+        }
+        System.arraycopy(keys, idx, keys, idx + 1, size - idx);
+        System.arraycopy(containers, idx, containers, idx + 1, size - idx);
+        keys[idx] = key;
+        containers[idx] = container;
+        ++size;
+    }
+
+    private void delete(int idx) {
+        System.arraycopy(keys, idx + 1, keys, idx, size - idx - 1);
+        System.arraycopy(containers, idx + 1, containers, idx, size - idx - 1);
+        containers[--size] = null;
+    }
+
+    private void append(char key, Container container) {
+        if (container.cardinality() == 0) {
+            return;
+        }
+        insert(size, key, container);
+    }
+
+    public boolean add(int value) {
+        char key = high(value);
+        int idx = indexOf(key);
+        if (idx < 0) {
+            insert(-idx - 1, key, new ArrayContainer().add(low(value)));
+            return true;
+        }
+        Container container = containers[idx];
+        int before = container.cardinality();
+        containers[idx] = container.add(low(value));
+        return containers[idx].cardinality() != before;
+    }
+
+    @Override
+    public boolean add(Integer value) {
+        return add(value.intValue());
+    }
+
+    public boolean contains(int value) {
+        int idx = indexOf(high(value));
+        return idx >= 0 && containers[idx].contains(low(value));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains(((Integer) o).intValue());
+    }
+
+    public boolean remove(int value) {
+        int idx = indexOf(high(value));
+        if (idx < 0) {
+            return false;
+        }
+        if (!containers[idx].contains(low(value))) {
+            return false;
+        }
+        containers[idx] = containers[idx].remove(low(value));
+        if (containers[idx].cardinality() == 0) {
+            delete(idx);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Integer && remove(((Integer) o).intValue());
+    }
+
+    @Override
+    public int size() {
+        int card = 0;
+        for (int i = 0; i < size; ++i) {
+            card += containers[i].cardinality();
+        }
+        return card;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(containers, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Integer> c) {
+        if (c instanceof CompressedIntSet) {
+            int before = size();
+            or((CompressedIntSet) c);
+            return before != size();
+        }
+        boolean changed = false;
+        for (Integer value : c) {
+            changed |= add(value.intValue());
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        int before = size();
+        if (c instanceof CompressedIntSet) {
+            andNot((CompressedIntSet) c);
+        } else {
+            for (Object o : c) {
+                remove(o);
+            }
+        }
+        return before != size();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        int before = size();
+        CompressedIntSet other;
+        if (c instanceof CompressedIntSet) {
+            other = (CompressedIntSet) c;
+        } else {
+            other = new CompressedIntSet();
+            for (Object o : c) {
+                if (o instanceof Integer) {
+                    other.add(((Integer) o).intValue());
+                }
+            }
+        }
+        CompressedIntSet and = and(this, other);
+        this.keys = and.keys;
+        this.containers = and.containers;
+        this.size = and.size;
+        return before != size();
+    }
+
+    /**
+     * In place union.
+     * @param other values to add.
+     */
+    public void or(CompressedIntSet other) {
+        int i = 0;
+        int j = 0;
+        while (j < other.size) {
+            if (i == size) {
+                insert(i++, other.keys[j], other.containers[j].copy());
+                ++j;
+                continue;
+            }
+            if (keys[i] < other.keys[j]) {
+                ++i;
+            } else if (keys[i] > other.keys[j]) {
+                insert(i++, other.keys[j], other.containers[j].copy());
+                ++j;
+            } else {
+                containers[i] = containers[i].or(other.containers[j]);
+                ++i;
+                ++j;
+            }
+        }
+    }
+
+    /**
+     * In place difference.
+     * @param other values to remove.
+     */
+    public void andNot(CompressedIntSet other) {
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                ++i;
+            } else if (keys[i] > other.keys[j]) {
+                ++j;
+            } else {
+                containers[i] = containers[i].andNot(other.containers[j]);
+                if (containers[i].cardinality() == 0) {
+                    delete(i);
+                } else {
+                    ++i;
+                }
+                ++j;
+            }
+        }
+    }
+
+    public static CompressedIntSet or(CompressedIntSet a, CompressedIntSet b) {
+        CompressedIntSet res = new CompressedIntSet(a);
+        res.or(b);
+        return res;
+    }
+
+    public static CompressedIntSet andNot(CompressedIntSet a, CompressedIntSet b) {
+        CompressedIntSet res = new CompressedIntSet(a);
+        res.andNot(b);
+        return res;
+    }
+
+    public static CompressedIntSet and(CompressedIntSet a, CompressedIntSet b) {
+        CompressedIntSet res = new CompressedIntSet();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                ++i;
+            } else if (a.keys[i] > b.keys[j]) {
+                ++j;
+            } else {
+                res.append(a.keys[i], a.containers[i].and(b.containers[j]));
+                ++i;
+                ++j;
+            }
+        }
+        return res;
+    }
+
+    public static boolean intersects(CompressedIntSet a, CompressedIntSet b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                ++i;
+            } else if (a.keys[i] > b.keys[j]) {
+                ++j;
+            } else {
+                if (a.containers[i].and(b.containers[j]).cardinality() > 0) {
+                    return true;
+                }
+                ++i;
+                ++j;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Iterate values in ascending order without boxing.
+     * @param consumer receives each value.
+     */
+    public void forEachInt(IntConsumer consumer) {
+        for (int i = 0; i < size; ++i) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    public int[] toIntArray() {
+        int[] arr = new int[size()];
+        int[] idx = {0};
+        forEachInt(v -> arr[idx[0]++] = v);
+        return arr;
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            private int container = 0;
+            private int pos = 0;
+            private int next = advance();
+
+            private int advance() {
+                while (container < size) {
+                    int value = containers[container].next(pos);
+                    if (value >= 0) {
+                        pos = value + 1;
+                        return (keys[container] << 16) | value;
+                    }
+                    ++container;
+                    pos = 0;
+                }
+                return 0;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return container < size;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract Container or(Container other);
+
+        abstract Container and(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        /**
+         * @return smallest value >= from or -1.
+         */
+        abstract int next(int from);
+
+        abstract void forEach(int high, IntConsumer consumer);
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int card;
+
+        private ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(char[] values, int card) {
+            this.values = values;
+            this.card = card;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, card, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            int idx = Arrays.binarySearch(values, 0, card, value);
+            if (idx >= 0) {
+                return this;
+            }
+            if (card >= ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            idx = -idx - 1;
+            if (card == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, card << 1));
+            }
+            System.arraycopy(values, idx, values, idx + 1, card - idx);
+            values[idx] = value;
+            ++card;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int idx = Arrays.binarySearch(values, 0, card, value);
+            if (idx >= 0) {
+                System.arraycopy(values, idx + 1, values, idx, card - idx - 1);
+                --card;
+            }
+            return this;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < card; ++i) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            char[] res = new char[card + o.card];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < card && j < o.card) {
+                char a = values[i];
+                char b = o.values[j];
+                if (a < b) {
+                    res[k++] = a;
+                    ++i;
+                } else if (a > b) {
+                    res[k++] = b;
+                    ++j;
+                } else {
+                    res[k++] = a;
+                    ++i;
+                    ++j;
+                }
+            }
+            while (i < card) {
+                res[k++] = values[i++];
+            }
+            while (j < o.card) {
+                res[k++] = o.values[j++];
+            }
+            ArrayContainer union = new ArrayContainer(res, k);
+            return k > ARRAY_MAX ? union.toBitmap() : union;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] res = new char[card];
+            int k = 0;
+            if (other instanceof BitmapContainer) {
+                for (int i = 0; i < card; ++i) {
+                    if (other.contains(values[i])) {
+                        res[k++] = values[i];
+                    }
+                }
+                return new ArrayContainer(res, k);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            int i = 0;
+            int j = 0;
+            while (i < card && j < o.card) {
+                char a = values[i];
+                char b = o.values[j];
+                if (a < b) {
+                    ++i;
+                } else if (a > b) {
+                    ++j;
+                } else {
+                    res[k++] = a;
+                    ++i;
+                    ++j;
+                }
+            }
+            return new ArrayContainer(res, k);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] res = new char[card];
+            int k = 0;
+            for (int i = 0; i < card; ++i) {
+                if (!other.contains(values[i])) {
+                    res[k++] = values[i];
+                }
+            }
+            return new ArrayContainer(res, k);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(card, 1)), card);
+        }
+
+        @Override
+        int next(int from) {
+            if (from > Character.MAX_VALUE) {
+                return -1;
+            }
+            int idx = Arrays.binarySearch(values, 0, card, (char) from);
+            if (idx < 0) {
+                idx = -idx - 1;
+            }
+            return idx >= card ? -1 : values[idx];
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < card; ++i) {
+                consumer.accept(high | values[i]);
+            }
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int card;
+
+        private BitmapContainer() {
+            this(new long[BITMAP_WORDS], 0);
+        }
+
+        private BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        private static BitmapContainer build(long[] words) {
+            int card = 0;
+            for (long word : words) {
+                card += Long.bitCount(word);
+            }
+            return new BitmapContainer(words, card);
+        }
+
+        private void set(char value) {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before | (1L << value);
+            if (before != words[value >>> 6]) {
+                ++card;
+            }
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            if (contains(value)) {
+                words[value >>> 6] &= ~(1L << value);
+                --card;
+            }
+            return shrink();
+        }
+
+        private Container shrink() {
+            return card > ARRAY_MAX ? this : toArray();
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[Math.max(card, 1)];
+            int[] k = {0};
+            forEach(0, v -> values[k[0]++] = (char) v);
+            return new ArrayContainer(values, card);
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] res = Arrays.copyOf(words, BITMAP_WORDS);
+            if (other instanceof BitmapContainer) {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < BITMAP_WORDS; ++i) {
+                    res[i] |= o[i];
+                }
+                return build(res);
+            }
+            BitmapContainer union = new BitmapContainer(res, card);
+            ArrayContainer o = (ArrayContainer) other;
+            for (int i = 0; i < o.card; ++i) {
+                union.set(o.values[i]);
+            }
+            return union;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] o = ((BitmapContainer) other).words;
+            long[] res = new long[BITMAP_WORDS];
+            for (int i = 0; i < BITMAP_WORDS; ++i) {
+                res[i] = words[i] & o[i];
+            }
+            return build(res).shrink();
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] res = Arrays.copyOf(words, BITMAP_WORDS);
+            if (other instanceof BitmapContainer) {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < BITMAP_WORDS; ++i) {
+                    res[i] &= ~o[i];
+                }
+            } else {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; ++i) {
+                    char value = o.values[i];
+                    res[value >>> 6] &= ~(1L << value);
+                }
+            }
+            return build(res).shrink();
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(Arrays.copyOf(words, BITMAP_WORDS), card);
+        }
+
+        @Override
+        int next(int from) {
+            if (from > Character.MAX_VALUE) {
+                return -1;
+            }
+            int idx = from >>> 6;
+            long word = words[idx] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return (idx << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++idx == BITMAP_WORDS) {
+                    return -1;
+                }
+                word = words[idx];
+            }
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < BITMAP_WORDS; ++i) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(high | ((i << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof CompressedIntSet) {
+            CompressedIntSet other = (CompressedIntSet) o;
+            return size() == other.size() && and(this, other).size() == size();
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = {0};
+        forEachInt(v -> hash[0] += v);
+        return hash[0]; // same as AbstractSet: sum of the element hash codes
+    }
+}
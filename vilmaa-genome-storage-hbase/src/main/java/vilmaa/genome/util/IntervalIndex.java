@@ -0,0 +1,204 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Index of closed intervals [lo, hi] to answer overlap queries in O(log n + k). <br>
+ * Intervals are sorted by start and kept as an implicit binary tree augmented with the max end of each subtree.
+ * The index is (re)built lazily on the first query after an {@link #add(int, int)}.
+ * Hits are reported as insertion ordinals (0 based) in ascending order. Not thread safe.
+ * Created by mh719 on 02/04/2018.
+ */
+public class IntervalIndex {
+    private static final int SCAN_LEVEL = 3;
+
+    private int[] lo;
+    private int[] hi;
+    private int size = 0;
+
+    private int[] sortedLo = new int[0];
+    private int[] sortedHi = new int[0];
+    private int[] sortedOrd = new int[0];
+    private int[] maxHi = new int[0];
+    private int maxLevel = -1;
+    private boolean dirty = false;
+
+    private int[] hits = new int[16];
+    private long[] stack = new long[64];
+
+    public IntervalIndex() {
+        this(16);
+    }
+
+    public IntervalIndex(int capacity) {
+        this.lo = new int[Math.max(1, capacity)];
+        this.hi = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Add interval.
+     * @param start inclusive start - must be smaller or equal to end.
+     * @param end inclusive end.
+     * @return ordinal of the interval.
+     */
+    public int add(int start, int end) {
+        if (start > end) {
+            throw new IllegalStateException("Start " + start + " larger than end " + end);
+        }
+        if (size == lo.length) {
+            int len = lo.length << 1;
+            lo = Arrays.copyOf(lo, len);
+            hi = Arrays.copyOf(hi, len);
+        }
+        lo[size] = start;
+        hi[size] = end;
+        dirty = true;
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        maxLevel = -1;
+        dirty = false;
+    }
+
+    /**
+     * Report all intervals overlapping [from, to] (inclusive) in insertion order.
+     * @param from inclusive start.
+     * @param to inclusive end.
+     * @param consumer receives the ordinal of each overlapping interval.
+     */
+    public void query(int from, int to, IntConsumer consumer) {
+        if (dirty) {
+            build();
+        }
+        if (size == 0 || from > to) {
+            return;
+        }
+        int cnt = 0;
+        int sp = 0;
+        stack = push(stack, sp++, (1 << maxLevel) - 1, maxLevel, 0);
+        while (sp > 0) {
+            long z = stack[--sp];
+            int x = (int) (z >>> 32);
+            int k = (int) ((z >>> 1) & 0xff);
+            boolean leftDone = (z & 1L) == 1L;
+            if (k <= SCAN_LEVEL) { // small subtree - scan linearly
+                int i0 = x >> k << k;
+                int i1 = Math.min(i0 + (1 << (k + 1)) - 1, size);
+                for (int i = i0; i < i1 && sortedLo[i] <= to; ++i) {
+                    if (sortedHi[i] >= from) {
+                        cnt = hit(cnt, sortedOrd[i]);
+                    }
+                }
+            } else if (!leftDone) {
+                int y = x - (1 << (k - 1));
+                stack = push(stack, sp++, x, k, 1);
+                if (y >= size || maxHi[y] >= from) {
+                    stack = push(stack, sp++, y, k - 1, 0);
+                }
+            } else if (x < size && sortedLo[x] <= to) {
+                if (sortedHi[x] >= from) {
+                    cnt = hit(cnt, sortedOrd[x]);
+                }
+                stack = push(stack, sp++, x + (1 << (k - 1)), k - 1, 0);
+            }
+        }
+        Arrays.sort(hits, 0, cnt);
+        for (int i = 0; i < cnt; ++i) {
+            consumer.accept(hits[i]);
+        }
+    }
+
+    private int hit(int cnt, int ordinal) {
+        if (cnt == hits.length) {
+            hits = Arrays.copyOf(hits, cnt << 1);
+        }
+        hits[cnt] = ordinal;
+        return cnt + 1;
+    }
+
+    private static long[] push(long[] stack, int sp, int x, int k, int leftDone) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp << 1);
+        }
+        stack[sp] = ((long) x << 32) | ((long) k << 1) | leftDone;
+        return stack;
+    }
+
+    private void build() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; ++i) {
+            keys[i] = ((long) lo[i] << 32) | (i & 0xffffffffL);
+        }
+        Arrays.sort(keys);
+        if (sortedLo.length < size) {
+            sortedLo = new int[size];
+            sortedHi = new int[size];
+            sortedOrd = new int[size];
+            maxHi = new int[size];
+        }
+        for (int i = 0; i < size; ++i) {
+            int ord = (int) keys[i];
+            sortedOrd[i] = ord;
+            sortedLo[i] = lo[ord];
+            sortedHi[i] = hi[ord];
+        }
+        this.maxLevel = buildTree();
+        this.dirty = false;
+    }
+
+    /**
+     * Augment implicit tree (node at index i on level k has its lowest k bits set) with the max end of its subtree.
+     * @return max level of the tree.
+     */
+    private int buildTree() {
+        if (size == 0) {
+            return -1;
+        }
+        int lastIdx = 0;
+        int last = 0;
+        for (int i = 0; i < size; i += 2) {
+            lastIdx = i;
+            last = maxHi[i] = sortedHi[i];
+        }
+        int k = 1;
+        for (; (1L << k) <= size; ++k) {
+            int x = 1 << (k - 1);
+            int i0 = (x << 1) - 1;
+            int step = x << 2;
+            for (int i = i0; i < size; i += step) {
+                int left = maxHi[i - x];
+                int right = i + x < size ? maxHi[i + x] : last;
+                maxHi[i] = Math.max(sortedHi[i], Math.max(left, right));
+            }
+            lastIdx = ((lastIdx >> k) & 1) == 1 ? lastIdx - x : lastIdx + x;
+            if (lastIdx < size && maxHi[lastIdx] > last) {
+                last = maxHi[lastIdx];
+            }
+        }
+        return k - 1;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.util;
+
+import java.util.concurrent.*;
+import java.util.function.LongConsumer;
+
+/**
+ * Single threaded stage of a bounded pipeline - items are handed over by {@link #put(Object)} and processed in order.
+ * Reports the queue depth at each hand over and the time (ms) spent blocked on a full queue or waiting for input.
+ * Created by mh719 on 05/04/2018.
+ */
+public class PipelineStage<T> {
+    private static final Object END_MARKER = new Object();
+
+    /**
+     * Processes one item of a stage.
+     * @param <T> item type.
+     */
+    @FunctionalInterface
+    public interface Worker<T> {
+        void accept(T item) throws Exception;
+    }
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final ExecutorService pool;
+    private final Future<Long> future;
+    private final LongConsumer queueDepth;
+    private final LongConsumer putStall;
+    private final LongConsumer takeStall;
+
+    /**
+     * @param name name of the stage.
+     * @param capacity number of items waiting to be processed.
+     * @param worker processes each item.
+     * @param queueDepth receives the queue depth at each {@link #put(Object)}.
+     * @param putStall receives the ms the producer was blocked by a full queue.
+     * @param takeStall receives the ms the stage was waiting for input.
+     */
+    public PipelineStage(String name, int capacity, Worker<T> worker, LongConsumer queueDepth, LongConsumer putStall,
+                         LongConsumer takeStall) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.queueDepth = queueDepth;
+        this.putStall = putStall;
+        this.takeStall = takeStall;
+        this.pool = Executors.newSingleThreadExecutor(r -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            t.setName("pipeline-" + name);
+            return t;
+        });
+        this.future = this.pool.submit(() -> run(worker));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Long run(Worker<T> worker) throws Exception {
+        long cnt = 0;
+        while (true) {
+            long start = System.nanoTime();
+            Object item = this.queue.take();
+            this.takeStall.accept(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (item == END_MARKER) {
+                return cnt;
+            }
+            worker.accept((T) item);
+            ++cnt;
+        }
+    }
+
+    /**
+     * Hand over item to the stage - blocks while the queue is full.
+     * @param item item to process.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws IllegalStateException if the stage failed.
+     */
+    public void put(T item) throws InterruptedException {
+        offer(item);
+    }
+
+    private void offer(Object item) throws InterruptedException {
+        this.queueDepth.accept(this.queue.size());
+        long start = System.nanoTime();
+        try {
+            while (!this.queue.offer(item, 1, TimeUnit.SECONDS)) {
+                checkFailed();
+            }
+        } finally {
+            this.putStall.accept(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private void checkFailed() throws InterruptedException {
+        if (this.future.isDone()) {
+            waitFor();
+            throw new IllegalStateException("Pipeline stage " + name + " finished unexpectedly");
+        }
+    }
+
+    private long waitFor() throws InterruptedException {
+        try {
+            return this.future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Pipeline stage " + name + " failed", e.getCause());
+        } catch (CancellationException e) {
+            throw new IllegalStateException("Pipeline stage " + name + " was cancelled", e);
+        }
+    }
+
+    /**
+     * Process all remaining items and stop the stage.
+     * @return number of items processed.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws IllegalStateException if the stage failed.
+     */
+    public long finish() throws InterruptedException {
+        try {
+            if (!this.future.isDone()) {
+                offer(END_MARKER);
+            }
+            return waitFor();
+        } finally {
+            this.pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Stop the stage without processing remaining items.
+     */
+    public void cancel() {
+        this.future.cancel(true);
+        this.pool.shutdownNow();
+    }
+}
@@ -64,13 +64,21 @@ public abstract class Region<T> {
     }
 
     public boolean overlap(Region other, boolean insertionAware) {
-        if (sameRegion(other)) {
+        return overlap(getStart(), getEnd(), other, insertionAware);
+    }
+
+    /**
+     * Same as {@link #overlap(Region, boolean)} for a region given by its start and end.
+     */
+    public static boolean overlap(int start, int end, Region other, boolean insertionAware) {
+        if (start == other.getStart() && end == other.getEnd()) {
             return true;
         }
+        int max = Math.max(start, end);
         if (insertionAware) {
-            return this.getStart() <= other.getMaxPosition() && other.getStart() <= this.getMaxPosition();
+            return start <= other.getMaxPosition() && other.getStart() <= max;
         }
-        return this.getMinPosition() <= other.getMaxPosition() && other.getMinPosition() <= this.getMaxPosition();
+        return Math.min(start, end) <= other.getMaxPosition() && other.getMinPosition() <= max;
     }
 
     public boolean coveredBy(Region other) {
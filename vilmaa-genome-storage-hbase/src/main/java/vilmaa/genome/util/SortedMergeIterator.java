@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.util;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted iterators into one sorted stream, holding only the head of each source in memory.
+ * Equal items are returned in source order.
+ * Created by mh719 on 18/04/2018.
+ */
+public class SortedMergeIterator<T> implements Iterator<T> {
+
+    private static class Head<T> {
+        private final int source;
+        private final Iterator<? extends T> iterator;
+        private T item;
+
+        Head(int source, Iterator<? extends T> iterator) {
+            this.source = source;
+            this.iterator = iterator;
+        }
+
+        boolean advance() {
+            if (!this.iterator.hasNext()) {
+                return false;
+            }
+            this.item = this.iterator.next();
+            return true;
+        }
+    }
+
+    private final Comparator<? super T> comparator;
+    private final PriorityQueue<Head<T>> queue;
+
+    /**
+     * @param sources iterators, each sorted by the comparator.
+     * @param comparator sort order of the sources.
+     */
+    public SortedMergeIterator(List<? extends Iterator<? extends T>> sources, Comparator<? super T> comparator) {
+        this.comparator = comparator;
+        this.queue = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+            int cmp = comparator.compare(a.item, b.item);
+            return cmp == 0 ? Integer.compare(a.source, b.source) : cmp;
+        });
+        for (int i = 0; i < sources.size(); ++i) {
+            Head<T> head = new Head<>(i, sources.get(i));
+            if (head.advance()) {
+                this.queue.add(head);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !this.queue.isEmpty();
+    }
+
+    /**
+     * @return next item.
+     * @throws IllegalStateException if a source is not sorted.
+     */
+    @Override
+    public T next() {
+        Head<T> head = this.queue.poll();
+        if (null == head) {
+            throw new NoSuchElementException();
+        }
+        T item = head.item;
+        if (head.advance()) {
+            if (this.comparator.compare(item, head.item) > 0) {
+                throw new IllegalStateException("Source " + head.source + " not sorted: " + head.item + " after " + item);
+            }
+            this.queue.add(head);
+        }
+        return item;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase;
+
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 06/04/2018.
+ */
+public class HBaseBatchWriterTest {
+    private static final byte[] CF = Bytes.toBytes("0");
+
+    @Test
+    public void writeInBatches() throws Exception {
+        List<Row> written = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        try (HBaseBatchWriter writer = new HBaseBatchWriter(batch -> {
+            batchSizes.add(batch.size());
+            written.addAll(batch);
+        }, 3, Long.MAX_VALUE, 100, (k, v) -> counters.computeIfAbsent(k, x -> new AtomicLong()).addAndGet(v))) {
+            for (int i = 0; i < 25; ++i) {
+                List<Append> appends = new ArrayList<>();
+                for (int j = 0; j < 101; ++j) {
+                    appends.add(append(i * 101 + j));
+                }
+                appends.add(null);
+                writer.write(appends);
+            }
+            writer.flush();
+            assertEquals(2525, written.size());
+        }
+        assertEquals(2525, written.size());
+        assertEquals(26, batchSizes.size());
+        assertTrue(batchSizes.stream().allMatch(s -> s <= 100));
+        Set<Integer> rows = new HashSet<>();
+        written.forEach(r -> rows.add(Bytes.toInt(r.getRow())));
+        assertEquals(2525, rows.size());
+        assertEquals(2525, counters.get("writer-mutations").get());
+        assertEquals(26, counters.get("writer-batches").get());
+    }
+
+    @Test
+    public void writeByBufferSize() throws Exception {
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        try (HBaseBatchWriter writer = new HBaseBatchWriter(batch -> batchSizes.add(batch.size()), 1, 1, 100,
+                (k, v) -> {})) {
+            writer.write(Arrays.asList(append(1), append(2), append(3)));
+        }
+        assertEquals(Arrays.asList(1, 1, 1), batchSizes);
+    }
+
+    @Test(expected = IOException.class)
+    public void failedBatch() throws Exception {
+        HBaseBatchWriter writer = new HBaseBatchWriter(batch -> {
+            throw new IOException("Boom");
+        }, 1, Long.MAX_VALUE, 1, (k, v) -> {});
+        writer.write(Collections.singletonList(append(1)));
+        writer.close();
+    }
+
+    private static Append append(int row) {
+        Append append = new Append(Bytes.toBytes(row));
+        append.add(CF, Bytes.toBytes("1"), Bytes.toBytes(row));
+        return append;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 16/04/2018.
+ */
+public class RowKeyCodecTest {
+
+    private static byte[] variantKey(String chr, int pos, String ref, String alt) {
+        byte[] key = Bytes.add(RowKeyCodec.buildRegionKey(chr, pos), Bytes.toBytes(ref));
+        if (alt.isEmpty()) {
+            return key;
+        }
+        return Bytes.add(Bytes.add(key, new byte[]{RowKeyCodec.SEPARATOR}), Bytes.toBytes(alt));
+    }
+
+    @Test
+    public void regionKey() throws Exception {
+        RowKeyCodec codec = new RowKeyCodec();
+        byte[] key = codec.regionKey("22", 1234);
+        assertArrayEquals(Bytes.add(Bytes.toBytes("22"), Bytes.add(new byte[]{0}, Bytes.toBytes(1234))), key);
+        assertArrayEquals(key, RowKeyCodec.buildRegionKey("22", 1234));
+        assertArrayEquals(RowKeyCodec.buildRegionKey("X", 5), codec.regionKey("X", 5));
+
+        RowKeyCodec.View view = new RowKeyCodec.View().wrap(key);
+        assertEquals("22", view.getChromosome());
+        assertEquals(1234, view.getPosition());
+        assertEquals(0, view.getReferenceLength());
+        assertEquals(0, view.getAlternateLength());
+    }
+
+    @Test
+    public void view() throws Exception {
+        RowKeyCodec.View view = new RowKeyCodec.View();
+        view.wrap(variantKey("1", 100, "A", "T"));
+        assertEquals("1", view.getChromosome());
+        assertEquals(100, view.getPosition());
+        assertEquals("A", view.getReference());
+        assertEquals("T", view.getAlternate());
+
+        String chr = view.getChromosome();
+        view.wrap(variantKey("1", 101, "AG", ""));
+        assertSame(chr, view.getChromosome());
+        assertEquals("AG", view.getReference());
+        assertEquals("", view.getAlternate());
+        view.wrap(variantKey("2", 101, "AG", ""));
+        assertEquals("2", view.getChromosome());
+
+        Variant variant = view.wrap(variantKey("3", 7, "", "TT")).toVariant();
+        assertEquals("3", variant.getChromosome());
+        assertEquals(Integer.valueOf(7), variant.getStart());
+        assertEquals("TT", variant.getAlternate());
+        assertEquals(VariantType.INSERTION, variant.getType());
+    }
+
+    @Test
+    public void type() throws Exception {
+        String[][] alleles = {{"", "."}, {".", "."}, {"A", "T"}, {"AGG", "TCC"}, {"", "T"}, {".", "T"}, {"A", ""},
+                {"A", "."}, {"AG", "T"}, {"A", "TC"}};
+        RowKeyCodec.View view = new RowKeyCodec.View();
+        for (String[] a : alleles) {
+            view.wrap(variantKey("1", 10, a[0], a[1]));
+            assertEquals(a[0] + ":" + a[1], VariantHbaseUtil.inferType(a[0], a[1]), view.getType());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void typeSymbolic() throws Exception {
+        new RowKeyCodec.View().wrap(variantKey("1", 10, "A", "<CNV>")).getType();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 13/04/2018.
+ */
+public class ArchiveColumnFiltersTest {
+
+    @Test
+    public void ranges() throws Exception {
+        List<int[]> ranges = ArchiveColumnFilters.ranges(Arrays.asList(12, 5, 8, 9, 10, 11, 6, 7, 99, 100, 101, 7));
+        assertEquals(4, ranges.size());
+        assertArrayEquals(new int[]{5, 9}, ranges.get(0));
+        assertArrayEquals(new int[]{10, 12}, ranges.get(1));
+        assertArrayEquals(new int[]{99, 99}, ranges.get(2));
+        assertArrayEquals(new int[]{100, 101}, ranges.get(3));
+    }
+
+    @Test
+    public void cover() throws Exception {
+        List<int[]> ranges = ArchiveColumnFilters.ranges(Arrays.asList(1, 3, 4, 10, 20, 21, 30, 99, 100));
+        List<int[]> cover = ArchiveColumnFilters.cover(ranges, 4);
+        assertEquals(4, cover.size());
+        assertArrayEquals(new int[]{1, 4}, cover.get(0));
+        assertArrayEquals(new int[]{10, 30}, cover.get(1));
+        assertArrayEquals(new int[]{99, 99}, cover.get(2));
+        assertArrayEquals(new int[]{100, 100}, cover.get(3)); // different number of digits
+        assertEquals(3, ArchiveColumnFilters.cover(ranges, 1).size());
+    }
+
+    @Test
+    public void onlyBatchColumns() throws Exception {
+        byte[] family = Bytes.toBytes("0");
+        Set<Integer> batch = new HashSet<>(Arrays.asList(1, 17, 150, 1001, 1999, 2000));
+        List<int[]> cover = ArchiveColumnFilters.cover(ArchiveColumnFilters.ranges(batch), 2);
+        BitSet bitSet = ArchiveColumnFilters.toBitSet(batch);
+        List<Integer> counted = new ArrayList<>();
+        for (int id = 0; id <= 2100; ++id) {
+            int fileId = id;
+            if (cover.stream().noneMatch(r -> r[0] <= fileId && fileId <= r[1])) {
+                continue; // not returned by the region server
+            }
+            Cell cell = new KeyValue(Bytes.toBytes("row"), family, Bytes.toBytes(Integer.toString(id)), new byte[0]);
+            if (ArchiveColumnFilters.isBatchColumn(cell, bitSet)) {
+                counted.add(id);
+            }
+        }
+        assertEquals(Arrays.asList(1, 17, 150, 1001, 1999, 2000), counted);
+        assertFalse(ArchiveColumnFilters.isBatchColumn(
+                new KeyValue(Bytes.toBytes("row"), family, Bytes.toBytes("017"), new byte[0]), bitSet));
+        assertFalse(ArchiveColumnFilters.isBatchColumn(
+                new KeyValue(Bytes.toBytes("row"), family, Bytes.toBytes("_V"), new byte[0]), bitSet));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by mh719 on 19/04/2018.
+ */
+public class GvcfIngestDriverTest {
+    private Map<String, Integer> fileNames;
+    private Map<Integer, LinkedHashSet<Integer>> samplesInFiles;
+    private Map<String, List<Integer>> files;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        fileNames = new HashMap<>();
+        fileNames.put("a.g.vcf.gz", 1);
+        fileNames.put("b.g.vcf.gz", 2);
+        samplesInFiles = new HashMap<>();
+        samplesInFiles.put(1, new LinkedHashSet<>(Arrays.asList(12, 11)));
+        samplesInFiles.put(2, new LinkedHashSet<>(Collections.singletonList(13)));
+        files = new LinkedHashMap<>();
+        files.put("hdfs:///data/a.g.vcf.gz", Arrays.asList(12, 11));
+        files.put("/local/b.g.vcf.gz", Collections.singletonList(13));
+    }
+
+    @Test
+    public void checkManifest() throws Exception {
+        GvcfIngestDriver.checkManifest(files, Arrays.asList(1, 2), fileNames, samplesInFiles);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkManifestMissingFile() throws Exception {
+        files.remove("/local/b.g.vcf.gz");
+        GvcfIngestDriver.checkManifest(files, Arrays.asList(1, 2), fileNames, samplesInFiles);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkManifestOtherFile() throws Exception {
+        GvcfIngestDriver.checkManifest(files, Collections.singletonList(1), fileNames, samplesInFiles);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkManifestSampleOrder() throws Exception {
+        files.put("hdfs:///data/a.g.vcf.gz", Arrays.asList(11, 12));
+        GvcfIngestDriver.checkManifest(files, Arrays.asList(1, 2), fileNames, samplesInFiles);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkManifestSameFileTwice() throws Exception {
+        files.put("/other/a.g.vcf.gz", Arrays.asList(12, 11));
+        GvcfIngestDriver.checkManifest(files, Arrays.asList(1, 2), fileNames, samplesInFiles);
+    }
+
+    @Test
+    public void buildBatchId() throws Exception {
+        List<Map<String, List<Integer>>> groups = GvcfIngestDriver.buildGroups(files, 1);
+        assertEquals(2, groups.size());
+        assertEquals(-11, GvcfIngestDriver.buildBatchId(groups.get(0)));
+        assertEquals(-13, GvcfIngestDriver.buildBatchId(groups.get(1)));
+    }
+
+    @Test
+    public void isIndexed() throws Exception {
+        String tabix = folder.newFile("a.g.vcf.gz").getAbsolutePath();
+        folder.newFile("a.g.vcf.gz.tbi");
+        String csi = folder.newFile("b.g.vcf.gz").getAbsolutePath();
+        folder.newFile("b.g.vcf.gz.csi");
+        String plain = folder.newFile("c.g.vcf.gz").getAbsolutePath();
+        Configuration conf = new Configuration();
+        assertTrue(GvcfIngestDriver.isIndexed(conf, Arrays.asList(tabix, csi)));
+        assertFalse(GvcfIngestDriver.isIndexed(conf, Arrays.asList(tabix, plain)));
+    }
+}
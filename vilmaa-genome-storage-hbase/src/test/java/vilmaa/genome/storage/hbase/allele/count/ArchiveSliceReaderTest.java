@@ -0,0 +1,189 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import com.google.common.collect.HashBiMap;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveResultToVariantConverter;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionCalculator;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStore;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reading archive slices directly has to give the same counts as the Variant path.
+ * Created by mh719 on 19/04/2018.
+ */
+public class ArchiveSliceReaderTest {
+    private static final int STUDY_ID = 1;
+    private static final int SLICE_POSITION = 100;
+    private static final byte[] COLUMN_FAMILY = Bytes.toBytes(GenomeHelper.DEFAULT_COLUMN_FAMILY);
+    private static final String[] FORMATS = {"GT:DP:AD", "GT:DP", "GT", "DP:GT"};
+    private static final String[] GTS = {"0/1", "0/0", "1/2", "1/1"};
+
+    private StudyConfiguration studyConfiguration;
+
+    @Before
+    public void setUp() throws Exception {
+        studyConfiguration = new StudyConfiguration(STUDY_ID, "1");
+        HashBiMap<String, Integer> samples = HashBiMap.create();
+        samples.put("S1", 11);
+        samples.put("S2", 21);
+        samples.put("S3", 22);
+        studyConfiguration.setSampleIds(samples);
+        studyConfiguration.getFileIds().put("single.vcf", 1);
+        studyConfiguration.getFileIds().put("multi.vcf", 2);
+        studyConfiguration.getSamplesInFiles().put(1, new LinkedHashSet<>(Collections.singletonList(11)));
+        studyConfiguration.getSamplesInFiles().put(2, new LinkedHashSet<>(Arrays.asList(21, 22)));
+        studyConfiguration.getIndexedFiles().addAll(Arrays.asList(1, 2));
+    }
+
+    @Test
+    public void snv() throws Exception {
+        // relative end 0: record ends at its start, not at the slice position
+        assertSameCounts(cell(1, record(10, 0, "A", "T", VcfSliceProtos.VariantType.SNV, 0, 0,
+                sample(0, "12", "6,6"))));
+    }
+
+    @Test
+    public void referenceBlock() throws Exception {
+        assertSameCounts(cell(1, record(11, 20, "C", "", VcfSliceProtos.VariantType.NO_VARIATION, 1, 0,
+                sample(1, "20"))));
+    }
+
+    @Test
+    public void multiAllelic() throws Exception {
+        VcfSliceProtos.VcfRecord.Builder record = record(25, 0, "G", "C", VcfSliceProtos.VariantType.SNV, 0, 1,
+                sample(2, "15", "1,7,7"));
+        record.addSecondaryAlternates(VcfSliceProtos.AlternateCoordinate.newBuilder()
+                .setReference("G").setAlternate("A").setType(VcfSliceProtos.VariantType.SNV));
+        assertSameCounts(cell(1, record));
+    }
+
+    @Test
+    public void missingDepth() throws Exception {
+        assertSameCounts(cell(1, record(30, 0, "T", "G", VcfSliceProtos.VariantType.SNV, 2, 0, sample(3))));
+    }
+
+    @Test
+    public void genotypeNotFirst() throws Exception {
+        VcfSliceProtos.VcfSample sample = VcfSliceProtos.VcfSample.newBuilder()
+                .addSampleValues("9").addSampleValues("0/1").build();
+        assertSameCounts(cell(1, record(35, 0, "A", "C", VcfSliceProtos.VariantType.SNV, 3, 0, sample)));
+    }
+
+    @Test
+    public void multiSample() throws Exception {
+        assertSameCounts(
+                cell(1, record(10, 0, "A", "T", VcfSliceProtos.VariantType.SNV, 1, 0, sample(3, "7"))),
+                cell(2,
+                        record(1, 9, "C", "", VcfSliceProtos.VariantType.NO_VARIATION, 1, 0,
+                                sample(1, "30"), sample(1, "31")),
+                        record(10, 0, "A", "T", VcfSliceProtos.VariantType.SNV, 1, 0,
+                                sample(0, "8"), sample(1, "11")),
+                        record(11, 20, "C", "", VcfSliceProtos.VariantType.NO_VARIATION, 1, 1,
+                                sample(1, "25"), sample(1, "3"))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sampleCountMismatch() throws Exception {
+        ArchiveSliceReader reader = new ArchiveSliceReader(
+                ArchiveSliceReader.buildFileSampleIds(studyConfiguration.getSamplesInFiles()));
+        AlleleRegionCalculator calculator = new AlleleRegionCalculator(String.valueOf(STUDY_ID),
+                studyConfiguration.getSampleIds(), SLICE_POSITION, SLICE_POSITION + 99);
+        // file 2 has two samples
+        reader.read(cell(2, record(10, 0, "A", "T", VcfSliceProtos.VariantType.SNV, 1, 0, sample(0, "8"))),
+                calculator::addRecord);
+    }
+
+    private void assertSameCounts(Cell... cells) {
+        Map<String, Integer> sampleIds = studyConfiguration.getSampleIds();
+        HbaseTableMapper mapper = new HbaseTableMapper();
+        ArchiveResultToVariantConverter resultConverter =
+                new ArchiveResultToVariantConverter(STUDY_ID, COLUMN_FAMILY, studyConfiguration);
+        resultConverter.setParallel(false);
+        AlleleRegionCalculator variantPath = new AlleleRegionCalculator(String.valueOf(STUDY_ID), sampleIds,
+                SLICE_POSITION, SLICE_POSITION + 99);
+        ArchiveSliceReader reader = new ArchiveSliceReader(
+                ArchiveSliceReader.buildFileSampleIds(studyConfiguration.getSamplesInFiles()));
+        AlleleRegionCalculator directPath = new AlleleRegionCalculator(String.valueOf(STUDY_ID), sampleIds,
+                SLICE_POSITION, SLICE_POSITION + 99);
+        for (Cell cell : cells) {
+            mapper.convertCell(resultConverter, cell, String.valueOf(STUDY_ID)).forEach(variantPath::addVariant);
+            assertTrue(reader.read(cell, directPath::addRecord));
+        }
+        assertEquals(describe(variantPath.getStore()), describe(directPath.getStore()));
+    }
+
+    private static Map<String, Set<Integer>> describe(AlleleRegionStore store) {
+        Map<String, Set<Integer>> map = new TreeMap<>();
+        store.getAll(region -> {
+            AlleleInfo info = region.getData();
+            String key = region.getStart() + "-" + region.getEnd() + ":" + info.getType() + ":" + info.getCount()
+                    + ":" + info.getDepth() + ":" + info.isPass() + ":" + store.getDictionary().getIdString(info);
+            map.computeIfAbsent(key, k -> new TreeSet<>()).addAll(info.getSampleIds());
+        });
+        return map;
+    }
+
+    private static Cell cell(int fileId, VcfSliceProtos.VcfRecord.Builder... records) {
+        VcfSliceProtos.VcfSlice.Builder slice = VcfSliceProtos.VcfSlice.newBuilder()
+                .setChromosome("1")
+                .setPosition(SLICE_POSITION)
+                .setFields(VcfSliceProtos.Fields.newBuilder()
+                        .addFilters("PASS").addFilters("LowQual")
+                        .addInfoKeys("")
+                        .addAllFormats(Arrays.asList(FORMATS))
+                        .addAllGts(Arrays.asList(GTS)));
+        for (VcfSliceProtos.VcfRecord.Builder record : records) {
+            slice.addRecords(record);
+        }
+        return new KeyValue(GenomeHelper.generateVariantRowKey("1", SLICE_POSITION), COLUMN_FAMILY,
+                Bytes.toBytes(String.valueOf(fileId)), slice.build().toByteArray());
+    }
+
+    private static VcfSliceProtos.VcfRecord.Builder record(int relativeStart, int relativeEnd, String reference,
+                                                           String alternate, VcfSliceProtos.VariantType type,
+                                                           int formatIndex, int filterIndex,
+                                                           VcfSliceProtos.VcfSample... samples) {
+        return VcfSliceProtos.VcfRecord.newBuilder()
+                .setRelativeStart(relativeStart)
+                .setRelativeEnd(relativeEnd)
+                .setReference(reference)
+                .setAlternate(alternate)
+                .setType(type)
+                .setFormatIndex(formatIndex)
+                .setFilterIndex(filterIndex)
+                .addAllSamples(Arrays.asList(samples));
+    }
+
+    private static VcfSliceProtos.VcfSample sample(int gtIndex, String... values) {
+        return VcfSliceProtos.VcfSample.newBuilder().setGtIndex(gtIndex)
+                .addAllSampleValues(Arrays.asList(values)).build();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import com.google.common.collect.HashBiMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos;
+import org.opencb.biodata.tools.variant.converters.proto.VariantToVcfSliceConverter;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveResultToVariantConverter;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionCalculator;
+import vilmaa.genome.storage.hbase.allele.count.region.AlleleRegionStore;
+import vilmaa.genome.storage.hbase.allele.count.region.DirtyRegions;
+import vilmaa.genome.storage.hbase.allele.count.region.RegionSizes;
+
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Created by mh719 on 19/04/2018.
+ */
+public class GvcfIngestMapperTest {
+    private static final int STUDY_ID = 1;
+    private static final int SLICE_SIZE = 100;
+    private static final byte[] COLUMN_FAMILY = Bytes.toBytes(GenomeHelper.DEFAULT_COLUMN_FAMILY);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, Integer> sampleIds;
+    private List<String> samples;
+
+    @Before
+    public void setUp() throws Exception {
+        sampleIds = new HashMap<>();
+        sampleIds.put("S1", 11);
+        sampleIds.put("S2", 12);
+        samples = Arrays.asList("S1", "S2");
+    }
+
+    private static class TestMapper extends GvcfIngestMapper {
+        private final Map<Integer, DirtyRegions> dirty = new HashMap<>();
+
+        @Override
+        protected RegionSizes loadRegionSizes(Configuration conf, byte[] family) {
+            return new RegionSizes(SLICE_SIZE);
+        }
+
+        @Override
+        protected void writeDirtyRegions(int loadId, DirtyRegions dirtyRegions) {
+            dirty.put(loadId, dirtyRegions);
+        }
+
+        @Override
+        protected void incrementCounter(String name, long value) {
+            // no counters
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Mapper<LongWritable, Text, ImmutableBytesWritable, Mutation>.Context context(boolean dirty) {
+        Configuration conf = new Configuration();
+        conf.setInt(GenomeHelper.CONFIG_STUDY_ID, STUDY_ID);
+        conf.setInt(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_INGEST_SLICE_SIZE, SLICE_SIZE);
+        conf.setBoolean(HbaseTableMapper.VILMAA_GENOME_STORAGE_ALLELE_COUNT_DIRTY, dirty);
+        Mapper<LongWritable, Text, ImmutableBytesWritable, Mutation>.Context context = mock(Mapper.Context.class);
+        when(context.getConfiguration()).thenReturn(conf);
+        return context;
+    }
+
+    @Test
+    public void parseFile() throws Exception {
+        Map<String, List<Integer>> files = new LinkedHashMap<>();
+        GvcfIngestMapper.parseFile("/data/a.g.vcf.gz\t3,1,2", files);
+        assertEquals(Collections.singletonMap("/data/a.g.vcf.gz", Arrays.asList(3, 1, 2)), files);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parseFileTwice() throws Exception {
+        Map<String, List<Integer>> files = new LinkedHashMap<>();
+        GvcfIngestMapper.parseFile("/data/a.g.vcf.gz\t1", files);
+        GvcfIngestMapper.parseFile("/data/a.g.vcf.gz\t2", files);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parseFileWithoutSamples() throws Exception {
+        GvcfIngestMapper.parseFile("/data/a.g.vcf.gz", new LinkedHashMap<>());
+    }
+
+    @Test
+    public void taskRoundTrip() throws Exception {
+        Map<String, List<Integer>> files = new LinkedHashMap<>();
+        files.put("/data/a.g.vcf.gz", Arrays.asList(11, 12));
+        files.put("/data/b.g.vcf.gz", Collections.singletonList(13));
+        List<Object> ingested = new ArrayList<>();
+        GvcfIngestMapper mapper = new GvcfIngestMapper() {
+            @Override
+            protected void ingest(List<String> chromosomes, int batchId, Map<String, List<Integer>> taskFiles) {
+                ingested.addAll(Arrays.asList(chromosomes, batchId, taskFiles));
+            }
+        };
+        mapper.map(new LongWritable(0), new Text(GvcfIngestMapper.buildTask(Arrays.asList("X", "Y"), -11, files)),
+                null);
+        assertEquals(Arrays.asList(Arrays.asList("X", "Y"), -11, files), ingested);
+    }
+
+    @Test
+    public void addSamples() throws Exception {
+        Map<String, Integer> sampleNameToSampleId = new HashMap<>();
+        GvcfIngestMapper.addSamples("a", Arrays.asList("S1", "S2"), Arrays.asList(11, 12), sampleNameToSampleId);
+        GvcfIngestMapper.addSamples("b", Collections.singletonList("S3"), Collections.singletonList(13),
+                sampleNameToSampleId);
+        assertEquals(Integer.valueOf(12), sampleNameToSampleId.get("S2"));
+        assertEquals(Integer.valueOf(13), sampleNameToSampleId.get("S3"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addSamplesCountMismatch() throws Exception {
+        GvcfIngestMapper.addSamples("a", Arrays.asList("S1", "S2"), Collections.singletonList(11), new HashMap<>());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addSamplesTwice() throws Exception {
+        Map<String, Integer> sampleNameToSampleId = new HashMap<>();
+        GvcfIngestMapper.addSamples("a", Collections.singletonList("S1"), Collections.singletonList(11),
+                sampleNameToSampleId);
+        GvcfIngestMapper.addSamples("b", Collections.singletonList("S1"), Collections.singletonList(12),
+                sampleNameToSampleId);
+    }
+
+    @Test
+    public void ingestDirty() throws Exception {
+        Path path = GvcfReaderTest.write(folder.newFile("a.g.vcf.gz"), GvcfReaderTest.GVCF);
+        Mapper<LongWritable, Text, ImmutableBytesWritable, Mutation>.Context context = context(true);
+        TestMapper mapper = new TestMapper();
+        mapper.setup(context);
+        mapper.ingest(Arrays.asList("1", "2"), -11, Collections.singletonMap(path.toString(), Arrays.asList(11, 12)));
+        verify(context, atLeastOnce()).write(any(), any());
+        List<int[]> ranges = mapper.dirty.get(-11).getRanges().get("1");
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new int[]{0, SLICE_SIZE}, ranges.get(0));
+        assertEquals(1, mapper.dirty.get(-11).getRanges().get("2").size());
+    }
+
+    @Test
+    public void sameCountsAsArchive() throws Exception {
+        Path path = GvcfReaderTest.write(folder.newFile("a.g.vcf.gz"), GvcfReaderTest.GVCF);
+        List<Variant> variants = new ArrayList<>();
+        try (GvcfReader reader = GvcfReader.open(new Configuration(), path, String.valueOf(STUDY_ID), "1")) {
+            reader.forEachRemaining(variants::add);
+        }
+        TestMapper mapper = new TestMapper();
+        mapper.setup(context(false));
+        AlleleRegionStore ingest = mapper.count(0, SLICE_SIZE, variants, sampleIds, samples);
+
+        StudyConfiguration studyConfiguration = new StudyConfiguration(STUDY_ID, String.valueOf(STUDY_ID));
+        studyConfiguration.setSampleIds(HashBiMap.create(sampleIds));
+        studyConfiguration.getFileIds().put(path.getName(), 1);
+        studyConfiguration.getSamplesInFiles().put(1, new LinkedHashSet<>(Arrays.asList(11, 12)));
+        studyConfiguration.getIndexedFiles().add(1);
+        VcfSliceProtos.VcfSlice slice = new VariantToVcfSliceConverter().convert(variants, 0);
+        Cell cell = new KeyValue(GenomeHelper.generateVariantRowKey("1", 0), COLUMN_FAMILY, Bytes.toBytes("1"),
+                slice.toByteArray());
+        ArchiveResultToVariantConverter resultConverter =
+                new ArchiveResultToVariantConverter(STUDY_ID, COLUMN_FAMILY, studyConfiguration);
+        resultConverter.setParallel(false);
+        AlleleRegionCalculator archive =
+                new AlleleRegionCalculator(String.valueOf(STUDY_ID), sampleIds, 0, SLICE_SIZE - 1);
+        new HbaseTableMapper().convertCell(resultConverter, cell, String.valueOf(STUDY_ID))
+                .forEach(archive::addVariant);
+        archive.fillNoCalls(samples, 0, SLICE_SIZE);
+        archive.onlyLeaveSparseRepresentation(0, SLICE_SIZE, false, false);
+
+        assertEquals(describe(archive.getStore()), describe(ingest));
+    }
+
+    private static Map<String, Set<Integer>> describe(AlleleRegionStore store) {
+        Map<String, Set<Integer>> map = new TreeMap<>();
+        store.getAll(region -> {
+            AlleleInfo info = region.getData();
+            String key = region.getStart() + "-" + region.getEnd() + ":" + info.getType() + ":" + info.getCount()
+                    + ":" + info.getDepth() + ":" + info.isPass() + ":" + store.getDictionary().getIdString(info);
+            map.computeIfAbsent(key, k -> new TreeSet<>()).addAll(info.getSampleIds());
+        });
+        return map;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.util.LittleEndianOutputStream;
+import htsjdk.variant.vcf.VCFCodec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by mh719 on 19/04/2018.
+ */
+public class GvcfReaderTest {
+    static final String[] GVCF = {
+            "##fileformat=VCFv4.2",
+            "##contig=<ID=1,length=1000>",
+            "##contig=<ID=2,length=1000>",
+            "##INFO=<ID=END,Number=1,Type=Integer,Description=\"End position\">",
+            "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">",
+            "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read depth\">",
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2",
+            "1\t10\t.\tA\t.\t.\tPASS\tEND=19\tGT:DP\t0/0:20\t0/0:15",
+            "1\t20\t.\tA\tT\t.\tPASS\t.\tGT:DP\t0/1:12\t0/0:10",
+            "1\t21\t.\tCAG\tC\t.\tPASS\t.\tGT:DP\t1/1:8\t0/1:9",
+            "1\t30\t.\tG\tC,T\t.\tPASS\t.\tGT:DP\t1/2:14\t./.:.",
+            "1\t40\t.\tA\t.\t.\tPASS\tEND=60\tGT:DP\t0/0:30\t0/0:25",
+            "2\t10\t.\tA\tT\t.\tPASS\t.\tGT:DP\t0/1:12\t0/1:10",
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @param file target file - bgzipped if the name ends with <code>.gz</code>.
+     * @param lines lines of the file.
+     * @return path of the file.
+     * @throws IOException if the file can't be written.
+     */
+    static Path write(File file, String... lines) throws IOException {
+        try (OutputStream out = file.getName().endsWith(".gz")
+                ? new BlockCompressedOutputStream(file) : new FileOutputStream(file)) {
+            for (String line : lines) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return new Path(file.getAbsolutePath());
+    }
+
+    /**
+     * @param path bgzipped file.
+     * @return path of the tabix index.
+     * @throws IOException if the index can't be written.
+     */
+    static Path index(Path path) throws IOException {
+        File file = new File(path.toUri().getPath());
+        TabixIndex index = IndexFactory.createTabixIndex(file, new VCFCodec(), TabixFormat.VCF, null);
+        String indexFile = file.getPath() + GvcfIndex.TABIX_SUFFIX;
+        try (LittleEndianOutputStream out = new LittleEndianOutputStream(new BlockCompressedOutputStream(indexFile))) {
+            index.write(out);
+        }
+        return new Path(indexFile);
+    }
+
+    private List<Variant> read(Path path, String chromosome, int records) throws IOException {
+        List<Variant> variants = new ArrayList<>();
+        try (GvcfReader reader = GvcfReader.open(new Configuration(), path, "1", chromosome)) {
+            reader.forEachRemaining(variants::add);
+            assertEquals(records, reader.getRecords());
+        }
+        return variants;
+    }
+
+    @Test
+    public void header() throws Exception {
+        try (GvcfReader reader = GvcfReader.open(new Configuration(), write(folder.newFile("a.g.vcf"), GVCF), "1",
+                "1")) {
+            assertEquals(Arrays.asList("S1", "S2"), reader.getSampleNames());
+            assertEquals(Arrays.asList("1", "2"), reader.getContigs());
+        }
+    }
+
+    @Test
+    public void chromosomeFilter() throws Exception {
+        Path path = write(folder.newFile("a.g.vcf"), GVCF);
+        List<Variant> variants = read(path, "1", 5);
+        assertFalse(variants.isEmpty());
+        variants.forEach(v -> assertEquals("1", v.getChromosome()));
+        assertEquals(1, read(path, "2", 1).size());
+        assertTrue(read(path, "3", 0).isEmpty());
+    }
+
+    @Test
+    public void sortedByFrom() throws Exception {
+        List<Variant> variants = read(write(folder.newFile("a.g.vcf"), GVCF), "1", 5);
+        for (int i = 1; i < variants.size(); ++i) {
+            assertTrue(GvcfSlicer.from(variants.get(i - 1)) <= GvcfSlicer.from(variants.get(i)));
+        }
+        // deletion trimmed by normalization
+        assertEquals(22, variants.get(2).getStart().intValue());
+        assertEquals(23, variants.get(2).getEnd().intValue());
+    }
+
+    @Test
+    public void bgzipped() throws Exception {
+        List<Variant> plain = read(write(folder.newFile("a.g.vcf"), GVCF), "1", 5);
+        List<Variant> compressed = read(write(folder.newFile("a.g.vcf.gz"), GVCF), "1", 5);
+        assertEquals(plain.toString(), compressed.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unsorted() throws Exception {
+        String[] lines = Arrays.copyOf(GVCF, 9);
+        lines[8] = "1\t5\t.\tA\tT\t.\tPASS\t.\tGT:DP\t0/1:12\t0/0:10";
+        read(write(folder.newFile("a.g.vcf"), lines), "1", 2);
+    }
+
+    @Test
+    public void indexStarts() throws Exception {
+        Path path = write(folder.newFile("a.g.vcf.gz"), GVCF);
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        assertNull(GvcfIndex.find(fs, path));
+        Path indexPath = index(path);
+        assertEquals(indexPath, GvcfIndex.find(fs, path));
+        GvcfIndex index = GvcfIndex.read(fs, indexPath);
+        assertTrue(index.getStart("1") > 0);
+        assertTrue(index.getStart("2") > index.getStart("1"));
+        assertEquals(-1, index.getStart("3"));
+    }
+
+    @Test
+    public void indexed() throws Exception {
+        List<Variant> plain = read(write(folder.newFile("a.g.vcf"), GVCF), "2", 1);
+        Path path = write(folder.newFile("a.g.vcf.gz"), GVCF);
+        index(path);
+        try (GvcfReader reader = GvcfReader.open(new Configuration(), path, "1", "2")) {
+            assertTrue(reader.isIndexed());
+        }
+        assertEquals(plain.toString(), read(path, "2", 1).toString());
+        assertEquals(5, read(path, "1", 5).size());
+        assertTrue(read(path, "3", 0).isEmpty());
+    }
+
+    @Test
+    public void csiIndexed() throws Exception {
+        List<Variant> plain = read(write(folder.newFile("a.g.vcf"), GVCF), "2", 1);
+        Path path = write(folder.newFile("a.g.vcf.gz"), GVCF);
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Path tabix = index(path);
+        GvcfIndex index = GvcfIndex.read(fs, tabix);
+        fs.delete(tabix, false);
+        writeCsi(new File(path.toUri().getPath() + GvcfIndex.CSI_SUFFIX), index, "1", "2");
+        assertEquals(plain.toString(), read(path, "2", 1).toString());
+        assertEquals(5, read(path, "1", 5).size());
+    }
+
+    /**
+     * Minimal CSI index with one chunk per contig starting at the offset of the given index.
+     */
+    private static void writeCsi(File file, GvcfIndex index, String... contigs) throws IOException {
+        byte[] names = (String.join("\0", contigs) + "\0").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[]{'C', 'S', 'I', 1}).putInt(14).putInt(5).putInt(28 + names.length);
+        buffer.putInt(2).putInt(1).putInt(2).putInt(0).putInt('#').putInt(0).putInt(names.length).put(names);
+        buffer.putInt(contigs.length);
+        for (String contig : contigs) {
+            long start = index.getStart(contig);
+            // one bin with one chunk
+            buffer.putInt(1).putInt(0).putLong(start).putInt(1).putLong(start).putLong(start + 1);
+        }
+        try (OutputStream out = new BlockCompressedOutputStream(file)) {
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    @Test
+    public void onePass() throws Exception {
+        Path path = write(folder.newFile("a.g.vcf"), GVCF);
+        List<Variant> variants = new ArrayList<>();
+        try (GvcfReader reader = GvcfReader.open(new Configuration(), path, "1", "1")) {
+            assertFalse(reader.isIndexed());
+            reader.forEachRemaining(variants::add);
+            reader.moveTo("2");
+            reader.forEachRemaining(variants::add);
+            reader.moveTo("3");
+            assertFalse(reader.hasNext());
+            assertEquals(6, reader.getRecords());
+        }
+        List<Variant> expected = new ArrayList<>(read(path, "1", 5));
+        expected.addAll(read(path, "2", 1));
+        assertEquals(expected.toString(), variants.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void onePassOutOfOrder() throws Exception {
+        try (GvcfReader reader = GvcfReader.open(new Configuration(), write(folder.newFile("a.g.vcf"), GVCF), "1",
+                "2")) {
+            reader.forEachRemaining(v -> { });
+            reader.moveTo("1");
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void moveToUnfinished() throws Exception {
+        try (GvcfReader reader = GvcfReader.open(new Configuration(), write(folder.newFile("a.g.vcf"), GVCF), "1",
+                "1")) {
+            reader.next();
+            reader.moveTo("2");
+        }
+    }
+}
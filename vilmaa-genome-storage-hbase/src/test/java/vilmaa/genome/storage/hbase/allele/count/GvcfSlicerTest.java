@@ -0,0 +1,75 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 18/04/2018.
+ */
+public class GvcfSlicerTest {
+
+    private List<String> slice(int sliceSize, Variant... variants) throws Exception {
+        List<String> slices = new ArrayList<>();
+        new GvcfSlicer(sliceSize).slice("1", Arrays.asList(variants).iterator(), (chr, start, nextStart, lst) ->
+                slices.add(start + "-" + nextStart + ":" + lst.stream().map(v -> v.getStart().toString())
+                        .collect(Collectors.joining(","))));
+        return slices;
+    }
+
+    @Test
+    public void sliceAligned() throws Exception {
+        List<String> slices = slice(100,
+                new Variant("1", 5, 5, "A", "T"),
+                new Variant("1", 99, 99, "A", "T"),
+                new Variant("1", 150, 150, "A", "T"));
+        assertEquals(Arrays.asList("0-100:5,99", "100-200:150"), slices);
+    }
+
+    @Test
+    public void skipEmptySlices() throws Exception {
+        List<String> slices = slice(100,
+                new Variant("1", 10, 10, "A", "T"),
+                new Variant("1", 1050, 1050, "A", "T"));
+        assertEquals(Arrays.asList("0-100:10", "1000-1100:1050"), slices);
+    }
+
+    @Test
+    public void spanningBlock() throws Exception {
+        List<String> slices = slice(100,
+                new Variant("1", 50, 250, "N", ""),
+                new Variant("1", 120, 120, "A", "T"),
+                new Variant("1", 251, 251, "A", "T"));
+        assertEquals(Arrays.asList("0-100:50", "100-200:50,120", "200-300:50,251"), slices);
+    }
+
+    @Test
+    public void insertionAtBoundary() throws Exception {
+        // insertion between 99 and 100 - start after end
+        List<String> slices = slice(100, new Variant("1", 100, 99, "", "AT"));
+        assertEquals(Arrays.asList("0-100:100", "100-200:100"), slices);
+    }
+}
@@ -176,7 +176,7 @@ public class HbaseTableLocalTest {
 //        AlleleRegionStoreToHBaseAppendConverter toConv = new AlleleRegionStoreToHBaseAppendConverter(helper.getColumnFamily(), helper.getStudyId());
 //        HBaseToAlleleRegionStoreConverter fromConv = new HBaseToAlleleRegionStoreConverter(helper, toConv.getRegionSize());
 //        Collection<Append> convert = toConv.convert(chr, regionCalculator.getStore());
-//        AlleleRegionStore newStore = new AlleleRegionStore(regionCalculator.getStore().getTargetRegion());
+//        AlleleRegionStore newStore = new ObjectAlleleRegionStore(regionCalculator.getStore().getTargetRegion());
 //        convert.forEach(a -> {
 //            Result result = Result.create(a.getFamilyCellMap().get(helper.getColumnFamily()));
 //            fromConv.convert(newStore, result);
@@ -17,6 +17,13 @@
 
 package vilmaa.genome.storage.hbase.allele.count;
 
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 //import com.google.common.collect.BiMap;
 //import AlleleCountToHBaseAppendGroupedConverter;
 //import HBaseAppendGroupedToAlleleCountConverter;
@@ -479,4 +486,33 @@ public class HbaseTableMapperTest {
 //    }
 
 
-}
\ No newline at end of file
+    @Test
+    public void splitRange() throws Exception {
+        assertEquals(1, HbaseTableMapper.splitRange(1000, 2000, 100, 5000, 0).size()); // no budget
+        assertEquals(1, HbaseTableMapper.splitRange(1000, 2000, 100, 1000, 1000).size()); // within budget
+        assertEquals(1, HbaseTableMapper.splitRange(1000, 1100, 100, 5000, 1000).size()); // single region
+        for (long estimate : new long[]{1001, 2500, 7000, 1000000}) {
+            List<int[]> ranges = HbaseTableMapper.splitRange(1000, 2000, 100, estimate, 1000);
+            assertTrue(ranges.size() > 1);
+            assertTrue(ranges.size() <= 10);
+            int next = 1000;
+            for (int[] range : ranges) {
+                assertEquals(next, range[0]); // no gap or overlap
+                assertEquals(0, (range[0] - 1000) % 100); // aligned to the region size
+                assertTrue(range[1] > range[0]);
+                next = range[1];
+            }
+            assertEquals(2000, next);
+        }
+        assertEquals(10, HbaseTableMapper.splitRange(1000, 2000, 100, 1000000, 1000).size());
+        assertEquals(3, HbaseTableMapper.splitRange(1000, 2000, 100, 2500, 1000).size());
+    }
+
+    @Test
+    public void estimateMemory() throws Exception {
+        assertEquals((800 / 8 + 10) * 160, HbaseTableMapper.estimateMemory(800, 10, false));
+        assertEquals((800 / 8 + 10) * 40, HbaseTableMapper.estimateMemory(800, 10, true));
+        assertEquals(0, HbaseTableMapper.estimateMemory(0, 0, false));
+        assertTrue(HbaseTableMapper.estimateMemory(800, 10, false) > HbaseTableMapper.estimateMemory(400, 10, false));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count;
+
+import com.google.common.collect.HashBiMap;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by mh719 on 14/04/2018.
+ */
+public class SampleIndexTest {
+
+    @Test
+    public void index() throws Exception {
+        SampleIndex index = SampleIndex.of(Arrays.asList(40, 3, 17, 3));
+        assertEquals(3, index.size());
+        assertEquals(1, index.index(3));
+        assertEquals(-1, index.index(4));
+        assertEquals(-1, index.index(400));
+        assertEquals(17, index.sampleId(2));
+        assertArrayEquals(new int[]{1, 3}, index.range(Arrays.asList(17, 3)));
+        assertNull(index.range(Arrays.asList(40, 17)));
+
+        SampleIndex extended = index.extend(Arrays.asList(5, 17, 40));
+        assertEquals("40,3,17,5", extended.toString());
+        assertEquals(1, extended.index(3));
+    }
+
+    @Test
+    public void update() throws Exception {
+        StudyConfiguration sc = new StudyConfiguration(1, "1");
+        HashBiMap<String, Integer> samples = HashBiMap.create();
+        for (int i = 1; i <= 6; ++i) {
+            samples.put("S" + i, i * 10);
+        }
+        sc.setSampleIds(samples);
+        sc.getCohortIds().put(StudyEntry.DEFAULT_COHORT, 1);
+        sc.getCohortIds().put("case", 2);
+        sc.getCohorts().put(1, new HashSet<>(samples.values()));
+        sc.getCohorts().put(2, new HashSet<>(Arrays.asList(50, 20)));
+
+        assertTrue(SampleIndex.update(sc));
+        assertEquals("20,50,10,30,40,60", SampleIndex.load(sc).toString());
+        assertFalse(SampleIndex.update(sc));
+
+        sc.getSampleIds().put("S7", 5);
+        sc.getCohorts().put(3, new HashSet<>(Arrays.asList(5, 30)));
+        assertTrue(SampleIndex.update(sc));
+        SampleIndex index = SampleIndex.load(sc);
+        assertEquals("20,50,10,30,40,60,5", index.toString()); // existing indexes kept
+        assertArrayEquals(new int[]{0, 2}, index.range(sc.getCohorts().get(2)));
+    }
+}
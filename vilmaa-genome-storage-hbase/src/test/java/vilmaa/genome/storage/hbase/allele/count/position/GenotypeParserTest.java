@@ -0,0 +1,69 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.position;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 07/04/2018.
+ */
+public class GenotypeParserTest {
+
+    @Test
+    public void getAlleleCounts() {
+        assertArrayEquals(new int[]{-1, 1}, GenotypeParser.getAlleleCounts("./."));
+        assertArrayEquals(new int[]{-1, 1}, GenotypeParser.getAlleleCounts(".|.|."));
+        assertArrayEquals(new int[]{0, 2}, GenotypeParser.getAlleleCounts("0/0"));
+        assertArrayEquals(new int[]{0, 1, 1, 1}, GenotypeParser.getAlleleCounts("1|0"));
+        assertArrayEquals(new int[]{1, 1, 12, 1}, GenotypeParser.getAlleleCounts("12/1"));
+        assertArrayEquals(new int[]{2, 1}, GenotypeParser.getAlleleCounts("./2"));
+        assertArrayEquals(new int[]{1, 3}, GenotypeParser.getAlleleCounts("1/1/1"));
+    }
+
+    @Test
+    public void parse() {
+        GenotypeParser parser = new GenotypeParser();
+        assertEquals(2, parser.parse(Arrays.asList("0/2", "30", "10,5,15"), 0, 1, 2));
+        assertEquals(0, parser.getAllele(0));
+        assertEquals(1, parser.getCount(0));
+        assertEquals(10, parser.getDepth(0));
+        assertEquals(2, parser.getAllele(1));
+        assertEquals(15, parser.getDepth(1));
+        assertEquals(1, parser.indexOf(2));
+        assertEquals(-1, parser.indexOf(1));
+
+        // AD missing or too short -> DP
+        assertEquals(1, parser.parse(Arrays.asList("1/1", "30", "10"), 0, 1, 2));
+        assertEquals(2, parser.getCount(0));
+        assertEquals(30, parser.getDepth(0));
+        assertEquals(1, parser.parse(Arrays.asList("./.", "7"), 0, 1, null));
+        assertEquals(-1, parser.getAllele(0));
+        assertEquals(7, parser.getDepth(0));
+        assertEquals(1, parser.parse(Arrays.asList("0/0"), 0, null, null));
+        assertEquals(-1, parser.getDepth(0));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseInvalidDepth() {
+        new GenotypeParser().parse(Arrays.asList("0/0", "."), 0, 1, null);
+    }
+}
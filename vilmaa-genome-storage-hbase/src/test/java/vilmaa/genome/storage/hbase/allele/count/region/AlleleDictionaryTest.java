@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Created by mh719 on 15/04/2018.
+ */
+public class AlleleDictionaryTest {
+
+    @Test
+    public void code() throws Exception {
+        AlleleDictionary dictionary = new AlleleDictionary();
+        int snv = dictionary.code("A", "T");
+        assertEquals(snv, dictionary.code(new String[]{"A", "T"}));
+        assertEquals(snv, dictionary.parse("A_T"));
+        assertEquals("A_T", dictionary.getIdString(snv));
+        assertEquals(AlleleDictionary.REFERENCE, dictionary.parse(""));
+        assertEquals(AlleleDictionary.NO_CALL, dictionary.parse("."));
+        assertEquals(snv + 1, dictionary.code("", "AT"));
+        assertEquals(4, dictionary.size());
+        for (int i = 0; i < 100; ++i) {
+            dictionary.code("A", "T" + i);
+        }
+        assertEquals("_AT", dictionary.getIdString(snv + 1));
+        assertSame(dictionary.getId(snv), dictionary.getId(dictionary.code("A", "T")));
+    }
+
+    @Test
+    public void idString() throws Exception {
+        AlleleDictionary dictionary = new AlleleDictionary();
+        AlleleInfo info = new AlleleInfo(1, 10, 1, AlleleInfo.getReferenceAllele(), VariantType.SNV, true);
+        dictionary.setId(info, dictionary.code("C", "G"));
+        assertSame(dictionary.getIdString(info.getAlleleCode()), dictionary.getIdString(info));
+
+        AlleleDictionary other = new AlleleDictionary();
+        other.code("T", "A");
+        assertEquals("C_G", other.getIdString(info)); // not coded by other dictionary
+        assertEquals("C_G", new AlleleDictionary().getIdString(new AlleleInfo(info)));
+    }
+}
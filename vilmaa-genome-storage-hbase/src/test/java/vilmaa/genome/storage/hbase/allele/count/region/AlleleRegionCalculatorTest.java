@@ -32,6 +32,7 @@ import org.opencb.biodata.tools.variant.merge.VariantMerger;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -185,6 +186,158 @@ public class AlleleRegionCalculatorTest {
 
     }
 
+    @Test
+    public void fillNoCalls() throws Exception {
+        AlleleRegionCalculator calculator = new AlleleRegionCalculator("1", snToSid, 10, 20);
+        calculator.addVariant(varA);
+        calculator.addVariant(varB);
+        calculator.addVariant(varD);
+
+        calculator.fillNoCalls(Arrays.asList("A", "B", "D"), 10, 20);
+
+        Set<String> noCalls = new HashSet<>();
+        calculator.getStore().getNocall(r ->
+                r.getData().getSampleIds().forEach(sid -> noCalls.add(sid + ":" + r.getStart() + "-" + r.getEnd())));
+        assertEquals(new HashSet<>(Arrays.asList("21:10-12", "21:14-19", "51:10-12", "51:16-19")), noCalls);
+    }
+
+    @Test
+    public void mergePartitions() throws Exception {
+        AlleleRegionCalculator serial = new AlleleRegionCalculator("1", snToSid, 10, 20);
+        Arrays.asList(varA, varB, varD, varF).forEach(serial::addVariant);
+        serial.fillNoCalls(Arrays.asList("A", "B", "D", "F"), 10, 20);
+
+        AlleleRegionCalculator first = new AlleleRegionCalculator("1", snToSid, 10, 20);
+        Arrays.asList(varA, varB).forEach(first::addVariant);
+        AlleleRegionCalculator second = new AlleleRegionCalculator("1", snToSid, 10, 20);
+        Arrays.asList(varD, varF).forEach(second::addVariant);
+        AlleleRegionCalculator merged = new AlleleRegionCalculator("1", snToSid, 10, 20);
+        merged.getStore().addAll(first.getStore());
+        merged.getStore().addAll(second.getStore());
+        merged.fillNoCalls(Arrays.asList("A", "B", "D", "F"), 10, 20);
+
+        assertEquals(describe(serial.getStore()), describe(merged.getStore()));
+    }
+
+    @Test
+    public void referenceDepthBands() throws Exception {
+        AlleleRegionCalculator calculator = new AlleleRegionCalculator("1", snToSid, 10, 20);
+        calculator.setReferenceDepthBands(new DepthBands(5, 10));
+        Variant ref = buildVariant("1:9-21:.", "B", "0/0");
+        ref.getStudy("1").setFormat(Arrays.asList(VariantMerger.GT_KEY, "DP"));
+        ref.getStudy("1").setSamplesData(Arrays.asList(Arrays.asList("0/0", "7")));
+        Variant alt = buildVariant("1:13:A:T", "A", "0/1");
+        alt.getStudy("1").setFormat(Arrays.asList(VariantMerger.GT_KEY, "DP"));
+        alt.getStudy("1").setSamplesData(Arrays.asList(Arrays.asList("0/1", "13")));
+        calculator.addVariant(ref);
+        calculator.addVariant(alt);
+
+        List<Integer> refDepth = new ArrayList<>();
+        calculator.getStore().getReference(r -> refDepth.add(r.getData().getDepth()));
+        assertEquals(Arrays.asList(5, 10), refDepth);
+        List<Integer> altDepth = new ArrayList<>();
+        calculator.getStore().getVariation(r -> altDepth.add(r.getData().getDepth()));
+        assertEquals(Arrays.asList(13), altDepth);
+    }
+
+    @Test
+    public void carryOver() throws Exception {
+        ReferenceCarryOver carryOver = new ReferenceCarryOver();
+        List<List<String>> expected = new ArrayList<>();
+        List<List<String>> actual = new ArrayList<>();
+        for (ReferenceCarryOver co : Arrays.asList(null, carryOver)) {
+            Region<AlleleInfo> previous = null;
+            for (int start = 10; start < 40; start += 10) {
+                if (null != co) {
+                    co.advance("1", start);
+                }
+                AlleleRegionCalculator calculator = new AlleleRegionCalculator("1", snToSid, start, start + 9);
+                calculator.setCarryOver(co);
+                Variant ref = buildVariant("1:15-36:.", "B", "0/0");
+                ref.setType(VariantType.NO_VARIATION);
+                calculator.addVariant(ref);
+                calculator.addVariant(buildVariant("1:" + (start + 3) + ":A:T", "A", "0/1"));
+                Region<AlleleInfo> current = calculator.getStore()
+                        .getReference(new PointRegion(null, start + 5)).get(0);
+                if (null != co && null != previous) {
+                    assertSame(previous, current);
+                }
+                previous = current;
+                (null == co ? expected : actual).add(describe(calculator.getStore()));
+            }
+        }
+        assertEquals(expected, actual);
+        assertEquals(1, carryOver.advance("1", 40)); // reused by the last slice
+        assertEquals(0, carryOver.advance("2", 10));
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        for (AlleleRegionStore store : Arrays.asList(new ObjectAlleleRegionStore(10, 30), new ColumnarAlleleRegionStore(10, 30))) {
+            store.add(refRegion(10, 12, 21, 5));
+            store.add(refRegion(13, 15, 21, 5));
+            store.add(refRegion(16, 18, 21, 7)); // different depth
+            store.add(refRegion(19, 20, 21, 7));
+            store.add(refRegion(14, 17, 31, 5));
+            store.add(refRegion(16, 20, 31, 5)); // overlap
+            store.add(refRegion(22, 21, 31, 5)); // insertion
+            store.add(refRegion(22, 25, 31, 5));
+            store.add(new RegionImpl<>(new AlleleInfo(1, 0, 41, AlleleInfo.getNoCallAllele(), VariantType.NO_VARIATION, true), 21, 25));
+            store.add(new RegionImpl<>(new AlleleInfo(1, 0, 41, AlleleInfo.getNoCallAllele(), VariantType.NO_VARIATION, true), 26, 30));
+
+            assertEquals(3, store.coalesce());
+            assertEquals(Arrays.asList("10-15:21:5", "16-20:21:7", "14-17:31:5", "16-20:31:5", "22-21:31:5", "22-25:31:5"),
+                    describeReference(store));
+            assertEquals(Arrays.asList("21-30:41:0"), describeNoCall(store));
+            assertEquals(2, store.getReference(new PointRegion(null, 16)).stream()
+                    .filter(r -> r.getData().getSampleIds().contains(31)).count());
+            assertEquals(0, store.coalesce());
+        }
+    }
+
+    @Test
+    public void primitiveAdd() throws Exception {
+        for (AlleleRegionStore store : Arrays.asList(new ObjectAlleleRegionStore(10, 30), new ColumnarAlleleRegionStore(10, 30))) {
+            store.add(10, 12, 2, 5, 21, AlleleInfo.getReferenceAllele(), VariantType.NO_VARIATION, true);
+            store.add(1, 9, 2, 5, 21, AlleleInfo.getReferenceAllele(), VariantType.NO_VARIATION, true); // outside
+            store.add(21, 25, 1, 0, 41, AlleleInfo.getNoCallAllele(), VariantType.NO_VARIATION, false);
+            store.add(22, 21, 1, 3, 31, new String[]{"", "A"}, VariantType.INSERTION, true);
+
+            assertEquals(Arrays.asList("10-12:21:5"), describeReference(store));
+            assertEquals(Arrays.asList("21-25:41:0"), describeNoCall(store));
+            List<String> rows = new ArrayList<>();
+            store.forEachVariation(new PointRegion(null, 22), (start, end, pass, type, count, depth, id, sampleId) ->
+                    rows.add(start + "-" + end + ":" + id + ":" + type + ":" + count + ":" + sampleId));
+            assertEquals(Arrays.asList("22-21:_A:INSERTION:1:31"), rows);
+        }
+    }
+
+    private static Region<AlleleInfo> refRegion(int start, int end, int sampleId, int depth) {
+        return new RegionImpl<>(new AlleleInfo(2, depth, sampleId, AlleleInfo.getReferenceAllele(),
+                VariantType.NO_VARIATION, true), start, end);
+    }
+
+    private static List<String> describeReference(AlleleRegionStore store) {
+        List<String> lst = new ArrayList<>();
+        store.getReference(r -> lst.add(r.getStart() + "-" + r.getEnd() + ":" + r.getData().getSampleIds().iterator().next()
+                + ":" + r.getData().getDepth()));
+        return lst;
+    }
+
+    private static List<String> describeNoCall(AlleleRegionStore store) {
+        List<String> lst = new ArrayList<>();
+        store.getNocall(r -> lst.add(r.getStart() + "-" + r.getEnd() + ":" + r.getData().getSampleIds().iterator().next()
+                + ":" + r.getData().getDepth()));
+        return lst;
+    }
+
+    private static List<String> describe(AlleleRegionStore store) {
+        List<String> lst = new ArrayList<>();
+        store.getAll(r -> lst.add(r.getStart() + "-" + r.getEnd() + ":" + r.getData().getIdString()
+                + ":" + r.getData().getSampleIds()));
+        return lst;
+    }
+
     private Variant buildVariant(String str, String name, String gt) {
         Variant var = new Variant(str);
         StudyEntry se = new StudyEntry("1");
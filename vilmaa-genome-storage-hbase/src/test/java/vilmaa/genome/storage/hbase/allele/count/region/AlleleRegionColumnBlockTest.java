@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.Region;
+import vilmaa.genome.util.RegionImpl;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 19/04/2018.
+ */
+public class AlleleRegionColumnBlockTest {
+
+    private static List<Region<AlleleInfo>> regions() {
+        return Arrays.asList(
+                new RegionImpl<>(new AlleleInfo(2, 10, Arrays.asList(22, 23), AlleleInfo.getReferenceAllele(),
+                        VariantType.NO_VARIATION, true), 1090, 1110),
+                new RegionImpl<>(new AlleleInfo(2, 10, 24, AlleleInfo.getReferenceAllele(),
+                        VariantType.NO_VARIATION, true), 1090, 1110),
+                new RegionImpl<>(new AlleleInfo(1, 0, 24, AlleleInfo.getNoCallAllele(),
+                        VariantType.NO_VARIATION, false), 1020, 1030),
+                new RegionImpl<>(new AlleleInfo(1, 12, 22, new String[]{"A", "T"}, VariantType.SNV, true), 1050, 1050),
+                new RegionImpl<>(new AlleleInfo(1, 12, 23, new String[]{"A", "T"}, VariantType.SNV, true), 1050, 1050),
+                new RegionImpl<>(new AlleleInfo(2, 7, 22, new String[]{"A", "G"}, VariantType.SNV, false), 1050, 1050),
+                new RegionImpl<>(new AlleleInfo(2, 12, 23, new String[]{"", "TT"}, VariantType.INSERTION, true), 1080, 1079),
+                new RegionImpl<>(new AlleleInfo(1, 8, 24, new String[]{"ACG", ""}, VariantType.DELETION, true), 998, 1000));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        AlleleRegionStore store = new ObjectAlleleRegionStore(1000, 1099);
+        store.addAll(regions());
+        byte[] block = AlleleRegionColumnBlock.encode(store.getTargetRegion(), store);
+
+        AlleleRegionStore decoded = new ObjectAlleleRegionStore(1000, 1099);
+        AlleleRegionColumnBlock.decode(decoded, 1000, block);
+        Set<String> expected = rows(store);
+        expected.remove(row(1090, 1110, true, VariantType.NO_VARIATION, 2, 10, "", 22));
+        expected.remove(row(1090, 1110, true, VariantType.NO_VARIATION, 2, 10, "", 23));
+        expected.remove(row(1090, 1110, true, VariantType.NO_VARIATION, 2, 10, "", 24));
+        expected.add(row(1090, 1099, true, VariantType.NO_VARIATION, 2, 10, "", 22)); // cut to the row
+        expected.add(row(1090, 1099, true, VariantType.NO_VARIATION, 2, 10, "", 23));
+        expected.add(row(1090, 1099, true, VariantType.NO_VARIATION, 2, 10, "", 24));
+        assertEquals(expected, rows(decoded));
+        assertEquals(1, decoded.getReference(decoded.getTargetRegion()).size()); // identical entries merged
+        assertEquals(2, decoded.getVariation(new RegionImpl<>(null, 1050, 1050)).size());
+    }
+
+    @Test
+    public void skipLeadingVariation() throws Exception {
+        AlleleRegionStore store = new ObjectAlleleRegionStore(1000, 1099);
+        store.addAll(regions());
+        byte[] block = AlleleRegionColumnBlock.encode(store.getTargetRegion(), store);
+
+        AlleleRegionStore row = new ObjectAlleleRegionStore(1000, 1099);
+        AlleleRegionColumnBlock.decode(row, 1000, block);
+        assertEquals(1, row.getVariation(new RegionImpl<>(null, 998, 999)).size());
+
+        AlleleRegionStore spanning = new ObjectAlleleRegionStore(900, 1099);
+        AlleleRegionColumnBlock.decode(spanning, 1000, block);
+        assertEquals(0, spanning.getVariation(new RegionImpl<>(null, 998, 999)).size());
+    }
+
+    @Test
+    public void emptyRow() throws Exception {
+        AlleleRegionStore store = new ObjectAlleleRegionStore(1000, 1099);
+        byte[] block = AlleleRegionColumnBlock.encode(store.getTargetRegion(), store);
+        assertEquals(4, block.length); // version, entries, alleles and sample lists
+        AlleleRegionStore decoded = new ObjectAlleleRegionStore(1000, 1099);
+        AlleleRegionColumnBlock.decode(decoded, 1000, block);
+        assertTrue(rows(decoded).isEmpty());
+    }
+
+    private static String row(Object... values) {
+        return StringUtils.join(values, ":");
+    }
+
+    private static Set<String> rows(AlleleRegionStore store) {
+        Set<String> rows = new HashSet<>();
+        AlleleRowConsumer consumer = (start, end, pass, type, count, depth, id, sampleId) -> {
+            if (sampleId != AlleleRegionStore.NO_SAMPLE) {
+                rows.add(row(start, end, pass, type, count, depth, id, sampleId));
+            }
+        };
+        store.forEachReference(store.getTargetRegion(), consumer);
+        store.forEachNocall(store.getTargetRegion(), consumer);
+        store.forEachVariation(store.getTargetRegion(), consumer);
+        return rows;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.Region;
+import vilmaa.genome.util.RegionImpl;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.avro.VariantType;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 16/04/2018.
+ */
+public class AlleleRegionCompactorTest {
+
+    protected static final byte[] COLUMN_FAMILY = {1};
+    protected GenomeHelper gh = new GenomeHelper(new Configuration());
+    protected AlleleRegionStoreToHBaseAppendConverter from = new AlleleRegionStoreToHBaseAppendConverter(COLUMN_FAMILY, 1);
+    protected HBaseToAlleleRegionStoreConverter to = new HBaseToAlleleRegionStoreConverter
+            (COLUMN_FAMILY, 1, from.getRegionSize(), b -> gh.extractVariantFromVariantRowKey(b));
+    protected AlleleRegionCompactor compactor = new AlleleRegionCompactor(to, from);
+
+    @Before
+    public void setUp() throws Exception {
+        from.setRegionSize(10);
+        to.setRegionSize(10);
+    }
+
+    private static AlleleRegionStore store(int sampleId, int snvPosition) {
+        AlleleRegionStore store = new ObjectAlleleRegionStore(10, 19);
+        store.add(new RegionImpl<>(new AlleleInfo(1, 10, sampleId, new String[]{"A", "T"}, VariantType.SNV, true),
+                snvPosition, snvPosition));
+        store.add(new RegionImpl<>(new AlleleInfo(2, 10, sampleId, AlleleInfo.getReferenceAllele(),
+                VariantType.NO_VARIATION, true), 13, 19));
+        return store;
+    }
+
+    private Cell appended(AlleleRegionStore... stores) {
+        Cell cell = null;
+        byte[] value = new byte[0];
+        for (AlleleRegionStore store : stores) {
+            Append append = from.convert("x", store).iterator().next();
+            cell = append.getFamilyCellMap().get(COLUMN_FAMILY).get(0);
+            value = Bytes.add(value, CellUtil.cloneValue(cell));
+        }
+        return new KeyValue(CellUtil.cloneRow(cell), COLUMN_FAMILY, to.getColumnName(), value);
+    }
+
+    @Test
+    public void compact() throws Exception {
+        List<Cell> cells = new ArrayList<>();
+        cells.add(appended(store(22, 12), store(23, 12), store(22, 12))); // last one replayed
+        cells.addAll(from.convertToPuts("x", store(24, 15), 5).iterator().next().getFamilyCellMap().get(COLUMN_FAMILY));
+        Result row = Result.create(cells);
+        assertFalse(compactor.isCanonical(row));
+        assertEquals(4, compactor.countMessages(row));
+
+        byte[] merged = compactor.compact(row);
+        assertEquals(1, AlleleRegionCompactor.countMessages(merged));
+        Result compacted = Result.create(Collections.singletonList(
+                new KeyValue(row.getRow(), COLUMN_FAMILY, to.getColumnName(), merged)));
+        assertTrue(compactor.isCanonical(compacted));
+
+        AlleleRegionStore before = to.convert(row);
+        AlleleRegionStore after = to.convert(compacted);
+        assertEquals(rows(before), rows(after));
+
+        List<Region<AlleleInfo>> variation = after.getVariation(after.getTargetRegion());
+        assertEquals(2, variation.size());
+        assertEquals(new HashSet<>(Arrays.asList(22, 23)), new HashSet<>(variation.get(0).getData().getSampleIds()));
+        List<Region<AlleleInfo>> reference = after.getReference(after.getTargetRegion());
+        assertEquals(1, reference.size());
+        assertEquals(3, reference.get(0).getData().getSampleIds().size());
+    }
+
+    @Test
+    public void canonical() throws Exception {
+        assertTrue(compactor.isCanonical(Result.create(Collections.singletonList(appended(store(22, 12))))));
+        assertFalse(compactor.isCanonical(Result.create(new ArrayList<>(
+                from.convertToPuts("x", store(22, 12), 1).iterator().next().getFamilyCellMap().get(COLUMN_FAMILY)))));
+    }
+
+    private Set<String> rows(AlleleRegionStore store) {
+        Set<String> rows = new HashSet<>();
+        AlleleRowConsumer consumer = (start, end, pass, type, count, depth, id, sampleId) -> {
+            if (sampleId != AlleleRegionStore.NO_SAMPLE) {
+                rows.add(StringUtils.join(Arrays.asList(start, end, pass, type, count, depth, id, sampleId), ":"));
+            }
+        };
+        store.forEachReference(store.getTargetRegion(), consumer);
+        store.forEachNocall(store.getTargetRegion(), consumer);
+        store.forEachVariation(store.getTargetRegion(), consumer);
+        return rows;
+    }
+}
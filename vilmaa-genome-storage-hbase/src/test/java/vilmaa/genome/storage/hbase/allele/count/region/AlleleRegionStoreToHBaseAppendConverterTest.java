@@ -22,7 +22,10 @@ import vilmaa.genome.util.Region;
 import vilmaa.genome.util.RegionImpl;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.junit.Test;
 import org.opencb.biodata.models.variant.avro.VariantType;
@@ -60,7 +63,7 @@ public class AlleleRegionStoreToHBaseAppendConverterTest {
         int end = start + length - 1;
         from.setRegionSize(2);
         to.setRegionSize(2);
-        AlleleRegionStore store = new AlleleRegionStore(10, 19);
+        AlleleRegionStore store = new ObjectAlleleRegionStore(10, 19);
         VariantType vtype = length == 1? VariantType.SNV : VariantType.MNV;
         String[] alleles = {StringUtils.repeat('A', length ), StringUtils.repeat('T', length )};
         AlleleInfo info = new AlleleInfo(1, 123, 22, alleles, vtype, true);
@@ -106,7 +109,7 @@ public class AlleleRegionStoreToHBaseAppendConverterTest {
         int end = start - 1;
         from.setRegionSize(2);
         to.setRegionSize(2);
-        AlleleRegionStore store = new AlleleRegionStore(10, 19);
+        AlleleRegionStore store = new ObjectAlleleRegionStore(10, 19);
         VariantType vtype = VariantType.INSERTION;
         String[] alleles = {"", StringUtils.repeat('A', length )};
         AlleleInfo info = new AlleleInfo(1, 123, 22, alleles, vtype, true);
@@ -164,7 +167,7 @@ public class AlleleRegionStoreToHBaseAppendConverterTest {
     private void testDeletion(int delStart, int delEnd, boolean included) {
         from.setRegionSize(2);
         to.setRegionSize(2);
-        AlleleRegionStore store = new AlleleRegionStore(10, 19);
+        AlleleRegionStore store = new ObjectAlleleRegionStore(10, 19);
         VariantType vtype = VariantType.DELETION;
         String[] alleles = {StringUtils.repeat('A', delEnd - delStart + 1),""};
         AlleleInfo info = new AlleleInfo(1, 123, 22, alleles, vtype, true);
@@ -203,7 +206,7 @@ public class AlleleRegionStoreToHBaseAppendConverterTest {
 
     public void testRegionType(String[] alleles) {
 
-        AlleleRegionStore store = new AlleleRegionStore(1000, 1999);
+        AlleleRegionStore store = new ObjectAlleleRegionStore(1000, 1999);
         VariantType vtype = VariantType.NO_VARIATION;
         AlleleInfo info = new AlleleInfo(1, 123, 22, alleles, vtype, true);
         RegionImpl<AlleleInfo> region = new RegionImpl<>(info, 1090, 1110);
@@ -254,7 +257,7 @@ public class AlleleRegionStoreToHBaseAppendConverterTest {
 
     public void testRegionTypePos(int start, int end, String[] alleles) {
 
-        AlleleRegionStore store = new AlleleRegionStore(10, 19);
+        AlleleRegionStore store = new ObjectAlleleRegionStore(10, 19);
         VariantType vtype = VariantType.NO_VARIATION;
         AlleleInfo info = new AlleleInfo(1, 123, 22, alleles, vtype, true);
         RegionImpl<AlleleInfo> region = new RegionImpl<>(info, start, end);
@@ -286,8 +289,92 @@ public class AlleleRegionStoreToHBaseAppendConverterTest {
         refB.forEach(r -> assertEquals(vtype, r.getData().getType()));
     }
 
+    @Test
+    public void convertColumnar() throws Exception {
+        AlleleRegionStore store = new ObjectAlleleRegionStore(1000, 1999);
+        AlleleRegionStore columnar = new ColumnarAlleleRegionStore(1000, 1999);
+        List<Region<AlleleInfo>> regions = Arrays.asList(
+                new RegionImpl<>(new AlleleInfo(2, 10, Arrays.asList(22, 23), AlleleInfo.getReferenceAllele(),
+                        VariantType.NO_VARIATION, true), 1090, 1110),
+                new RegionImpl<>(new AlleleInfo(1, 0, 24, AlleleInfo.getNoCallAllele(),
+                        VariantType.NO_VARIATION, false), 995, 1005),
+                new RegionImpl<>(new AlleleInfo(1, 12, 22, new String[]{"A", "T"}, VariantType.SNV, true), 1111, 1111),
+                new RegionImpl<>(new AlleleInfo(2, 12, 23, new String[]{"", "TT"}, VariantType.INSERTION, true), 1200, 1199),
+                new RegionImpl<>(new AlleleInfo(1, 8, 24, new String[]{"AC", ""}, VariantType.DELETION, false), 1099, 1100));
+        store.addAll(regions);
+        columnar.addAll(regions);
+
+        assertEquals(rows(store), rows(columnar));
+        assertEquals(rows(process(store)), rows(process(columnar)));
+    }
+
+    @Test
+    public void convertBatchPuts() throws Exception {
+        from.setRegionSize(10);
+        to.setRegionSize(10);
+        AlleleRegionStore first = new ObjectAlleleRegionStore(10, 19);
+        first.add(new RegionImpl<>(new AlleleInfo(1, 10, 22, new String[]{"A", "T"}, VariantType.SNV, true), 12, 12));
+        first.add(new RegionImpl<>(new AlleleInfo(2, 10, 22, AlleleInfo.getReferenceAllele(), VariantType.NO_VARIATION, true), 13, 19));
+        AlleleRegionStore second = new ObjectAlleleRegionStore(10, 19);
+        second.add(new RegionImpl<>(new AlleleInfo(1, 7, 23, new String[]{"A", "T"}, VariantType.SNV, false), 12, 12));
+
+        Put put = from.convertToPuts("x", first, 1).iterator().next();
+        Put replay = from.convertToPuts("x", first, 1).iterator().next();
+        Cell cell = put.getFamilyCellMap().get(COLUMN_FAMILY).get(0);
+        Cell replayCell = replay.getFamilyCellMap().get(COLUMN_FAMILY).get(0);
+        assertArrayEquals(CellUtil.cloneQualifier(cell), CellUtil.cloneQualifier(replayCell));
+        assertArrayEquals(CellUtil.cloneValue(cell), CellUtil.cloneValue(replayCell));
+
+        List<Cell> cells = new ArrayList<>();
+        cells.add(cell);
+        from.convertToPuts("x", second, 2).forEach(p -> cells.addAll(p.getFamilyCellMap().get(COLUMN_FAMILY)));
+        AlleleRegionStore newStore = new ObjectAlleleRegionStore(10, 19);
+        to.convert(newStore, Result.create(cells));
+
+        Set<String> expected = rows(first);
+        expected.addAll(rows(second));
+        assertEquals(expected, rows(newStore));
+    }
+
+    @Test
+    public void convertMixedEncodings() throws Exception {
+        from.setRegionSize(10);
+        to.setRegionSize(10);
+        AlleleRegionStore first = new ObjectAlleleRegionStore(10, 19);
+        first.add(new RegionImpl<>(new AlleleInfo(1, 10, 22, new String[]{"A", "T"}, VariantType.SNV, true), 12, 12));
+        first.add(new RegionImpl<>(new AlleleInfo(2, 10, 22, AlleleInfo.getReferenceAllele(), VariantType.NO_VARIATION, true), 13, 19));
+        AlleleRegionStore second = new ObjectAlleleRegionStore(10, 19);
+        second.add(new RegionImpl<>(new AlleleInfo(1, 7, 23, new String[]{"A", "T"}, VariantType.SNV, false), 12, 12));
+        second.add(new RegionImpl<>(new AlleleInfo(0, 0, 23, AlleleInfo.getNoCallAllele(), VariantType.NO_VARIATION, false), 13, 19));
+
+        List<Cell> cells = new ArrayList<>();
+        from.setEncoding(AlleleRegionStoreToHBaseAppendConverter.ENCODING_V1);
+        from.convertToPuts("x", first, 1).forEach(p -> cells.addAll(p.getFamilyCellMap().get(COLUMN_FAMILY)));
+        from.setEncoding(AlleleRegionStoreToHBaseAppendConverter.ENCODING_V2);
+        from.convertToPuts("x", second, 2).forEach(p -> cells.addAll(p.getFamilyCellMap().get(COLUMN_FAMILY)));
+        AlleleRegionStore newStore = new ObjectAlleleRegionStore(10, 19);
+        to.convert(newStore, Result.create(cells));
+
+        Set<String> expected = rows(first);
+        expected.addAll(rows(second));
+        assertEquals(expected, rows(newStore));
+    }
+
+    private Set<String> rows(AlleleRegionStore store) {
+        Set<String> rows = new HashSet<>();
+        AlleleRowConsumer consumer = (start, end, pass, type, count, depth, id, sampleId) -> {
+            if (sampleId != AlleleRegionStore.NO_SAMPLE) {
+                rows.add(StringUtils.join(Arrays.asList(start, end, pass, type, count, depth, id, sampleId), ":"));
+            }
+        };
+        store.forEachReference(store.getTargetRegion(), consumer);
+        store.forEachNocall(store.getTargetRegion(), consumer);
+        store.forEachVariation(store.getTargetRegion(), consumer);
+        return rows;
+    }
+
     private AlleleRegionStore process(AlleleRegionStore store) {
-        AlleleRegionStore newStore = new AlleleRegionStore(store.getTargetRegion());
+        AlleleRegionStore newStore = new ObjectAlleleRegionStore(store.getTargetRegion());
         Collection<Append> x = from.convert("x", store);
         x.forEach( a -> to.convert(newStore, Result.create(a.getFamilyCellMap().get(COLUMN_FAMILY))));
         return newStore;
@@ -0,0 +1,32 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.junit.Before;
+
+/**
+ * Roundtrip of the v1 (nested map) encoding.
+ * Created by mh719 on 19/04/2018.
+ */
+public class AlleleRegionStoreToHBaseAppendConverterV1Test extends AlleleRegionStoreToHBaseAppendConverterTest {
+
+    @Before
+    public void setUp() throws Exception {
+        from.setEncoding(AlleleRegionStoreToHBaseAppendConverter.ENCODING_V1);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created by mh719 on 11/04/2018.
+ */
+public class DepthBandsTest {
+
+    @Test
+    public void band() throws Exception {
+        DepthBands bands = DepthBands.parse("20, 5,10");
+        assertEquals("5,10,20", bands.toString());
+        assertEquals(-1, bands.band(-1));
+        assertEquals(0, bands.band(0));
+        assertEquals(0, bands.band(4));
+        assertEquals(5, bands.band(5));
+        assertEquals(5, bands.band(9));
+        assertEquals(10, bands.band(19));
+        assertEquals(20, bands.band(20));
+        assertEquals(20, bands.band(1000));
+    }
+
+    @Test
+    public void filterOnBoundary() throws Exception {
+        DepthBands bands = new DepthBands(1, 2, 3, 5, 8, 10, 15, 20, 30, 50);
+        for (int depth = 0; depth < 100; ++depth) {
+            assertEquals(bands.band(depth), bands.band(bands.band(depth)));
+            for (int boundary : new int[]{1, 2, 3, 5, 8, 10, 15, 20, 30, 50}) {
+                assertEquals(depth >= boundary, bands.band(depth) >= boundary);
+            }
+        }
+    }
+
+    @Test
+    public void blank() throws Exception {
+        assertNull(DepthBands.parse(""));
+        assertNull(DepthBands.parse(null));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import vilmaa.genome.storage.hbase.allele.count.AlleleInfo;
+import vilmaa.genome.util.RegionImpl;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 19/04/2018.
+ */
+public class DirtyRegionsTest {
+
+    @Test
+    public void addMergesAdjacentRegions() throws Exception {
+        DirtyRegions dirty = new DirtyRegions();
+        dirty.add("1", 0, 100);
+        dirty.add("1", 100, 200);
+        dirty.add("1", 300, 400);
+        dirty.add("2", 400, 500);
+        List<int[]> ranges = dirty.getRanges().get("1");
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new int[]{0, 200}, ranges.get(0));
+        assertArrayEquals(new int[]{300, 400}, ranges.get(1));
+        assertArrayEquals(new int[]{400, 500}, dirty.getRanges().get("2").get(0));
+    }
+
+    @Test
+    public void addStore() throws Exception {
+        AlleleRegionStore store = new ObjectAlleleRegionStore(100, 499);
+        store.add(new RegionImpl<>(new AlleleInfo(2, 10, 1, new String[0], VariantType.NO_VARIATION, true), 100, 499));
+        store.add(new RegionImpl<>(new AlleleInfo(2, 10, 2, new String[0], VariantType.NO_VARIATION, false), 150, 160));
+        store.add(new RegionImpl<>(new AlleleInfo(1, 10, 2, new String[]{"A", "T"}, VariantType.SNV, true), 250, 250));
+        store.add(new RegionImpl<>(new AlleleInfo(0, 0, 3, new String[]{"."}, VariantType.NO_VARIATION, true), 450, 460));
+
+        DirtyRegions dirty = new DirtyRegions();
+        assertEquals(3, dirty.add("1", store, 100));
+        List<int[]> ranges = dirty.getRanges().get("1");
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new int[]{100, 300}, ranges.get(0));
+        assertArrayEquals(new int[]{400, 500}, ranges.get(1));
+        assertFalse(DirtyRegions.isDirty(store, new RegionImpl<>(null, 300, 399)));
+    }
+
+    @Test
+    public void deletionSpan() throws Exception {
+        AlleleRegionStore store = new ObjectAlleleRegionStore(100, 499);
+        store.add(new RegionImpl<>(new AlleleInfo(1, 10, 2, new String[]{"CGT", ""}, VariantType.DELETION, true), 250, 252));
+        store.add(new RegionImpl<>(new AlleleInfo(1, 10, 2, new String[]{"A", "T"}, VariantType.SNV, true), 300, 300));
+
+        DirtyRegions dirty = new DirtyRegions();
+        assertEquals(2, dirty.add("1", store, 100));
+        assertEquals(2, dirty.getDeletionSpan());
+        List<Put> puts = dirty.toPuts(7, new byte[]{1});
+        assertEquals(2, puts.size()); // one range and the span
+        assertArrayEquals(Bytes.toBytes(-1), puts.get(1).getRow());
+        assertTrue(new DirtyRegions().toPuts(7, new byte[]{1}).isEmpty());
+    }
+}
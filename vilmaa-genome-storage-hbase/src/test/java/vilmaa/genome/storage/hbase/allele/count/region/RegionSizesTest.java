@@ -0,0 +1,124 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.count.region;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Created by mh719 on 12/04/2018.
+ */
+public class RegionSizesTest {
+    private static final byte[] COLUMN_FAMILY = {1};
+
+    @Test
+    public void parse() throws Exception {
+        RegionSizes sizes = RegionSizes.parse("200, 1:100,X:500", 100);
+        assertEquals(200, sizes.getDefaultSize());
+        assertEquals(100, sizes.getRegionSize("1"));
+        assertEquals(500, sizes.getRegionSize("X"));
+        assertEquals(200, sizes.getRegionSize("2"));
+        assertEquals(100, RegionSizes.parse(RegionSizes.AUTO, 100).getDefaultSize());
+        assertEquals(100, RegionSizes.parse("", 100).getDefaultSize());
+    }
+
+    @Test
+    public void autoSize() throws Exception {
+        assertEquals(1000, RegionSizes.autoSize(0, 1000, 1000, 10));
+        assertEquals(500, RegionSizes.autoSize(1, 600, 1000, 10));
+        assertEquals(100, RegionSizes.autoSize(10, 1000, 1000, 10));
+        assertEquals(10, RegionSizes.autoSize(1000, 1000, 1000, 10));
+    }
+
+    @Test
+    public void metaRow() throws Exception {
+        byte[] metaRow = {0};
+        RegionSizes sizes = RegionSizes.parse("200,1:100", 100);
+        Put put = sizes.toPut(metaRow, COLUMN_FAMILY);
+        List<Cell> cells = new ArrayList<>(put.getFamilyCellMap().get(COLUMN_FAMILY));
+        Result result = Result.create(cells);
+
+        assertTrue(RegionSizes.isRecorded(result, COLUMN_FAMILY));
+        RegionSizes read = RegionSizes.fromResult(result, COLUMN_FAMILY, 100);
+        assertEquals(200, read.getDefaultSize());
+        assertEquals(sizes.getRegionSizes(), read.getRegionSizes());
+        assertFalse(RegionSizes.isRecorded(Result.create(new ArrayList<>()), COLUMN_FAMILY));
+    }
+
+    @Test
+    public void hasRows() throws Exception {
+        byte[] metaRow = {0};
+        byte[] column = {1};
+        Result meta = Result.create(Collections.singletonList(new KeyValue(metaRow, COLUMN_FAMILY, column, column)));
+        Result row = Result.create(Collections.singletonList(new KeyValue(column, COLUMN_FAMILY, column, column)));
+
+        assertFalse(RegionSizes.hasRows(table(meta), metaRow));
+        assertFalse(RegionSizes.hasRows(table(), metaRow));
+        assertTrue(RegionSizes.hasRows(table(meta, row), metaRow));
+        assertTrue(RegionSizes.hasRows(table(row), metaRow));
+    }
+
+    @Test
+    public void recordConcurrently() throws Exception {
+        byte[] metaRow = {0};
+        RegionSizes sizes = RegionSizes.parse("200,1:100", 100);
+        Table table = mock(Table.class);
+        when(table.checkAndPut(any(), any(), any(), any(), any())).thenReturn(true);
+        assertSame(sizes, sizes.record(table, metaRow, COLUMN_FAMILY, 100));
+
+        // other writer recorded the default size first
+        Put put = new RegionSizes(100).toPut(metaRow, COLUMN_FAMILY);
+        Result recorded = Result.create(new ArrayList<>(put.getFamilyCellMap().get(COLUMN_FAMILY)));
+        when(table.checkAndPut(any(), any(), any(), any(), any())).thenReturn(false);
+        when(table.get(any(Get.class))).thenReturn(recorded);
+        RegionSizes read = sizes.record(table, metaRow, COLUMN_FAMILY, 100);
+        assertEquals(100, read.getDefaultSize());
+        assertEquals(100, read.getRegionSize("1"));
+        assertTrue(read.getRegionSizes().isEmpty());
+    }
+
+    private static Table table(Result... results) throws Exception {
+        ResultScanner scanner = mock(ResultScanner.class);
+        List<Result> next = new ArrayList<>(Arrays.asList(results));
+        next.add(null);
+        when(scanner.next()).thenReturn(next.get(0), next.subList(1, next.size()).toArray(new Result[0]));
+        Table table = mock(Table.class);
+        when(table.getScanner(any(Scan.class))).thenReturn(scanner);
+        return table;
+    }
+}
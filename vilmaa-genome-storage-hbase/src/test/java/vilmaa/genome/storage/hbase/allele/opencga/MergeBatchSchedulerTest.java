@@ -0,0 +1,66 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.opencga;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 19/04/2018.
+ */
+public class MergeBatchSchedulerTest {
+
+    @Test
+    public void planByMemory() throws Exception {
+        Map<Integer, Long> bytes = new HashMap<>();
+        bytes.put(1, 400L);
+        bytes.put(2, 400L);
+        bytes.put(3, 80L);
+        bytes.put(4, 8000L);
+        Map<Integer, Integer> samples = new HashMap<>();
+        Arrays.asList(1, 2, 3, 4).forEach(f -> samples.put(f, 1));
+        // 100 regions of 160 bytes each
+        MergeBatchScheduler scheduler = new MergeBatchScheduler(100 * 160, 0, false);
+        List<List<Integer>> batches = scheduler.plan(Arrays.asList(1, 2, 3, 4), bytes, samples);
+        assertEquals(Arrays.asList(Collections.singletonList(1), Arrays.asList(2, 3), Collections.singletonList(4)),
+                batches);
+        assertEquals(62 * 160, scheduler.estimateMemory(Arrays.asList(2, 3), bytes, samples));
+    }
+
+    @Test
+    public void planByFiles() throws Exception {
+        MergeBatchScheduler scheduler = new MergeBatchScheduler(0, 2, false);
+        List<List<Integer>> batches = scheduler.plan(Arrays.asList(5, 4, 3, 2, 1), Collections.emptyMap(),
+                Collections.emptyMap());
+        assertEquals(Arrays.asList(Arrays.asList(5, 4), Arrays.asList(3, 2), Collections.singletonList(1)), batches);
+    }
+
+    @Test
+    public void sampleRegions() throws Exception {
+        assertArrayEquals(new int[]{0, 2, 5, 7}, MergeBatchScheduler.sampleRegions(10, 4));
+        assertArrayEquals(new int[]{0, 1, 2}, MergeBatchScheduler.sampleRegions(3, 256));
+        assertArrayEquals(new int[]{0}, MergeBatchScheduler.sampleRegions(1, 256));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.storage.hbase.allele.stats;
+
+import com.google.common.collect.HashBiMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+
+import java.util.*;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by mh719 on 19/04/2018.
+ */
+public class AlleleTableStatsDriverTest {
+    private StudyConfiguration sc;
+
+    @Before
+    public void setUp() throws Exception {
+        sc = new StudyConfiguration(1, "1");
+        HashBiMap<String, Integer> samples = HashBiMap.create();
+        samples.put("S1", 1);
+        samples.put("S2", 2);
+        samples.put("S3", 3);
+        sc.setSampleIds(samples);
+        sc.getFileIds().put("file1", 10);
+        sc.getFileIds().put("file2", 20);
+        sc.getSamplesInFiles().put(10, new LinkedHashSet<>(Arrays.asList(1, 2)));
+        sc.getSamplesInFiles().put(20, new LinkedHashSet<>(Collections.singletonList(3)));
+        sc.getIndexedFiles().add(10);
+        sc.getCohortIds().put(StudyEntry.DEFAULT_COHORT, 1);
+        sc.getCohortIds().put("case", 2);
+        sc.getCohorts().put(1, new HashSet<>(Arrays.asList(1, 2)));
+        sc.getCohorts().put(2, new HashSet<>(Collections.singletonList(2)));
+        sc.getCalculatedStats().addAll(Arrays.asList(1, 2));
+    }
+
+    @Test
+    public void cohortsUnchanged() throws Exception {
+        assertFalse(AlleleTableStatsDriver.cohortsChanged(sc, Collections.emptyList()));
+    }
+
+    @Test
+    public void defaultCohortChanged() throws Exception {
+        sc.getIndexedFiles().add(20); // new samples in the default cohort
+        assertTrue(AlleleTableStatsDriver.cohortsChanged(sc, Collections.emptyList()));
+        assertFalse(AlleleTableStatsDriver.cohortsChanged(sc, Collections.singletonList("case")));
+    }
+
+    @Test
+    public void invalidStats() throws Exception {
+        sc.getCalculatedStats().remove(2);
+        sc.getInvalidStats().add(2);
+        assertTrue(AlleleTableStatsDriver.cohortsChanged(sc, Collections.emptyList()));
+        assertFalse(AlleleTableStatsDriver.cohortsChanged(sc, Collections.singletonList(StudyEntry.DEFAULT_COHORT)));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 03/04/2018.
+ */
+public class CompressedIntSetTest {
+
+    @Test
+    public void addRemove() throws Exception {
+        CompressedIntSet set = new CompressedIntSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(5));
+        assertFalse(set.add(5));
+        assertTrue(set.add(70000));
+        assertTrue(set.add(1));
+        assertEquals(Arrays.asList(1, 5, 70000), new ArrayList<>(set));
+        assertTrue(set.contains(70000));
+        assertFalse(set.contains(6));
+        assertTrue(set.remove(5));
+        assertFalse(set.remove(5));
+        assertEquals(2, set.size());
+        assertEquals(new HashSet<>(Arrays.asList(1, 70000)), set);
+        assertEquals(new HashSet<>(Arrays.asList(1, 70000)).hashCode(), set.hashCode());
+    }
+
+    @Test
+    public void denseContainer() throws Exception {
+        CompressedIntSet set = new CompressedIntSet();
+        for (int i = 0; i < 10000; i += 2) {
+            set.add(i);
+        }
+        assertEquals(5000, set.size());
+        for (int i = 0; i < 10000; i += 2) {
+            assertTrue(set.remove(i));
+        }
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void setOperationsRandom() throws Exception {
+        Random random = new Random(42);
+        for (int run = 0; run < 100; ++run) {
+            int range = random.nextBoolean() ? 200000 : 70000;
+            int n = random.nextInt(random.nextBoolean() ? 100 : 20000);
+            Set<Integer> ea = new TreeSet<>();
+            Set<Integer> eb = new TreeSet<>();
+            CompressedIntSet a = new CompressedIntSet();
+            CompressedIntSet b = new CompressedIntSet();
+            for (int i = 0; i < n; ++i) {
+                int v = random.nextInt(range);
+                ea.add(v);
+                a.add(v);
+                int w = random.nextInt(range);
+                eb.add(w);
+                b.add(w);
+            }
+            for (int i = 0; i < n / 3; ++i) {
+                int v = random.nextInt(range);
+                assertEquals(ea.remove(v), a.remove(v));
+            }
+            check(ea, a);
+
+            Set<Integer> union = new TreeSet<>(ea);
+            union.addAll(eb);
+            check(union, CompressedIntSet.or(a, b));
+
+            Set<Integer> inter = new TreeSet<>(ea);
+            inter.retainAll(eb);
+            check(inter, CompressedIntSet.and(a, b));
+            assertEquals(!inter.isEmpty(), CompressedIntSet.intersects(a, b));
+
+            Set<Integer> diff = new TreeSet<>(ea);
+            diff.removeAll(eb);
+            check(diff, CompressedIntSet.andNot(a, b));
+
+            CompressedIntSet retain = new CompressedIntSet(a);
+            retain.retainAll(eb);
+            check(inter, retain);
+        }
+    }
+
+    private static void check(Set<Integer> expected, CompressedIntSet actual) {
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+        assertEquals(expected.size(), actual.size());
+        List<Integer> arr = new ArrayList<>();
+        for (int v : actual.toIntArray()) {
+            arr.add(v);
+        }
+        assertEquals(new ArrayList<>(expected), arr);
+        assertEquals(new HashSet<>(expected), actual);
+    }
+}
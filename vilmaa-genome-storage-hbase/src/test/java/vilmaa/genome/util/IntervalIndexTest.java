@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 02/04/2018.
+ */
+public class IntervalIndexTest {
+
+    @Test
+    public void queryInInsertionOrder() throws Exception {
+        IntervalIndex index = new IntervalIndex();
+        index.add(100, 200);
+        index.add(10, 20);
+        index.add(150, 150);
+        index.add(201, 300);
+
+        assertEquals(Arrays.asList(0, 2), query(index, 150, 150));
+        assertEquals(Arrays.asList(0, 3), query(index, 200, 201));
+        assertEquals(Arrays.asList(1), query(index, 1, 10));
+        assertEquals(Arrays.asList(), query(index, 21, 99));
+        assertEquals(Arrays.asList(0, 1, 2, 3), query(index, 0, 1000));
+    }
+
+    @Test
+    public void rebuildAfterAdd() throws Exception {
+        IntervalIndex index = new IntervalIndex(1);
+        assertEquals(Arrays.asList(), query(index, 1, 10));
+        index.add(5, 6);
+        assertEquals(Arrays.asList(0), query(index, 1, 10));
+        index.add(1, 1);
+        assertEquals(Arrays.asList(0, 1), query(index, 1, 10));
+    }
+
+    @Test
+    public void queryRandom() throws Exception {
+        Random random = new Random(42);
+        for (int run = 0; run < 100; ++run) {
+            int n = random.nextInt(500);
+            int[] lo = new int[n];
+            int[] hi = new int[n];
+            IntervalIndex index = new IntervalIndex();
+            for (int i = 0; i < n; ++i) {
+                lo[i] = random.nextInt(2000);
+                hi[i] = lo[i] + (random.nextInt(10) == 0 ? random.nextInt(1000) : random.nextInt(5));
+                index.add(lo[i], hi[i]);
+            }
+            for (int q = 0; q < 50; ++q) {
+                int from = random.nextInt(2100);
+                int to = from + random.nextInt(20);
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < n; ++i) {
+                    if (lo[i] <= to && hi[i] >= from) {
+                        expected.add(i);
+                    }
+                }
+                assertEquals(expected, query(index, from, to));
+            }
+        }
+    }
+
+    private static List<Integer> query(IntervalIndex index, int from, int to) {
+        List<Integer> lst = new ArrayList<>();
+        index.query(from, to, lst::add);
+        return lst;
+    }
+}
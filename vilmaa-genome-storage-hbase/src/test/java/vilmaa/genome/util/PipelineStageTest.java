@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 05/04/2018.
+ */
+public class PipelineStageTest {
+
+    @Test
+    public void processInOrder() throws Exception {
+        List<Integer> result = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> second = new PipelineStage<>("second", 2, result::add, v -> {}, v -> {}, v -> {});
+        PipelineStage<Integer> first = new PipelineStage<>("first", 2, i -> second.put(i * 2), v -> {}, v -> {}, v -> {});
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            first.put(i);
+            expected.add(i * 2);
+        }
+        assertEquals(100, first.finish());
+        assertEquals(100, second.finish());
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void failurePropagates() throws Exception {
+        PipelineStage<Integer> stage = new PipelineStage<>("fail", 1, i -> {
+            throw new IllegalStateException("Boom " + i);
+        }, v -> {}, v -> {}, v -> {});
+        try {
+            for (int i = 0; i < 10; ++i) {
+                stage.put(i);
+            }
+            stage.finish();
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("Boom 0", e.getCause().getMessage());
+        }
+    }
+}
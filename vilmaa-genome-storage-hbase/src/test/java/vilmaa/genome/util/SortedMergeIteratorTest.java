@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2018 VILMAA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package vilmaa.genome.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by mh719 on 18/04/2018.
+ */
+public class SortedMergeIteratorTest {
+
+    @Test
+    public void mergeSorted() throws Exception {
+        List<Iterator<Integer>> sources = Arrays.asList(
+                Arrays.asList(1, 4, 4, 9).iterator(),
+                Collections.<Integer>emptyList().iterator(),
+                Arrays.asList(2, 3, 10).iterator(),
+                Arrays.asList(4, 5).iterator());
+        List<Integer> result = new ArrayList<>();
+        new SortedMergeIterator<>(sources, Comparator.<Integer>naturalOrder()).forEachRemaining(result::add);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 4, 4, 5, 9, 10), result);
+    }
+
+    @Test
+    public void equalInSourceOrder() throws Exception {
+        List<Iterator<String>> sources = Arrays.asList(
+                Arrays.asList("b1", "c1").iterator(),
+                Arrays.asList("a2", "b2").iterator());
+        List<String> result = new ArrayList<>();
+        new SortedMergeIterator<>(sources, Comparator.comparing((String s) -> s.charAt(0))).forEachRemaining(result::add);
+        assertEquals(Arrays.asList("a2", "b1", "b2", "c1"), result);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unsortedSource() throws Exception {
+        List<Iterator<Integer>> sources = Collections.singletonList(Arrays.asList(3, 1).iterator());
+        new SortedMergeIterator<>(sources, Comparator.<Integer>naturalOrder()).forEachRemaining(i -> {});
+    }
+}